@@ -24,6 +24,7 @@ package org.jboss.pnc.buildagent.api;
 public class Constants {
     public static final String HTTP_PATH = "/";
     public static final String RUNNING_PROCESSES = "/processes";
+    public static final String OUTPUT_METRICS = "/output-metrics";
     public static final String SOCKET_PATH = "/socket";
     public static final String SERVLET_PATH = "/servlet";
     public static final String TERM_PATH = "/term";
@@ -31,11 +32,16 @@ public class Constants {
 
     public static final String TERM_PATH_SILENT = "/silent";
     public static final String PROCESS_UPDATES_PATH = "/process-status-updates";
+    /**
+     * Read-only viewer of a http invoker session: SOCKET_PATH + SESSION_PATH + "/{sessionId}" [+ TERM_PATH_TEXT]
+     */
+    public static final String SESSION_PATH = "/session";
 
     public static final String HTTP_INVOKER_PATH = "/http-invoker";
     public static final String HTTP_INVOKER_FULL_PATH = SERVLET_PATH + HTTP_INVOKER_PATH;
 
     public static final String FILE_UPLOAD_PATH = SERVLET_PATH + "/upload";
     public static final String FILE_DOWNLOAD_PATH = SERVLET_PATH + "/download";
+    public static final String FILE_JOURNAL_PATH = SERVLET_PATH + "/journal";
 
 }
@@ -26,6 +26,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
@@ -38,6 +40,7 @@ public class TaskStatusUpdateEvent implements Serializable {
   private final String taskId;
   private final Status newStatus;
   private final String outputChecksum;
+  private final Map<String, String> outputChecksums;
   private final String message;
   private final Object context;
 
@@ -51,6 +54,7 @@ public class TaskStatusUpdateEvent implements Serializable {
     this.newStatus = newStatus;
     this.context = context;
     this.outputChecksum = outputChecksum;
+    this.outputChecksums = Collections.emptyMap();
     this.message = "";
   }
 
@@ -61,6 +65,7 @@ public class TaskStatusUpdateEvent implements Serializable {
     this.newStatus = newStatus;
     this.context = context;
     this.outputChecksum = "";
+    this.outputChecksums = Collections.emptyMap();
     this.message = "";
   }
 
@@ -68,6 +73,7 @@ public class TaskStatusUpdateEvent implements Serializable {
     taskId = builder.taskId;
     newStatus = builder.newStatus;
     outputChecksum = builder.outputChecksum;
+    outputChecksums = builder.outputChecksums == null ? Collections.emptyMap() : builder.outputChecksums;
     message = builder.message;
     oldStatus = builder.oldStatus;
     context = builder.context;
@@ -82,6 +88,7 @@ public class TaskStatusUpdateEvent implements Serializable {
     builder.taskId = copy.getTaskId();
     builder.newStatus = copy.getNewStatus();
     builder.outputChecksum = copy.getOutputChecksum();
+    builder.outputChecksums = copy.getOutputChecksums();
     builder.message = copy.getMessage();
     builder.oldStatus = copy.getOldStatus();
     builder.context = copy.getContext();
@@ -109,6 +116,13 @@ public class TaskStatusUpdateEvent implements Serializable {
     return outputChecksum;
   }
 
+  /**
+   * @return hex encoded output digests by algorithm name (eg. MD5, SHA-256)
+   */
+  public Map<String, String> getOutputChecksums() {
+    return outputChecksums;
+  }
+
   public String getMessage() {
     return message;
   }
@@ -132,6 +146,8 @@ public class TaskStatusUpdateEvent implements Serializable {
 
     private String outputChecksum;
 
+    private Map<String, String> outputChecksums;
+
     private String message;
 
     private Status oldStatus;
@@ -156,6 +172,11 @@ public class TaskStatusUpdateEvent implements Serializable {
       return this;
     }
 
+    public Builder outputChecksums(Map<String, String> outputChecksums) {
+      this.outputChecksums = outputChecksums;
+      return this;
+    }
+
     public Builder message(String message) {
       this.message = message;
       return this;
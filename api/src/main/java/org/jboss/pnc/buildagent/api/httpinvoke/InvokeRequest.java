@@ -8,6 +8,7 @@ import org.jboss.pnc.api.dto.Request;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
@@ -24,6 +25,11 @@ public class InvokeRequest {
 
     private final HeartbeatConfig heartbeatConfig;
 
+    /**
+     * Values masked in the command output, eg. the credentials the command gets in the environment.
+     */
+    private final List<String> secrets;
+
     /**
      * @deprecated use {@link InvokeRequest(String, Request )}
      */
@@ -31,6 +37,7 @@ public class InvokeRequest {
     public InvokeRequest(String command, URL callbackUrl, String callbackMethod) {
         this.command = command;
         heartbeatConfig = null;
+        secrets = Collections.emptyList();
         try {
             this.callback = new Request(Request.Method.valueOf(callbackMethod), callbackUrl.toURI(), Collections.emptyList());
         } catch (URISyntaxException e) {
@@ -42,18 +49,21 @@ public class InvokeRequest {
         this.command = command;
         this.callback = callback;
         heartbeatConfig = null;
+        secrets = Collections.emptyList();
     }
 
     public InvokeRequest(String command, Request callback, HeartbeatConfig heartbeatConfig) {
         this.command = command;
         this.callback = callback;
         this.heartbeatConfig = heartbeatConfig;
+        secrets = Collections.emptyList();
     }
 
     private InvokeRequest(Builder builder) {
         command = builder.command;
         callback = builder.callback;
         heartbeatConfig = builder.heartbeatConfig;
+        secrets = builder.secrets == null ? Collections.emptyList() : builder.secrets;
     }
 
     public static Builder builder() {
@@ -72,6 +82,10 @@ public class InvokeRequest {
         return heartbeatConfig;
     }
 
+    public List<String> getSecrets() {
+        return secrets;
+    }
+
     @JsonPOJOBuilder(withPrefix = "")
     public static final class Builder {
 
@@ -81,6 +95,8 @@ public class InvokeRequest {
 
         private HeartbeatConfig heartbeatConfig;
 
+        private List<String> secrets;
+
         private Builder() {
         }
 
@@ -99,6 +115,11 @@ public class InvokeRequest {
             return this;
         }
 
+        public Builder secrets(List<String> secrets) {
+            this.secrets = secrets;
+            return this;
+        }
+
         public InvokeRequest build() {
             return new InvokeRequest(this);
         }
@@ -1,9 +1,21 @@
 package org.jboss.pnc.buildagent.api.logging;
 
+import java.util.Map;
+
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
  */
 public interface LogFormatter {
 
     String format(String message);
+
+    /**
+     * Sets the context added to all the formatted lines. A formatter accepting it does not read the MDC, the caller
+     * can skip installing the MDC before each line.
+     *
+     * @return true when the formatter uses the given context instead of the MDC
+     */
+    default boolean setStaticContext(Map<String, String> context) {
+        return false;
+    }
 }
@@ -0,0 +1,25 @@
+package org.jboss.pnc.buildagent.api.logging;
+
+/**
+ * A formatter taking the timestamp and the sequence number of a line from the caller, so the lines formatted
+ * concurrently keep the values in the order the lines were written. Formatters not implementing it stamp the lines
+ * when they are formatted and are called by one thread in order.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public interface SequencedLogFormatter extends LogFormatter {
+
+    /**
+     * Reserves consecutive sequence numbers for the given number of lines, the numbers continue the ones used by
+     * {@link #format(String)}.
+     *
+     * @return the first reserved number
+     */
+    long reserveSequence(int lines);
+
+    /**
+     * @param timestamp milliseconds since the epoch
+     * @param sequence number reserved by {@link #reserveSequence(int)}
+     */
+    String format(String message, long timestamp, long sequence);
+}
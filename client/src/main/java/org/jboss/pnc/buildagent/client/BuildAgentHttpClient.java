@@ -20,6 +20,7 @@ import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -111,7 +112,7 @@ public class BuildAgentHttpClient extends BuildAgentClientBase implements BuildA
 
     @Override
     public void execute(Object command, long executeTimeout, TimeUnit unit) throws BuildAgentClientException {
-        CompletableFuture<HttpClient.Response> responseFuture =  internalExecuteAsync(command, heartbeatConfig);
+        CompletableFuture<HttpClient.Response> responseFuture =  internalExecuteAsync(command, heartbeatConfig, Collections.emptyList());
 
         HttpClient.Response response;
         try {
@@ -130,7 +131,14 @@ public class BuildAgentHttpClient extends BuildAgentClientBase implements BuildA
 
     @Override
     public CompletableFuture<String> executeAsync(Object command) {
-        return internalExecuteAsync(command, this.heartbeatConfig)
+        return executeAsync(command, Collections.emptyList());
+    }
+
+    /**
+     * @param secrets values masked in the command output, eg. the credentials the command gets in the environment
+     */
+    public CompletableFuture<String> executeAsync(Object command, List<String> secrets) {
+        return internalExecuteAsync(command, this.heartbeatConfig, secrets)
                 .thenApply(response -> {
                     try {
                         logger.debug("Response code: {}, body: {}.", response.getCode(), response.getStringResult());
@@ -144,7 +152,8 @@ public class BuildAgentHttpClient extends BuildAgentClientBase implements BuildA
 
     private CompletableFuture<HttpClient.Response> internalExecuteAsync(
             Object command,
-            Optional<HeartbeatConfig> heartbeatConfig) {
+            Optional<HeartbeatConfig> heartbeatConfig,
+            List<String> secrets) {
         String cmd;
         if (command instanceof String) {
             cmd = (String) command;
@@ -154,7 +163,13 @@ public class BuildAgentHttpClient extends BuildAgentClientBase implements BuildA
             return result;
         }
 
-        return asJson(new InvokeRequest(cmd, this.callback, heartbeatConfig.orElse(null)))
+        InvokeRequest invokeRequest = InvokeRequest.builder()
+                .command(cmd)
+                .callback(this.callback)
+                .heartbeatConfig(heartbeatConfig.orElse(null))
+                .secrets(secrets)
+                .build();
+        return asJson(invokeRequest)
                 .thenCompose(requestJson -> {
             return getHttpClient().invoke(
                     new Request(Request.Method.POST, invokerUri, requestHeaders),
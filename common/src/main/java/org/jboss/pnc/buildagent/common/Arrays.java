@@ -1,16 +1,19 @@
 package org.jboss.pnc.buildagent.common;
 
 import java.nio.charset.Charset;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.nio.charset.StandardCharsets;
 
 public class Arrays {
 
     public static byte[] charIntstoBytes(int[] ints, Charset charset) {
-        String string = IntStream.of(ints)
-                .mapToObj(i -> new String(Character.toChars(i)))
-                .collect(Collectors.joining());
-        return string.getBytes(charset);
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            return Utf8Encoder.encode(ints);
+        }
+        StringBuilder string = new StringBuilder(ints.length);
+        for (int i : ints) {
+            string.append(Character.toChars(i));
+        }
+        return string.toString().getBytes(charset);
     }
 
     public static int[] bytesToInts(byte[] bytes) {
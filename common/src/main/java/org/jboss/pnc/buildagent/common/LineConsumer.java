@@ -1,27 +1,37 @@
 package org.jboss.pnc.buildagent.common;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
  * Consumer bytes and calls consumer when new line byte is appended.
  *
+ * The appended arrays are scanned for LF eight bytes at a time and the lines fully contained in an array are decoded
+ * directly from it, only the unterminated rest is copied to wait for the next array.
+ *
  * @author <a href="mailto:matejonnet@gmail.opecom">Matej Lazar</a>
  */
 public class LineConsumer {
 
-    private static final Logger logger = LoggerFactory.getLogger(LineConsumer.class);
-
     private static final byte LF = 0xA;
+
+    private static final long LF_BYTES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
     private Consumer<String> lineConsumer;
+    private Consumer<List<String>> batchConsumer;
     private Charset charset;
 
-    private ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+    private byte[] buffer = new byte[512];
+    private int buffered;
 
     /**
      *
@@ -30,25 +40,53 @@ public class LineConsumer {
      * @throws UnsupportedEncodingException
      */
     public LineConsumer(Consumer<String> onLine, Charset charset) throws UnsupportedEncodingException {
+        this(charset);
         this.lineConsumer = onLine;
+    }
+
+    private LineConsumer(Charset charset) throws UnsupportedEncodingException {
         this.charset = charset;
         if (!Charset.availableCharsets().values().contains(charset)) {
             throw new UnsupportedEncodingException();
         }
     }
 
+    /**
+     * Creates a LineConsumer calling the consumer once per appended array with all the lines completed by it.
+     *
+     * @param onLines A consumer which is called with the completed lines, it is not called when there are none.
+     */
+    public static LineConsumer batching(Consumer<List<String>> onLines, Charset charset)
+            throws UnsupportedEncodingException {
+        LineConsumer lineConsumer = new LineConsumer(charset);
+        lineConsumer.batchConsumer = onLines;
+        return lineConsumer;
+    }
+
     public void append(byte[] bytes) {
-        for (byte b : bytes) {
-            buffer.write(b);
-            if (b == LF) {
-                try {
-                    lineConsumer.accept(buffer.toString(charset.name()));
-                } catch (UnsupportedEncodingException e) {
-                    //it must be supported, it's checked in the constructor
-                    logger.error("", e);
-                }
-                buffer.reset();
+        List<String> batch = batchConsumer == null ? null : new ArrayList<>();
+        ByteBuffer words = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int lineStart = 0;
+        int lf;
+        while ((lf = indexOfLf(bytes, words, lineStart)) > -1) {
+            String line;
+            if (buffered == 0) {
+                line = new String(bytes, lineStart, lf + 1 - lineStart, charset);
+            } else {
+                buffer(bytes, lineStart, lf + 1);
+                line = new String(buffer, 0, buffered, charset);
+                buffered = 0;
+            }
+            if (batch == null) {
+                lineConsumer.accept(line);
+            } else {
+                batch.add(line);
             }
+            lineStart = lf + 1;
+        }
+        buffer(bytes, lineStart, bytes.length);
+        if (batch != null && !batch.isEmpty()) {
+            batchConsumer.accept(batch);
         }
     }
 
@@ -56,14 +94,44 @@ public class LineConsumer {
      * Call onLine consumer with the remaining string in the buffer.
      */
     public void flush() {
-        try {
-            if (buffer.size() > 0) { //flush if there is something in the buffer
-                lineConsumer.accept(buffer.toString(charset.name()));
+        if (buffered > 0) { //flush if there is something in the buffer
+            String line = new String(buffer, 0, buffered, charset);
+            buffered = 0;
+            if (batchConsumer == null) {
+                lineConsumer.accept(line);
+            } else {
+                batchConsumer.accept(Collections.singletonList(line));
+            }
+        }
+    }
+
+    /**
+     * Finds the next LF testing a word at a time, a byte of the word is zero after xor with the LF bytes when it is LF.
+     */
+    static int indexOfLf(byte[] bytes, ByteBuffer words, int from) {
+        int i = from;
+        for (; i + Long.BYTES <= bytes.length; i += Long.BYTES) {
+            long word = words.getLong(i) ^ LF_BYTES;
+            long found = (word - LOW_BITS) & ~word & HIGH_BITS;
+            if (found != 0) {
+                //little endian, the lowest set bit belongs to the first LF
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < bytes.length; i++) {
+            if (bytes[i] == LF) {
+                return i;
             }
-        } catch (UnsupportedEncodingException e) {
-            //it must be supported, it's checked in the constructor
-            e.printStackTrace();
         }
-        buffer.reset();
+        return -1;
+    }
+
+    private void buffer(byte[] bytes, int from, int to) {
+        int length = to - from;
+        if (buffered + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffered + length, buffer.length * 2));
+        }
+        System.arraycopy(bytes, from, buffer, buffered, length);
+        buffered += length;
     }
 }
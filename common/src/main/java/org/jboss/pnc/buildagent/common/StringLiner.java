@@ -2,7 +2,9 @@ package org.jboss.pnc.buildagent.common;
 
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ * @deprecated each nextLine call searches and shifts the whole buffer, use {@link Utf8Liner}
  */
+@Deprecated
 public class StringLiner {
 
     private final StringBuffer stringBuffer = new StringBuffer();
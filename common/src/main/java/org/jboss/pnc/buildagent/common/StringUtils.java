@@ -22,6 +22,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Set;
@@ -215,4 +218,38 @@ public class StringUtils {
         return new String(c);
     }
 
+
+    /**
+     * Maps a Term context or a session id to a file name, the result never points outside of the parent folder. The
+     * leading slashes are not significant, different contexts otherwise map to different names: when characters are
+     * replaced, a hash of the context is appended after '~', which is never part of an unchanged name.
+     */
+    public static String toFileName(String context) {
+        String stripped = context.replaceFirst("^/+", "");
+        String name = stripped.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (name.matches("[._]*")) {
+            name = "default" + name;
+        }
+        if (name.equals(stripped)) {
+            return name;
+        }
+        return name + "~" + hash(stripped);
+    }
+
+    /**
+     * @return hex of the first 8 bytes of the SHA-256 of the UTF-8 encoded string
+     */
+    private static String hash(String string) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(string.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        StringBuilder hex = new StringBuilder(16);
+        for (int i = 0; i < 8; i++) {
+            hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
 }
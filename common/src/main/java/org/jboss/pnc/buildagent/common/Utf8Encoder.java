@@ -0,0 +1,190 @@
+/**
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014-2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.buildagent.common;
+
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes code points (as delivered by the pty) to UTF-8 without creating intermediate Strings.
+ *
+ * The output is byte-identical to joining {@link Character#toChars(int)} of each element and calling
+ * {@link String#getBytes(java.nio.charset.Charset)} with UTF-8:
+ * <ul>
+ *     <li>a high surrogate followed by a low surrogate is encoded as one supplementary character,</li>
+ *     <li>an unpaired surrogate is replaced with '?'.</li>
+ * </ul>
+ * Values that are not valid code points (negative or above {@link Character#MAX_CODE_POINT}) are replaced with '?'
+ * as well, instead of failing the whole chunk.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class Utf8Encoder {
+
+    private static final byte REPLACEMENT = (byte) '?';
+
+    /**
+     * @return number of bytes required to encode the given code points.
+     */
+    public static int encodedLength(int[] codePoints, int offset, int length) {
+        int bytes = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int cp = codePoints[i];
+            if (cp >= 0 && cp < 0x80) {
+                bytes++;
+            } else if (cp >= 0x80 && cp < 0x800) {
+                bytes += 2;
+            } else if (isHighSurrogate(cp)) {
+                if (i + 1 < end && isLowSurrogate(codePoints[i + 1])) {
+                    bytes += 4;
+                    i++;
+                } else {
+                    bytes++;
+                }
+            } else if (isLowSurrogate(cp)) {
+                bytes++;
+            } else if (cp >= 0x800 && cp <= 0xFFFF) {
+                bytes += 3;
+            } else if (cp > 0xFFFF && cp <= Character.MAX_CODE_POINT) {
+                bytes += 4;
+            } else {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes all the code points into a new array of the exact size.
+     */
+    public static byte[] encode(int[] codePoints) {
+        byte[] bytes = new byte[encodedLength(codePoints, 0, codePoints.length)];
+        encode(codePoints, 0, codePoints.length, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Encodes the code points into the given (reusable) array.
+     *
+     * @return number of written bytes
+     * @throws ArrayIndexOutOfBoundsException when the target is too small,
+     *         use {@link #encodedLength(int[], int, int)} to size it.
+     */
+    public static int encode(int[] codePoints, int offset, int length, byte[] target, int targetOffset) {
+        int pos = targetOffset;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int cp = codePoints[i];
+            if (cp >= 0 && cp < 0x80) {
+                target[pos++] = (byte) cp;
+            } else if (cp >= 0x80 && cp < 0x800) {
+                target[pos++] = (byte) (0xC0 | (cp >> 6));
+                target[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (isHighSurrogate(cp)) {
+                if (i + 1 < end && isLowSurrogate(codePoints[i + 1])) {
+                    int supplementary = Character.toCodePoint((char) cp, (char) codePoints[++i]);
+                    pos = putFourBytes(supplementary, target, pos);
+                } else {
+                    target[pos++] = REPLACEMENT;
+                }
+            } else if (isLowSurrogate(cp)) {
+                target[pos++] = REPLACEMENT;
+            } else if (cp >= 0x800 && cp <= 0xFFFF) {
+                target[pos++] = (byte) (0xE0 | (cp >> 12));
+                target[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                target[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (cp > 0xFFFF && cp <= Character.MAX_CODE_POINT) {
+                pos = putFourBytes(cp, target, pos);
+            } else {
+                target[pos++] = REPLACEMENT;
+            }
+        }
+        return pos - targetOffset;
+    }
+
+    /**
+     * Encodes the code points into the given (pooled) buffer starting at its current position.
+     *
+     * @return number of written bytes
+     * @throws BufferOverflowException when there is not enough space remaining in the buffer,
+     *         the buffer is not modified in such case.
+     */
+    public static int encode(int[] codePoints, int offset, int length, ByteBuffer target) {
+        int required = encodedLength(codePoints, offset, length);
+        if (target.remaining() < required) {
+            throw new BufferOverflowException();
+        }
+        if (target.hasArray()) {
+            int written = encode(codePoints, offset, length, target.array(), target.arrayOffset() + target.position());
+            ((Buffer)target).position(target.position() + written);
+            return written;
+        }
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int cp = codePoints[i];
+            if (cp >= 0 && cp < 0x80) {
+                target.put((byte) cp);
+            } else if (cp >= 0x80 && cp < 0x800) {
+                target.put((byte) (0xC0 | (cp >> 6)));
+                target.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (isHighSurrogate(cp)) {
+                if (i + 1 < end && isLowSurrogate(codePoints[i + 1])) {
+                    putFourBytes(Character.toCodePoint((char) cp, (char) codePoints[++i]), target);
+                } else {
+                    target.put(REPLACEMENT);
+                }
+            } else if (isLowSurrogate(cp)) {
+                target.put(REPLACEMENT);
+            } else if (cp >= 0x800 && cp <= 0xFFFF) {
+                target.put((byte) (0xE0 | (cp >> 12)));
+                target.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (cp > 0xFFFF && cp <= Character.MAX_CODE_POINT) {
+                putFourBytes(cp, target);
+            } else {
+                target.put(REPLACEMENT);
+            }
+        }
+        return required;
+    }
+
+    private static boolean isHighSurrogate(int cp) {
+        return cp >= Character.MIN_HIGH_SURROGATE && cp <= Character.MAX_HIGH_SURROGATE;
+    }
+
+    private static boolean isLowSurrogate(int cp) {
+        return cp >= Character.MIN_LOW_SURROGATE && cp <= Character.MAX_LOW_SURROGATE;
+    }
+
+    private static int putFourBytes(int cp, byte[] target, int pos) {
+        target[pos++] = (byte) (0xF0 | (cp >> 18));
+        target[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        target[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        target[pos++] = (byte) (0x80 | (cp & 0x3F));
+        return pos;
+    }
+
+    private static void putFourBytes(int cp, ByteBuffer target) {
+        target.put((byte) (0xF0 | (cp >> 18)));
+        target.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+        target.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+        target.put((byte) (0x80 | (cp & 0x3F)));
+    }
+}
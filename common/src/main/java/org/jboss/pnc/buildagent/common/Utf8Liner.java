@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Splits UTF-8 output on lines terminated by LF, CR or CRLF, the terminator is not part of the line. Each byte is
+ * scanned once, bytes of an unterminated line are kept until the terminator arrives so the characters split across
+ * chunks are decoded correctly. A line longer than the max length is emitted in parts, it is cut on a character
+ * boundary. Lines are passed either decoded or as slices of the bytes, see {@link LineHandler}.
+ *
+ * Not thread safe.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class Utf8Liner {
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final int maxLineBytes;
+    private final LineHandler onLine;
+
+    private byte[] line;
+    private int lineLength;
+
+    /**
+     * Set when a chunk ends with CR, a LF at the beginning of the next chunk completes the CRLF.
+     */
+    private boolean afterCr;
+
+    /**
+     * @param maxLineBytes max length of a line in bytes, longer lines are split
+     * @param onLine called with each line
+     */
+    public Utf8Liner(int maxLineBytes, Consumer<String> onLine) {
+        this(maxLineBytes, (bytes, offset, length) -> onLine.accept(new String(bytes, offset, length, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param maxLineBytes max length of a line in bytes, longer lines are split
+     * @param onLine called with the undecoded bytes of each line
+     */
+    public Utf8Liner(int maxLineBytes, LineHandler onLine) {
+        if (maxLineBytes < 4) {
+            throw new IllegalArgumentException("Max line length must be at least 4 bytes to fit any character.");
+        }
+        this.maxLineBytes = maxLineBytes;
+        this.onLine = onLine;
+        this.line = new byte[Math.min(INITIAL_BUFFER_SIZE, maxLineBytes)];
+    }
+
+    public void append(byte[] bytes) {
+        append(bytes, 0, bytes.length);
+    }
+
+    public void append(byte[] bytes, int offset, int length) {
+        int position = offset;
+        int end = offset + length;
+        if (afterCr && position < end) {
+            afterCr = false;
+            if (bytes[position] == LF) {
+                position++;
+            }
+        }
+        while (position < end) {
+            int terminator = indexOfTerminator(bytes, position, end);
+            if (terminator < 0) {
+                buffer(bytes, position, end);
+                return;
+            }
+            int segmentLength = terminator - position;
+            if (lineLength == 0 && segmentLength <= maxLineBytes) {
+                //the whole line is in the chunk, pass it without copying
+                onLine.onLine(bytes, position, segmentLength);
+            } else {
+                buffer(bytes, position, terminator);
+                emit(lineLength);
+            }
+            if (bytes[terminator] == CR) {
+                if (terminator + 1 == end) {
+                    afterCr = true;
+                } else if (bytes[terminator + 1] == LF) {
+                    terminator++;
+                }
+            }
+            position = terminator + 1;
+        }
+    }
+
+    /**
+     * Emits the buffered unterminated line, if any.
+     */
+    public void flush() {
+        if (lineLength > 0) {
+            emit(lineLength);
+        }
+    }
+
+    private static int indexOfTerminator(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b == LF || b == CR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void buffer(byte[] bytes, int from, int to) {
+        while (from < to) {
+            if (lineLength == maxLineBytes) {
+                emit(characterBoundary(line, lineLength));
+            }
+            int length = Math.min(maxLineBytes - lineLength, to - from);
+            ensureCapacity(lineLength + length);
+            System.arraycopy(bytes, from, line, lineLength, length);
+            lineLength += length;
+            from += length;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > line.length) {
+            line = Arrays.copyOf(line, (int) Math.min(maxLineBytes, Math.max(capacity, line.length * 2L)));
+        }
+    }
+
+    /**
+     * Emits the first length bytes of the buffered line and keeps the rest.
+     */
+    private void emit(int length) {
+        onLine.onLine(line, 0, length);
+        lineLength -= length;
+        System.arraycopy(line, length, line, 0, lineLength);
+    }
+
+    /**
+     * @return length of the buffer without the trailing incomplete UTF-8 sequence
+     */
+    private static int characterBoundary(byte[] buffer, int length) {
+        int lead = length - 1;
+        while (lead >= 0 && length - lead < 4 && (buffer[lead] & 0xC0) == 0x80) {
+            lead--;
+        }
+        if (lead < 0) {
+            return length;
+        }
+        int b = buffer[lead] & 0xFF;
+        int sequenceLength = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+        return length - lead < sequenceLength ? lead : length;
+    }
+
+    @FunctionalInterface
+    public interface LineHandler {
+
+        /**
+         * The bytes are valid only during the call, they are reused for the next lines.
+         *
+         * @param bytes UTF-8 encoded line without the terminator, never ends with an incomplete character
+         */
+        void onLine(byte[] bytes, int offset, int length);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common.blocklog;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.BLOCK_HEADER_BYTES;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.FILE_HEADER_BYTES;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.INDEX_ENTRY_BYTES;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.MAGIC;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.VERSION;
+
+/**
+ * Offsets of the complete blocks of a block log. A block written after the index entries or cut by a crash is not
+ * part of it.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+final class BlockIndex {
+
+    private final int maxBlockBytes;
+
+    private long[] uncompressedOffsets = new long[64];
+    private long[] compressedOffsets = new long[64];
+    private int count;
+
+    private long uncompressedSize;
+    private long compressedSize = FILE_HEADER_BYTES;
+
+    BlockIndex(int maxBlockBytes) {
+        this.maxBlockBytes = maxBlockBytes;
+    }
+
+    /**
+     * Reads the index file and walks the headers of the blocks written after the last valid index entry.
+     */
+    static BlockIndex load(FileChannel data, Path indexPath) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        if (!readFully(data, 0, header)) {
+            throw new IOException("Not a block log, the file is shorter than its header.");
+        }
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a block log.");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported block log version " + version + ".");
+        }
+        BlockIndex index = new BlockIndex(header.getInt());
+        long dataSize = data.size();
+
+        ByteBuffer entries = readIndexFile(indexPath);
+        long lastUncompressed = -1;
+        long lastCompressed = FILE_HEADER_BYTES - 1;
+        while (entries.remaining() >= INDEX_ENTRY_BYTES) {
+            long uncompressedOffset = entries.getLong();
+            long compressedOffset = entries.getLong();
+            boolean expected = index.count == 0
+                    ? uncompressedOffset == 0 && compressedOffset == FILE_HEADER_BYTES
+                    : uncompressedOffset > lastUncompressed && compressedOffset > lastCompressed;
+            if (!expected || compressedOffset >= dataSize) {
+                break;
+            }
+            index.append(uncompressedOffset, compressedOffset);
+            lastUncompressed = uncompressedOffset;
+            lastCompressed = compressedOffset;
+        }
+
+        //the size of the last indexed block is known from its header only
+        ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+        while (index.count > 0) {
+            int last = index.count - 1;
+            long position = index.compressedOffsets[last];
+            ((Buffer)blockHeader).clear();
+            if (readFully(data, position, blockHeader) && index.isComplete(blockHeader, position, dataSize)) {
+                index.compressedSize = position + BLOCK_HEADER_BYTES + blockHeader.getInt(0);
+                index.uncompressedSize = index.uncompressedOffsets[last] + blockHeader.getInt(4);
+                break;
+            }
+            index.count--;
+        }
+
+        long position = index.compressedSize;
+        while (true) {
+            ((Buffer)blockHeader).clear();
+            if (!readFully(data, position, blockHeader) || !index.isComplete(blockHeader, position, dataSize)) {
+                break;
+            }
+            int compressedLength = blockHeader.getInt(0);
+            int uncompressedLength = blockHeader.getInt(4);
+            index.append(index.uncompressedSize, position);
+            position += BLOCK_HEADER_BYTES + compressedLength;
+            index.compressedSize = position;
+            index.uncompressedSize += uncompressedLength;
+        }
+        return index;
+    }
+
+    private boolean isComplete(ByteBuffer blockHeader, long position, long dataSize) {
+        int compressedLength = blockHeader.getInt(0);
+        int uncompressedLength = blockHeader.getInt(4);
+        return compressedLength > 0
+                && uncompressedLength > 0
+                && uncompressedLength <= maxBlockBytes
+                && position + BLOCK_HEADER_BYTES + compressedLength <= dataSize;
+    }
+
+    private static ByteBuffer readIndexFile(Path indexPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long entries = Math.min(channel.size() / INDEX_ENTRY_BYTES, Integer.MAX_VALUE / INDEX_ENTRY_BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate((int) entries * INDEX_ENTRY_BYTES);
+            readFully(channel, 0, buffer);
+            return buffer;
+        } catch (NoSuchFileException e) {
+            return ByteBuffer.allocate(0);
+        }
+    }
+
+    /**
+     * Reads until the buffer is full and flips it.
+     *
+     * @return false when the channel ends before the buffer is full
+     */
+    static boolean readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                ((Buffer)buffer).flip();
+                return false;
+            }
+            position += read;
+        }
+        ((Buffer)buffer).flip();
+        return true;
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(buffers);
+            if (written < 0) {
+                throw new EOFException();
+            }
+            remaining -= written;
+        }
+    }
+
+    void append(long uncompressedOffset, long compressedOffset) {
+        if (count == uncompressedOffsets.length) {
+            uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, count * 2);
+            compressedOffsets = Arrays.copyOf(compressedOffsets, count * 2);
+        }
+        uncompressedOffsets[count] = uncompressedOffset;
+        compressedOffsets[count] = compressedOffset;
+        count++;
+    }
+
+    /**
+     * Appends a block written after the last one.
+     */
+    void appendBlock(int compressedLength, int uncompressedLength) {
+        append(uncompressedSize, compressedSize);
+        compressedSize += BLOCK_HEADER_BYTES + compressedLength;
+        uncompressedSize += uncompressedLength;
+    }
+
+    /**
+     * @return the block containing the uncompressed position
+     */
+    int blockOf(long position) {
+        int index = Arrays.binarySearch(uncompressedOffsets, 0, count, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    long uncompressedOffset(int block) {
+        return uncompressedOffsets[block];
+    }
+
+    long compressedOffset(int block) {
+        return compressedOffsets[block];
+    }
+
+    int uncompressedLength(int block) {
+        long end = block + 1 < count ? uncompressedOffsets[block + 1] : uncompressedSize;
+        return (int) (end - uncompressedOffsets[block]);
+    }
+
+    int compressedLength(int block) {
+        long end = block + 1 < count ? compressedOffsets[block + 1] : compressedSize;
+        return (int) (end - compressedOffsets[block] - BLOCK_HEADER_BYTES);
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getMaxBlockBytes() {
+        return maxBlockBytes;
+    }
+
+    long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * @return the index file content of the blocks
+     */
+    ByteBuffer entries() {
+        ByteBuffer buffer = ByteBuffer.allocate(count * INDEX_ENTRY_BYTES);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(uncompressedOffsets[i]).putLong(compressedOffsets[i]);
+        }
+        ((Buffer)buffer).flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common.blocklog;
+
+import java.nio.file.Path;
+
+/**
+ * Layout of a block log, all the numbers are big endian.
+ *
+ * <pre>
+ * data file:  magic (int) | version (int) | max block bytes (int) | block*
+ * block:      compressed length (int) | uncompressed length (int) | CRC32 of the uncompressed bytes (int) | deflated bytes
+ * index file: (uncompressed offset (long) | compressed offset (long))*, one entry per block
+ * </pre>
+ *
+ * Each block is deflated on its own so any block can be decompressed without the ones before it. The index is an
+ * optimization only, the blocks missing from it are found by walking the block headers.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+final class BlockLogFormat {
+
+    static final int MAGIC = 0x50424C5A; //PBLZ
+    static final int VERSION = 1;
+
+    static final int FILE_HEADER_BYTES = 12;
+    static final int BLOCK_HEADER_BYTES = 12;
+    static final int INDEX_ENTRY_BYTES = 16;
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    private BlockLogFormat() {
+    }
+
+    static Path indexPath(Path dataPath) {
+        return dataPath.resolveSibling(dataPath.getFileName() + INDEX_SUFFIX);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common.blocklog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.BLOCK_HEADER_BYTES;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.FILE_HEADER_BYTES;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.MAGIC;
+
+/**
+ * Random access to the uncompressed content of a block log, only the blocks covering a requested range are read and
+ * decompressed. The reader sees the blocks written before it was opened.
+ *
+ * Not thread safe.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class BlockLogReader implements Closeable {
+
+    /**
+     * Extension of the block log files, the readers of a folder with mixed files decide by it.
+     */
+    public static final String FILE_SUFFIX = ".blz";
+
+    private final FileChannel data;
+    private final BlockIndex blocks;
+
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc32 = new CRC32();
+
+    private ByteBuffer compressed = ByteBuffer.allocate(0);
+    private final byte[] block;
+    private int cachedBlock = -1;
+
+    private long blocksInflated;
+
+    private BlockLogReader(FileChannel data, BlockIndex blocks) {
+        this.data = data;
+        this.blocks = blocks;
+        this.block = new byte[blocks.getMaxBlockBytes()];
+    }
+
+    /**
+     * @throws IOException when the file cannot be read or it is not a block log
+     */
+    public static BlockLogReader open(Path path) throws IOException {
+        FileChannel data = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new BlockLogReader(data, BlockIndex.load(data, BlockLogFormat.indexPath(path)));
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true when the file name has the block log extension, the content is not read
+     */
+    public static boolean hasBlockLogSuffix(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null && fileName.toString().endsWith(FILE_SUFFIX);
+    }
+
+    /**
+     * @return true when the file starts with the block log header
+     */
+    public static boolean isBlockLog(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+            return BlockIndex.readFully(channel, 0, header) && header.getInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public long getUncompressedSize() {
+        return blocks.getUncompressedSize();
+    }
+
+    public long getCompressedSize() {
+        return blocks.getCompressedSize();
+    }
+
+    public int getBlockCount() {
+        return blocks.getCount();
+    }
+
+    /**
+     * @return number of blocks this reader has decompressed
+     */
+    public long getBlocksInflated() {
+        return blocksInflated;
+    }
+
+    /**
+     * Reads uncompressed bytes starting at the position.
+     *
+     * @return number of bytes read, -1 when the position is at the end
+     */
+    public int read(long position, byte[] bytes, int offset, int length) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position " + position + ".");
+        }
+        if (position >= blocks.getUncompressedSize()) {
+            return -1;
+        }
+        int read = 0;
+        while (read < length && position < blocks.getUncompressedSize()) {
+            int blockIndex = blocks.blockOf(position);
+            inflate(blockIndex);
+            int inBlock = (int) (position - blocks.uncompressedOffset(blockIndex));
+            int copy = Math.min(length - read, blocks.uncompressedLength(blockIndex) - inBlock);
+            System.arraycopy(block, inBlock, bytes, offset + read, copy);
+            read += copy;
+            position += copy;
+        }
+        return read;
+    }
+
+    /**
+     * Writes length uncompressed bytes starting at the position to the output stream, the length is cut at the end of
+     * the log.
+     *
+     * @return number of bytes written
+     */
+    public long transferTo(long position, long length, OutputStream out) throws IOException {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range " + position + ", " + length + ".");
+        }
+        long end = Math.min(blocks.getUncompressedSize(), position + length);
+        long written = 0;
+        while (position < end) {
+            int blockIndex = blocks.blockOf(position);
+            inflate(blockIndex);
+            int inBlock = (int) (position - blocks.uncompressedOffset(blockIndex));
+            int copy = (int) Math.min(end - position, blocks.uncompressedLength(blockIndex) - inBlock);
+            out.write(block, inBlock, copy);
+            written += copy;
+            position += copy;
+        }
+        return written;
+    }
+
+    private void inflate(int blockIndex) throws IOException {
+        if (blockIndex == cachedBlock) {
+            return;
+        }
+        cachedBlock = -1;
+        int compressedLength = blocks.compressedLength(blockIndex);
+        int uncompressedLength = blocks.uncompressedLength(blockIndex);
+        if (compressedLength <= 0 || uncompressedLength > block.length) {
+            throw new IOException("Block " + blockIndex + " has an invalid index entry.");
+        }
+        int length = BLOCK_HEADER_BYTES + compressedLength;
+        if (compressed.capacity() < length) {
+            compressed = ByteBuffer.allocate(length);
+        }
+        ((Buffer)compressed).clear().limit(length);
+        if (!BlockIndex.readFully(data, blocks.compressedOffset(blockIndex), compressed)) {
+            throw new IOException("Block " + blockIndex + " is truncated.");
+        }
+        int checksum = compressed.getInt(8);
+        inflater.reset();
+        inflater.setInput(compressed.array(), BLOCK_HEADER_BYTES, compressedLength);
+        try {
+            int inflated = 0;
+            while (inflated < uncompressedLength && !inflater.finished()) {
+                int n = inflater.inflate(block, inflated, uncompressedLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != uncompressedLength) {
+                throw new IOException("Block " + blockIndex + " is corrupted, inflated " + inflated + " of "
+                        + uncompressedLength + " bytes.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Block " + blockIndex + " is corrupted.", e);
+        }
+        crc32.reset();
+        crc32.update(block, 0, uncompressedLength);
+        if ((int) crc32.getValue() != checksum) {
+            throw new IOException("Block " + blockIndex + " checksum does not match.");
+        }
+        blocksInflated++;
+        cachedBlock = blockIndex;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        data.close();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common.blocklog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.BLOCK_HEADER_BYTES;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.FILE_HEADER_BYTES;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.INDEX_ENTRY_BYTES;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.MAGIC;
+import static org.jboss.pnc.buildagent.common.blocklog.BlockLogFormat.VERSION;
+
+/**
+ * Appends to a block log, see {@link BlockLogFormat}. The bytes are collected until a block is full, a flush writes
+ * the collected bytes as a shorter block so a reader sees them.
+ *
+ * An existing log is appended to, a block cut by a crash is truncated and the index is rewritten. The blocks keep
+ * the block size of the existing log.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class BlockLogWriter implements Closeable {
+
+    private final FileChannel data;
+    private final FileChannel index;
+    private final BlockIndex blocks;
+
+    private final Deflater deflater;
+    private final CRC32 crc32 = new CRC32();
+
+    private final byte[] block;
+    private int blockLength;
+    private byte[] compressed;
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+
+    /**
+     * @param path data file, the index is written next to it with the {@link BlockLogFormat#INDEX_SUFFIX}
+     * @param blockBytes uncompressed size of a block
+     * @param compressionLevel a {@link Deflater} level
+     */
+    public BlockLogWriter(Path path, int blockBytes, int compressionLevel) throws IOException {
+        if (blockBytes <= 0) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+        Path indexPath = BlockLogFormat.indexPath(path);
+        boolean exists = Files.exists(path) && Files.size(path) > 0;
+        data = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel indexChannel = null;
+        try {
+            if (exists) {
+                blocks = BlockIndex.load(data, indexPath);
+                data.truncate(blocks.getCompressedSize());
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putInt(blockBytes);
+                ((Buffer)header).flip();
+                BlockIndex.writeFully(data, header);
+                blocks = new BlockIndex(blockBytes);
+            }
+            data.position(blocks.getCompressedSize());
+            indexChannel = FileChannel.open(
+                    indexPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            BlockIndex.writeFully(indexChannel, blocks.entries());
+        } catch (IOException e) {
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            data.close();
+            throw e;
+        }
+        index = indexChannel;
+        deflater = new Deflater(compressionLevel);
+        block = new byte[blocks.getMaxBlockBytes()];
+        compressed = new byte[block.length + block.length / 8 + 64];
+    }
+
+    public synchronized void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int copy = Math.min(length, block.length - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, copy);
+            blockLength += copy;
+            offset += copy;
+            length -= copy;
+            if (blockLength == block.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the collected bytes as a block.
+     */
+    public synchronized void flush() throws IOException {
+        if (blockLength > 0) {
+            writeBlock();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        crc32.reset();
+        crc32.update(block, 0, blockLength);
+
+        ((Buffer)blockHeader).clear();
+        blockHeader.putInt(compressedLength).putInt(blockLength).putInt((int) crc32.getValue());
+        ((Buffer)blockHeader).flip();
+        ((Buffer)indexEntry).clear();
+        indexEntry.putLong(blocks.getUncompressedSize()).putLong(blocks.getCompressedSize());
+        ((Buffer)indexEntry).flip();
+
+        //the data goes first, a block missing in the index is found when the log is opened
+        BlockIndex.writeFully(data, blockHeader, ByteBuffer.wrap(compressed, 0, compressedLength));
+        BlockIndex.writeFully(index, indexEntry);
+        blocks.appendBlock(compressedLength, blockLength);
+        blockLength = 0;
+    }
+
+    public synchronized long getUncompressedSize() {
+        return blocks.getUncompressedSize() + blockLength;
+    }
+
+    public synchronized long getCompressedSize() {
+        return blocks.getCompressedSize();
+    }
+
+    public synchronized int getBlockCount() {
+        return blocks.getCount();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            deflater.end();
+            try {
+                index.close();
+            } finally {
+                data.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common.ringfile;
+
+/**
+ * Memory fences ordering the plain accesses of a mapped buffer, the Java memory model does not cover the memory shared
+ * with another process and Java 8 has no public fence API.
+ *
+ * A fence is a volatile store followed by a volatile load of the same field: the accesses before the store are ordered
+ * before it, the store before the load and the load before the accesses after it. It is a full fence on the JVMs
+ * implementing volatiles as in the JSR-133 cookbook, which costs a little more than the store or load fence alone.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+final class Fences {
+
+    private static volatile int fence;
+
+    private Fences() {
+    }
+
+    /**
+     * The stores before the fence are visible before the stores after it.
+     */
+    static void storeFence() {
+        fullFence();
+    }
+
+    /**
+     * The loads before the fence complete before the loads after it.
+     */
+    static void loadFence() {
+        fullFence();
+    }
+
+    private static void fullFence() {
+        fence = 0;
+        //volatile loads are not eliminated even when the value is unused
+        int ignored = fence;
+    }
+}
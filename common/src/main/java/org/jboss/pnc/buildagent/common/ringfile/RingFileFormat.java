@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common.ringfile;
+
+/**
+ * Layout of a ring file, version 1. All the numbers are little endian. Positions count the bytes written since the
+ * file was created, the byte at position p is stored at data offset p % capacity.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic 0x46524250 ("PBRF" read as little endian bytes)
+ *      4     4  version
+ *      8     4  header size, the data starts here
+ *     12     4  capacity of the data ring in bytes
+ *     16     4  closed, 1 when the writer has closed the file, 0 while it is writing
+ *     64     8  reserved position, the writer is overwriting the ring up to this position
+ *    128     8  write position, the bytes up to this position are written
+ *    136     8  sequence, number of completed writes
+ *    256        data ring
+ * </pre>
+ *
+ * The writer publishes a write in three steps: it stores the reserved position, writes the bytes and stores the write
+ * position, with a store fence between the steps. A reader copies the bytes between its position and the write
+ * position, then loads the reserved position after a load fence, the copied bytes older than reserved position -
+ * capacity may have been overwritten during the copy and are discarded as lost.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+final class RingFileFormat {
+
+    static final int MAGIC = 0x46524250;
+    static final int VERSION = 1;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int HEADER_SIZE_OFFSET = 8;
+    static final int CAPACITY_OFFSET = 12;
+    static final int CLOSED_OFFSET = 16;
+    static final int RESERVED_POSITION_OFFSET = 64;
+    static final int WRITE_POSITION_OFFSET = 128;
+    static final int SEQUENCE_OFFSET = 136;
+
+    static final int HEADER_BYTES = 256;
+
+    private RingFileFormat() {
+    }
+}
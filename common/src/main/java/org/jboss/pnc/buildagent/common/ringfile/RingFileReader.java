@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common.ringfile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.CAPACITY_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.CLOSED_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.HEADER_SIZE_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.MAGIC;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.MAGIC_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.RESERVED_POSITION_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.SEQUENCE_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.VERSION;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.VERSION_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.WRITE_POSITION_OFFSET;
+
+/**
+ * Reads a ring file written by another thread or process, see {@link RingFileFormat}. A read copies from the mapped
+ * memory without a system call and never blocks, it returns 0 when there is nothing new. When the reader falls behind
+ * by more than the capacity the overwritten bytes are skipped and counted as lost.
+ *
+ * Not thread safe.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class RingFileReader implements Closeable {
+
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer ring;
+    private final int headerBytes;
+    private final int capacity;
+
+    private long position;
+    private long lostBytes;
+
+    private RingFileReader(MappedByteBuffer buffer, int headerBytes, int capacity) {
+        this.buffer = buffer;
+        this.ring = buffer.duplicate();
+        this.headerBytes = headerBytes;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Opens the ring file positioned at the oldest byte still in the ring.
+     *
+     * @throws IOException when the file cannot be mapped or it is not a ring file of a supported version
+     */
+    public static RingFileReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < RingFileFormat.HEADER_BYTES) {
+                throw new IOException("Not a ring file, the file is shorter than its header.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+                throw new IOException("Not a ring file.");
+            }
+            int version = buffer.getInt(VERSION_OFFSET);
+            if (version != VERSION) {
+                throw new IOException("Unsupported ring file version " + version + ".");
+            }
+            int headerBytes = buffer.getInt(HEADER_SIZE_OFFSET);
+            int capacity = buffer.getInt(CAPACITY_OFFSET);
+            if (capacity <= 0 || (long) headerBytes + capacity > size) {
+                throw new IOException("Invalid ring file capacity " + capacity + ".");
+            }
+            RingFileReader reader = new RingFileReader(buffer, headerBytes, capacity);
+            reader.position = Math.max(0, reader.getWritePosition() - capacity);
+            return reader;
+        }
+    }
+
+    /**
+     * Reads the bytes written after the reader position.
+     *
+     * @return number of bytes read, 0 when there is nothing new
+     */
+    public int read(byte[] bytes, int offset, int length) {
+        long written = getWritePosition();
+        if (position > written) {
+            //the writer has initialized the file again
+            position = written;
+        }
+        long oldest = written - capacity;
+        if (position < oldest) {
+            lostBytes += oldest - position;
+            position = oldest;
+        }
+        int read = (int) Math.min(length, written - position);
+        if (read == 0) {
+            return 0;
+        }
+        int ringOffset = (int) (position % capacity);
+        int first = Math.min(read, capacity - ringOffset);
+        copy(ringOffset, bytes, offset, first);
+        copy(0, bytes, offset + first, read - first);
+
+        //the copied bytes the writer has started to overwrite in the meantime are not valid
+        Fences.loadFence();
+        long validFrom = buffer.getLong(RESERVED_POSITION_OFFSET) - capacity;
+        if (position < validFrom) {
+            int overwritten = (int) Math.min(read, validFrom - position);
+            System.arraycopy(bytes, offset + overwritten, bytes, offset, read - overwritten);
+            lostBytes += overwritten;
+            position += overwritten;
+            read -= overwritten;
+        }
+        position += read;
+        return read;
+    }
+
+    private void copy(int ringOffset, byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        ((Buffer)ring).position(headerBytes + ringOffset);
+        ring.get(bytes, offset, length);
+    }
+
+    /**
+     * @return position of the next byte to read
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves the reader, eg. to the position a consumer has shipped before a restart.
+     */
+    public void setPosition(long position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position " + position + ".");
+        }
+        this.position = position;
+    }
+
+    public long getWritePosition() {
+        long written = buffer.getLong(WRITE_POSITION_OFFSET);
+        Fences.loadFence();
+        return written;
+    }
+
+    /**
+     * @return number of writes, a consumer can poll it to detect new output
+     */
+    public long getSequence() {
+        long sequence = buffer.getLong(SEQUENCE_OFFSET);
+        Fences.loadFence();
+        return sequence;
+    }
+
+    /**
+     * @return number of bytes overwritten before the reader has read them
+     */
+    public long getLostBytes() {
+        return lostBytes;
+    }
+
+    /**
+     * @return true when the writer has closed the file, the bytes up to the write position can still be read
+     */
+    public boolean isWriterClosed() {
+        return buffer.getInt(CLOSED_OFFSET) == 1;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The mapping is released when the reader is garbage collected.
+     */
+    @Override
+    public void close() {
+    }
+}
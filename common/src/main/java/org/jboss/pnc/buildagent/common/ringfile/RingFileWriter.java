@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common.ringfile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.CAPACITY_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.CLOSED_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.HEADER_BYTES;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.HEADER_SIZE_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.MAGIC;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.MAGIC_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.RESERVED_POSITION_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.SEQUENCE_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.VERSION;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.VERSION_OFFSET;
+import static org.jboss.pnc.buildagent.common.ringfile.RingFileFormat.WRITE_POSITION_OFFSET;
+
+/**
+ * Writes to a memory mapped ring file, see {@link RingFileFormat}. A write is a copy to the mapped memory, the oldest
+ * bytes are overwritten when the ring is full. The writer never waits for the readers.
+ *
+ * An existing ring file of the same version and capacity is continued from its write position so the readers keep
+ * their positions across a restart. Otherwise a new file is written and moved over the existing one, the readers
+ * mapping the old file are not affected, they see it closed and can open the new one.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class RingFileWriter implements Closeable {
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer ring;
+    private final int capacity;
+
+    private long writePosition;
+    private long sequence;
+
+    public RingFileWriter(Path path, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE - HEADER_BYTES) {
+            throw new IllegalArgumentException("Invalid ring capacity " + capacity + ".");
+        }
+        this.capacity = capacity;
+        MappedByteBuffer existing = mapCompatible(path);
+        if (existing != null) {
+            buffer = existing;
+            writePosition = buffer.getLong(WRITE_POSITION_OFFSET);
+            sequence = buffer.getLong(SEQUENCE_OFFSET);
+            //a write interrupted by a crash is dropped
+            buffer.putLong(RESERVED_POSITION_OFFSET, writePosition);
+        } else {
+            buffer = create(path);
+        }
+        ring = buffer.duplicate();
+        buffer.putInt(CLOSED_OFFSET, 0);
+        Fences.storeFence();
+    }
+
+    /**
+     * Maps the existing file when it is a ring file of the same version and capacity. An incompatible ring file is
+     * marked closed for its readers and left as it is.
+     *
+     * @return null when the file does not exist or it is not compatible
+     */
+    private MappedByteBuffer mapCompatible(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    //shorter than the header
+                    return null;
+                }
+            }
+            if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+                return null;
+            }
+            boolean compatible = header.getInt(VERSION_OFFSET) == VERSION
+                    && header.getInt(HEADER_SIZE_OFFSET) == HEADER_BYTES
+                    && header.getInt(CAPACITY_OFFSET) == capacity
+                    && header.getLong(WRITE_POSITION_OFFSET) >= 0
+                    && channel.size() == HEADER_BYTES + capacity;
+            if (!compatible) {
+                ByteBuffer closed = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, 1);
+                channel.write(closed, CLOSED_OFFSET);
+                return null;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + capacity);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return mapped;
+        }
+    }
+
+    /**
+     * Initializes a new file next to the path and moves it over the path, the file is never seen half initialized.
+     */
+    private MappedByteBuffer create(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + TMP_SUFFIX);
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(
+                tmp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + capacity);
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        mapped.putInt(VERSION_OFFSET, VERSION);
+        mapped.putInt(HEADER_SIZE_OFFSET, HEADER_BYTES);
+        mapped.putInt(CAPACITY_OFFSET, capacity);
+        mapped.putLong(RESERVED_POSITION_OFFSET, 0);
+        mapped.putLong(WRITE_POSITION_OFFSET, 0);
+        mapped.putLong(SEQUENCE_OFFSET, 0);
+        mapped.putInt(MAGIC_OFFSET, MAGIC);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return mapped;
+    }
+
+    public synchronized void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        long end = writePosition + length;
+        if (length > capacity) {
+            //only the last capacity bytes fit, the rest would be overwritten by the same write
+            offset += length - capacity;
+            length = capacity;
+        }
+        long start = end - length;
+
+        buffer.putLong(RESERVED_POSITION_OFFSET, end);
+        Fences.storeFence();
+
+        int ringOffset = (int) (start % capacity);
+        int first = Math.min(length, capacity - ringOffset);
+        copy(bytes, offset, ringOffset, first);
+        copy(bytes, offset + first, 0, length - first);
+
+        Fences.storeFence();
+        buffer.putLong(WRITE_POSITION_OFFSET, end);
+        buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+        writePosition = end;
+    }
+
+    private void copy(byte[] bytes, int offset, int ringOffset, int length) {
+        if (length == 0) {
+            return;
+        }
+        ((Buffer)ring).position(HEADER_BYTES + ringOffset);
+        ring.put(bytes, offset, length);
+    }
+
+    public synchronized long getWritePosition() {
+        return writePosition;
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Marks the file closed for the readers. The mapping is released when the writer is garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        buffer.putInt(CLOSED_OFFSET, 1);
+        Fences.storeFence();
+    }
+}
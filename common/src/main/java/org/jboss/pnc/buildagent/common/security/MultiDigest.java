@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014-2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.common.security;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes several digests of the same input in one pass.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class MultiDigest {
+
+    private final String[] algorithms;
+    private final MessageDigest[] digests;
+
+    /**
+     * @param algorithms MessageDigest algorithm names, eg. MD5, SHA-256
+     */
+    public MultiDigest(List<String> algorithms) throws NoSuchAlgorithmException {
+        this.algorithms = algorithms.toArray(new String[0]);
+        this.digests = new MessageDigest[this.algorithms.length];
+        for (int i = 0; i < this.algorithms.length; i++) {
+            digests[i] = MessageDigest.getInstance(this.algorithms[i]);
+        }
+    }
+
+    public void add(byte[] bytes) {
+        for (MessageDigest digest : digests) {
+            digest.update(bytes);
+        }
+    }
+
+    /**
+     * Completes the digests and resets them for the next input.
+     *
+     * @return hex encoded digests by algorithm name, in the order of the algorithms
+     */
+    public Map<String, String> digest() {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < digests.length; i++) {
+            result.put(algorithms[i], CheckSum.format(digests[i].digest()));
+        }
+        return result;
+    }
+}
@@ -1,6 +1,7 @@
 package org.jboss.pnc.buildagent.common;
 
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,9 +9,12 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -66,6 +70,135 @@ public class LineConsumerTest {
 
     }
 
+    @Test
+    public void shouldProduceSameLinesAsLegacyConsumer() throws UnsupportedEncodingException {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            byte[] input = randomOutput(random, random.nextInt(2048));
+            List<String> expected = new ArrayList<>();
+            LegacyLineConsumer legacy = new LegacyLineConsumer(expected::add, StandardCharsets.UTF_8);
+            List<String> lines = new ArrayList<>();
+            LineConsumer lineConsumer = new LineConsumer(lines::add, StandardCharsets.UTF_8);
+            int position = 0;
+            while (position < input.length) {
+                int length = Math.min(input.length - position, 1 + random.nextInt(100));
+                byte[] chunk = Arrays.copyOfRange(input, position, position + length);
+                legacy.append(chunk);
+                lineConsumer.append(chunk);
+                position += length;
+            }
+            legacy.flush();
+            lineConsumer.flush();
+            Assert.assertEquals(expected, lines);
+        }
+    }
+
+    @Test
+    public void shouldDeliverLinesOfChunkInOneBatch() throws UnsupportedEncodingException {
+        List<List<String>> batches = new ArrayList<>();
+        LineConsumer lineConsumer = LineConsumer.batching(batches::add, StandardCharsets.UTF_8);
+        lineConsumer.append("a\nb\nc".getBytes(StandardCharsets.UTF_8));
+        lineConsumer.append("c".getBytes(StandardCharsets.UTF_8));
+        lineConsumer.append("c\nd".getBytes(StandardCharsets.UTF_8));
+        lineConsumer.flush();
+
+        Assert.assertEquals(3, batches.size());
+        Assert.assertEquals(Arrays.asList("a\n", "b\n"), batches.get(0));
+        Assert.assertEquals(Arrays.asList("ccc\n"), batches.get(1));
+        Assert.assertEquals(Arrays.asList("d"), batches.get(2));
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void lineConsumerBenchmark() throws UnsupportedEncodingException {
+        Random random = new Random(7);
+        byte[][] chunks = new byte[1024][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = randomOutput(random, 4096);
+        }
+        long[] lines = new long[1];
+        LegacyLineConsumer legacy = new LegacyLineConsumer(line -> lines[0]++, StandardCharsets.UTF_8);
+        LineConsumer perLine = new LineConsumer(line -> lines[0]++, StandardCharsets.UTF_8);
+        LineConsumer batching = LineConsumer.batching(batch -> lines[0] += batch.size(), StandardCharsets.UTF_8);
+        int rounds = 100;
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            measure("legacy", chunks, rounds, legacy::append, lines);
+            measure("LineConsumer", chunks, rounds, perLine::append, lines);
+            measure("LineConsumer batching", chunks, rounds, batching::append, lines);
+        }
+    }
+
+    private void measure(String name, byte[][] chunks, int rounds, Consumer<byte[]> consumer, long[] lines) {
+        lines[0] = 0;
+        long bytes = 0;
+        long started = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (byte[] chunk : chunks) {
+                consumer.accept(chunk);
+                bytes += chunk.length;
+            }
+        }
+        long tookNanos = System.nanoTime() - started;
+        double megabytes = (double) bytes / (1024 * 1024);
+        logger.info("{}: {} MB/s, {} lines/s.",
+                name,
+                String.format("%.1f", megabytes / (tookNanos / 1_000_000_000d)),
+                lines[0] * 1_000_000_000L / tookNanos);
+    }
+
+    /**
+     * Build output like lines of various length, some with non-latin characters.
+     */
+    private static byte[] randomOutput(Random random, int length) {
+        StringBuilder output = new StringBuilder();
+        while (output.length() < length) {
+            int lineLength = random.nextInt(10) == 0 ? random.nextInt(400) : random.nextInt(120);
+            for (int i = 0; i < lineLength; i++) {
+                output.append(random.nextInt(50) == 0 ? '家' : (char) (32 + random.nextInt(95)));
+            }
+            output.append(random.nextInt(20) == 0 ? "\r\n" : "\n");
+        }
+        return output.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The byte at a time implementation, kept to compare with.
+     */
+    private static class LegacyLineConsumer {
+        private final Consumer<String> lineConsumer;
+        private final Charset charset;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+
+        LegacyLineConsumer(Consumer<String> onLine, Charset charset) {
+            this.lineConsumer = onLine;
+            this.charset = charset;
+        }
+
+        void append(byte[] bytes) {
+            for (byte b : bytes) {
+                buffer.write(b);
+                if (b == 0xA) {
+                    try {
+                        lineConsumer.accept(buffer.toString(charset.name()));
+                    } catch (UnsupportedEncodingException e) {
+                        throw new RuntimeException(e);
+                    }
+                    buffer.reset();
+                }
+            }
+        }
+
+        void flush() {
+            if (buffer.size() > 0) {
+                try {
+                    lineConsumer.accept(buffer.toString(charset.name()));
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            buffer.reset();
+        }
+    }
+
     private List<byte[]> slicedBytes(String input, int sliceSize) {
         List<byte[]> inputs = new ArrayList<>();
         ByteBuffer inputBuffer = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
@@ -3,6 +3,8 @@ package org.jboss.pnc.buildagent.common;
 import org.junit.Assert;
 import org.junit.Test;
 
+//StringLiner is deprecated but still public, keep testing it until it is removed
+@SuppressWarnings("deprecation")
 public class StringLinerTest {
     @Test
     public void shouldSplitStringOnLines() {
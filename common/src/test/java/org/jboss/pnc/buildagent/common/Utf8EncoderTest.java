@@ -0,0 +1,148 @@
+package org.jboss.pnc.buildagent.common;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class Utf8EncoderTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(Utf8EncoderTest.class);
+
+    @Test
+    public void shouldProduceSameBytesAsStringEncoding() {
+        Random random = new Random(42);
+        for (int round = 0; round < 1000; round++) {
+            int[] codePoints = randomCodePoints(random, random.nextInt(64));
+            Assert.assertArrayEquals(legacyEncode(codePoints), Utf8Encoder.encode(codePoints));
+        }
+    }
+
+    @Test
+    public void shouldJoinSurrogatePairsAndReplaceUnpaired() {
+        String pair = new String(Character.toChars(0x1F600));
+        int[] codePoints = {'a', pair.charAt(0), pair.charAt(1), 'b', pair.charAt(0), 'c', pair.charAt(1), 0x1F600};
+        byte[] bytes = Utf8Encoder.encode(codePoints);
+
+        Assert.assertArrayEquals(legacyEncode(codePoints), bytes);
+        Assert.assertEquals("a" + pair + "b?c?" + pair, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldReplaceInvalidCodePoints() {
+        int[] codePoints = {'a', -1, Character.MAX_CODE_POINT + 1, 'b'};
+        Assert.assertEquals("a??b", new String(Utf8Encoder.encode(codePoints), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldEncodeIntoBuffers() {
+        int[] codePoints = "x对于绑定😀".codePoints().toArray();
+        byte[] expected = legacyEncode(codePoints);
+
+        ByteBuffer heap = ByteBuffer.allocate(64);
+        heap.put((byte) '>');
+        Assert.assertEquals(expected.length, Utf8Encoder.encode(codePoints, 0, codePoints.length, heap));
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put((byte) '>');
+        Assert.assertEquals(expected.length, Utf8Encoder.encode(codePoints, 0, codePoints.length, direct));
+
+        for (ByteBuffer buffer : new ByteBuffer[]{heap, direct}) {
+            buffer.flip();
+            byte[] written = new byte[buffer.remaining()];
+            buffer.get(written);
+            Assert.assertEquals(">x对于绑定😀", new String(written, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void shouldNotWritePartialOutputOnOverflow() {
+        int[] codePoints = "对于".codePoints().toArray();
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        try {
+            Utf8Encoder.encode(codePoints, 0, codePoints.length, buffer);
+            Assert.fail("Expected BufferOverflowException.");
+        } catch (BufferOverflowException expected) {
+        }
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void encoderBenchmark() {
+        Random random = new Random(7);
+        int[][] chunks = new int[1024][];
+        long inputBytes = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            //mostly ascii build output with some non-latin characters
+            chunks[i] = random.nextInt(10) == 0 ? randomCodePoints(random, 512) : asciiCodePoints(random, 512);
+            inputBytes += legacyEncode(chunks[i]).length;
+        }
+        int rounds = 200;
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            measure("legacy", chunks, inputBytes, rounds, Utf8EncoderTest::legacyEncode);
+            measure("Utf8Encoder", chunks, inputBytes, rounds, Utf8Encoder::encode);
+        }
+    }
+
+    private void measure(String name, int[][] chunks, long inputBytes, int rounds, java.util.function.Function<int[], byte[]> encoder) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long started = System.nanoTime();
+        long sink = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int[] chunk : chunks) {
+                sink += encoder.apply(chunk).length;
+            }
+        }
+        long tookNanos = System.nanoTime() - started;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        double megabytes = (double) sink / (1024 * 1024);
+        logger.info("{}: {} MB/s, {} bytes allocated per MB of output.",
+                name,
+                String.format("%.1f", megabytes / (tookNanos / 1_000_000_000d)),
+                allocated / (long) megabytes);
+        Assert.assertEquals(inputBytes * rounds, sink);
+    }
+
+    private static byte[] legacyEncode(int[] codePoints) {
+        String string = IntStream.of(codePoints)
+                .mapToObj(i -> new String(Character.toChars(i)))
+                .collect(Collectors.joining());
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int[] asciiCodePoints(Random random, int length) {
+        int[] codePoints = new int[length];
+        for (int i = 0; i < length; i++) {
+            codePoints[i] = i % 80 == 79 ? '\n' : 32 + random.nextInt(95);
+        }
+        return codePoints;
+    }
+
+    private static int[] randomCodePoints(Random random, int length) {
+        int[] codePoints = new int[length];
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(6)) {
+                case 0: codePoints[i] = random.nextInt(0x80); break;
+                case 1: codePoints[i] = 0x80 + random.nextInt(0x800 - 0x80); break;
+                case 2: codePoints[i] = 0x800 + random.nextInt(0xD800 - 0x800); break;
+                case 3: codePoints[i] = Character.MIN_SURROGATE + random.nextInt(0x800); break;
+                case 4: codePoints[i] = 0xE000 + random.nextInt(0x10000 - 0xE000); break;
+                default: codePoints[i] = 0x10000 + random.nextInt(Character.MAX_CODE_POINT - 0xFFFF); break;
+            }
+        }
+        return codePoints;
+    }
+}
@@ -0,0 +1,83 @@
+package org.jboss.pnc.buildagent.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class Utf8LinerTest {
+
+    @Test
+    public void shouldSplitLinesLikeStringLiner() {
+        List<String> lines = new ArrayList<>();
+        Utf8Liner liner = new Utf8Liner(1024, lines::add);
+
+        liner.append(bytes("aa"));
+        Assert.assertTrue(lines.isEmpty());
+        liner.append(bytes("\r\n"));
+        liner.append(bytes("bb\n"));
+        liner.append(bytes("cc\r"));
+        Assert.assertEquals(Arrays.asList("aa", "bb", "cc"), lines);
+        liner.append(bytes("dd"));
+        Assert.assertEquals(3, lines.size());
+        liner.append(bytes("\n"));
+        Assert.assertEquals(Arrays.asList("aa", "bb", "cc", "dd"), lines);
+    }
+
+    @Test
+    public void shouldDecodeCharactersAndCrlfSplitAcrossChunks() {
+        String input = "A home : 家\r\nSecond line\rThird 😀 line\n\nlast";
+        byte[] bytes = bytes(input);
+        List<String> lines = new ArrayList<>();
+        Utf8Liner liner = new Utf8Liner(1024, lines::add);
+        for (byte b : bytes) {
+            liner.append(new byte[] {b});
+        }
+        liner.flush();
+        Assert.assertEquals(Arrays.asList("A home : 家", "Second line", "Third 😀 line", "", "last"), lines);
+    }
+
+    @Test
+    public void shouldSplitLongLinesOnCharacterBoundary() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            input.append("家");
+        }
+        List<String> lines = new ArrayList<>();
+        Utf8Liner liner = new Utf8Liner(16, lines::add);
+        liner.append(bytes(input + "\n"));
+
+        StringBuilder joined = new StringBuilder();
+        for (String line : lines) {
+            Assert.assertTrue(line, bytes(line).length <= 16);
+            Assert.assertFalse(line, line.contains("�"));
+            joined.append(line);
+        }
+        Assert.assertEquals(input.toString(), joined.toString());
+    }
+
+    @Test
+    public void longLineWithoutTerminatorShouldBeLinear() {
+        List<String> lines = new ArrayList<>();
+        Utf8Liner liner = new Utf8Liner(Integer.MAX_VALUE - 8, lines::add);
+        byte[] chunk = bytes("[INFO] Downloading 12345/67890 KB ");
+        long started = System.currentTimeMillis();
+        for (int i = 0; i < 200_000; i++) {
+            liner.append(chunk);
+        }
+        liner.append(bytes("\n"));
+        Assert.assertEquals(1, lines.size());
+        Assert.assertEquals(chunk.length * 200_000, lines.get(0).length());
+        Assert.assertTrue("Splitting took too long.", System.currentTimeMillis() - started < 5000);
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,214 @@
+package org.jboss.pnc.buildagent.common.blocklog;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class BlockLogTest {
+
+    private static Logger logger = LoggerFactory.getLogger(BlockLogTest.class);
+
+    @Test
+    public void shouldReadRangesDecompressingOnlyCoveringBlocks() throws IOException {
+        Path path = Files.createTempDirectory("blocklog").resolve("console.log.blz");
+        byte[] content = buildOutput(new Random(1), 200_000);
+        try (BlockLogWriter writer = new BlockLogWriter(path, 4096, Deflater.DEFAULT_COMPRESSION)) {
+            for (int i = 0; i < content.length; i += 1000) {
+                writer.write(content, i, Math.min(1000, content.length - i));
+            }
+        }
+
+        try (BlockLogReader reader = BlockLogReader.open(path)) {
+            Assert.assertEquals(content.length, reader.getUncompressedSize());
+            Assert.assertEquals((content.length + 4095) / 4096, reader.getBlockCount());
+            Assert.assertTrue(reader.getCompressedSize() < content.length / 2);
+
+            Assert.assertArrayEquals(content, transfer(reader, 0, content.length));
+
+            long inflated = reader.getBlocksInflated();
+            Assert.assertArrayEquals(copy(content, content.length - 5000, 5000), transfer(reader, content.length - 5000, 5000));
+            Assert.assertTrue(reader.getBlocksInflated() - inflated <= 3);
+
+            Assert.assertArrayEquals(copy(content, 4090, 20), transfer(reader, 4090, 20));
+            Assert.assertArrayEquals(copy(content, content.length - 10, 10), transfer(reader, content.length - 10, 1000));
+
+            byte[] bytes = new byte[10_000];
+            Assert.assertEquals(10_000, reader.read(12_345, bytes, 0, bytes.length));
+            Assert.assertArrayEquals(copy(content, 12_345, 10_000), bytes);
+            Assert.assertEquals(-1, reader.read(content.length, bytes, 0, bytes.length));
+        }
+    }
+
+    @Test
+    public void shouldAppendFlushedBlocksAfterReopen() throws IOException {
+        Path path = Files.createTempDirectory("blocklog").resolve("console.log.blz");
+        try (BlockLogWriter writer = new BlockLogWriter(path, 1024, Deflater.DEFAULT_COMPRESSION)) {
+            writer.write(bytes("first\n"));
+            writer.flush();
+            try (BlockLogReader reader = BlockLogReader.open(path)) {
+                Assert.assertEquals("first\n", new String(transfer(reader, 0, 100), StandardCharsets.UTF_8));
+            }
+            writer.write(bytes("second\n"));
+        }
+        try (BlockLogWriter writer = new BlockLogWriter(path, 64, Deflater.DEFAULT_COMPRESSION)) {
+            writer.write(bytes("third\n"));
+        }
+        try (BlockLogReader reader = BlockLogReader.open(path)) {
+            Assert.assertEquals(3, reader.getBlockCount());
+            Assert.assertEquals("first\nsecond\nthird\n", new String(transfer(reader, 0, 100), StandardCharsets.UTF_8));
+            Assert.assertEquals("ond\nthir", new String(transfer(reader, 9, 8), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void shouldRecoverBlocksMissingInIndexAndDropTruncatedBlock() throws IOException {
+        Path path = Files.createTempDirectory("blocklog").resolve("console.log.blz");
+        Path indexPath = BlockLogFormat.indexPath(path);
+        byte[] content = buildOutput(new Random(2), 50_000);
+        try (BlockLogWriter writer = new BlockLogWriter(path, 1000, Deflater.DEFAULT_COMPRESSION)) {
+            writer.write(content);
+        }
+        //index lags behind and the last entry is cut
+        try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+            index.truncate(10 * BlockLogFormat.INDEX_ENTRY_BYTES + 5);
+        }
+        try (BlockLogReader reader = BlockLogReader.open(path)) {
+            Assert.assertEquals(content.length, reader.getUncompressedSize());
+            Assert.assertArrayEquals(copy(content, 30_000, 5000), transfer(reader, 30_000, 5000));
+        }
+
+        //crash while writing the last block
+        try (FileChannel data = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            data.truncate(data.size() - 3);
+        }
+        int complete;
+        try (BlockLogReader reader = BlockLogReader.open(path)) {
+            complete = (int) reader.getUncompressedSize();
+            Assert.assertEquals(49_000, complete);
+            Assert.assertArrayEquals(copy(content, 0, complete), transfer(reader, 0, content.length));
+        }
+        try (BlockLogWriter writer = new BlockLogWriter(path, 1000, Deflater.DEFAULT_COMPRESSION)) {
+            writer.write(bytes("after crash\n"));
+        }
+        try (BlockLogReader reader = BlockLogReader.open(path)) {
+            Assert.assertEquals(complete + 12, reader.getUncompressedSize());
+            Assert.assertEquals("after crash\n", new String(transfer(reader, complete, 100), StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(50 * BlockLogFormat.INDEX_ENTRY_BYTES, Files.size(indexPath));
+    }
+
+    @Test
+    public void shouldRejectNonBlockLog() throws IOException {
+        Path path = Files.createTempFile("console", ".log");
+        Files.write(path, bytes("plain text output\n"));
+        Assert.assertFalse(BlockLogReader.isBlockLog(path));
+        Assert.assertFalse(BlockLogReader.hasBlockLogSuffix(path));
+        Assert.assertTrue(BlockLogReader.hasBlockLogSuffix(path.resolveSibling("console.log.blz")));
+        try {
+            BlockLogReader.open(path).close();
+            Assert.fail("Plain file must not open as a block log.");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void blockLogBenchmark() throws IOException {
+        Path folder = Files.createTempDirectory("blocklog");
+        byte[] content = buildOutput(new Random(3), 64 * 1024 * 1024);
+
+        long started = System.nanoTime();
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(content);
+        }
+        logger.info("gzip: {} bytes, ratio {}, {} ms.", gzipped.size(),
+                String.format("%.1f", (double) content.length / gzipped.size()),
+                (System.nanoTime() - started) / 1_000_000);
+
+        for (int blockBytes : new int[] {16 * 1024, 64 * 1024, 256 * 1024}) {
+            Path path = folder.resolve("console-" + blockBytes + ".log.blz");
+            started = System.nanoTime();
+            try (BlockLogWriter writer = new BlockLogWriter(path, blockBytes, Deflater.DEFAULT_COMPRESSION)) {
+                for (int i = 0; i < content.length; i += 4096) {
+                    writer.write(content, i, Math.min(4096, content.length - i));
+                }
+            }
+            long writeMillis = (System.nanoTime() - started) / 1_000_000;
+            long tailStarted = System.nanoTime();
+            int tails = 1000;
+            for (int i = 0; i < tails; i++) {
+                //about the last 500 lines, a new reader each time so no block is cached
+                try (BlockLogReader reader = BlockLogReader.open(path)) {
+                    transfer(reader, content.length - 40_000 - i, 40_000);
+                }
+            }
+            logger.info("block {}: {} bytes, ratio {}, write {} ms, last 500 lines read in {} us.",
+                    blockBytes,
+                    Files.size(path) + Files.size(BlockLogFormat.indexPath(path)),
+                    String.format("%.1f", (double) content.length / Files.size(path)),
+                    writeMillis,
+                    (System.nanoTime() - tailStarted) / 1000 / tails);
+        }
+    }
+
+    private static byte[] transfer(BlockLogReader reader, long position, long length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.transferTo(position, length, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] copy(byte[] bytes, int from, int length) {
+        return java.util.Arrays.copyOfRange(bytes, from, from + length);
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maven like build output.
+     */
+    private static byte[] buildOutput(Random random, int size) {
+        String[] artifacts = {"commons-io", "jackson-databind", "undertow-core", "slf4j-api", "junit", "termd-core"};
+        StringBuilder output = new StringBuilder(size + 200);
+        int line = 0;
+        while (output.length() < size) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    output.append("[INFO] Downloading from central: https://repo.maven.apache.org/maven2/org/")
+                            .append(artifacts[random.nextInt(artifacts.length)]).append('/')
+                            .append(random.nextInt(10)).append('.').append(random.nextInt(20)).append(".pom\n");
+                    break;
+                case 1:
+                    output.append("[INFO] Tests run: ").append(random.nextInt(100))
+                            .append(", Failures: 0, Errors: 0, Skipped: ").append(random.nextInt(3))
+                            .append(", Time elapsed: ").append(random.nextInt(10_000) / 1000d).append(" s\n");
+                    break;
+                case 2:
+                    output.append("[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ module-")
+                            .append(line % 50).append(" ---\n");
+                    break;
+                default:
+                    output.append(String.format("%08d %s%n", line, Long.toHexString(random.nextLong())));
+            }
+            line++;
+        }
+        return copy(output.toString().getBytes(StandardCharsets.UTF_8), 0, size);
+    }
+}
@@ -0,0 +1,128 @@
+package org.jboss.pnc.buildagent.common.ringfile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class RingFileTest {
+
+    @Test
+    public void shouldReadAcrossRingEnd() throws IOException {
+        Path path = Files.createTempDirectory("ringfile").resolve("console.ring");
+        RingFileWriter writer = new RingFileWriter(path, 16);
+        RingFileReader reader = RingFileReader.open(path);
+        byte[] bytes = new byte[16];
+
+        Assert.assertEquals(0, reader.read(bytes, 0, bytes.length));
+        writer.write(bytes("0123456789"));
+        Assert.assertEquals("0123456789", read(reader, bytes));
+        writer.write(bytes("abcdefghij"));
+        Assert.assertEquals(2, reader.getSequence());
+        Assert.assertEquals("abcdefghij", read(reader, bytes));
+        Assert.assertEquals(20, reader.getPosition());
+        Assert.assertEquals(0, reader.getLostBytes());
+        Assert.assertFalse(reader.isWriterClosed());
+        writer.close();
+        Assert.assertTrue(reader.isWriterClosed());
+    }
+
+    @Test
+    public void shouldSkipOverwrittenBytes() throws IOException {
+        Path path = Files.createTempDirectory("ringfile").resolve("console.ring");
+        RingFileWriter writer = new RingFileWriter(path, 8);
+        RingFileReader reader = RingFileReader.open(path);
+        writer.write(bytes("abc"));
+        writer.write(bytes("0123456789"));
+        byte[] bytes = new byte[8];
+        Assert.assertEquals("23456789", read(reader, bytes));
+        Assert.assertEquals(5, reader.getLostBytes());
+
+        //a new reader starts at the oldest byte in the ring
+        writer.write(bytes("xyz"));
+        Assert.assertEquals("56789xyz", read(RingFileReader.open(path), bytes));
+    }
+
+    @Test
+    public void shouldContinueAfterWriterRestart() throws IOException {
+        Path path = Files.createTempDirectory("ringfile").resolve("console.ring");
+        RingFileWriter writer = new RingFileWriter(path, 64);
+        writer.write(bytes("before "));
+        writer.close();
+        RingFileReader reader = RingFileReader.open(path);
+        byte[] bytes = new byte[64];
+        Assert.assertEquals("before ", read(reader, bytes));
+
+        writer = new RingFileWriter(path, 64);
+        Assert.assertEquals(7, writer.getWritePosition());
+        writer.write(bytes("after"));
+        Assert.assertEquals("after", read(reader, bytes));
+
+        //a different capacity writes a new file, the open reader keeps reading the old one
+        writer = new RingFileWriter(path, 32);
+        writer.write(bytes("new"));
+        Assert.assertTrue(reader.isWriterClosed());
+        Assert.assertEquals("", read(reader, bytes));
+        Assert.assertEquals(12, reader.getWritePosition());
+        RingFileReader newReader = RingFileReader.open(path);
+        Assert.assertEquals(32, newReader.getCapacity());
+        Assert.assertEquals("new", read(newReader, bytes));
+    }
+
+    @Test
+    public void shouldReadValidBytesWhileWriterLaps() throws Exception {
+        Path path = Files.createTempDirectory("ringfile").resolve("console.ring");
+        RingFileWriter writer = new RingFileWriter(path, 4096);
+        RingFileReader reader = RingFileReader.open(path);
+        long total = 64L * 1024 * 1024;
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writerThread = new Thread(() -> {
+            byte[] chunk = new byte[1000];
+            long position = 0;
+            while (position < total) {
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = expected(position + i);
+                }
+                writer.write(chunk);
+                position += chunk.length;
+            }
+            done.set(true);
+        });
+        writerThread.start();
+
+        byte[] bytes = new byte[3000];
+        long read = 0;
+        while (!done.get() || reader.getPosition() < writer.getWritePosition()) {
+            long position = reader.getPosition();
+            int n = reader.read(bytes, 0, bytes.length);
+            long from = reader.getPosition() - n;
+            Assert.assertTrue(from >= position);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals("Invalid byte at " + (from + i), expected(from + i), bytes[i]);
+            }
+            read += n;
+        }
+        writerThread.join();
+        Assert.assertEquals(reader.getPosition(), read + reader.getLostBytes());
+    }
+
+    private static byte expected(long position) {
+        return (byte) (position * 31 % 251);
+    }
+
+    private static String read(RingFileReader reader, byte[] bytes) {
+        int read = reader.read(bytes, 0, bytes.length);
+        return new String(bytes, 0, read, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,308 @@
+package org.jboss.pnc.buildagent.logback.formatter;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.function.LongSupplier;
+
+/**
+ * A JSON object layout compiled once. The static fields are serialized when the template is built, the adjacent ones
+ * are merged into a single string. Formatting a line appends only the dynamic values (timestamp, thread, message and
+ * sequence) between them into a per-thread reusable buffer.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class JsonLineTemplate {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private enum Slot {
+        TIMESTAMP, THREAD, MESSAGE, SEQUENCE
+    }
+
+    /**
+     * Static JSON preceding each slot, the last one follows the last slot.
+     */
+    private final String[] literals;
+    private final Slot[] slots;
+
+    private final String timestampFormat;
+    private final String timestampZone;
+
+    private final LongSupplier sequence;
+
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    private JsonLineTemplate(Builder builder) {
+        this.literals = builder.literals.toArray(new String[0]);
+        this.slots = builder.slots.toArray(new Slot[0]);
+        this.timestampFormat = builder.timestampFormat;
+        this.timestampZone = builder.timestampZone;
+        this.sequence = builder.sequence;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public String format(String message) {
+        return format(message, System.currentTimeMillis());
+    }
+
+    public String format(String message, long timestamp) {
+        return format(message, timestamp, sequence == null ? 0 : sequence.getAsLong());
+    }
+
+    /**
+     * @param sequence written instead of a value of the builder sequence source, eg. one reserved in line order
+     */
+    public String format(String message, long timestamp, long sequence) {
+        State state = this.state.get();
+        StringBuilder buffer = state.buffer;
+        buffer.setLength(0);
+        for (int i = 0; i < slots.length; i++) {
+            buffer.append(literals[i]);
+            switch (slots[i]) {
+                case TIMESTAMP:
+                    buffer.append(state.timestamp(timestamp));
+                    break;
+                case THREAD:
+                    buffer.append(state.threadName());
+                    break;
+                case MESSAGE:
+                    escape(message, buffer);
+                    break;
+                case SEQUENCE:
+                    buffer.append(sequence);
+                    break;
+            }
+        }
+        buffer.append(literals[slots.length]);
+        String line = buffer.toString();
+        if (buffer.capacity() > State.MAX_RETAINED_CAPACITY) {
+            state.buffer = new StringBuilder(State.INITIAL_CAPACITY);
+        }
+        return line;
+    }
+
+    /**
+     * Escapes the string the way Jackson does by default: quote, backslash and the control characters.
+     */
+    static void escape(String value, StringBuilder out) {
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        out.append(value, start, length);
+    }
+
+    private class State {
+        private static final int INITIAL_CAPACITY = 512;
+        private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+        private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+
+        private SimpleDateFormat dateFormat;
+        private long lastTimestamp = Long.MIN_VALUE;
+        private String lastFormattedTimestamp;
+
+        private String lastThreadName;
+        private String lastEscapedThreadName;
+
+        /**
+         * The lines written in the same millisecond reuse the formatted timestamp.
+         */
+        String timestamp(long timestamp) {
+            if (timestamp != lastTimestamp) {
+                lastTimestamp = timestamp;
+                if (timestampFormat == null || timestamp < 0) {
+                    lastFormattedTimestamp = Long.toString(timestamp);
+                } else {
+                    if (dateFormat == null) {
+                        dateFormat = new SimpleDateFormat(timestampFormat);
+                        if (timestampZone != null) {
+                            dateFormat.setTimeZone(TimeZone.getTimeZone(timestampZone));
+                        }
+                    }
+                    StringBuilder escaped = new StringBuilder();
+                    escape(dateFormat.format(new Date(timestamp)), escaped);
+                    lastFormattedTimestamp = escaped.toString();
+                }
+            }
+            return lastFormattedTimestamp;
+        }
+
+        String threadName() {
+            String name = Thread.currentThread().getName();
+            if (name != lastThreadName) {
+                StringBuilder escaped = new StringBuilder();
+                escape(name, escaped);
+                lastThreadName = name;
+                lastEscapedThreadName = escaped.toString();
+            }
+            return lastEscapedThreadName;
+        }
+    }
+
+    /**
+     * Adds the fields in the order they appear in the JSON object.
+     */
+    public static class Builder {
+
+        private final List<String> literals = new ArrayList<>();
+        private final List<Slot> slots = new ArrayList<>();
+        private final StringBuilder literal = new StringBuilder("{");
+        private boolean first = true;
+
+        private String timestampFormat;
+        private String timestampZone;
+        private LongSupplier sequence;
+        private String suffix = "";
+
+        private Builder() {
+        }
+
+        /**
+         * @param format {@link SimpleDateFormat} pattern, null writes the milliseconds since the epoch
+         * @param zone time zone id, null for the default zone
+         */
+        public Builder timestamp(String name, String format, String zone) {
+            this.timestampFormat = format;
+            this.timestampZone = zone;
+            return stringSlot(name, Slot.TIMESTAMP);
+        }
+
+        public Builder thread(String name) {
+            return stringSlot(name, Slot.THREAD);
+        }
+
+        public Builder message(String name) {
+            return stringSlot(name, Slot.MESSAGE);
+        }
+
+        /**
+         * @param sequence source of the values, eg. a counter shared by the templates so a template compiled again
+         *         continues the sequence
+         */
+        public Builder sequence(String name, LongSupplier sequence) {
+            this.sequence = sequence;
+            key(name);
+            return slot(Slot.SEQUENCE);
+        }
+
+        /**
+         * A field with the same value in each line, null values are omitted.
+         */
+        public Builder field(String name, String value) {
+            if (value != null) {
+                key(name);
+                string(value);
+            }
+            return this;
+        }
+
+        /**
+         * An object with the same string entries in each line, it is omitted when it is empty.
+         */
+        public Builder map(String name, Map<String, String> entries) {
+            if (entries == null || entries.isEmpty()) {
+                return this;
+            }
+            key(name);
+            literal.append('{');
+            boolean firstEntry = true;
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                if (!firstEntry) {
+                    literal.append(',');
+                }
+                firstEntry = false;
+                string(entry.getKey());
+                literal.append(':');
+                if (entry.getValue() == null) {
+                    literal.append("null");
+                } else {
+                    string(entry.getValue());
+                }
+            }
+            literal.append('}');
+            return this;
+        }
+
+        /**
+         * Appended after the closing brace, eg. a line separator.
+         */
+        public Builder suffix(String suffix) {
+            this.suffix = suffix;
+            return this;
+        }
+
+        public JsonLineTemplate build() {
+            literals.add(literal.toString() + "}" + suffix);
+            return new JsonLineTemplate(this);
+        }
+
+        private Builder stringSlot(String name, Slot slot) {
+            key(name);
+            literal.append('"');
+            slot(slot);
+            literal.append('"');
+            return this;
+        }
+
+        private Builder slot(Slot slot) {
+            literals.add(literal.toString());
+            literal.setLength(0);
+            slots.add(slot);
+            return this;
+        }
+
+        private void key(String name) {
+            if (!first) {
+                literal.append(',');
+            }
+            first = false;
+            string(name);
+            literal.append(':');
+        }
+
+        private void string(String value) {
+            literal.append('"');
+            escape(value, literal);
+            literal.append('"');
+        }
+    }
+}
@@ -12,8 +12,22 @@ public class SequencedLayout extends CustomKeysJsonLayout {
 
     private static final AtomicLong sequence = new AtomicLong();
 
+    /**
+     * @return next value of the sequence shared by the layouts and the line templates of the process
+     */
+    static long nextSequence() {
+        return sequence.getAndIncrement();
+    }
+
+    /**
+     * @return first of the count consecutive values taken from the sequence
+     */
+    static long reserveSequence(int count) {
+        return sequence.getAndAdd(count);
+    }
+
     protected void addCustomDataToJsonMap(Map<String, Object> map, ILoggingEvent event) {
-        map.put("sequence", sequence.getAndIncrement());
+        map.put("sequence", nextSequence());
     }
 
 }
@@ -0,0 +1,138 @@
+package org.jboss.pnc.buildagent.logback.formatter;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.contrib.json.classic.JsonLayout;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+import org.jboss.pnc.buildagent.api.logging.SequencedLogFormatter;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.Map;
+
+/**
+ * Formats the lines with the field layout of the {@link JsonLayout} configured for the build log appender (the same
+ * one {@link LogbackFormatter} uses) without creating a logging event per line. The layout, the MDC and the logger
+ * name are serialized once into a {@link JsonLineTemplate}, a line appends only the timestamp, the thread, the message
+ * and the sequence. When there is no JSON layout configured the {@link SequencedLayout} defaults are used.
+ *
+ * The context is the one set by {@link #setStaticContext(Map)}, without it the MDC is taken when the first line is
+ * formatted, it has to be the same for all the lines. The JSON is written compact, the pretty print setting of the
+ * layout is ignored.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class TemplateJsonFormatter implements SequencedLogFormatter {
+
+    static final String LOGGER_NAME = "org.jboss.pnc._userlog_.build-log";
+    private static final String APPENDER_NAME = "STDOUT-BUILD-LOG";
+
+    private final JsonLayout layout;
+    private final String contextName;
+
+    private volatile JsonLineTemplate template;
+
+    public TemplateJsonFormatter() {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        Logger logger = context.getLogger(LOGGER_NAME);
+        JsonLayout configured = findLayout(logger.getAppender(APPENDER_NAME));
+        layout = configured == null ? new SequencedLayout() : configured;
+        contextName = context.getName();
+    }
+
+    @Override
+    public boolean setStaticContext(Map<String, String> context) {
+        template = compile(context);
+        return true;
+    }
+
+    @Override
+    public String format(String message) {
+        return template().format(message);
+    }
+
+    @Override
+    public long reserveSequence(int lines) {
+        return SequencedLayout.reserveSequence(lines);
+    }
+
+    @Override
+    public String format(String message, long timestamp, long sequence) {
+        return template().format(message, timestamp, sequence);
+    }
+
+    private JsonLineTemplate template() {
+        JsonLineTemplate template = this.template;
+        if (template == null) {
+            template = compile(MDC.getCopyOfContextMap());
+            this.template = template;
+        }
+        return template;
+    }
+
+    /**
+     * Adds the fields in the order of {@link JsonLayout}, the sequence is added last like in {@link SequencedLayout}
+     * and shares its counter.
+     */
+    JsonLineTemplate compile(Map<String, String> mdc) {
+        JsonLineTemplate.Builder builder = JsonLineTemplate.newBuilder();
+        if (layout.isIncludeTimestamp()) {
+            builder.timestamp(
+                    attrName(JsonLayout.TIMESTAMP_ATTR_NAME),
+                    layout.getTimestampFormat(),
+                    layout.getTimestampFormatTimezoneId());
+        }
+        if (layout.isIncludeLevel()) {
+            builder.field(attrName(JsonLayout.LEVEL_ATTR_NAME), "INFO");
+        }
+        if (layout.isIncludeThreadName()) {
+            builder.thread(attrName(JsonLayout.THREAD_ATTR_NAME));
+        }
+        if (layout.isIncludeMDC()) {
+            builder.map(attrName(JsonLayout.MDC_ATTR_NAME), mdc);
+        }
+        if (layout.isIncludeLoggerName()) {
+            builder.field(attrName(JsonLayout.LOGGER_ATTR_NAME), LOGGER_NAME);
+        }
+        if (layout.isIncludeFormattedMessage()) {
+            builder.message(attrName(JsonLayout.FORMATTED_MESSAGE_ATTR_NAME));
+        }
+        if (layout.isIncludeMessage()) {
+            builder.message(attrName(JsonLayout.MESSAGE_ATTR_NAME));
+        }
+        if (layout.isIncludeContextName()) {
+            builder.field(attrName(JsonLayout.CONTEXT_ATTR_NAME), contextName);
+        }
+        if (layout instanceof SequencedLayout) {
+            builder.sequence("sequence", SequencedLayout::nextSequence);
+        }
+        if (layout.isAppendLineSeparator()) {
+            builder.suffix(CoreConstants.LINE_SEPARATOR);
+        }
+        return builder.build();
+    }
+
+    private String attrName(String key) {
+        if (layout instanceof CustomKeysJsonLayout) {
+            return ((CustomKeysJsonLayout) layout).getCustomOrDefault(key);
+        }
+        return key;
+    }
+
+    private static JsonLayout findLayout(Appender<ILoggingEvent> appender) {
+        if (!(appender instanceof OutputStreamAppender)) {
+            return null;
+        }
+        Encoder<ILoggingEvent> encoder = ((OutputStreamAppender<ILoggingEvent>) appender).getEncoder();
+        if (!(encoder instanceof LayoutWrappingEncoder)) {
+            return null;
+        }
+        Object layout = ((LayoutWrappingEncoder<ILoggingEvent>) encoder).getLayout();
+        return layout instanceof JsonLayout ? (JsonLayout) layout : null;
+    }
+}
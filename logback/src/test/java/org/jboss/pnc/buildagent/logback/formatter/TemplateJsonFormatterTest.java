@@ -0,0 +1,99 @@
+package org.jboss.pnc.buildagent.logback.formatter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class TemplateJsonFormatterTest {
+    Logger logger = LoggerFactory.getLogger(TemplateJsonFormatterTest.class);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void shouldProduceTheSameFieldsAsLogbackFormatter() throws IOException {
+        MDC.setContextMap(Collections.singletonMap("ctx", "12345"));
+        String message = "Major Tom, \"where\" is your ship ?\t\\ \u0001 ž";
+
+        Map<String, Object> expected = mapper.readValue(new LogbackFormatter().format(message), Map.class);
+        String messageJson = new TemplateJsonFormatter().format(message);
+        logger.info(messageJson);
+        Map<String, Object> actual = mapper.readValue(messageJson, Map.class);
+
+        Assert.assertEquals(message, actual.get("message"));
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, Object> entry : expected.entrySet()) {
+            if (!entry.getKey().equals("timestamp") && !entry.getKey().equals("sequence")) {
+                Assert.assertEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void shouldIncrementSequence() throws IOException {
+        MDC.setContextMap(Collections.singletonMap("ctx", "12345"));
+        TemplateJsonFormatter formatter = new TemplateJsonFormatter();
+        Map<String, Object> first = mapper.readValue(formatter.format("first"), Map.class);
+        Map<String, Object> second = mapper.readValue(formatter.format("second"), Map.class);
+        Assert.assertEquals(
+                ((Number) first.get("sequence")).longValue() + 1,
+                ((Number) second.get("sequence")).longValue());
+    }
+
+    @Test
+    public void shouldContinueSequenceAfterContextChange() throws IOException {
+        TemplateJsonFormatter formatter = new TemplateJsonFormatter();
+        formatter.setStaticContext(Collections.singletonMap("ctx", "1"));
+        Map<String, Object> first = mapper.readValue(formatter.format("first"), Map.class);
+        formatter.setStaticContext(Collections.singletonMap("ctx", "2"));
+        Map<String, Object> second = mapper.readValue(new TemplateJsonFormatter().format("second"), Map.class);
+        Map<String, Object> third = mapper.readValue(formatter.format("third"), Map.class);
+        Assert.assertEquals(
+                ((Number) first.get("sequence")).longValue() + 1,
+                ((Number) second.get("sequence")).longValue());
+        Assert.assertEquals(
+                ((Number) second.get("sequence")).longValue() + 1,
+                ((Number) third.get("sequence")).longValue());
+    }
+
+    @Test
+    public void shouldEscapeControlCharacters() {
+        StringBuilder escaped = new StringBuilder();
+        JsonLineTemplate.escape("a\"b\\c\nd\u001fe", escaped);
+        Assert.assertEquals("a\\\"b\\\\c\\nd\\u001Fe", escaped.toString());
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void formatterBenchmark() {
+        MDC.setContextMap(Collections.singletonMap("ctx", "12345"));
+        String message = "[INFO] Downloaded from central: https://repo.maven.apache.org/maven2/org/jboss/pnc/x.jar";
+        int lines = 1_000_000;
+        LogbackFormatter logbackFormatter = new LogbackFormatter();
+        TemplateJsonFormatter templateFormatter = new TemplateJsonFormatter();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long chars = 0;
+            for (int i = 0; i < lines; i++) {
+                chars += logbackFormatter.format(message).length();
+            }
+            long logback = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < lines; i++) {
+                chars += templateFormatter.format(message).length();
+            }
+            long template = System.nanoTime() - start;
+            logger.info("Round {}: LogbackFormatter {} ns/line, TemplateJsonFormatter {} ns/line ({} chars).",
+                    round, logback / lines, template / lines, chars);
+        }
+    }
+}
@@ -36,8 +36,11 @@ import org.jboss.pnc.buildagent.common.BuildAgentException;
 import org.jboss.pnc.buildagent.common.http.HttpClient;
 import org.jboss.pnc.buildagent.common.http.HeartbeatSender;
 import org.jboss.pnc.buildagent.server.httpinvoker.SessionRegistry;
+import org.jboss.pnc.buildagent.server.output.OutputDispatcher;
 import org.jboss.pnc.buildagent.server.servlet.Download;
 import org.jboss.pnc.buildagent.server.servlet.HttpInvoker;
+import org.jboss.pnc.buildagent.server.servlet.Journal;
+import org.jboss.pnc.buildagent.server.servlet.SessionViewer;
 import org.jboss.pnc.buildagent.server.servlet.Terminal;
 import org.jboss.pnc.buildagent.server.servlet.Upload;
 import org.jboss.pnc.buildagent.server.servlet.Welcome;
@@ -63,6 +66,7 @@ import static io.undertow.servlet.Servlets.defaultContainer;
 import static io.undertow.servlet.Servlets.deployment;
 import static io.undertow.servlet.Servlets.servlet;
 import static org.jboss.pnc.buildagent.api.Constants.HTTP_INVOKER_PATH;
+import static org.jboss.pnc.buildagent.api.Constants.OUTPUT_METRICS;
 import static org.jboss.pnc.buildagent.api.Constants.RUNNING_PROCESSES;
 import static org.keycloak.adapters.servlet.KeycloakOIDCFilter.CONFIG_FILE_PARAM;
 
@@ -77,16 +81,20 @@ public class BootstrapUndertow {
     private final ConcurrentHashMap<String, Term> terms = new ConcurrentHashMap<>();
     private final ScheduledExecutorService executor;
     private final Set<ReadOnlyChannel> readOnlyChannels;
+    private final OutputDispatcher outputDispatcher;
     private final Options options;
+    private final SessionRegistry sessionRegistry = new SessionRegistry();
     private HttpClient httpClient;
 
     public BootstrapUndertow(
             ScheduledExecutorService executor,
             Set<ReadOnlyChannel> ioLoggerChannels,
+            OutputDispatcher outputDispatcher,
             Options options) throws BuildAgentException {
 
         this.executor = executor;
         this.readOnlyChannels = ioLoggerChannels;
+        this.outputDispatcher = outputDispatcher;
         this.options = options;
 
         bootstrap();
@@ -112,12 +120,18 @@ public class BootstrapUndertow {
                         servlet("DownloaderServlet", Download.class)
                                 .addMapping("/download/*"));
 
+        if (options.getJournalFolder() != null) {
+            servletBuilder.addServlet(
+                    servlet("JournalServlet", Journal.class)
+                            .addInitParam(Journal.JOURNAL_FOLDER_PARAM, options.getJournalFolder().toString())
+                            .addMapping("/journal/*"));
+        }
+
         if (!Strings.isEmpty(options.getKeycloakConfigFile())) {
-            FilterInfo keycloakOIDCFilter = Servlets.filter(KeycloakOIDCFilter.class.getSimpleName(), KeycloakOIDCFilter.class);
-            keycloakOIDCFilter.addInitParam(CONFIG_FILE_PARAM, options.getKeycloakConfigFile());
-            servletBuilder.addFilter(keycloakOIDCFilter);
-            servletBuilder.addFilterUrlMapping(KeycloakOIDCFilter.class.getSimpleName(), "/terminal/*", DispatcherType.REQUEST);
-            servletBuilder.addFilterUrlMapping(KeycloakOIDCFilter.class.getSimpleName(), "/upload/*", DispatcherType.REQUEST);
+            addKeycloakFilter(servletBuilder, "/terminal/*", "/upload/*");
+            if (options.getJournalFolder() != null) {
+                servletBuilder.addFilterUrlMapping(KeycloakOIDCFilter.class.getSimpleName(), "/journal/*", DispatcherType.REQUEST);
+            }
         } else {
             log.warn("Endpoint authentication is NOT ENABLED!. Specify keycloak config file.");
         }
@@ -137,8 +151,9 @@ public class BootstrapUndertow {
                     servlet("HttpInvoker",
                             HttpInvoker.class,
                             new HttpInvokerFactory(readOnlyChannels,
+                                    outputDispatcher,
                                     httpClient,
-                                    new SessionRegistry(),
+                                    sessionRegistry,
                                     retryConfig,
                                     new HeartbeatSender(httpClient))
                     ).addMapping(HTTP_INVOKER_PATH + "/*"));
@@ -166,6 +181,10 @@ public class BootstrapUndertow {
             log.warn("UNSECURED socket invoker is enabled!");
             pathHandler.addPrefixPath(socketPath, exchange -> handleWebSocketRequests(exchange, socketPath));
         }
+        if (options.isHttpInvokerEnabled()) {
+            String sessionPath = socketPath + Constants.SESSION_PATH;
+            pathHandler.addPrefixPath(sessionPath, deploySessionViewer(sessionPath));
+        }
 
         server = Undertow.builder()
                 .addHttpListener(options.getPort(), options.getHost())
@@ -179,6 +198,40 @@ public class BootstrapUndertow {
         }
     }
 
+    private void addKeycloakFilter(DeploymentInfo deploymentInfo, String... urlMappings) {
+        FilterInfo keycloakOIDCFilter = Servlets.filter(KeycloakOIDCFilter.class.getSimpleName(), KeycloakOIDCFilter.class);
+        keycloakOIDCFilter.addInitParam(CONFIG_FILE_PARAM, options.getKeycloakConfigFile());
+        deploymentInfo.addFilter(keycloakOIDCFilter);
+        for (String urlMapping : urlMappings) {
+            deploymentInfo.addFilterUrlMapping(KeycloakOIDCFilter.class.getSimpleName(), urlMapping, DispatcherType.REQUEST);
+        }
+    }
+
+    /**
+     * The session viewer is a deployment of its own to keep its path under the socket path.
+     */
+    private HttpHandler deploySessionViewer(String sessionPath) throws BuildAgentException {
+        DeploymentInfo sessionViewerBuilder = deployment()
+                .setClassLoader(BootstrapUndertow.class.getClassLoader())
+                .setContextPath(sessionPath)
+                .setDeploymentName("session-viewer.war")
+                .addServlet(
+                        servlet("SessionViewer",
+                                SessionViewer.class,
+                                new SessionViewerFactory(sessionPath, sessionRegistry, options, executor)
+                        ).addMapping("/*"));
+        if (!Strings.isEmpty(options.getKeycloakConfigFile())) {
+            addKeycloakFilter(sessionViewerBuilder, "/*");
+        }
+        DeploymentManager manager = defaultContainer().addDeployment(sessionViewerBuilder);
+        manager.deploy();
+        try {
+            return manager.start();
+        } catch (ServletException e) {
+            throw new BuildAgentException("Cannot deploy session viewer.", e);
+        }
+    }
+
     public void stop() {
         if (server != null) {
             server.stop();
@@ -253,7 +306,7 @@ public class BootstrapUndertow {
     private Term createNewTerm(String invokerContext, Set<ReadOnlyChannel> appendReadOnlyChannels) {
         log.info("Creating new term for context [{}].", invokerContext);
         Runnable onDestroy = () -> terms.remove(invokerContext);
-        return new Term(invokerContext, onDestroy, executor, appendReadOnlyChannels);
+        return new Term(invokerContext, onDestroy, executor, appendReadOnlyChannels, outputDispatcher, options);
     }
 
     public Map<String, Term> getTerms() {
@@ -275,6 +328,11 @@ public class BootstrapUndertow {
             getProcessActiveTerms().handleRequest(exchange);
             return;
         }
+        if (pathMatches(requestPath, OUTPUT_METRICS)) {
+            log.debug("Output metrics handler requested.");
+            getOutputMetrics().handleRequest(exchange);
+            return;
+        }
         ResponseCodeHandler.HANDLE_404.handleRequest(exchange);
     }
 
@@ -290,6 +348,20 @@ public class BootstrapUndertow {
         };
     }
 
+    private HttpHandler getOutputMetrics() {
+        return exchange -> {
+            ObjectMapper mapper = new ObjectMapper();
+            Map<String, Object> metrics = new HashMap<>();
+            metrics.put("sinks", outputDispatcher.getMetrics());
+            Map<String, Map<String, Long>> frames = new HashMap<>();
+            terms.forEach((context, term) -> frames.put(context, term.getFrameCounters()));
+            metrics.put("terminalFrames", frames);
+            metrics.put("scrollback", outputDispatcher.getScrollbackCounters());
+            String jsonString = mapper.writeValueAsString(metrics);
+            exchange.getResponseSender().send(jsonString);
+        };
+    }
+
     private String getManifestInformation() {
         String result = "";
         try {
@@ -19,21 +19,31 @@
 package org.jboss.pnc.buildagent.server;
 
 import org.jboss.pnc.buildagent.common.BuildAgentException;
+import org.jboss.pnc.buildagent.server.journal.JournalBudget;
+import org.jboss.pnc.buildagent.server.output.DirectBufferPool;
+import org.jboss.pnc.buildagent.server.output.MultiPatternMatcher;
+import org.jboss.pnc.buildagent.server.output.OutputDispatcher;
+import org.jboss.pnc.buildagent.server.output.ScrollbackPool;
+import org.jboss.pnc.buildagent.server.sessionlog.SessionLogs;
 import org.jboss.pnc.buildagent.server.termserver.Term;
+import org.jboss.pnc.common.concurrent.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
@@ -43,9 +53,22 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 public class BuildAgentServer {
 
     private final Logger log = LoggerFactory.getLogger(BuildAgentServer.class);
+
+    private static final int FILE_BUFFERS_POOLED = 16;
+
     private BootstrapUndertow undertowBootstrap;
     private final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+    /**
+     * Commits and fsyncs of the log files, a slow disk does not delay the websocket timers of the executor.
+     */
+    private final ScheduledExecutorService fileExecutor = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("file-commit"));
     Set<ReadOnlyChannel> sinkChannels = new HashSet<>();
+    private final Set<ReadOnlyChannel> dedupSinks = new HashSet<>();
+    private final Map<ReadOnlyChannel, MultiPatternMatcher> lineRoutes = new HashMap<>();
+    private OutputDispatcher outputDispatcher;
+    private DirectBufferPool fileBufferPool;
+    private SessionLogs sessionLogs;
 
     private final Options options;
 
@@ -73,15 +96,40 @@ public class BuildAgentServer {
             Map<String, String> logMDC) throws BuildAgentException {
 
         List<IoLoggerName> primaryLoggers = Arrays.asList(primaryLoggersArr);
+        fileBufferPool = new DirectBufferPool(options.getFileBufferBytes(), FILE_BUFFERS_POOLED);
 
         if (IoLogLogger.processLog.isInfoEnabled()) {
             log.info("Initializing Logger sink.");
-            sinkChannels.add(new IoLogLogger(logMDC));
+            sinkChannels.add(named(IoLoggerName.LOG, new IoLogLogger(logMDC)));
         }
 
         if (logPath.isPresent()) {
             log.info("Initializing File sink.");
-            sinkChannels.add(new IoFileLogger(logPath.get(), isPrimary(primaryLoggers, IoLoggerName.FILE)));
+            sinkChannels.add(named(IoLoggerName.FILE, new IoFileLogger(
+                    logPath.get(),
+                    isPrimary(primaryLoggers, IoLoggerName.FILE),
+                    fileBufferPool,
+                    options.getFileMaxDelayMillis(),
+                    options.getFileDurability(),
+                    options.getFileFsyncIntervalMillis(),
+                    fileExecutor)));
+            if (options.isBlockLogEnabled()) {
+                log.info("Initializing block compressed File sink.");
+                sinkChannels.add(named(IoLoggerName.BLOCK_FILE, new IoBlockFileLogger(
+                        logPath.get(),
+                        isPrimary(primaryLoggers, IoLoggerName.BLOCK_FILE),
+                        options.getBlockLogBlockBytes(),
+                        options.getBlockLogCompressionLevel())));
+            }
+        }
+
+        if (options.getRingFilePath() != null) {
+            log.info("Initializing ring file sink {}.", options.getRingFilePath());
+            try {
+                sinkChannels.add(new IoRingFileLogger(options.getRingFilePath(), options.getRingFileBytes()));
+            } catch (IOException e) {
+                throw new BuildAgentException("Cannot initialize ring file sink.", e);
+            }
         }
 
         if (kafkaConfig.isPresent()) {
@@ -94,19 +142,108 @@ public class BuildAgentServer {
             }
             String queueTopic = properties.getProperty("pnc.queue_topic", "pnc-logs");
             long flushTimeoutMillis = Long.parseLong(properties.getProperty("pnc.flush_timeout_millis", "10000"));
+            String logFormatter = properties.getProperty("pnc.log_formatter");
+            int formatThreads = Integer.parseInt(properties.getProperty("pnc.format_threads", "0"));
+            int packMaxLines = Integer.parseInt(properties.getProperty("pnc.pack_max_lines", "1"));
+            int packMaxBytes = Integer.parseInt(properties.getProperty("pnc.pack_max_bytes", "262144"));
+            String queueFile = properties.getProperty("pnc.queue_file");
+            String spoolPath = properties.getProperty("pnc.spool_path");
+            int spoolMemoryRecords = Integer.parseInt(properties.getProperty("pnc.spool_memory_records", "10000"));
+            long spoolDrainTimeoutMillis = Long.parseLong(
+                    properties.getProperty("pnc.spool_drain_timeout_millis", Long.toString(flushTimeoutMillis / 2)));
+            long spoolMaxBytes = Long.parseLong(properties.getProperty("pnc.spool_max_bytes", "1073741824"));
+            SpoolingQueueAdapter.Overflow spoolOverflow = SpoolingQueueAdapter.Overflow.valueOf(
+                    properties.getProperty("pnc.spool_overflow", SpoolingQueueAdapter.Overflow.DROP_NEWEST.name()));
+            String recordKeyMdc = properties.getProperty("pnc.record_key_mdc");
+            boolean mdcInHeaders = Boolean.parseBoolean(properties.getProperty("pnc.mdc_in_headers", "false"));
+            String recordKey = null;
+            if (recordKeyMdc != null) {
+                recordKey = logMDC.get(recordKeyMdc);
+                if (recordKey == null) {
+                    log.warn("MDC key {} used as the record key is not defined, records are sent without a key.", recordKeyMdc);
+                }
+            }
+            //the formatters read the MDC, with the context in the headers it is left out of the message
+            Map<String, String> queueMDC = mdcInHeaders ? Collections.emptyMap() : logMDC;
 
             try {
-                KafkaQueueAdapter kafkaQueueAdapter = new KafkaQueueAdapter(properties, queueTopic);
-                sinkChannels.add(new IoQueueLogger(kafkaQueueAdapter, isPrimary(primaryLoggers, IoLoggerName.KAFKA), flushTimeoutMillis, logMDC));
-            } catch (InstantiationException | UnsupportedEncodingException e) {
+                QueueAdapter kafkaQueueAdapter;
+                if (queueFile != null) {
+                    log.info("Writing queue records to file {} instead of Kafka.", queueFile);
+                    kafkaQueueAdapter = new FileQueueAdapter(Paths.get(queueFile));
+                } else {
+                    kafkaQueueAdapter = new KafkaQueueAdapter(
+                            properties,
+                            queueTopic,
+                            recordKey,
+                            mdcInHeaders ? logMDC : Collections.emptyMap());
+                }
+                if (packMaxLines > 1) {
+                    kafkaQueueAdapter = new PackingQueueAdapter(kafkaQueueAdapter, packMaxLines, packMaxBytes);
+                }
+                if (spoolPath != null) {
+                    kafkaQueueAdapter = new SpoolingQueueAdapter(
+                            kafkaQueueAdapter,
+                            Paths.get(spoolPath),
+                            spoolMemoryRecords,
+                            spoolDrainTimeoutMillis,
+                            spoolMaxBytes,
+                            spoolOverflow);
+                }
+                sinkChannels.add(named(IoLoggerName.KAFKA, new IoQueueLogger(kafkaQueueAdapter, isPrimary(primaryLoggers, IoLoggerName.KAFKA), flushTimeoutMillis, queueMDC, logFormatter, formatThreads)));
+            } catch (InstantiationException | IOException e) {
                 throw new BuildAgentException("Cannot initialize Kafka logger.", e);
             }
         }
 
+        ScrollbackPool scrollbackPool = new ScrollbackPool(options.getScrollbackBytes(), options.getScrollbackMaxTotalBytes());
+        try {
+            outputDispatcher = new OutputDispatcher(
+                    options.getOutputQueueSize(),
+                    scrollbackPool,
+                    options.getOutputDigestAlgorithms(),
+                    options.getCompletionFlushTimeoutMillis());
+        } catch (IllegalArgumentException e) {
+            throw new BuildAgentException("Cannot initialize output dispatcher.", e);
+        }
+        outputDispatcher.setTerminalNoiseFilter(options.isTerminalNoiseFilter());
+        outputDispatcher.setLineDedup(dedupSinks, options.getDedupMaxDelayMillis());
+        outputDispatcher.setLineRoutes(lineRoutes);
+        if (!options.getMaskedSecrets().isEmpty()) {
+            outputDispatcher.setSecrets(options.getMaskedSecrets());
+        }
+        if (options.getJournalFolder() != null) {
+            log.info("Initializing Journal sink in {}.", options.getJournalFolder());
+            JournalBudget journals = new JournalBudget(
+                    options.getJournalFolder(),
+                    options.getJournalSegmentBytes(),
+                    options.getJournalIndexIntervalBytes(),
+                    options.getJournalMaxBytes(),
+                    options.getJournalTotalMaxBytes());
+            outputDispatcher.addRawSessionSinkFactory(context -> {
+                try {
+                    return journals.open(context);
+                } catch (IOException e) {
+                    log.error("Cannot open journal for context " + context + ".", e);
+                    return null;
+                }
+            });
+        }
+        if (options.getSessionLogFolder() != null) {
+            log.info("Initializing session log sink in {}.", options.getSessionLogFolder());
+            try {
+                sessionLogs = new SessionLogs(options.getSessionLogFolder(), options, fileExecutor);
+            } catch (IOException e) {
+                throw new BuildAgentException("Cannot initialize session logs.", e);
+            }
+            outputDispatcher.addSessionSinkFactory(sessionLogs::open);
+        }
+
         try {
             undertowBootstrap = new BootstrapUndertow(
                     executor,
                     sinkChannels,
+                    outputDispatcher,
                     options
             );
             log.info("Server started on " + options.getHost() + ":" + options.getPort());
@@ -115,6 +252,22 @@ public class BuildAgentServer {
         }
     }
 
+    /**
+     * Marks the logger for deduplication of repeated lines and for line routing when they are configured.
+     */
+    private ReadOnlyChannel named(IoLoggerName name, ReadOnlyChannel logger) {
+        if (options.getDedupLoggers().contains(name)) {
+            log.info("Repeated lines are collapsed in logger {}.", name);
+            dedupSinks.add(logger);
+        }
+        List<String> routePatterns = options.getLineRoutes().get(name);
+        if (routePatterns != null) {
+            log.info("Logger {} gets only the lines containing one of {}.", name, routePatterns);
+            lineRoutes.put(logger, MultiPatternMatcher.compile(routePatterns));
+        }
+        return logger;
+    }
+
     private boolean isPrimary(List<IoLoggerName> primaryLoggers, IoLoggerName name) {
         if (primaryLoggers.contains(name)) {
             log.info("Logger {} is primary.", name);
@@ -146,5 +299,10 @@ public class BuildAgentServer {
         }
 
         undertowBootstrap.stop();
+        outputDispatcher.close();
+        if (sessionLogs != null) {
+            sessionLogs.close();
+        }
+        fileExecutor.shutdown();
     }
 }
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Appends the records to a local file, one record per line. A stand-in for the Kafka adapter to run the queue logging
+ * without a broker.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class FileQueueAdapter implements QueueAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(FileQueueAdapter.class);
+
+    private final BufferedWriter writer;
+
+    public FileQueueAdapter(Path path) throws IOException {
+        writer = Files.newBufferedWriter(
+                path,
+                StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            log.error("Cannot flush queue file.", e);
+        }
+    }
+
+    @Override
+    public synchronized void send(String message, Consumer<Exception> exceptionHandler) {
+        try {
+            writer.write(message);
+            writer.newLine();
+        } catch (IOException e) {
+            exceptionHandler.accept(e);
+        }
+    }
+
+    @Override
+    public synchronized void sendBatch(List<String> messages, Consumer<Exception> exceptionHandler) {
+        try {
+            for (String message : messages) {
+                writer.write(message);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            exceptionHandler.accept(e);
+        }
+    }
+
+    @Override
+    public void close(Duration duration) {
+        close();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("Cannot close queue file.", e);
+        }
+    }
+}
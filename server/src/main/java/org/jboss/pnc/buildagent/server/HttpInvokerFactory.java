@@ -7,9 +7,9 @@ import org.jboss.pnc.buildagent.api.httpinvoke.RetryConfig;
 import org.jboss.pnc.buildagent.common.http.HttpClient;
 import org.jboss.pnc.buildagent.common.http.HeartbeatSender;
 import org.jboss.pnc.buildagent.server.httpinvoker.SessionRegistry;
+import org.jboss.pnc.buildagent.server.output.OutputDispatcher;
 import org.jboss.pnc.buildagent.server.servlet.HttpInvoker;
 
-import java.security.NoSuchAlgorithmException;
 import java.util.Set;
 
 /**
@@ -19,6 +19,8 @@ public class HttpInvokerFactory implements InstanceFactory<HttpInvoker> {
 
     private final Set<ReadOnlyChannel> readOnlyChannels;
 
+    private final OutputDispatcher outputDispatcher;
+
     private final SessionRegistry sessionRegistry;
 
     private final HttpClient httpClient;
@@ -28,11 +30,13 @@ public class HttpInvokerFactory implements InstanceFactory<HttpInvoker> {
 
     public HttpInvokerFactory(
             Set<ReadOnlyChannel> readOnlyChannels,
+            OutputDispatcher outputDispatcher,
             HttpClient httpClient,
             SessionRegistry sessionRegistry,
             RetryConfig retryConfig,
             HeartbeatSender heartbeat) {
         this.readOnlyChannels = readOnlyChannels;
+        this.outputDispatcher = outputDispatcher;
         this.httpClient = httpClient;
         this.sessionRegistry = sessionRegistry;
         this.retryConfig = retryConfig;
@@ -41,15 +45,12 @@ public class HttpInvokerFactory implements InstanceFactory<HttpInvoker> {
 
     @Override
     public InstanceHandle<HttpInvoker> createInstance() throws InstantiationException {
-        try {
-            return new ImmediateInstanceHandle<>(new HttpInvoker(
-                    readOnlyChannels,
-                    sessionRegistry,
-                    httpClient,
-                    retryConfig,
-                    heartbeat));
-        } catch (NoSuchAlgorithmException e) {
-            throw new InstantiationException("Cannot create HttpInvoker: " + e.getMessage());
-        }
+        return new ImmediateInstanceHandle<>(new HttpInvoker(
+                readOnlyChannels,
+                outputDispatcher,
+                sessionRegistry,
+                httpClient,
+                retryConfig,
+                heartbeat));
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server;
+
+import org.jboss.pnc.buildagent.common.blocklog.BlockLogReader;
+import org.jboss.pnc.buildagent.common.blocklog.BlockLogWriter;
+import org.jboss.pnc.buildagent.server.output.MeteredChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the output to the block-compressed console.log.blz in the log folder, any byte range of it can be read
+ * without decompressing the whole file, see {@link org.jboss.pnc.buildagent.common.blocklog.BlockLogReader}.
+ *
+ * A block is written when it is full or on flush, a flush is called on the primary loggers only so the output of a
+ * non primary logger becomes readable when a block is completed.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class IoBlockFileLogger implements ReadOnlyChannel, MeteredChannel {
+
+    public static final String FILE_NAME = "console.log" + BlockLogReader.FILE_SUFFIX;
+
+    private final Logger log = LoggerFactory.getLogger(IoBlockFileLogger.class);
+
+    private BlockLogWriter writer;
+
+    private final boolean primary;
+
+    public IoBlockFileLogger(Path logFolder, boolean primary, int blockBytes, int compressionLevel) {
+        this.primary = primary;
+        Path logPath = logFolder.resolve(FILE_NAME);
+        try {
+            log.info("Opening block log file {}.", logPath);
+            writer = new BlockLogWriter(logPath, blockBytes, compressionLevel);
+        } catch (IOException e) {
+            log.error("Cannot open block log " + logPath + ".", e);
+        }
+    }
+
+    @Override
+    public void writeOutput(byte[] bytes) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(bytes);
+        } catch (IOException e) {
+            log.error("Cannot write " + bytes.length + " bytes to block log. IsPrimaryLogger: " + isPrimary(), e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (writer == null) {
+            throw new IOException("Block log file is not open.");
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        if (writer == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> counters = new HashMap<>();
+        counters.put("blocks", (long) writer.getBlockCount());
+        counters.put("uncompressedBytes", writer.getUncompressedSize());
+        counters.put("compressedBytes", writer.getCompressedSize());
+        return counters;
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return primary;
+    }
+}
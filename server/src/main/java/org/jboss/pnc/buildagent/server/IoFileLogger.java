@@ -19,77 +19,98 @@
 package org.jboss.pnc.buildagent.server;
 
 import org.jboss.pnc.buildagent.common.Arrays;
+import org.jboss.pnc.buildagent.server.output.DirectBufferPool;
+import org.jboss.pnc.buildagent.server.output.FileDurability;
+import org.jboss.pnc.buildagent.server.output.GroupCommitFileWriter;
+import org.jboss.pnc.buildagent.server.output.MeteredChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.util.function.Consumer;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
 
 /**
+ * Writes the output to console.log in the log folder. Small writes are grouped, see {@link GroupCommitFileWriter}.
+ *
  * @author <a href="mailto:matejonnet@gmail.opecom">Matej Lazar</a>
  */
-public class IoFileLogger implements ReadOnlyChannel {
+public class IoFileLogger implements ReadOnlyChannel, MeteredChannel {
 
     Logger log = LoggerFactory.getLogger(IoFileLogger.class);
-    private Charset charset = Charset.defaultCharset();
-    private Consumer<String> inputLogger;
-    private Consumer<byte[]> outputLogger;
 
-    FileOutputStream stream;
+    private GroupCommitFileWriter writer;
 
     private final boolean primary;
 
-    public IoFileLogger(Path logFolder, boolean primary) {
+    public IoFileLogger(
+            Path logFolder,
+            boolean primary,
+            DirectBufferPool bufferPool,
+            long maxDelayMillis,
+            FileDurability durability,
+            long fsyncIntervalMillis,
+            ScheduledExecutorService scheduler) {
         this.primary = primary;
         try {
             Path logPath = logFolder.resolve("console.log");
 
             log.info("Opening log file {}.", logPath);
-            stream = new FileOutputStream(logPath.toFile(), true);
-
-            inputLogger = (line) -> {
-                try {
-                    String command = "% " + line + "\r\n";
-                    stream.write(command.getBytes(charset));
-                } catch (IOException e) {
-                    log.error("Cannot write command line to log file.", e);
-                }
-            };
-
-            outputLogger = (bytes) -> {
-                try {
-                    stream.write(bytes);
-                } catch (IOException e) {
-                    String bytesAsInts = java.util.Arrays.stream(Arrays.bytesToInts(bytes))
-                            .mapToObj(i -> Integer.toString(i))
-                            .collect(Collectors.joining(", "));
-                    log.error("Cannot write bytes [" + bytesAsInts + "] to file. IsPrimaryLogger: " + isPrimary() + "", e);
-                }
-            };
-
+            FileChannel fileChannel = FileChannel.open(
+                    logPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            writer = new GroupCommitFileWriter(
+                    fileChannel,
+                    bufferPool,
+                    maxDelayMillis,
+                    durability,
+                    fsyncIntervalMillis,
+                    scheduler);
         } catch (IOException e) {
             log.error("Cannot open fileChannel: ", e);
         }
     }
 
-
     @Override
     public void flush() throws IOException {
-        stream.flush();
+        if (writer == null) {
+            throw new IOException("Log file is not open.");
+        }
+        writer.flush();
     }
 
     @Override
     public void close() throws IOException {
-        stream.close();
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Override
+    public void writeOutput(byte[] bytes) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(bytes);
+        } catch (IOException e) {
+            String bytesAsInts = java.util.Arrays.stream(Arrays.bytesToInts(bytes))
+                    .mapToObj(i -> Integer.toString(i))
+                    .collect(Collectors.joining(", "));
+            log.error("Cannot write bytes [" + bytesAsInts + "] to file. IsPrimaryLogger: " + isPrimary() + "", e);
+        }
     }
 
     @Override
-    public void writeOutput(byte[] buffer) {
-        outputLogger.accept(buffer);
+    public Map<String, Long> getCounters() {
+        return writer == null ? Collections.emptyMap() : writer.getCounters();
     }
 
     @Override
@@ -18,9 +18,9 @@
 
 package org.jboss.pnc.buildagent.server;
 
+import org.jboss.pnc.buildagent.server.logging.StaticMdc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
@@ -38,8 +38,9 @@ public class IoLogLogger implements ReadOnlyChannel {
     private Consumer<byte[]> outputLogger;
 
     public IoLogLogger(Map<String, String> logMDC) {
+        StaticMdc staticMdc = new StaticMdc(logMDC);
         outputLogger = (bytes) -> {
-            MDC.setContextMap(logMDC);
+            staticMdc.install();
             processLog.info(new String(bytes, charset));
         };
     }
@@ -4,5 +4,5 @@ package org.jboss.pnc.buildagent.server;
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
  */
 public enum IoLoggerName {
-    FILE, KAFKA, LOG;
+    FILE, KAFKA, LOG, BLOCK_FILE;
 }
@@ -20,17 +20,20 @@ package org.jboss.pnc.buildagent.server;
 
 import org.jboss.pnc.buildagent.api.logging.LogFormatter;
 import org.jboss.pnc.buildagent.common.LineConsumer;
+import org.jboss.pnc.buildagent.server.logging.OrderedFormatStage;
+import org.jboss.pnc.buildagent.server.logging.StaticMdc;
 import org.jboss.pnc.buildagent.server.logging.formatters.jboss.JBossFormatter;
+import org.jboss.pnc.common.concurrent.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.concurrent.ExecutionException;
@@ -62,61 +65,120 @@ public class IoQueueLogger implements ReadOnlyChannel {
 
     private final LineConsumer lineConsumer;
 
+    private final OrderedFormatStage formatStage;
+
+    /**
+     * Runs the adapter flush to time it out, the idle threads are released.
+     */
+    private final ExecutorService flushExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("queue-flush"));
+
     public IoQueueLogger(QueueAdapter queueAdapter, boolean primary, long flushTimeoutMillis, Map<String, String> logMDC)
             throws InstantiationException, UnsupportedEncodingException {
+        this(queueAdapter, primary, flushTimeoutMillis, logMDC, null);
+    }
+
+    /**
+     * @param formatterName class name or simple class name of the {@link LogFormatter} registered for the
+     *         ServiceLoader, null uses the {@link JBossFormatter}
+     */
+    public IoQueueLogger(
+            QueueAdapter queueAdapter,
+            boolean primary,
+            long flushTimeoutMillis,
+            Map<String, String> logMDC,
+            String formatterName) throws InstantiationException, UnsupportedEncodingException {
+        this(queueAdapter, primary, flushTimeoutMillis, logMDC, formatterName, 0);
+    }
+
+    /**
+     * @param formatThreads number of threads formatting the lines, 0 formats them in the thread writing the output
+     */
+    public IoQueueLogger(
+            QueueAdapter queueAdapter,
+            boolean primary,
+            long flushTimeoutMillis,
+            Map<String, String> logMDC,
+            String formatterName,
+            int formatThreads) throws InstantiationException, UnsupportedEncodingException {
         this.primary = primary;
         this.flushTimeoutMillis = flushTimeoutMillis;
         this.queueAdapter = queueAdapter;
 
-        ServiceLoader<LogFormatter> loader = ServiceLoader.load(LogFormatter.class);
-        Iterator<LogFormatter> iterator = loader.iterator();
-        LogFormatter logFormatter = getLogFormatter(iterator);
+        LogFormatter logFormatter = getLogFormatter(formatterName);
 
         Consumer<Exception> exceptionHandler = (e) -> {
             log.error("Error writing log.", e);
             deliveryException.compareAndSet(null, e);
         };
 
-        Consumer<String> onLine = (line)-> {
-            String messageJson = logFormatter.format(line);
-            queueAdapter.send(messageJson, exceptionHandler);
-        };
-        lineConsumer = new LineConsumer(onLine, StandardCharsets.UTF_8);
-
-        outputLogger = (bytes) -> {
-            MDC.setContextMap(logMDC);
-            lineConsumer.append(bytes);
-        };
+        //a formatter knowing the static context does not need the MDC
+        StaticMdc staticMdc = logFormatter.setStaticContext(logMDC) ? null : new StaticMdc(logMDC);
+
+        if (formatThreads > 0) {
+            formatStage = new OrderedFormatStage(
+                    logFormatter,
+                    staticMdc,
+                    (messages) -> queueAdapter.sendBatch(messages, exceptionHandler),
+                    exceptionHandler,
+                    formatThreads,
+                    OrderedFormatStage.DEFAULT_BATCH_LINES);
+            lineConsumer = LineConsumer.batching(formatStage::submit, StandardCharsets.UTF_8);
+            outputLogger = lineConsumer::append;
+        } else {
+            formatStage = null;
+            Consumer<List<String>> onLines = (lines) -> {
+                if (staticMdc != null) {
+                    staticMdc.install();
+                }
+                List<String> messages = new ArrayList<>(lines.size());
+                for (String line : lines) {
+                    messages.add(logFormatter.format(line));
+                }
+                queueAdapter.sendBatch(messages, exceptionHandler);
+            };
+            lineConsumer = LineConsumer.batching(onLines, StandardCharsets.UTF_8);
+            outputLogger = lineConsumer::append;
+        }
     }
 
-    private LogFormatter getLogFormatter(Iterator<LogFormatter> iterator) throws InstantiationException {
-        LogFormatter logFormatter = null;
-        if (iterator.hasNext()) {
-            logFormatter = iterator.next();
-        }
-        if (iterator.hasNext()) {
-            log.warn("Multiple formatter found, using: " + logFormatter.getClass());
+    /**
+     * The registered formatters are only used when selected by name, adding a formatter to the classpath does not
+     * change the default.
+     */
+    private LogFormatter getLogFormatter(String formatterName) throws InstantiationException {
+        if (formatterName == null
+                || formatterName.equals(JBossFormatter.class.getName())
+                || formatterName.equals(JBossFormatter.class.getSimpleName())) {
+            return new JBossFormatter();
         }
-        if (logFormatter == null) {
-            logFormatter = new JBossFormatter();
+        for (LogFormatter candidate : ServiceLoader.load(LogFormatter.class)) {
+            if (formatterName.equals(candidate.getClass().getName())
+                    || formatterName.equals(candidate.getClass().getSimpleName())) {
+                return candidate;
+            }
         }
-        return logFormatter;
+        throw new InstantiationException("Log formatter " + formatterName + " not found.");
     }
 
     @Override
     public void flush() throws IOException {
         lineConsumer.flush();
+        if (formatStage != null && !formatStage.flush(flushTimeoutMillis)) {
+            throw new IOException("Unable to flush logs, formatting did not complete in " + flushTimeoutMillis + "ms.");
+        }
         Exception e = deliveryException.get();
         if (e != null) {
             throw new IOException("Some messages were not written.", e);
         }
-        ExecutorService executorService = Executors.newFixedThreadPool(1);
-
-        Future<?> future = executorService.submit(() -> queueAdapter.flush());
+        Future<?> future = flushExecutor.submit(() -> queueAdapter.flush());
 
         try {
             future.get(flushTimeoutMillis, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException | TimeoutException | ExecutionException futureException) {
+        } catch (InterruptedException futureException) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IOException("Unable to flush logs.", futureException);
+        } catch (TimeoutException | ExecutionException futureException) {
             future.cancel(true);
             throw new IOException("Unable to flush logs.", futureException);
         }
@@ -133,13 +195,20 @@ public class IoQueueLogger implements ReadOnlyChannel {
     }
 
     public void close(Duration duration) throws IOException {
+        stopWorkers();
         queueAdapter.close(duration);
     }
 
     public void close() throws IOException {
         log.info("Closing IoQueueLogger.");
+        stopWorkers();
         queueAdapter.close();
     }
 
-
+    private void stopWorkers() {
+        flushExecutor.shutdown();
+        if (formatStage != null) {
+            formatStage.close();
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server;
+
+import org.jboss.pnc.buildagent.common.ringfile.RingFileWriter;
+import org.jboss.pnc.buildagent.server.output.MeteredChannel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the output to a memory mapped ring file, a log shipper on the same host reads it with
+ * {@link org.jboss.pnc.buildagent.common.ringfile.RingFileReader} without polling a file. The oldest output is
+ * overwritten when the shipper falls behind so the logger is never primary.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class IoRingFileLogger implements ReadOnlyChannel, MeteredChannel {
+
+    private final RingFileWriter writer;
+
+    public IoRingFileLogger(Path path, int capacity) throws IOException {
+        writer = new RingFileWriter(path, capacity);
+    }
+
+    @Override
+    public void writeOutput(byte[] bytes) {
+        writer.write(bytes);
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return false;
+    }
+
+    /**
+     * The output is visible to the readers as soon as it is written.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new HashMap<>();
+        counters.put("writePosition", writer.getWritePosition());
+        counters.put("sequence", writer.getSequence());
+        return counters;
+    }
+}
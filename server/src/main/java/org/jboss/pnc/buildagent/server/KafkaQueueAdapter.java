@@ -3,11 +3,20 @@ package org.jboss.pnc.buildagent.server;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
@@ -19,9 +28,27 @@ public class KafkaQueueAdapter implements QueueAdapter {
 
     private final KafkaProducer kafkaProducer;
     private final String queueTopic;
+    private final String key;
+    private final List<Header> headers;
 
     public KafkaQueueAdapter(Properties kafkaProperties, String queueTopic) {
+        this(kafkaProperties, queueTopic, null, Collections.emptyMap());
+    }
+
+    /**
+     * @param key key of all the records, eg. the process context so the records of a build go to the same partition
+     *         in order, null distributes the records over the partitions
+     * @param headers static context added to each record as headers, the values are encoded once
+     */
+    public KafkaQueueAdapter(Properties kafkaProperties, String queueTopic, String key, Map<String, String> headers) {
         this.queueTopic = queueTopic;
+        this.key = key;
+        List<Header> recordHeaders = new ArrayList<>(headers.size());
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            byte[] value = header.getValue() == null ? null : header.getValue().getBytes(StandardCharsets.UTF_8);
+            recordHeaders.add(new RecordHeader(header.getKey(), value));
+        }
+        this.headers = recordHeaders.isEmpty() ? null : Collections.unmodifiableList(recordHeaders);
         kafkaProducer = new KafkaProducer<>(kafkaProperties);
     }
 
@@ -32,8 +59,59 @@ public class KafkaQueueAdapter implements QueueAdapter {
 
     @Override
     public void send(String message, Consumer<Exception> exceptionHandler) {
-        ProducerRecord<String, String> producerRecord = new ProducerRecord<>(queueTopic, message);
+        kafkaProducer.send(record(message), callback(exceptionHandler));
+    }
+
+    /**
+     * All the records of the batch share one callback instance.
+     */
+    @Override
+    public void sendBatch(List<String> messages, Consumer<Exception> exceptionHandler) {
+        Callback callback = callback(QueueAdapter.onFirstException(exceptionHandler));
+        for (String message : messages) {
+            kafkaProducer.send(record(message), callback);
+        }
+    }
+
+    /**
+     * The completion is called by the callback of the last acknowledged record.
+     */
+    @Override
+    public void sendAcknowledged(List<String> messages, Consumer<Exception> onCompletion) {
+        if (messages.isEmpty()) {
+            onCompletion.accept(null);
+            return;
+        }
+        AtomicInteger pending = new AtomicInteger(messages.size());
+        AtomicReference<Exception> failure = new AtomicReference<>();
         Callback callback = (metadata, exception) -> {
+            if (exception != null) {
+                failure.compareAndSet(null, exception);
+            }
+            if (pending.decrementAndGet() == 0) {
+                onCompletion.accept(failure.get());
+            }
+        };
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                kafkaProducer.send(record(messages.get(i)), callback);
+            } catch (RuntimeException e) {
+                //no callback for this record and the ones not sent
+                failure.compareAndSet(null, e);
+                if (pending.addAndGet(i - messages.size()) == 0) {
+                    onCompletion.accept(failure.get());
+                }
+                return;
+            }
+        }
+    }
+
+    private ProducerRecord<String, String> record(String message) {
+        return new ProducerRecord<>(queueTopic, null, key, message, headers);
+    }
+
+    private Callback callback(Consumer<Exception> exceptionHandler) {
+        return (metadata, exception) -> {
             if (exception != null) {
                 exceptionHandler.accept(exception);
             } else {
@@ -42,7 +120,6 @@ public class KafkaQueueAdapter implements QueueAdapter {
                 }
             }
         };
-        kafkaProducer.send(producerRecord, callback);
     }
 
     @Override
@@ -25,14 +25,21 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.jboss.pnc.buildagent.api.Constants;
 import org.jboss.pnc.buildagent.common.BuildAgentException;
 import org.jboss.pnc.buildagent.common.RandomUtils;
 import org.jboss.pnc.buildagent.server.logging.Mdc;
+import org.jboss.pnc.buildagent.server.output.FileDurability;
+import org.jboss.pnc.buildagent.server.termserver.OverflowPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -65,6 +72,40 @@ public class Main {
         options.addOption(null, "callbackMaxRetries",true, "How many times to retry failed completion callback.");
         options.addOption(null, "callbackWaitBeforeRetry",true, "How long to wait before completion callback retry (calculated as: attempt x duration-in-millis).");
         options.addOption(null, "keycloakConfig",true, "Path to Keycloak config file. Must be set to enable endpoint protection.");
+        options.addOption(null, "outputQueueSize",true, "Number of output chunks buffered per sink. 0 writes to the sinks synchronously. Default 1024.");
+        options.addOption(null, "viewerOverflowPolicy",true, "What to do when a read-only viewer is too slow: DROP_OLDEST, COALESCE or DISCONNECT. Default DROP_OLDEST.");
+        options.addOption(null, "viewerMaxBufferedBytes",true, "Max output bytes buffered per read-only viewer, a half of it is available for the scrollback replay. Default 16777216.");
+        options.addOption(null, "frameMaxBytes",true, "Max size of a websocket output frame merged from small output chunks. Default 16384.");
+        options.addOption(null, "frameMaxDelayMillis",true, "Max time the websocket output waits to be merged into a bigger frame (eg. 20). Default 0 disables merging.");
+        options.addOption(null, "scrollbackBytes",true, "Recent output bytes kept per term and http session and replayed to new read-only viewers, at most a half of viewerMaxBufferedBytes. 0 disables it. Default 8388608.");
+        options.addOption(null, "scrollbackMaxTotalBytes",true, "Max off-heap memory used by all the scrollback buffers. Default 134217728.");
+        options.addOption(null, "journal",false, "Journal the output of each term and session to <-l>/journal, it can be read from a given offset or time at " + Constants.FILE_JOURNAL_PATH + ". Requires -l.");
+        options.addOption(null, "journalSegmentBytes",true, "Size of a journal segment file. Default 67108864.");
+        options.addOption(null, "journalIndexIntervalBytes",true, "Max output bytes between two journal index entries. Default 65536.");
+        options.addOption(null, "journalMaxBytes",true, "Max size of the journal of a single term or session, the oldest segments are deleted when a new one is started. Default 1073741824.");
+        options.addOption(null, "journalTotalMaxBytes",true, "Max size of all the journals, the least recently written journals of the completed terms and sessions are deleted above it. Default 4294967296.");
+        options.addOption(null, "completionFlushTimeoutMillis",true, "Deadline of flushing all the primary sinks (-pl) in parallel when a command completes. 0 waits without a deadline. Default 120000.");
+        options.addOption(null, "stripTerminalNoise",false, "Strip ANSI escape sequences and collapse the lines redrawn with carriage return (progress bars) in the log sinks and session logs. Read-only viewers and the journal get the raw output, the output digests are computed from the raw output.");
+        options.addOption(null, "dedupLoggers",true, "List of loggers in which runs of identical consecutive lines are collapsed into the first line and a \"[last line repeated N times]\" line. eg. --dedupLoggers FILE,KAFKA");
+        options.addOption(null, "dedupMaxDelayMillis",true, "Max time a run of repeated lines is held before its summary is written. Default 1000.");
+        options.addOption(null, "routeLines",true, "Send to a logger only the lines containing one of the literal patterns separated by |, the option can be repeated for more loggers. eg. --routeLines \"KAFKA=[ERROR]|[WARNING]|Tests run:\". Loggers without a route get all the lines.");
+        options.addOption(null, "maskSecretsFile",true, "File with the secrets masked in the output of all the terms and sessions, one per line. Secrets shorter than 4 characters are not masked.");
+        options.addOption(null, "maskEnv",true, "Comma separated names of the environment variables which values are masked in the output. eg. --maskEnv MAVEN_PASSWORD,GIT_TOKEN");
+        options.addOption(null, "outputDigests",true, "Comma separated digest algorithms of the output checksums sent on completion, MD5 is always computed for the legacy output checksum. Default MD5,SHA-256.");
+        options.addOption(null, "fileBufferBytes",true, "Size of the buffer grouping the small writes to the log file. Default 65536.");
+        options.addOption(null, "fileMaxDelayMillis",true, "Max time the output waits to be written to the log file. 0 writes each chunk immediately. Default 100.");
+        options.addOption(null, "fileDurability",true, "When the log file is forced to disk: NONE, ON_COMPLETION (when a command completes) or PERIODIC. Default NONE.");
+        options.addOption(null, "fileFsyncIntervalMillis",true, "Interval of the log file fsync with PERIODIC durability, must be positive. Default 1000.");
+        options.addOption(null, "sessionLogs",false, "Write the output of each term and session to its own file in <-l>/sessions, completed files are compressed. Requires -l.");
+        options.addOption(null, "sessionLogRotateBytes",true, "Size at which a session log is rotated. Default 67108864.");
+        options.addOption(null, "sessionLogDiskBudgetBytes",true, "Max size of the session logs, the oldest compressed logs are deleted. Default 10737418240.");
+        options.addOption(null, "sessionLogMaxOpenFiles",true, "Max number of session log files kept open. Default 64.");
+        options.addOption(null, "sessionLogBufferBytes",true, "Size of the buffer grouping the small writes to a session log. Default 16384.");
+        options.addOption(null, "blockLog",false, "Also write the output to <-l>/console.log.blz compressed in independent blocks, byte ranges of it are downloaded without decompressing the whole file. Use BLOCK_FILE in -pl to flush it on completion. Requires -l.");
+        options.addOption(null, "blockLogBlockBytes",true, "Uncompressed size of a console.log.blz block. Default 65536.");
+        options.addOption(null, "blockLogCompressionLevel",true, "Deflate level (1-9) of the console.log.blz blocks. Default 6.");
+        options.addOption(null, "ringFile",true, "Path of a memory mapped ring file the output is written to, a log shipper on the same host reads it with RingFileReader. If undefined the ring file is not written.");
+        options.addOption(null, "ringFileBytes",true, "Capacity of the ring file, the oldest output is overwritten when a reader falls behind. Default 16777216.");
         options.addOption("h", false, "Print this help message.");
 
         CommandLineParser parser = new DefaultParser();
@@ -131,6 +172,16 @@ public class Main {
         int callbackMaxRetries = Integer.parseInt(getOption(cmd, "callbackMaxRetries", "10"));
         long callbackWaitBeforeRetry = Long.parseLong(getOption(cmd, "callbackWaitBeforeRetry", "500"));
         String keycloakConfigFile = getOption(cmd, "keycloakConfig", "");
+        int outputQueueSize = Integer.parseInt(getOption(cmd, "outputQueueSize", "1024"));
+        OverflowPolicy viewerOverflowPolicy = OverflowPolicy.valueOf(getOption(cmd, "viewerOverflowPolicy", "DROP_OLDEST").toUpperCase());
+        long viewerMaxBufferedBytes = Long.parseLong(getOption(cmd, "viewerMaxBufferedBytes", "16777216"));
+        int frameMaxBytes = Integer.parseInt(getOption(cmd, "frameMaxBytes", "16384"));
+        long frameMaxDelayMillis = Long.parseLong(getOption(cmd, "frameMaxDelayMillis", "0"));
+        int scrollbackBytes = Integer.parseInt(getOption(cmd, "scrollbackBytes", "8388608"));
+        long scrollbackMaxTotalBytes = Long.parseLong(getOption(cmd, "scrollbackMaxTotalBytes", "134217728"));
+        if (scrollbackBytes > viewerMaxBufferedBytes / 2) {
+            throw new IllegalArgumentException("Invalid scrollbackBytes: " + scrollbackBytes + ", the replay is limited to a half of viewerMaxBufferedBytes (" + viewerMaxBufferedBytes / 2 + ").");
+        }
 
         org.jboss.pnc.buildagent.server.Options buildAgentOptions = new org.jboss.pnc.buildagent.server.Options(
                 host,
@@ -141,6 +192,72 @@ public class Main {
                 callbackMaxRetries,
                 callbackWaitBeforeRetry,
                 keycloakConfigFile);
+        buildAgentOptions.setOutputQueueSize(outputQueueSize);
+        buildAgentOptions.setViewerOverflowPolicy(viewerOverflowPolicy);
+        buildAgentOptions.setViewerMaxBufferedBytes(viewerMaxBufferedBytes);
+        buildAgentOptions.setFrameMaxBytes(frameMaxBytes);
+        buildAgentOptions.setFrameMaxDelayMillis(frameMaxDelayMillis);
+        buildAgentOptions.setScrollbackBytes(scrollbackBytes);
+        buildAgentOptions.setScrollbackMaxTotalBytes(scrollbackMaxTotalBytes);
+        if (cmd.hasOption("journal")) {
+            if (logPath.isPresent()) {
+                buildAgentOptions.setJournalFolder(logPath.get().resolve("journal"));
+            } else {
+                logger.warn("Journal is not enabled, it requires the log folder (-l).");
+            }
+        }
+        buildAgentOptions.setJournalSegmentBytes(Long.parseLong(getOption(cmd, "journalSegmentBytes", "67108864")));
+        buildAgentOptions.setJournalIndexIntervalBytes(Long.parseLong(getOption(cmd, "journalIndexIntervalBytes", "65536")));
+        buildAgentOptions.setJournalMaxBytes(Long.parseLong(getOption(cmd, "journalMaxBytes", "1073741824")));
+        buildAgentOptions.setJournalTotalMaxBytes(Long.parseLong(getOption(cmd, "journalTotalMaxBytes", "4294967296")));
+        buildAgentOptions.setCompletionFlushTimeoutMillis(Long.parseLong(getOption(cmd, "completionFlushTimeoutMillis", "120000")));
+        buildAgentOptions.setTerminalNoiseFilter(cmd.hasOption("stripTerminalNoise"));
+        buildAgentOptions.setDedupLoggers(Arrays.stream(getOption(cmd, "dedupLoggers", "").split(","))
+                .map(String::trim)
+                .filter(l -> !l.isEmpty())
+                .map(IoLoggerName::valueOf)
+                .collect(Collectors.toList()));
+        buildAgentOptions.setDedupMaxDelayMillis(Long.parseLong(getOption(cmd, "dedupMaxDelayMillis", "1000")));
+        buildAgentOptions.setLineRoutes(parseLineRoutes(cmd.getOptionValues("routeLines")));
+        buildAgentOptions.setMaskedSecrets(readSecrets(getOption(cmd, "maskSecretsFile", null), getOption(cmd, "maskEnv", "")));
+        buildAgentOptions.setOutputDigestAlgorithms(Arrays.stream(getOption(cmd, "outputDigests", "MD5,SHA-256").split(","))
+                .map(String::trim)
+                .filter(a -> !a.isEmpty())
+                .collect(Collectors.toList()));
+        buildAgentOptions.setFileBufferBytes(Integer.parseInt(getOption(cmd, "fileBufferBytes", "65536")));
+        buildAgentOptions.setFileMaxDelayMillis(Long.parseLong(getOption(cmd, "fileMaxDelayMillis", "100")));
+        FileDurability fileDurability = FileDurability.valueOf(getOption(cmd, "fileDurability", "NONE").toUpperCase());
+        long fileFsyncIntervalMillis = Long.parseLong(getOption(cmd, "fileFsyncIntervalMillis", "1000"));
+        if (fileDurability == FileDurability.PERIODIC && fileFsyncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid fileFsyncIntervalMillis: " + fileFsyncIntervalMillis + ", PERIODIC durability requires a positive interval.");
+        }
+        buildAgentOptions.setFileDurability(fileDurability);
+        buildAgentOptions.setFileFsyncIntervalMillis(fileFsyncIntervalMillis);
+        if (cmd.hasOption("sessionLogs")) {
+            if (logPath.isPresent()) {
+                buildAgentOptions.setSessionLogFolder(logPath.get().resolve("sessions"));
+            } else {
+                logger.warn("Session logs are not enabled, they require the log folder (-l).");
+            }
+        }
+        buildAgentOptions.setSessionLogRotateBytes(Long.parseLong(getOption(cmd, "sessionLogRotateBytes", "67108864")));
+        buildAgentOptions.setSessionLogDiskBudgetBytes(Long.parseLong(getOption(cmd, "sessionLogDiskBudgetBytes", "10737418240")));
+        buildAgentOptions.setSessionLogMaxOpenFiles(Integer.parseInt(getOption(cmd, "sessionLogMaxOpenFiles", "64")));
+        buildAgentOptions.setSessionLogBufferBytes(Integer.parseInt(getOption(cmd, "sessionLogBufferBytes", "16384")));
+        if (cmd.hasOption("blockLog")) {
+            if (logPath.isPresent()) {
+                buildAgentOptions.setBlockLogEnabled(true);
+            } else {
+                logger.warn("Block log is not enabled, it requires the log folder (-l).");
+            }
+        }
+        buildAgentOptions.setBlockLogBlockBytes(Integer.parseInt(getOption(cmd, "blockLogBlockBytes", "65536")));
+        buildAgentOptions.setBlockLogCompressionLevel(Integer.parseInt(getOption(cmd, "blockLogCompressionLevel", "6")));
+        String ringFile = getOption(cmd, "ringFile", null);
+        if (ringFile != null) {
+            buildAgentOptions.setRingFilePath(Paths.get(ringFile));
+        }
+        buildAgentOptions.setRingFileBytes(Integer.parseInt(getOption(cmd, "ringFileBytes", "16777216")));
 
         new BuildAgentServer(
                 logPath,
@@ -150,6 +267,60 @@ public class Main {
                 mdcMap);
     }
 
+    /**
+     * Parses the routes in form LOGGER=pattern|pattern.
+     */
+    private static Map<IoLoggerName, List<String>> parseLineRoutes(String[] routes) {
+        Map<IoLoggerName, List<String>> lineRoutes = new HashMap<>();
+        if (routes == null) {
+            return lineRoutes;
+        }
+        for (String route : routes) {
+            int separator = route.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Invalid line route: " + route + ", expected LOGGER=pattern|pattern.");
+            }
+            IoLoggerName logger = IoLoggerName.valueOf(route.substring(0, separator).trim());
+            List<String> patterns = Arrays.stream(route.substring(separator + 1).split("\\|"))
+                    .filter(p -> !p.isEmpty())
+                    .collect(Collectors.toList());
+            if (patterns.isEmpty()) {
+                throw new IllegalArgumentException("Line route of " + logger + " has no patterns.");
+            }
+            lineRoutes.computeIfAbsent(logger, l -> new ArrayList<>()).addAll(patterns);
+        }
+        return lineRoutes;
+    }
+
+    /**
+     * Reads the secrets from the file and from the values of the environment variables.
+     */
+    private static List<String> readSecrets(String secretsFile, String envNames) throws BuildAgentException {
+        List<String> secrets = new ArrayList<>();
+        if (secretsFile != null) {
+            try {
+                Files.readAllLines(Paths.get(secretsFile), StandardCharsets.UTF_8).stream()
+                        .filter(s -> !s.isEmpty())
+                        .forEach(secrets::add);
+            } catch (IOException e) {
+                throw new BuildAgentException("Cannot read secrets file " + secretsFile + ".", e);
+            }
+        }
+        for (String name : envNames.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String value = System.getenv(name);
+            if (value == null || value.isEmpty()) {
+                logger.warn("Environment variable {} to mask is not set.", name);
+            } else {
+                secrets.add(value);
+            }
+        }
+        return secrets;
+    }
+
     private static String getOption(CommandLine cmd, String opt, String defaultValue) {
         if (cmd.hasOption(opt)) {
             return cmd.getOptionValue(opt);
@@ -1,7 +1,15 @@
 package org.jboss.pnc.buildagent.server;
 
+import org.jboss.pnc.buildagent.server.output.FileDurability;
+import org.jboss.pnc.buildagent.server.termserver.OverflowPolicy;
+
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
@@ -18,6 +26,41 @@ public class Options {
     private final long callbackWaitBeforeRetry;
     private String keycloakConfigFile;
 
+    private int outputQueueSize = 1024;
+    private OverflowPolicy viewerOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+    /** The scrollback replayed to a new viewer takes up to a half of it. */
+    private long viewerMaxBufferedBytes = 16 * 1024 * 1024;
+    private int frameMaxBytes = 16 * 1024;
+    private long frameMaxDelayMillis = 0;
+    private int scrollbackBytes = 8 * 1024 * 1024;
+    private long scrollbackMaxTotalBytes = 128 * 1024 * 1024;
+    private Path journalFolder;
+    private long journalSegmentBytes = 64 * 1024 * 1024;
+    private long journalIndexIntervalBytes = 64 * 1024;
+    private long journalMaxBytes = 1024 * 1024 * 1024;
+    private long journalTotalMaxBytes = 4L * 1024 * 1024 * 1024;
+    private List<String> outputDigestAlgorithms = Arrays.asList("MD5", "SHA-256");
+    private long completionFlushTimeoutMillis = 2 * 60 * 1000;
+    private boolean terminalNoiseFilter = false;
+    private List<IoLoggerName> dedupLoggers = Collections.emptyList();
+    private long dedupMaxDelayMillis = 1000;
+    private Map<IoLoggerName, List<String>> lineRoutes = Collections.emptyMap();
+    private List<String> maskedSecrets = Collections.emptyList();
+    private int fileBufferBytes = 64 * 1024;
+    private long fileMaxDelayMillis = 100;
+    private FileDurability fileDurability = FileDurability.NONE;
+    private long fileFsyncIntervalMillis = 1000;
+    private Path sessionLogFolder;
+    private long sessionLogRotateBytes = 64 * 1024 * 1024;
+    private long sessionLogDiskBudgetBytes = 10L * 1024 * 1024 * 1024;
+    private int sessionLogMaxOpenFiles = 64;
+    private int sessionLogBufferBytes = 16 * 1024;
+    private boolean blockLogEnabled = false;
+    private int blockLogBlockBytes = 64 * 1024;
+    private int blockLogCompressionLevel = 6;
+    private Path ringFilePath;
+    private int ringFileBytes = 16 * 1024 * 1024;
+
     public Options(
             String host,
             int bindPort,
@@ -81,4 +124,348 @@ public class Options {
     public String getKeycloakConfigFile() {
         return keycloakConfigFile;
     }
+
+    /**
+     * @return number of output chunks buffered per sink, 0 means sinks are written synchronously
+     */
+    public int getOutputQueueSize() {
+        return outputQueueSize;
+    }
+
+    public void setOutputQueueSize(int outputQueueSize) {
+        this.outputQueueSize = outputQueueSize;
+    }
+
+    /**
+     * @return what to do with the output of a read-only viewer that is not consumed fast enough
+     */
+    public OverflowPolicy getViewerOverflowPolicy() {
+        return viewerOverflowPolicy;
+    }
+
+    public void setViewerOverflowPolicy(OverflowPolicy viewerOverflowPolicy) {
+        this.viewerOverflowPolicy = viewerOverflowPolicy;
+    }
+
+    /**
+     * @return max output bytes buffered per read-only viewer before the overflow policy is applied
+     */
+    public long getViewerMaxBufferedBytes() {
+        return viewerMaxBufferedBytes;
+    }
+
+    public void setViewerMaxBufferedBytes(long viewerMaxBufferedBytes) {
+        this.viewerMaxBufferedBytes = viewerMaxBufferedBytes;
+    }
+
+    /**
+     * @return max size of a websocket output frame merged from the small output chunks
+     */
+    public int getFrameMaxBytes() {
+        return frameMaxBytes;
+    }
+
+    public void setFrameMaxBytes(int frameMaxBytes) {
+        this.frameMaxBytes = frameMaxBytes;
+    }
+
+    /**
+     * @return max time the websocket output waits to be merged into a bigger frame, 0 disables the merging
+     */
+    public long getFrameMaxDelayMillis() {
+        return frameMaxDelayMillis;
+    }
+
+    public void setFrameMaxDelayMillis(long frameMaxDelayMillis) {
+        this.frameMaxDelayMillis = frameMaxDelayMillis;
+    }
+
+    /**
+     * @return recent output bytes kept per term and http session for the viewers connecting later, 0 disables it
+     */
+    public int getScrollbackBytes() {
+        return scrollbackBytes;
+    }
+
+    public void setScrollbackBytes(int scrollbackBytes) {
+        this.scrollbackBytes = scrollbackBytes;
+    }
+
+    /**
+     * @return max off-heap memory used by the scrollback of all the terms and sessions
+     */
+    public long getScrollbackMaxTotalBytes() {
+        return scrollbackMaxTotalBytes;
+    }
+
+    public void setScrollbackMaxTotalBytes(long scrollbackMaxTotalBytes) {
+        this.scrollbackMaxTotalBytes = scrollbackMaxTotalBytes;
+    }
+
+    /**
+     * @return folder of the per Term and session output journals, null when journaling is disabled
+     */
+    public Path getJournalFolder() {
+        return journalFolder;
+    }
+
+    public void setJournalFolder(Path journalFolder) {
+        this.journalFolder = journalFolder;
+    }
+
+    public long getJournalSegmentBytes() {
+        return journalSegmentBytes;
+    }
+
+    public void setJournalSegmentBytes(long journalSegmentBytes) {
+        this.journalSegmentBytes = journalSegmentBytes;
+    }
+
+    /**
+     * @return max output bytes between two journal index entries, an entry is also written at least every second
+     */
+    public long getJournalIndexIntervalBytes() {
+        return journalIndexIntervalBytes;
+    }
+
+    public void setJournalIndexIntervalBytes(long journalIndexIntervalBytes) {
+        this.journalIndexIntervalBytes = journalIndexIntervalBytes;
+    }
+
+    /**
+     * @return max size of the journal of a single Term or session, the oldest segments are deleted above it
+     */
+    public long getJournalMaxBytes() {
+        return journalMaxBytes;
+    }
+
+    public void setJournalMaxBytes(long journalMaxBytes) {
+        this.journalMaxBytes = journalMaxBytes;
+    }
+
+    /**
+     * @return max size of all the journals, the journals of the completed Terms and sessions are deleted above it
+     */
+    public long getJournalTotalMaxBytes() {
+        return journalTotalMaxBytes;
+    }
+
+    public void setJournalTotalMaxBytes(long journalTotalMaxBytes) {
+        this.journalTotalMaxBytes = journalTotalMaxBytes;
+    }
+
+    /**
+     * @return deadline of flushing all the primary sinks when a command completes, 0 for none
+     */
+    public long getCompletionFlushTimeoutMillis() {
+        return completionFlushTimeoutMillis;
+    }
+
+    public void setCompletionFlushTimeoutMillis(long completionFlushTimeoutMillis) {
+        this.completionFlushTimeoutMillis = completionFlushTimeoutMillis;
+    }
+
+    /**
+     * @return true when ANSI escape sequences are stripped and the lines redrawn with CR are collapsed in the
+     *         persistent sinks, the read-only viewers and the journal get the raw output
+     */
+    public boolean isTerminalNoiseFilter() {
+        return terminalNoiseFilter;
+    }
+
+    public void setTerminalNoiseFilter(boolean terminalNoiseFilter) {
+        this.terminalNoiseFilter = terminalNoiseFilter;
+    }
+
+    /**
+     * @return loggers in which the runs of identical consecutive lines are collapsed into the first line and a
+     *         "repeated N times" summary
+     */
+    public List<IoLoggerName> getDedupLoggers() {
+        return dedupLoggers;
+    }
+
+    public void setDedupLoggers(List<IoLoggerName> dedupLoggers) {
+        this.dedupLoggers = dedupLoggers;
+    }
+
+    /**
+     * @return max time a run of repeated lines is held before its summary is written
+     */
+    public long getDedupMaxDelayMillis() {
+        return dedupMaxDelayMillis;
+    }
+
+    public void setDedupMaxDelayMillis(long dedupMaxDelayMillis) {
+        this.dedupMaxDelayMillis = dedupMaxDelayMillis;
+    }
+
+    /**
+     * @return literal patterns per logger, a logger with patterns gets only the lines containing one of them
+     */
+    public Map<IoLoggerName, List<String>> getLineRoutes() {
+        return lineRoutes;
+    }
+
+    public void setLineRoutes(Map<IoLoggerName, List<String>> lineRoutes) {
+        this.lineRoutes = lineRoutes;
+    }
+
+    /**
+     * @return values masked in the output of all the terms and sessions
+     */
+    public List<String> getMaskedSecrets() {
+        return maskedSecrets;
+    }
+
+    public void setMaskedSecrets(List<String> maskedSecrets) {
+        this.maskedSecrets = maskedSecrets;
+    }
+
+    /**
+     * @return MessageDigest algorithms of the output checksums sent with the completion status
+     */
+    public List<String> getOutputDigestAlgorithms() {
+        return outputDigestAlgorithms;
+    }
+
+    public void setOutputDigestAlgorithms(List<String> outputDigestAlgorithms) {
+        this.outputDigestAlgorithms = outputDigestAlgorithms;
+    }
+
+    /**
+     * @return size of the buffer used to group the small writes to the log file
+     */
+    public int getFileBufferBytes() {
+        return fileBufferBytes;
+    }
+
+    public void setFileBufferBytes(int fileBufferBytes) {
+        this.fileBufferBytes = fileBufferBytes;
+    }
+
+    /**
+     * @return max time the output waits in the buffer before it is written to the log file, 0 writes immediately
+     */
+    public long getFileMaxDelayMillis() {
+        return fileMaxDelayMillis;
+    }
+
+    public void setFileMaxDelayMillis(long fileMaxDelayMillis) {
+        this.fileMaxDelayMillis = fileMaxDelayMillis;
+    }
+
+    public FileDurability getFileDurability() {
+        return fileDurability;
+    }
+
+    public void setFileDurability(FileDurability fileDurability) {
+        this.fileDurability = fileDurability;
+    }
+
+    /**
+     * @return interval of the log file fsync with {@link FileDurability#PERIODIC}
+     */
+    public long getFileFsyncIntervalMillis() {
+        return fileFsyncIntervalMillis;
+    }
+
+    public void setFileFsyncIntervalMillis(long fileFsyncIntervalMillis) {
+        this.fileFsyncIntervalMillis = fileFsyncIntervalMillis;
+    }
+
+    /**
+     * @return folder of the per Term and session log files, null when they are disabled
+     */
+    public Path getSessionLogFolder() {
+        return sessionLogFolder;
+    }
+
+    public void setSessionLogFolder(Path sessionLogFolder) {
+        this.sessionLogFolder = sessionLogFolder;
+    }
+
+    public long getSessionLogRotateBytes() {
+        return sessionLogRotateBytes;
+    }
+
+    public void setSessionLogRotateBytes(long sessionLogRotateBytes) {
+        this.sessionLogRotateBytes = sessionLogRotateBytes;
+    }
+
+    /**
+     * @return max size of the session log folder, the oldest compressed logs are deleted to stay within it
+     */
+    public long getSessionLogDiskBudgetBytes() {
+        return sessionLogDiskBudgetBytes;
+    }
+
+    public void setSessionLogDiskBudgetBytes(long sessionLogDiskBudgetBytes) {
+        this.sessionLogDiskBudgetBytes = sessionLogDiskBudgetBytes;
+    }
+
+    public int getSessionLogMaxOpenFiles() {
+        return sessionLogMaxOpenFiles;
+    }
+
+    public void setSessionLogMaxOpenFiles(int sessionLogMaxOpenFiles) {
+        this.sessionLogMaxOpenFiles = sessionLogMaxOpenFiles;
+    }
+
+    public int getSessionLogBufferBytes() {
+        return sessionLogBufferBytes;
+    }
+
+    public void setSessionLogBufferBytes(int sessionLogBufferBytes) {
+        this.sessionLogBufferBytes = sessionLogBufferBytes;
+    }
+
+    /**
+     * @return true when the output is also written to the seekable block-compressed console.log.blz
+     */
+    public boolean isBlockLogEnabled() {
+        return blockLogEnabled;
+    }
+
+    public void setBlockLogEnabled(boolean blockLogEnabled) {
+        this.blockLogEnabled = blockLogEnabled;
+    }
+
+    /**
+     * @return uncompressed size of a block, a range read decompresses whole blocks
+     */
+    public int getBlockLogBlockBytes() {
+        return blockLogBlockBytes;
+    }
+
+    public void setBlockLogBlockBytes(int blockLogBlockBytes) {
+        this.blockLogBlockBytes = blockLogBlockBytes;
+    }
+
+    public int getBlockLogCompressionLevel() {
+        return blockLogCompressionLevel;
+    }
+
+    public void setBlockLogCompressionLevel(int blockLogCompressionLevel) {
+        this.blockLogCompressionLevel = blockLogCompressionLevel;
+    }
+
+    /**
+     * @return memory mapped ring file the output is written to for a local log shipper, null when it is disabled
+     */
+    public Path getRingFilePath() {
+        return ringFilePath;
+    }
+
+    public void setRingFilePath(Path ringFilePath) {
+        this.ringFilePath = ringFilePath;
+    }
+
+    public int getRingFileBytes() {
+        return ringFileBytes;
+    }
+
+    public void setRingFileBytes(int ringFileBytes) {
+        this.ringFileBytes = ringFileBytes;
+    }
 }
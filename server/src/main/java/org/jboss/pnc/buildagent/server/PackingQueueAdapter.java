@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Packs the messages of a batch into multi-line records to reduce the per-record overhead of the delegate. A record
+ * holds up to maxLines messages and up to maxBytes of UTF-8 encoded JSON, a single message over the limit is sent in a
+ * record of its own. Messages are never held back for the next batch, the last record of a batch is sent partially
+ * filled.
+ *
+ * <pre>
+ * {"lines":[{"timestamp":...,"message":"...","sequence":0},{"timestamp":...,"message":"...","sequence":1}]}
+ * </pre>
+ *
+ * A message formatted as a JSON object is embedded as it is, without the trailing line separator, it carries its own
+ * sequence. Any other message is embedded as a JSON string.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class PackingQueueAdapter implements QueueAdapter {
+
+    private static final String RECORD_START = "{\"lines\":[";
+    private static final String RECORD_END = "]}";
+
+    private final QueueAdapter delegate;
+    private final int maxLines;
+    private final int maxBytes;
+
+    public PackingQueueAdapter(QueueAdapter delegate, int maxLines, int maxBytes) {
+        if (maxLines < 1) {
+            throw new IllegalArgumentException("At least one line per record is required.");
+        }
+        this.delegate = delegate;
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void send(String message, Consumer<Exception> exceptionHandler) {
+        sendBatch(Collections.singletonList(message), exceptionHandler);
+    }
+
+    @Override
+    public void sendBatch(List<String> messages, Consumer<Exception> exceptionHandler) {
+        delegate.sendBatch(pack(messages), exceptionHandler);
+    }
+
+    @Override
+    public void sendAcknowledged(List<String> messages, Consumer<Exception> onCompletion) {
+        delegate.sendAcknowledged(pack(messages), onCompletion);
+    }
+
+    private List<String> pack(List<String> messages) {
+        List<String> records = new ArrayList<>();
+        StringBuilder record = new StringBuilder();
+        StringBuilder line = new StringBuilder();
+        int lines = 0;
+        int recordBytes = 0;
+        for (String message : messages) {
+            line.setLength(0);
+            appendLine(message, line);
+            int lineBytes = utf8Length(line) + 1;
+            if (lines > 0 && (lines == maxLines || recordBytes + lineBytes > maxBytes)) {
+                records.add(record.append(RECORD_END).toString());
+                record.setLength(0);
+                lines = 0;
+            }
+            if (lines == 0) {
+                record.append(RECORD_START);
+                recordBytes = RECORD_START.length() + RECORD_END.length();
+            } else {
+                record.append(',');
+            }
+            record.append(line);
+            recordBytes += lineBytes;
+            lines++;
+        }
+        if (lines > 0) {
+            records.add(record.append(RECORD_END).toString());
+        }
+        return records;
+    }
+
+    /**
+     * Appends a JSON object as it is, the formatter has produced valid JSON, otherwise the quoted message.
+     */
+    static void appendLine(String message, StringBuilder line) {
+        int end = message.length();
+        while (end > 0 && Character.isWhitespace(message.charAt(end - 1))) {
+            end--;
+        }
+        if (end > 1 && message.charAt(0) == '{' && message.charAt(end - 1) == '}') {
+            line.append(message, 0, end);
+        } else {
+            line.append('"');
+            JsonStringEncoder.getInstance().quoteAsString(message, line);
+            line.append('"');
+        }
+    }
+
+    private static int utf8Length(CharSequence chars) {
+        int length = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                //a surrogate pair is encoded in 4 bytes
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void close(Duration duration) {
+        delegate.close(duration);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -1,6 +1,9 @@
 package org.jboss.pnc.buildagent.server;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
@@ -12,8 +15,42 @@ public interface QueueAdapter {
 
     void send(String message, Consumer<Exception> exceptionHandler);
 
+    /**
+     * Sends the messages in the given order. The batch shares one completion, the exception handler is called at most
+     * once, with the first failure.
+     */
+    default void sendBatch(List<String> messages, Consumer<Exception> exceptionHandler) {
+        Consumer<Exception> batchHandler = onFirstException(exceptionHandler);
+        for (String message : messages) {
+            send(message, batchHandler);
+        }
+    }
+
+    /**
+     * Sends the messages in the given order and calls the completion once, when all of them are acknowledged: with
+     * null when they are delivered, with the first failure otherwise. The default sends the batch and flushes.
+     */
+    default void sendAcknowledged(List<String> messages, Consumer<Exception> onCompletion) {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        try {
+            sendBatch(messages, (e) -> failure.compareAndSet(null, e));
+            flush();
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        onCompletion.accept(failure.get());
+    }
+
     void close(Duration duration);
 
     void close();
 
+    static Consumer<Exception> onFirstException(Consumer<Exception> exceptionHandler) {
+        AtomicBoolean reported = new AtomicBoolean();
+        return (e) -> {
+            if (reported.compareAndSet(false, true)) {
+                exceptionHandler.accept(e);
+            }
+        };
+    }
 }
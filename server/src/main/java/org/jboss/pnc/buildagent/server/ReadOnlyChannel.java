@@ -20,6 +20,9 @@ package org.jboss.pnc.buildagent.server;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
@@ -33,4 +36,26 @@ public interface ReadOnlyChannel extends Closeable {
     boolean isPrimary();
 
     void flush() throws IOException;
+
+    /**
+     * Runs {@link #flush()} on the given executor.
+     *
+     * @return future completed when the channel is flushed, or exceptionally when the flush fails
+     */
+    default CompletableFuture<Void> flushAsync(Executor executor) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    flush();
+                    future.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 }
@@ -0,0 +1,39 @@
+package org.jboss.pnc.buildagent.server;
+
+import io.undertow.servlet.api.InstanceFactory;
+import io.undertow.servlet.api.InstanceHandle;
+import io.undertow.servlet.util.ImmediateInstanceHandle;
+import org.jboss.pnc.buildagent.server.httpinvoker.SessionRegistry;
+import org.jboss.pnc.buildagent.server.servlet.SessionViewer;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class SessionViewerFactory implements InstanceFactory<SessionViewer> {
+
+    private final String sessionPath;
+
+    private final SessionRegistry sessionRegistry;
+
+    private final Options options;
+
+    private final ScheduledExecutorService executor;
+
+    public SessionViewerFactory(
+            String sessionPath,
+            SessionRegistry sessionRegistry,
+            Options options,
+            ScheduledExecutorService executor) {
+        this.sessionPath = sessionPath;
+        this.sessionRegistry = sessionRegistry;
+        this.options = options;
+        this.executor = executor;
+    }
+
+    @Override
+    public InstanceHandle<SessionViewer> createInstance() throws InstantiationException {
+        return new ImmediateInstanceHandle<>(new SessionViewer(sessionPath, sessionRegistry, options, executor));
+    }
+}
@@ -0,0 +1,535 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server;
+
+import org.jboss.pnc.common.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the output thread from blocking on a slow or unreachable delegate. The records are queued in memory and
+ * delivered to the delegate by a background thread. When the memory queue is full, the queued records and all the
+ * following ones are appended to a spool file until the drain thread has delivered the whole spool, so the records
+ * reach the delegate in the order they were sent.
+ *
+ * The spool survives a restart: the read position is stored next to the spool file and the records not delivered
+ * before the restart are delivered first. A record is removed from the spool when the delegate has acknowledged it,
+ * see {@link QueueAdapter#sendAcknowledged(List, Consumer)}. The spool is written to the file system cache, it is
+ * forced to the disk on flush and close.
+ *
+ * The spool file is bounded by maxSpoolBytes and reused once it is completely delivered. The records that do not fit
+ * are handled by the {@link Overflow} policy. A record that cannot be written to the spool is logged and reported to
+ * the exception handler, it is dropped.
+ *
+ * The spooled records are delivered with the exception handler of the latest send, the records recovered after a
+ * restart are only logged when they fail before a new record is sent.
+ *
+ * Spool file: a sequence of [length (int)][UTF-8 bytes] records.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class SpoolingQueueAdapter implements QueueAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(SpoolingQueueAdapter.class);
+
+    private static final int SPOOL_READ_RECORDS = 1000;
+    private static final long RETRY_MILLIS = 1000;
+
+    /**
+     * What happens to the records that do not fit in the spool.
+     */
+    public enum Overflow {
+        /**
+         * The records are dropped and reported to the exception handler, the output is never blocked.
+         */
+        DROP_NEWEST,
+        /**
+         * The sender waits until the spool is delivered, the output is blocked while the delegate is unavailable.
+         */
+        BLOCK
+    }
+
+    private final QueueAdapter delegate;
+    private final int memoryRecords;
+    private final long drainTimeoutMillis;
+    private final long maxSpoolBytes;
+    private final Overflow overflow;
+
+    private final Path spoolPath;
+    /**
+     * Replaced when a batch is put at the head of the spool, guarded by this.
+     */
+    private FileChannel spool;
+    private final FileChannel positionFile;
+    private final ByteBuffer positionBuffer = ByteBuffer.allocate(Long.BYTES);
+
+    private final ExecutorService drainer;
+
+    /**
+     * Guarded by this.
+     */
+    private List<String> memory = new ArrayList<>();
+    private long spoolReadPosition;
+    private long spoolWritePosition;
+    private boolean delivering;
+    private boolean closed;
+    private long spooledRecords;
+    private long droppedRecords;
+    private Consumer<Exception> exceptionHandler = (e) -> log.error("Cannot deliver spooled record.", e);
+
+    /**
+     * @param memoryRecords number of records queued in memory before the records are spooled
+     * @param drainTimeoutMillis how long flush waits for the records to be delivered, the records not delivered in time
+     *         are left in the spool
+     * @param maxSpoolBytes max size of the spool file
+     * @param overflow policy for the records that do not fit in the spool
+     */
+    public SpoolingQueueAdapter(
+            QueueAdapter delegate,
+            Path spoolPath,
+            int memoryRecords,
+            long drainTimeoutMillis,
+            long maxSpoolBytes,
+            Overflow overflow) throws IOException {
+        this.delegate = delegate;
+        this.memoryRecords = memoryRecords;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.maxSpoolBytes = maxSpoolBytes;
+        this.overflow = overflow;
+        this.spoolPath = spoolPath;
+        spool = FileChannel.open(spoolPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        positionFile = FileChannel.open(
+                Paths.get(spoolPath.toString() + ".pos"),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        recover();
+        drainer = Executors.newSingleThreadExecutor(new NamedThreadFactory("queue-spool"));
+        drainer.execute(this::drain);
+    }
+
+    /**
+     * Continues after the last delivered record and cuts a record that was not completely written.
+     */
+    private void recover() throws IOException {
+        if (positionFile.size() == Long.BYTES) {
+            ((Buffer)positionBuffer).clear();
+            positionFile.read(positionBuffer, 0);
+            spoolReadPosition = positionBuffer.getLong(0);
+        }
+        long size = spool.size();
+        if (spoolReadPosition > size) {
+            spoolReadPosition = 0;
+        }
+        long position = spoolReadPosition;
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        while (position + Integer.BYTES <= size) {
+            ((Buffer)length).clear();
+            spool.read(length, position);
+            long next = position + Integer.BYTES + length.getInt(0);
+            if (next > size) {
+                break;
+            }
+            position = next;
+            spooledRecords++;
+        }
+        if (position < size) {
+            log.warn("Dropping {} bytes of an incomplete record at the end of the spool.", size - position);
+            spool.truncate(position);
+        }
+        spoolWritePosition = position;
+        if (spooledRecords > 0) {
+            log.info("Delivering {} records spooled before the restart.", spooledRecords);
+        }
+    }
+
+    @Override
+    public void send(String message, Consumer<Exception> exceptionHandler) {
+        List<String> messages = new ArrayList<>(1);
+        messages.add(message);
+        sendBatch(messages, exceptionHandler);
+    }
+
+    @Override
+    public synchronized void sendBatch(List<String> messages, Consumer<Exception> exceptionHandler) {
+        this.exceptionHandler = exceptionHandler;
+        if (isSpooling() || memory.size() + messages.size() > memoryRecords) {
+            //taken from the drain before a blocking spool write
+            List<String> queued = memory;
+            memory = new ArrayList<>();
+            queued.addAll(messages);
+            appendToSpool(queued, exceptionHandler, overflow == Overflow.BLOCK);
+        } else {
+            memory.addAll(messages);
+        }
+        notifyAll();
+    }
+
+    private boolean isSpooling() {
+        return spoolReadPosition < spoolWritePosition;
+    }
+
+    /**
+     * Called holding the lock, releases it while waiting for the spool to be delivered.
+     *
+     * @param block wait for the space instead of dropping the records
+     */
+    private void appendToSpool(List<String> messages, Consumer<Exception> handler, boolean block) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        ByteBuffer buffer = encode(messages);
+        int bytes = buffer.remaining();
+        //the spool is reused once it is delivered, a batch larger than the spool never fits
+        while (block && spoolWritePosition + bytes > maxSpoolBytes && spoolWritePosition > 0
+                && !closed) {
+            waitUninterruptibly(0);
+        }
+        if (spoolWritePosition + bytes > maxSpoolBytes) {
+            drop(messages.size(), handler, new IOException("Queue spool is full, " + spoolWritePosition
+                    + " of " + maxSpoolBytes + " bytes used."));
+            return;
+        }
+        long position = spoolWritePosition;
+        try {
+            while (buffer.hasRemaining()) {
+                position += spool.write(buffer, position);
+            }
+        } catch (IOException e) {
+            //the partially written batch is overwritten by the next one
+            drop(messages.size(), handler, e);
+            return;
+        }
+        spoolWritePosition = position;
+        spooledRecords += messages.size();
+    }
+
+    /**
+     * Puts the batch before the spooled records, the spool is rewritten when it is not empty. Called holding the lock.
+     */
+    private void prependToSpool(List<String> messages, Consumer<Exception> handler) {
+        if (!isSpooling()) {
+            appendToSpool(messages, handler, false);
+            return;
+        }
+        ByteBuffer buffer = encode(messages);
+        long spooledBytes = spoolWritePosition - spoolReadPosition;
+        long size = buffer.remaining() + spooledBytes;
+        if (size > maxSpoolBytes) {
+            drop(messages.size(), handler, new IOException("Queue spool is full, " + spooledBytes
+                    + " of " + maxSpoolBytes + " bytes used."));
+            return;
+        }
+        Path head = Paths.get(spoolPath.toString() + ".tmp");
+        try (FileChannel rewritten = FileChannel.open(
+                head,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                rewritten.write(buffer);
+            }
+            long position = spoolReadPosition;
+            while (position < spoolWritePosition) {
+                position += spool.transferTo(position, spoolWritePosition - position, rewritten);
+            }
+            rewritten.force(false);
+        } catch (IOException e) {
+            drop(messages.size(), handler, e);
+            return;
+        }
+        try {
+            //a restart before the move delivers the delivered records of the old spool again, none is lost
+            writeReadPosition(0);
+            Files.move(head, spoolPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            writeReadPosition(spoolReadPosition);
+            drop(messages.size(), handler, e);
+            return;
+        }
+        try {
+            spool.close();
+            spool = FileChannel.open(spoolPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            log.error("Cannot reopen the queue spool.", e);
+        }
+        spoolReadPosition = 0;
+        spoolWritePosition = size;
+        spooledRecords += messages.size();
+    }
+
+    private static ByteBuffer encode(List<String> messages) {
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        int bytes = 0;
+        for (String message : messages) {
+            byte[] record = message.getBytes(StandardCharsets.UTF_8);
+            encoded.add(record);
+            bytes += Integer.BYTES + record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        for (byte[] record : encoded) {
+            buffer.putInt(record.length).put(record);
+        }
+        ((Buffer)buffer).flip();
+        return buffer;
+    }
+
+    private void drop(int records, Consumer<Exception> handler, IOException e) {
+        droppedRecords += records;
+        log.error("Cannot write {} records to the queue spool, they are dropped.", records, e);
+        handler.accept(e);
+    }
+
+    private void drain() {
+        while (true) {
+            List<String> batch;
+            long readTo;
+            Consumer<Exception> handler;
+            synchronized (this) {
+                while (memory.isEmpty() && !isSpooling() && !closed) {
+                    waitUninterruptibly(0);
+                }
+                if (closed) {
+                    return;
+                }
+                handler = exceptionHandler;
+                if (!memory.isEmpty()) {
+                    batch = memory;
+                    memory = new ArrayList<>();
+                    readTo = -1;
+                } else {
+                    try {
+                        batch = new ArrayList<>();
+                        readTo = readSpool(batch);
+                    } catch (IOException e) {
+                        log.error("Cannot read the queue spool.", e);
+                        waitUninterruptibly(RETRY_MILLIS);
+                        continue;
+                    }
+                }
+                delivering = true;
+            }
+            boolean delivered = deliver(batch);
+            synchronized (this) {
+                delivering = false;
+                if (readTo > -1) {
+                    if (delivered) {
+                        spooledRecords -= batch.size();
+                        markRead(readTo);
+                    }
+                } else if (!delivered) {
+                    //retried from the spool, ahead of the records spooled while it was delivered
+                    prependToSpool(batch, handler);
+                    List<String> queued = memory;
+                    memory = new ArrayList<>();
+                    appendToSpool(queued, handler, false);
+                }
+                notifyAll();
+                if (!delivered) {
+                    waitUninterruptibly(RETRY_MILLIS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the delegate to acknowledge the batch. A failed spool batch stays in the spool and is retried. A
+     * failed memory batch is put at the head of the spool, the drain is the only consumer, so no later record is
+     * delivered before it.
+     */
+    private boolean deliver(List<String> batch) {
+        CompletableFuture<Exception> acknowledged = new CompletableFuture<>();
+        Exception failure;
+        try {
+            delegate.sendAcknowledged(batch, acknowledged::complete);
+            failure = acknowledged.get();
+        } catch (RuntimeException | ExecutionException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        }
+        if (failure == null) {
+            return true;
+        }
+        log.warn("Cannot deliver queued records, retrying in " + RETRY_MILLIS + "ms.", failure);
+        return false;
+    }
+
+    /**
+     * Reads the spooled records after the read position.
+     *
+     * @return spool position after the last record read
+     */
+    private long readSpool(List<String> records) throws IOException {
+        long position = spoolReadPosition;
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        while (position < spoolWritePosition && records.size() < SPOOL_READ_RECORDS) {
+            ((Buffer)length).clear();
+            spool.read(length, position);
+            ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+            while (record.hasRemaining()) {
+                spool.read(record, position + Integer.BYTES + record.position());
+            }
+            records.add(new String(record.array(), StandardCharsets.UTF_8));
+            position += Integer.BYTES + record.capacity();
+        }
+        return position;
+    }
+
+    private void markRead(long position) {
+        try {
+            if (position == spoolWritePosition) {
+                //everything is delivered, start the spool again
+                spool.truncate(0);
+                spoolReadPosition = 0;
+                spoolWritePosition = 0;
+            } else {
+                spoolReadPosition = position;
+            }
+        } catch (IOException e) {
+            log.error("Cannot truncate the queue spool.", e);
+        }
+        writeReadPosition(spoolReadPosition);
+    }
+
+    private void writeReadPosition(long position) {
+        try {
+            ((Buffer)positionBuffer).clear();
+            positionBuffer.putLong(0, position);
+            positionFile.write(positionBuffer, 0);
+        } catch (IOException e) {
+            log.error("Cannot update the queue spool position.", e);
+        }
+    }
+
+    private void waitUninterruptibly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the queued records to be delivered and flushes the delegate. When the records are not delivered in
+     * time they are moved to the spool to be delivered later, also after a restart, and the flush fails.
+     *
+     * @throws IllegalStateException when the records are not delivered in time
+     */
+    @Override
+    public void flush() {
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+            long remaining;
+            while ((!memory.isEmpty() || isSpooling() || delivering)
+                    && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                waitUninterruptibly(remaining);
+            }
+            if (!memory.isEmpty() || isSpooling() || delivering) {
+                spill();
+                throw new IllegalStateException("Records not delivered in " + drainTimeoutMillis + "ms, "
+                        + spooledRecords + " records are left in the spool.");
+            }
+        }
+        delegate.flush();
+    }
+
+    /**
+     * Called holding the lock.
+     */
+    private void spill() {
+        List<String> queued = memory;
+        memory = new ArrayList<>();
+        appendToSpool(queued, exceptionHandler, false);
+        try {
+            spool.force(false);
+        } catch (IOException e) {
+            log.error("Cannot force the queue spool to the disk.", e);
+        }
+    }
+
+    @Override
+    public void close(Duration duration) {
+        stop();
+        delegate.close(duration);
+    }
+
+    @Override
+    public void close() {
+        stop();
+        delegate.close();
+    }
+
+    private void stop() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            spill();
+            notifyAll();
+        }
+        drainer.shutdown();
+        try {
+            if (!drainer.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("Queue spool drain did not complete.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            spool.close();
+            positionFile.close();
+        } catch (IOException e) {
+            log.error("Cannot close the queue spool.", e);
+        }
+    }
+
+    public synchronized long getSpooledRecords() {
+        return spooledRecords;
+    }
+
+    /**
+     * @return records that did not fit in the spool or could not be written to it
+     */
+    public synchronized long getDroppedRecords() {
+        return droppedRecords;
+    }
+}
@@ -2,13 +2,21 @@ package org.jboss.pnc.buildagent.server.httpinvoker;
 
 import io.termd.core.pty.PtyMaster;
 import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.output.OutputDigest;
+import org.jboss.pnc.buildagent.server.output.OutputDispatcher;
+import org.jboss.pnc.buildagent.server.output.ScrollbackBuffer;
+import org.jboss.pnc.buildagent.server.output.SecretMasker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
@@ -19,12 +27,32 @@ public class CommandSession {
 
     private final String sessionId;
     private final Set<ReadOnlyChannel> readOnlyChannels;
+    private final OutputDispatcher outputDispatcher;
     private PtyMaster ptyMaster;
 
+    private final Object outputLock = new Object();
+    private ScrollbackBuffer scrollback;
+    private final OutputDigest outputDigest;
+    /** Null when there are no secrets to mask. */
+    private final SecretMasker secretMasker;
 
-    public CommandSession(Set<ReadOnlyChannel> readOnlyChannels) {
+    public CommandSession(Set<ReadOnlyChannel> readOnlyChannels, OutputDispatcher outputDispatcher) {
+        this(readOnlyChannels, outputDispatcher, Collections.emptyList());
+    }
+
+    /**
+     * @param secrets values masked in the session output in addition to the ones set on the dispatcher
+     */
+    public CommandSession(
+            Set<ReadOnlyChannel> readOnlyChannels,
+            OutputDispatcher outputDispatcher,
+            Collection<String> secrets) {
         this.sessionId = UUID.randomUUID().toString();
-        this.readOnlyChannels = readOnlyChannels;
+        this.outputDispatcher = outputDispatcher;
+        this.readOnlyChannels = new CopyOnWriteArraySet<>(outputDispatcher.dispatch(readOnlyChannels, sessionId));
+        this.scrollback = outputDispatcher.acquireScrollback(sessionId);
+        this.outputDigest = outputDispatcher.openDigest(sessionId);
+        this.secretMasker = outputDispatcher.openSecretMasker(secrets);
     }
 
     public String getSessionId() {
@@ -39,15 +67,88 @@ public class CommandSession {
         return ptyMaster;
     }
 
+    /**
+     * Waits for the output written so far to be hashed.
+     *
+     * @return hex encoded digests of the session output by algorithm name
+     */
+    public Map<String, String> digest() throws IOException {
+        drainSecretMasker();
+        return outputDigest.digest();
+    }
+
     public void close() throws IOException {
-        for (ReadOnlyChannel readOnlyChannel : readOnlyChannels) {
-            if (readOnlyChannel.isPrimary()) {
-                readOnlyChannel.flush();
+        drainSecretMasker();
+        try {
+            outputDispatcher.flushPrimary(readOnlyChannels);
+        } finally {
+            readOnlyChannels.forEach(outputDispatcher::release);
+            outputDispatcher.releaseDigest(outputDigest);
+            synchronized (outputLock) {
+                outputDispatcher.releaseScrollback(scrollback);
+                scrollback = null;
+            }
+        }
+    }
+
+    /**
+     * Sends the scrollback to the viewer and adds it to the live channels.
+     *
+     * @return the attached channel to be passed to {@link #detach(ReadOnlyChannel)}
+     */
+    public ReadOnlyChannel attach(ReadOnlyChannel viewer) {
+        return attach(viewer, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxReplayBytes max scrollback bytes sent to the viewer, eg. to fit its buffer
+     */
+    public ReadOnlyChannel attach(ReadOnlyChannel viewer, long maxReplayBytes) {
+        ReadOnlyChannel readOnlyChannel = outputDispatcher.dispatch(viewer, sessionId);
+        synchronized (outputLock) {
+            if (scrollback != null) {
+                scrollback.replayTo(readOnlyChannel, maxReplayBytes);
             }
+            readOnlyChannels.add(readOnlyChannel);
         }
+        return readOnlyChannel;
     }
 
-    public void handleOutput(byte[] buffer) {
+    public void detach(ReadOnlyChannel readOnlyChannel) {
+        readOnlyChannels.remove(readOnlyChannel);
+        outputDispatcher.release(readOnlyChannel);
+    }
+
+    public void handleOutput(byte[] output) {
+        synchronized (outputLock) {
+            byte[] buffer = secretMasker == null ? output : secretMasker.mask(output);
+            write(buffer);
+        }
+    }
+
+    /**
+     * Writes the output held by the masker as a possible beginning of a secret, the command is completed.
+     */
+    private void drainSecretMasker() {
+        if (secretMasker == null) {
+            return;
+        }
+        synchronized (outputLock) {
+            write(secretMasker.drain());
+        }
+    }
+
+    /**
+     * Called holding the output lock.
+     */
+    private void write(byte[] buffer) {
+        if (buffer.length == 0) {
+            return;
+        }
+        if (scrollback != null) {
+            scrollback.append(buffer);
+        }
+        outputDigest.add(buffer);
         for (ReadOnlyChannel readOnlyChannel : readOnlyChannels) {
             LOGGER.trace("Writing to chanel {}; stdout: {}", readOnlyChannel, new String(buffer, StandardCharsets.UTF_8));
             readOnlyChannel.writeOutput(buffer);
@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Opens the journals of the contexts and keeps all of them within a total size. Each Term and session has its own
+ * journal, a http session gets a new context, so the journals of the completed producers are deleted, the least
+ * recently written first, while the journals folder is over the budget. The journals being written are never deleted,
+ * their size is bounded by the max size of a single journal.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class JournalBudget {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalBudget.class);
+
+    private final Path journalsFolder;
+    private final long segmentBytes;
+    private final long indexIntervalBytes;
+    private final long maxBytes;
+    private final long maxTotalBytes;
+
+    /**
+     * Journals being written by the number of their channels, guarded by this.
+     */
+    private final Map<Path, Integer> open = new HashMap<>();
+
+    /**
+     * @param maxBytes max size of the journal of a single context
+     * @param maxTotalBytes max size of all the journals
+     */
+    public JournalBudget(
+            Path journalsFolder,
+            long segmentBytes,
+            long indexIntervalBytes,
+            long maxBytes,
+            long maxTotalBytes) {
+        this.journalsFolder = journalsFolder;
+        this.segmentBytes = segmentBytes;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.maxBytes = maxBytes;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    /**
+     * @return the channel appending to the journal of the context, the journal can be deleted once it is closed
+     */
+    public JournalChannel open(String context) throws IOException {
+        Path folder = JournalReader.forContext(journalsFolder, context).getFolder();
+        synchronized (this) {
+            open.merge(folder, 1, Integer::sum);
+            enforce();
+        }
+        try {
+            return new JournalChannel(folder, segmentBytes, indexIntervalBytes, maxBytes) {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        synchronized (this) {
+                            if (closed) {
+                                return;
+                            }
+                            closed = true;
+                        }
+                        released(folder);
+                    }
+                }
+            };
+        } catch (IOException e) {
+            released(folder);
+            throw e;
+        }
+    }
+
+    private synchronized void released(Path folder) {
+        open.computeIfPresent(folder, (f, channels) -> channels == 1 ? null : channels - 1);
+        enforce();
+    }
+
+    /**
+     * Deletes the least recently written journals not being written while the journals are over the budget.
+     */
+    synchronized void enforce() {
+        if (!Files.isDirectory(journalsFolder)) {
+            return;
+        }
+        try {
+            List<Path> folders;
+            try (Stream<Path> list = Files.list(journalsFolder)) {
+                folders = list.filter(Files::isDirectory).collect(Collectors.toList());
+            }
+            Map<Path, Long> sizes = new HashMap<>();
+            Map<Path, FileTime> modified = new HashMap<>();
+            long total = 0;
+            for (Path folder : folders) {
+                long size = 0;
+                FileTime lastModified = FileTime.fromMillis(0);
+                for (Path file : files(folder)) {
+                    try {
+                        size += Files.size(file);
+                        FileTime fileModified = Files.getLastModifiedTime(file);
+                        if (fileModified.compareTo(lastModified) > 0) {
+                            lastModified = fileModified;
+                        }
+                    } catch (NoSuchFileException e) {
+                        //segment deleted after the listing
+                    }
+                }
+                sizes.put(folder, size);
+                modified.put(folder, lastModified);
+                total += size;
+            }
+            if (total <= maxTotalBytes) {
+                return;
+            }
+            List<Path> released = folders.stream()
+                    .filter(folder -> !open.containsKey(folder))
+                    .sorted(Comparator.comparing(modified::get))
+                    .collect(Collectors.toList());
+            for (Path folder : released) {
+                if (total <= maxTotalBytes) {
+                    break;
+                }
+                delete(folder);
+                total -= sizes.get(folder);
+                log.info("Deleted journal {} to stay within the total journal size.", folder);
+            }
+            if (total > maxTotalBytes) {
+                log.warn("Journals use {} bytes, the total max is {} bytes. The journals being written are not deleted.", total, maxTotalBytes);
+            }
+        } catch (IOException e) {
+            log.error("Cannot apply the total journal size.", e);
+        }
+    }
+
+    private static List<Path> files(Path folder) throws IOException {
+        try (Stream<Path> list = Files.list(folder)) {
+            return list.collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    private static void delete(Path folder) throws IOException {
+        //a reader finds the segments by the data files, the indexes go last
+        List<Path> files = files(folder);
+        files.sort(Comparator.comparing(file -> file.getFileName().toString().endsWith(JournalFiles.INDEX_SUFFIX)));
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(folder);
+    }
+}
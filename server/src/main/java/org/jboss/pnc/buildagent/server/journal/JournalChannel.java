@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.journal;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends the output of a single Term or session to the segmented journal, see {@link JournalFiles} for the layout.
+ * An index entry is written for the first chunk of a segment and then for the first chunk after indexIntervalBytes
+ * or indexIntervalMillis since the previous entry. Reopening the journal of the same context continues after the last
+ * segment. When a new segment is started, the oldest segments are deleted while the journal is larger than maxBytes,
+ * the segment being written is never deleted.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class JournalChannel implements ReadOnlyChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalChannel.class);
+
+    private final Path folder;
+    private final long segmentBytes;
+    private final long indexIntervalBytes;
+    private final long indexIntervalMillis;
+    private final long maxBytes;
+
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(JournalFiles.INDEX_ENTRY_SIZE);
+
+    private FileChannel segment;
+    private FileChannel index;
+    private long segmentStart;
+    private long offset;
+    private long lastIndexedOffset = -1;
+    private long lastIndexedMillis;
+    private boolean failed;
+
+    public JournalChannel(Path folder, long segmentBytes, long indexIntervalBytes, long maxBytes) throws IOException {
+        this(folder, segmentBytes, indexIntervalBytes, JournalFiles.INDEX_INTERVAL_MILLIS, maxBytes);
+    }
+
+    JournalChannel(
+            Path folder,
+            long segmentBytes,
+            long indexIntervalBytes,
+            long indexIntervalMillis,
+            long maxBytes) throws IOException {
+        this.folder = folder;
+        this.segmentBytes = segmentBytes;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.indexIntervalMillis = indexIntervalMillis;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(folder);
+        List<Long> segments = JournalFiles.segmentOffsets(folder);
+        if (!segments.isEmpty()) {
+            long last = segments.get(segments.size() - 1);
+            openSegment(last);
+            offset = last + segment.size();
+            //the index is sparse, the next chunk gets an entry
+            lastIndexedMillis = JournalReader.lastIndexedMillis(JournalFiles.index(folder, last));
+            log.info("Continuing journal {} at offset {}.", folder, offset);
+        }
+    }
+
+    private void openSegment(long start) throws IOException {
+        segmentStart = start;
+        segment = FileChannel.open(
+                JournalFiles.segment(folder, start),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        index = FileChannel.open(
+                JournalFiles.index(folder, start),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public synchronized void writeOutput(byte[] buffer) {
+        if (failed || buffer.length == 0) {
+            return;
+        }
+        try {
+            if (segment == null || offset - segmentStart >= segmentBytes) {
+                closeSegment();
+                openSegment(offset);
+                lastIndexedOffset = -1;
+                deleteOldSegments();
+            }
+            long now = Math.max(System.currentTimeMillis(), lastIndexedMillis);
+            if (lastIndexedOffset < 0
+                    || offset - lastIndexedOffset >= indexIntervalBytes
+                    || now - lastIndexedMillis >= indexIntervalMillis) {
+                //data before the index entry, a reader never sees an entry pointing past the data
+                write(segment, ByteBuffer.wrap(buffer));
+                ((Buffer)indexEntry).clear();
+                indexEntry.putLong(offset).putLong(now);
+                ((Buffer)indexEntry).flip();
+                write(index, indexEntry);
+                lastIndexedOffset = offset;
+                lastIndexedMillis = now;
+            } else {
+                write(segment, ByteBuffer.wrap(buffer));
+            }
+            offset += buffer.length;
+        } catch (IOException e) {
+            failed = true;
+            log.error("Cannot write to journal " + folder + ", journal is disabled for this context.", e);
+        }
+    }
+
+    /**
+     * The segments are contiguous, the journal size is the offset past the start of the oldest segment.
+     */
+    private void deleteOldSegments() throws IOException {
+        List<Long> segments = JournalFiles.segmentOffsets(folder);
+        for (int i = 0; i < segments.size() - 1 && offset - segments.get(i) > maxBytes; i++) {
+            long start = segments.get(i);
+            //a reader finds the segments by the data files, the index goes last
+            Files.deleteIfExists(JournalFiles.segment(folder, start));
+            Files.deleteIfExists(JournalFiles.index(folder, start));
+            log.debug("Deleted journal segment {} of {}.", start, folder);
+        }
+    }
+
+    private void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return offset of the next output byte
+     */
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return false;
+    }
+
+    @Override
+    public void flush() {
+        //written directly to the file channels
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeSegment();
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment != null) {
+            try {
+                segment.close();
+            } finally {
+                index.close();
+                segment = null;
+                index = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.journal;
+
+import org.jboss.pnc.buildagent.common.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Layout of a journal folder. The output is split into segment files named by the offset of their first byte
+ * ({@code 00000000000048213992.log}). Each segment has a sparse index ({@code 00000000000048213992.idx}) of
+ * {@link #INDEX_ENTRY_SIZE} byte big-endian entries: the output offset (long) and the capture time in epoch millis
+ * (long) of the chunk starting at that offset. Both offsets and times grow monotonically.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+final class JournalFiles {
+
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int INDEX_ENTRY_SIZE = 16;
+    /**
+     * Max time between two index entries while there is output, a chunk arriving later than that after the last
+     * entry gets a new one.
+     */
+    static final long INDEX_INTERVAL_MILLIS = 1000;
+
+    private JournalFiles() {
+    }
+
+    static Path segment(Path folder, long startOffset) {
+        return folder.resolve(String.format("%020d", startOffset) + SEGMENT_SUFFIX);
+    }
+
+    static Path index(Path folder, long startOffset) {
+        return folder.resolve(String.format("%020d", startOffset) + INDEX_SUFFIX);
+    }
+
+    /**
+     * @return start offsets of the segments in the folder in ascending order
+     */
+    static List<Long> segmentOffsets(Path folder) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        if (!Files.isDirectory(folder)) {
+            return offsets;
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> offsets.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        Collections.sort(offsets);
+        return offsets;
+    }
+
+    /**
+     * Maps the Term context or the session id to a folder name, the result never points outside of the parent.
+     */
+    static String folderName(String context) {
+        return StringUtils.toFileName(context);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.journal;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads the journal written by {@link JournalChannel}, it can be used while the journal is being written. Lookups
+ * seek using the segment names and the sparse indexes, the output is not scanned.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class JournalReader {
+
+    private final Path folder;
+    private final long indexIntervalMillis;
+
+    public JournalReader(Path folder) {
+        this(folder, JournalFiles.INDEX_INTERVAL_MILLIS);
+    }
+
+    JournalReader(Path folder, long indexIntervalMillis) {
+        this.folder = folder;
+        this.indexIntervalMillis = indexIntervalMillis;
+    }
+
+    public static JournalReader forContext(Path journalsFolder, String context) {
+        return new JournalReader(journalsFolder.resolve(JournalFiles.folderName(context)));
+    }
+
+    public Path getFolder() {
+        return folder;
+    }
+
+    public boolean exists() throws IOException {
+        return !JournalFiles.segmentOffsets(folder).isEmpty();
+    }
+
+    /**
+     * @return offset of the oldest retained byte, the older segments were deleted
+     */
+    public long getStartOffset() throws IOException {
+        List<Long> segments = JournalFiles.segmentOffsets(folder);
+        return segments.isEmpty() ? 0 : segments.get(0);
+    }
+
+    /**
+     * @return offset following the last written byte
+     */
+    public long getEndOffset() throws IOException {
+        List<Long> segments = JournalFiles.segmentOffsets(folder);
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        long last = segments.get(segments.size() - 1);
+        return last + Files.size(JournalFiles.segment(folder, last));
+    }
+
+    /**
+     * Finds where to start reading to get all the output captured at or after the given time. The chunks following an
+     * index entry without an own entry were captured less than the index interval after it. So when the time is
+     * further than that from the preceding entry the result is exactly the next entry, otherwise it is the preceding
+     * entry and the output may start with up to an index interval of older output.
+     *
+     * @return offset to read from, the journal start when all the output is newer
+     */
+    public long offsetAt(long timestampMillis) throws IOException {
+        List<Long> segments = JournalFiles.segmentOffsets(folder);
+        //last segment starting at or before the time
+        int low = 0;
+        int high = segments.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long[] first = firstEntry(segments.get(mid));
+            if (first == null || first[1] <= timestampMillis) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found < 0) {
+            return segments.isEmpty() ? 0 : segments.get(0);
+        }
+        long segmentStart = segments.get(found);
+        try (FileChannel index = FileChannel.open(JournalFiles.index(folder, segmentStart), StandardOpenOption.READ)) {
+            long entries = index.size() / JournalFiles.INDEX_ENTRY_SIZE;
+            long lowEntry = 0;
+            long highEntry = entries - 1;
+            long[] floor = null;
+            long floorEntry = -1;
+            while (lowEntry <= highEntry) {
+                long mid = (lowEntry + highEntry) >>> 1;
+                long[] entry = readEntry(index, mid);
+                if (entry[1] <= timestampMillis) {
+                    floor = entry;
+                    floorEntry = mid;
+                    lowEntry = mid + 1;
+                } else {
+                    highEntry = mid - 1;
+                }
+            }
+            if (floor == null) {
+                return segmentStart;
+            }
+            if (floor[1] + indexIntervalMillis > timestampMillis) {
+                return floor[0];
+            }
+            if (floorEntry + 1 < entries) {
+                return readEntry(index, floorEntry + 1)[0];
+            }
+            return found + 1 < segments.size() ? segments.get(found + 1) : getEndOffset();
+        }
+    }
+
+    /**
+     * Writes the output from the offset up to the current end of the journal to the target. The output before
+     * {@link #getStartOffset()} is not retained, a segment deleted while being listed is skipped.
+     *
+     * @return number of bytes written
+     */
+    public long transferFrom(long offset, WritableByteChannel target) throws IOException {
+        List<Long> segments = JournalFiles.segmentOffsets(folder);
+        long transferred = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            long segmentStart = segments.get(i);
+            long segmentEnd = i + 1 < segments.size() ? segments.get(i + 1) : Long.MAX_VALUE;
+            if (offset >= segmentEnd) {
+                continue;
+            }
+            FileChannel segment;
+            try {
+                segment = FileChannel.open(JournalFiles.segment(folder, segmentStart), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            try {
+                long position = Math.max(0, offset - segmentStart);
+                long size = segment.size();
+                while (position < size) {
+                    long written = segment.transferTo(position, size - position, target);
+                    if (written <= 0) {
+                        break;
+                    }
+                    position += written;
+                    transferred += written;
+                }
+                offset = segmentStart + size;
+            } finally {
+                segment.close();
+            }
+        }
+        return transferred;
+    }
+
+    private long[] firstEntry(long segmentStart) throws IOException {
+        Path indexPath = JournalFiles.index(folder, segmentStart);
+        if (!Files.exists(indexPath)) {
+            return null;
+        }
+        try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            if (index.size() < JournalFiles.INDEX_ENTRY_SIZE) {
+                return null;
+            }
+            return readEntry(index, 0);
+        }
+    }
+
+    private static long[] readEntry(FileChannel index, long entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(JournalFiles.INDEX_ENTRY_SIZE);
+        long position = entry * JournalFiles.INDEX_ENTRY_SIZE;
+        while (buffer.hasRemaining()) {
+            if (index.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated journal index entry " + entry + ".");
+            }
+        }
+        ((Buffer)buffer).flip();
+        return new long[] {buffer.getLong(), buffer.getLong()};
+    }
+
+    static long lastIndexedMillis(Path indexPath) throws IOException {
+        if (!Files.exists(indexPath)) {
+            return 0;
+        }
+        try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long entries = index.size() / JournalFiles.INDEX_ENTRY_SIZE;
+            if (entries == 0) {
+                return 0;
+            }
+            return readEntry(index, entries - 1)[1];
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.logging;
+
+import org.jboss.pnc.buildagent.api.logging.LogFormatter;
+import org.jboss.pnc.buildagent.api.logging.SequencedLogFormatter;
+import org.jboss.pnc.common.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Formats the lines on a pool of worker threads and passes the formatted lines to the downstream consumer in the order
+ * they were submitted. The lines completed by an output chunk are submitted together and split into batches of at most
+ * the configured number of lines, a worker formats one batch at a time. The worker completing the batch at the head of
+ * the pending queue delivers it and any completed batches following it, so the downstream consumer is called by one
+ * thread at a time. The formatted lines of a batch are passed to the downstream consumer together. The number of
+ * batches in flight is bounded, the producer waits when the workers fall behind.
+ *
+ * The timestamp and the sequence numbers of a batch are taken when it is submitted and passed to a
+ * {@link SequencedLogFormatter}, so they follow the order of the lines. A formatter stamping the lines itself is run
+ * on a single worker thread, the lines are then stamped in order too.
+ *
+ * Lines must be submitted by a single thread, eg. from a {@link org.jboss.pnc.buildagent.common.LineConsumer#batching}.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class OrderedFormatStage {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderedFormatStage.class);
+
+    public static final int DEFAULT_BATCH_LINES = 256;
+
+    private final LogFormatter formatter;
+    /**
+     * The formatter when it takes the stamps from the stage, null otherwise.
+     */
+    private final SequencedLogFormatter sequencedFormatter;
+    private final StaticMdc mdc;
+    private final Consumer<List<String>> downstream;
+    private final Consumer<Exception> exceptionHandler;
+    private final int batchLines;
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final ConcurrentLinkedQueue<Batch> pending = new ConcurrentLinkedQueue<>();
+    private final Object deliveryLock = new Object();
+
+    private volatile Batch last;
+
+    /**
+     * @param mdc installed on the worker threads, the formatters read the context from the MDC, null when the
+     *         formatter does not use the MDC
+     * @param exceptionHandler called when a batch cannot be formatted, the lines of the batch are dropped
+     */
+    public OrderedFormatStage(
+            LogFormatter formatter,
+            StaticMdc mdc,
+            Consumer<List<String>> downstream,
+            Consumer<Exception> exceptionHandler,
+            int threads,
+            int batchLines) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one format thread is required.");
+        }
+        this.formatter = formatter;
+        if (formatter instanceof SequencedLogFormatter) {
+            sequencedFormatter = (SequencedLogFormatter) formatter;
+        } else {
+            sequencedFormatter = null;
+            if (threads > 1) {
+                log.warn("Formatter {} stamps the lines itself, formatting on a single thread to keep them in order.", formatter.getClass().getName());
+                threads = 1;
+            }
+        }
+        this.mdc = mdc;
+        this.downstream = downstream;
+        this.exceptionHandler = exceptionHandler;
+        this.batchLines = batchLines;
+        this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("log-formatter"));
+        this.inFlight = new Semaphore(threads * 4);
+    }
+
+    public void submit(List<String> lines) {
+        long timestamp = System.currentTimeMillis();
+        for (int from = 0; from < lines.size(); from += batchLines) {
+            List<String> batch = lines.subList(from, Math.min(lines.size(), from + batchLines));
+            long firstSequence = sequencedFormatter == null ? 0 : sequencedFormatter.reserveSequence(batch.size());
+            submit(new Batch(batch, timestamp, firstSequence));
+        }
+    }
+
+    private void submit(Batch batch) {
+        inFlight.acquireUninterruptibly();
+        pending.add(batch);
+        last = batch;
+        try {
+            executor.execute(() -> format(batch));
+        } catch (RejectedExecutionException e) {
+            format(batch);
+        }
+    }
+
+    private void format(Batch batch) {
+        if (mdc != null) {
+            mdc.install();
+        }
+        try {
+            String[] formatted = new String[batch.lines.size()];
+            for (int i = 0; i < formatted.length; i++) {
+                if (sequencedFormatter == null) {
+                    formatted[i] = formatter.format(batch.lines.get(i));
+                } else {
+                    formatted[i] = sequencedFormatter.format(batch.lines.get(i), batch.timestamp, batch.firstSequence + i);
+                }
+            }
+            batch.formatted = formatted;
+        } catch (RuntimeException e) {
+            exceptionHandler.accept(e);
+            batch.formatted = new String[0];
+        }
+        deliverCompleted();
+    }
+
+    private void deliverCompleted() {
+        synchronized (deliveryLock) {
+            Batch head;
+            while ((head = pending.peek()) != null && head.formatted != null) {
+                pending.poll();
+                try {
+                    downstream.accept(Arrays.asList(head.formatted));
+                } catch (RuntimeException e) {
+                    exceptionHandler.accept(e);
+                }
+                inFlight.release();
+                head.delivered.countDown();
+            }
+        }
+    }
+
+    /**
+     * Waits until all the submitted lines are delivered.
+     *
+     * @return false when the lines were not delivered in time
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedIOException {
+        Batch batch = last;
+        if (batch == null) {
+            return true;
+        }
+        try {
+            return batch.delivered.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the lines to be formatted.");
+        }
+    }
+
+    /**
+     * Stops the workers, the submitted batches are still formatted and delivered.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static final class Batch {
+        private final List<String> lines;
+        private final long timestamp;
+        private final long firstSequence;
+        private volatile String[] formatted;
+        private final CountDownLatch delivered = new CountDownLatch(1);
+
+        private Batch(List<String> lines, long timestamp, long firstSequence) {
+            this.lines = lines;
+            this.timestamp = timestamp;
+            this.firstSequence = firstSequence;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.logging;
+
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A context installed into the MDC of the calling thread only when the thread does not have it already.
+ * {@link MDC#setContextMap(Map)} copies the map on each call, {@link #install()} replaces the MDC when the context was
+ * not the last one installed on the thread and otherwise only compares the entries, so it can be called for each
+ * output chunk. Several contexts can be installed in turns on a shared thread, eg. by the loggers of different sinks.
+ * Entries added by other code running on the same thread after the install are not removed, an empty context clears
+ * the MDC on each install.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class StaticMdc {
+
+    private final Map<String, String> context;
+    private final String[] keys;
+    private final String[] values;
+    /**
+     * The context installed last on the thread by any instance.
+     */
+    private static final ThreadLocal<StaticMdc> lastInstalled = new ThreadLocal<>();
+
+    public StaticMdc(Map<String, String> context) {
+        this.context = context;
+        this.keys = new String[context.size()];
+        this.values = new String[context.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : context.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    public void install() {
+        if (keys.length == 0) {
+            MDC.clear();
+            lastInstalled.set(this);
+        } else if (lastInstalled.get() != this || !isInstalled()) {
+            MDC.setContextMap(context);
+            lastInstalled.set(this);
+        }
+    }
+
+    boolean isInstalled() {
+        for (int i = 0; i < keys.length; i++) {
+            if (!Objects.equals(values[i], MDC.get(keys[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
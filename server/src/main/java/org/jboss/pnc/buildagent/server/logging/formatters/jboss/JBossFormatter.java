@@ -3,10 +3,11 @@ package org.jboss.pnc.buildagent.server.logging.formatters.jboss;
 import org.jboss.logmanager.LogContext;
 import org.jboss.logmanager.LogManager;
 import org.jboss.logmanager.PropertyConfigurator;
-import org.jboss.pnc.buildagent.api.logging.LogFormatter;
+import org.jboss.pnc.buildagent.api.logging.SequencedLogFormatter;
 
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -16,7 +17,12 @@ import java.util.logging.Logger;
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
  */
-public class JBossFormatter implements LogFormatter {
+public class JBossFormatter implements SequencedLogFormatter {
+
+    /**
+     * Numbers the records instead of the LogRecord counter, so the numbers can be reserved.
+     */
+    private static final AtomicLong sequence = new AtomicLong();
 
     Formatter formatter;
 
@@ -60,9 +66,20 @@ public class JBossFormatter implements LogFormatter {
 
     @Override
     public String format(String message) {
+        return format(message, System.currentTimeMillis(), sequence.getAndIncrement());
+    }
+
+    @Override
+    public long reserveSequence(int lines) {
+        return sequence.getAndAdd(lines);
+    }
+
+    @Override
+    public String format(String message, long timestamp, long sequence) {
         LogRecord record = new LogRecord(Level.INFO, message);
         record.setLoggerName("org.jboss.pnc._userlog_.build-log");
-        record.setMillis(System.currentTimeMillis());
+        record.setMillis(timestamp);
+        record.setSequenceNumber(sequence);
         return formatter.format(record);
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.common.concurrent.SpscRingBuffer;
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples the output producer (pty reader thread) from a (possibly slow) sink.
+ * Written chunks are queued in a bounded ring buffer and delivered to the delegate in order by a task running on the
+ * shared executor. At most one delivery task runs at a time. When the buffer is full the producer waits, output is
+ * never dropped.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class AsyncReadOnlyChannel implements ReadOnlyChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncReadOnlyChannel.class);
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final ReadOnlyChannel delegate;
+    private final String context;
+    private final SpscRingBuffer<Chunk> queue;
+    private final Executor executor;
+
+    /**
+     * Output can come from different threads (stdout, stdin echo, status updates), the ring buffer requires a single
+     * producer.
+     */
+    private final Object producerLock = new Object();
+    private final Object drainedMonitor = new Object();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong deliveredBytes = new AtomicLong();
+    private final AtomicLong deliveredChunks = new AtomicLong();
+    private final AtomicLong producerWaitNanos = new AtomicLong();
+    private volatile long maxLagNanos;
+
+    public AsyncReadOnlyChannel(ReadOnlyChannel delegate, String context, int queueSize, Executor executor) {
+        this.delegate = delegate;
+        this.context = context;
+        this.queue = new SpscRingBuffer<>(queueSize);
+        this.executor = executor;
+    }
+
+    @Override
+    public void writeOutput(byte[] buffer) {
+        Chunk chunk = new Chunk(buffer, System.nanoTime());
+        queuedBytes.addAndGet(buffer.length);
+        synchronized (producerLock) {
+            if (!queue.offer(chunk)) {
+                long waitStarted = System.nanoTime();
+                do {
+                    scheduleDrain();
+                    LockSupport.parkNanos(PARK_NANOS);
+                } while (!queue.offer(chunk));
+                producerWaitNanos.addAndGet(System.nanoTime() - waitStarted);
+            }
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                log.debug("Dispatcher executor is shut down, delivering output in the calling thread.");
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Chunk chunk;
+            while ((chunk = queue.poll()) != null) {
+                deliver(chunk);
+            }
+            draining.set(false);
+            synchronized (drainedMonitor) {
+                drainedMonitor.notifyAll();
+            }
+            //re-check to not miss a chunk offered after the last poll but before the flag was cleared
+            if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void deliver(Chunk chunk) {
+        try {
+            delegate.writeOutput(chunk.bytes);
+        } catch (RuntimeException e) {
+            log.error("Cannot write output to channel " + delegate + ".", e);
+        }
+        long lag = System.nanoTime() - chunk.enqueuedNanos;
+        if (lag > maxLagNanos) {
+            maxLagNanos = lag;
+        }
+        queuedBytes.addAndGet(-chunk.bytes.length);
+        deliveredBytes.addAndGet(chunk.bytes.length);
+        deliveredChunks.incrementAndGet();
+    }
+
+    /**
+     * Blocks until all the queued output is written to the delegate.
+     */
+    void awaitDrained() throws InterruptedIOException {
+        synchronized (drainedMonitor) {
+            while (!queue.isEmpty() || draining.get()) {
+                scheduleDrain();
+                try {
+                    drainedMonitor.wait(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the output queue of " + delegate + " to drain.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the queue of this sink is empty and flushes the delegate.
+     */
+    @Override
+    public void flush() throws IOException {
+        awaitDrained();
+        delegate.flush();
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return delegate.isPrimary();
+    }
+
+    @Override
+    public void close() throws IOException {
+        awaitDrained();
+        delegate.close();
+    }
+
+    public ReadOnlyChannel getDelegate() {
+        return delegate;
+    }
+
+    public SinkMetrics getMetrics() {
+        Chunk oldest = queue.peek();
+        long lagNanos = oldest == null ? 0 : Math.max(0, System.nanoTime() - oldest.enqueuedNanos);
+        return new SinkMetrics(
+                context,
+                sinkType(),
+                delegate.isPrimary(),
+                queue.size(),
+                queue.capacity(),
+                queuedBytes.get(),
+                TimeUnit.NANOSECONDS.toMillis(lagNanos),
+                TimeUnit.NANOSECONDS.toMillis(maxLagNanos),
+                deliveredChunks.get(),
+                deliveredBytes.get(),
+                TimeUnit.NANOSECONDS.toMillis(producerWaitNanos.get()),
+                delegate instanceof MeteredChannel
+                        ? ((MeteredChannel) delegate).getCounters()
+                        : Collections.emptyMap());
+    }
+
+    private String sinkType() {
+        return HoldingChannel.unwrap(delegate).getClass().getSimpleName();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncReadOnlyChannel{" + "context='" + context + '\'' + ", delegate=" + delegate + '}';
+    }
+
+    private static final class Chunk {
+        private final byte[] bytes;
+        private final long enqueuedNanos;
+
+        private Chunk(byte[] bytes, long enqueuedNanos) {
+            this.bytes = bytes;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
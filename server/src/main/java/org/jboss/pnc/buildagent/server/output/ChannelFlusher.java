@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.common.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Flushes the primary channels of a completed command in parallel, so the completion waits for the slowest sink
+ * instead of the sum of all of them. All the flushes share one deadline. The threads are shared by all the Terms and
+ * sessions.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class ChannelFlusher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ChannelFlusher.class);
+
+    private final long timeoutMillis;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param timeoutMillis deadline of flushing all the channels, 0 for none
+     */
+    public ChannelFlusher(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        executor = Executors.newCachedThreadPool(new NamedThreadFactory("channel-flush"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("channel-flush-deadline"));
+    }
+
+    /**
+     * @return future completed when all the primary channels are flushed, completed exceptionally as soon as a flush
+     *         fails, without waiting for the other channels, or with a {@link TimeoutException} naming the channels not
+     *         flushed before the deadline
+     */
+    public CompletableFuture<Void> flushPrimary(Collection<ReadOnlyChannel> channels) {
+        List<ReadOnlyChannel> primary = channels.stream()
+                .filter(ReadOnlyChannel::isPrimary)
+                .collect(Collectors.toList());
+        List<CompletableFuture<Void>> flushes = new ArrayList<>(primary.size());
+        for (ReadOnlyChannel channel : primary) {
+            flushes.add(channel.flushAsync(executor));
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        for (CompletableFuture<Void> flush : flushes) {
+            flush.whenComplete((v, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                }
+            });
+        }
+        CompletableFuture.allOf(flushes.toArray(new CompletableFuture[0])).thenRun(() -> result.complete(null));
+        if (timeoutMillis > 0 && !result.isDone()) {
+            ScheduledFuture<?> deadline = scheduler.schedule(() -> {
+                List<ReadOnlyChannel> pending = new ArrayList<>();
+                for (int i = 0; i < flushes.size(); i++) {
+                    if (!flushes.get(i).isDone()) {
+                        pending.add(primary.get(i));
+                    }
+                }
+                result.completeExceptionally(
+                        new TimeoutException("Channels not flushed in " + timeoutMillis + "ms: " + pending + "."));
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((v, e) -> deadline.cancel(false));
+        }
+        return result;
+    }
+
+    /**
+     * Blocks until all the primary channels are flushed.
+     *
+     * @throws IOException when a channel cannot be flushed or the deadline has passed
+     */
+    public void flushPrimaryAndWait(Collection<ReadOnlyChannel> channels) throws IOException {
+        try {
+            flushPrimary(channels).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing the channels.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        log.debug("Stopping channel flusher.");
+        executor.shutdown();
+        scheduler.shutdownNow();
+    }
+}
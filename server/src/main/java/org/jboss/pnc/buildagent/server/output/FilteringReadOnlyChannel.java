@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the output of a single producer to the delegate through a {@link TerminalNoiseFilter}. The filter keeps the
+ * state of the producer's stream, a shared sink gets a new instance for each producer.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class FilteringReadOnlyChannel implements HoldingChannel, MeteredChannel {
+
+    private final ReadOnlyChannel delegate;
+    private final TerminalNoiseFilter filter = new TerminalNoiseFilter();
+
+    public FilteringReadOnlyChannel(ReadOnlyChannel delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized void writeOutput(byte[] buffer) {
+        byte[] filtered = filter.filter(buffer);
+        if (filtered.length > 0) {
+            delegate.writeOutput(filtered);
+        }
+    }
+
+    @Override
+    public synchronized void writeHeldOutput() {
+        byte[] held = filter.drain();
+        if (held.length > 0) {
+            delegate.writeOutput(held);
+        }
+        if (delegate instanceof HoldingChannel) {
+            ((HoldingChannel) delegate).writeHeldOutput();
+        }
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return delegate.isPrimary();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeHeldOutput();
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeHeldOutput();
+        delegate.close();
+    }
+
+    @Override
+    public ReadOnlyChannel getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new HashMap<>();
+        if (delegate instanceof MeteredChannel) {
+            counters.putAll(((MeteredChannel) delegate).getCounters());
+        }
+        synchronized (this) {
+            counters.put("filterInputBytes", filter.getInputBytes());
+            counters.put("filterOutputBytes", filter.getOutputBytes());
+        }
+        return counters;
+    }
+
+    @Override
+    public String toString() {
+        return "FilteringReadOnlyChannel{" + "delegate=" + delegate + '}';
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups the small output writes into bigger file writes. The output is collected in a pooled direct buffer and
+ * written when the buffer is full, when the oldest buffered output is older than maxDelayMillis or on
+ * {@link #flush()}. Writes bigger than the buffer go to the file directly. With maxDelayMillis 0 each write goes to
+ * the file directly.
+ *
+ * The buffer is returned to the pool when the writer is idle.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class GroupCommitFileWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitFileWriter.class);
+
+    private final Target target;
+    private final DirectBufferPool bufferPool;
+    private final long maxDelayMillis;
+    private final FileDurability durability;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledFuture<?> periodicFsync;
+
+    private ByteBuffer buffer;
+    /**
+     * Identifies the buffered group a scheduled commit belongs to, so it does not cut a later group short.
+     */
+    private long groupSequence;
+    /**
+     * Written since the last fsync.
+     */
+    private boolean dirty;
+    /**
+     * Failure of a scheduled commit, reported on the next write or flush.
+     */
+    private IOException failure;
+    private boolean closed;
+
+    private long writes;
+    private long writtenBytes;
+    private long fileWrites;
+    private long sizeCommits;
+    private long timerCommits;
+    private long fsyncs;
+    private long fsyncNanos;
+
+    /**
+     * Where the grouped output is written to.
+     */
+    public interface Target {
+        /**
+         * Writes the remaining bytes of the buffer.
+         */
+        void write(ByteBuffer buffer) throws IOException;
+
+        void force() throws IOException;
+
+        void close() throws IOException;
+    }
+
+    public GroupCommitFileWriter(
+            FileChannel fileChannel,
+            DirectBufferPool bufferPool,
+            long maxDelayMillis,
+            FileDurability durability,
+            long fsyncIntervalMillis,
+            ScheduledExecutorService scheduler) {
+        this(fileTarget(fileChannel), bufferPool, maxDelayMillis, durability, fsyncIntervalMillis, scheduler);
+    }
+
+    public GroupCommitFileWriter(
+            Target target,
+            DirectBufferPool bufferPool,
+            long maxDelayMillis,
+            FileDurability durability,
+            long fsyncIntervalMillis,
+            ScheduledExecutorService scheduler) {
+        this.target = target;
+        this.bufferPool = bufferPool;
+        this.maxDelayMillis = maxDelayMillis;
+        this.durability = durability;
+        this.scheduler = scheduler;
+        if (durability == FileDurability.PERIODIC) {
+            periodicFsync = scheduler.scheduleWithFixedDelay(
+                    this::fsync,
+                    fsyncIntervalMillis,
+                    fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            periodicFsync = null;
+        }
+    }
+
+    /**
+     * The writer does not schedule its own fsync, with {@link FileDurability#PERIODIC} the owner calls
+     * {@link #fsync()}, eg. one task for all the writers of a folder.
+     */
+    public GroupCommitFileWriter(
+            Target target,
+            DirectBufferPool bufferPool,
+            long maxDelayMillis,
+            FileDurability durability,
+            ScheduledExecutorService scheduler) {
+        this.target = target;
+        this.bufferPool = bufferPool;
+        this.maxDelayMillis = maxDelayMillis;
+        this.durability = durability;
+        this.scheduler = scheduler;
+        this.periodicFsync = null;
+    }
+
+    public synchronized void write(byte[] bytes) throws IOException {
+        if (closed) {
+            throw new IOException("File writer is closed.");
+        }
+        reportFailure();
+        writes++;
+        writtenBytes += bytes.length;
+        if (maxDelayMillis <= 0) {
+            writeToFile(ByteBuffer.wrap(bytes));
+            return;
+        }
+        if (buffer != null && bytes.length > buffer.remaining()) {
+            commit();
+            sizeCommits++;
+        }
+        if (bytes.length >= bufferPool.getBufferSize()) {
+            //nothing to group with, no need to copy
+            writeToFile(ByteBuffer.wrap(bytes));
+            return;
+        }
+        if (buffer == null) {
+            buffer = bufferPool.acquire();
+        }
+        if (buffer.position() == 0) {
+            scheduleCommit();
+        }
+        buffer.put(bytes);
+    }
+
+    /**
+     * Writes the buffered output to the file, with {@link FileDurability#ON_COMPLETION} it also forces it to the
+     * storage device.
+     */
+    public void flush() throws IOException {
+        synchronized (this) {
+            reportFailure();
+            commit();
+            releaseBuffer();
+        }
+        if (durability == FileDurability.ON_COMPLETION) {
+            forceIfDirty();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (periodicFsync != null) {
+                periodicFsync.cancel(false);
+            }
+        }
+        try {
+            synchronized (this) {
+                commit();
+            }
+            if (durability != FileDurability.NONE) {
+                forceIfDirty();
+            }
+        } finally {
+            synchronized (this) {
+                releaseBuffer();
+            }
+            target.close();
+        }
+    }
+
+    public synchronized Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("writes", writes);
+        counters.put("writtenBytes", writtenBytes);
+        counters.put("fileWrites", fileWrites);
+        counters.put("sizeCommits", sizeCommits);
+        counters.put("timerCommits", timerCommits);
+        counters.put("bufferedBytes", buffer == null ? 0L : buffer.position());
+        counters.put("fsyncs", fsyncs);
+        counters.put("fsyncMicros", TimeUnit.NANOSECONDS.toMicros(fsyncNanos));
+        return counters;
+    }
+
+    private void scheduleCommit() {
+        long sequence = groupSequence;
+        try {
+            scheduler.schedule(() -> commitScheduled(sequence), maxDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Scheduler is shut down, output is written on flush.");
+        }
+    }
+
+    private synchronized void commitScheduled(long sequence) {
+        if (sequence != groupSequence || closed) {
+            return;
+        }
+        try {
+            commit();
+            timerCommits++;
+            releaseBuffer();
+        } catch (IOException e) {
+            log.error("Cannot write output to file.", e);
+            failure = e;
+        }
+    }
+
+    /**
+     * Writes the buffered output and forces it to the storage device, a failure is reported on the next write or
+     * flush.
+     */
+    public void fsync() {
+        try {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                commit();
+            }
+            forceIfDirty();
+        } catch (IOException e) {
+            log.error("Cannot fsync output file.", e);
+            synchronized (this) {
+                failure = e;
+            }
+        }
+    }
+
+    private void commit() throws IOException {
+        if (buffer == null || buffer.position() == 0) {
+            return;
+        }
+        groupSequence++;
+        ((Buffer)buffer).flip();
+        try {
+            writeToFile(buffer);
+        } finally {
+            ((Buffer)buffer).clear();
+        }
+    }
+
+    private void writeToFile(ByteBuffer bytes) throws IOException {
+        target.write(bytes);
+        fileWrites++;
+        dirty = true;
+    }
+
+    /**
+     * Forces outside of the lock, writers are not blocked by the fsync.
+     */
+    private void forceIfDirty() throws IOException {
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+        }
+        long started = System.nanoTime();
+        try {
+            target.force();
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            fsyncs++;
+            fsyncNanos += System.nanoTime() - started;
+        }
+    }
+
+    private void releaseBuffer() {
+        bufferPool.release(buffer);
+        buffer = null;
+    }
+
+    private static Target fileTarget(FileChannel fileChannel) {
+        return new Target() {
+            @Override
+            public void write(ByteBuffer buffer) throws IOException {
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+            }
+
+            @Override
+            public void force() throws IOException {
+                fileChannel.force(false);
+            }
+
+            @Override
+            public void close() throws IOException {
+                fileChannel.close();
+            }
+        };
+    }
+
+    private void reportFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            failure = null;
+            throw new IOException("Output was not written to file.", e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+
+/**
+ * A per producer stage in front of a sink, it holds the output until a line is completed.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public interface HoldingChannel extends ReadOnlyChannel {
+
+    /**
+     * Writes the held output to the delegate, the producer might not write more. Also the held output of the
+     * delegate stages is written.
+     */
+    void writeHeldOutput();
+
+    ReadOnlyChannel getDelegate();
+
+    /**
+     * @return the sink behind all the stages
+     */
+    static ReadOnlyChannel unwrap(ReadOnlyChannel channel) {
+        while (channel instanceof HoldingChannel) {
+            channel = ((HoldingChannel) channel).getDelegate();
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses a run of identical consecutive lines of a single producer into the first line and a summary line
+ * "[last line repeated N times]". The summary is written when a different line arrives, when the run is open for
+ * the max delay, and when the producer completes a command. The summary is an ordinary line, so the sinks
+ * numbering the lines (eg. the queue records) keep a gapless sequence.
+ *
+ * A shared sink gets a new instance for each producer.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class LineDedupChannel implements HoldingChannel, MeteredChannel {
+
+    /**
+     * Longer lines are passed through without comparing them.
+     */
+    public static final int MAX_LINE_BYTES = 64 * 1024;
+
+    private static final byte LF = '\n';
+
+    private final ReadOnlyChannel delegate;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private byte[] line = new byte[256];
+    private int lineLength;
+    /** The current line is too long, it is passed through. */
+    private boolean passThrough;
+    private byte[] lastLine;
+    private long repeated;
+    private ScheduledFuture<?> summaryTimeout;
+
+    private long suppressedLines;
+    private long suppressedBytes;
+
+    /**
+     * @param maxDelayMillis max time a run is held before its summary is written, 0 to write it only when the run ends
+     * @param scheduler writes the summary to the delegate, it should not run tasks delayed by a slow sink
+     */
+    public LineDedupChannel(ReadOnlyChannel delegate, long maxDelayMillis, ScheduledExecutorService scheduler) {
+        this.delegate = delegate;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public synchronized void writeOutput(byte[] buffer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(buffer.length + 64);
+        int start = 0;
+        for (int i = 0; i < buffer.length; i++) {
+            if (buffer[i] == LF) {
+                onLine(buffer, start, i + 1, out);
+                start = i + 1;
+            }
+        }
+        if (start < buffer.length) {
+            hold(buffer, start, buffer.length, out);
+        }
+        if (out.size() > 0) {
+            delegate.writeOutput(out.toByteArray());
+        }
+    }
+
+    private void onLine(byte[] buffer, int from, int to, ByteArrayOutputStream out) {
+        if (passThrough) {
+            out.write(buffer, from, to - from);
+            passThrough = false;
+            lastLine = null;
+            return;
+        }
+        byte[] completed;
+        if (lineLength == 0) {
+            completed = Arrays.copyOfRange(buffer, from, to);
+        } else {
+            hold(buffer, from, to, out);
+            completed = Arrays.copyOf(line, lineLength);
+            lineLength = 0;
+        }
+        if (Arrays.equals(completed, lastLine)) {
+            repeated++;
+            suppressedLines++;
+            suppressedBytes += completed.length;
+            if (repeated == 1 && maxDelayMillis > 0) {
+                scheduleSummary();
+            }
+        } else {
+            writeSummary(out);
+            out.write(completed, 0, completed.length);
+            lastLine = completed;
+        }
+    }
+
+    private void hold(byte[] buffer, int from, int to, ByteArrayOutputStream out) {
+        int length = to - from;
+        if (passThrough || lineLength + length > MAX_LINE_BYTES) {
+            if (!passThrough) {
+                writeSummary(out);
+                out.write(line, 0, lineLength);
+                lineLength = 0;
+                passThrough = true;
+            }
+            out.write(buffer, from, length);
+            return;
+        }
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(buffer, from, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void scheduleSummary() {
+        try {
+            summaryTimeout = scheduler.schedule(this::onSummaryTimeout, maxDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            summaryTimeout = null;
+        }
+    }
+
+    private synchronized void onSummaryTimeout() {
+        summaryTimeout = null;
+        if (repeated > 0) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+            writeSummary(out);
+            //a longer run continues with a new summary
+            delegate.writeOutput(out.toByteArray());
+        }
+    }
+
+    private void writeSummary(ByteArrayOutputStream out) {
+        if (summaryTimeout != null) {
+            summaryTimeout.cancel(false);
+            summaryTimeout = null;
+        }
+        if (repeated > 0) {
+            String summary = "[last line repeated " + repeated + (repeated == 1 ? " time]\n" : " times]\n");
+            byte[] bytes = summary.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+            repeated = 0;
+        }
+    }
+
+    @Override
+    public synchronized void writeHeldOutput() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(lineLength + 64);
+        writeSummary(out);
+        out.write(line, 0, lineLength);
+        lineLength = 0;
+        lastLine = null;
+        if (out.size() > 0) {
+            delegate.writeOutput(out.toByteArray());
+        }
+        if (delegate instanceof HoldingChannel) {
+            ((HoldingChannel) delegate).writeHeldOutput();
+        }
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return delegate.isPrimary();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeHeldOutput();
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeHeldOutput();
+        delegate.close();
+    }
+
+    @Override
+    public ReadOnlyChannel getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new HashMap<>();
+        if (delegate instanceof MeteredChannel) {
+            counters.putAll(((MeteredChannel) delegate).getCounters());
+        }
+        synchronized (this) {
+            counters.put("dedupSuppressedLines", suppressedLines);
+            counters.put("dedupSuppressedBytes", suppressedBytes);
+        }
+        return counters;
+    }
+
+    @Override
+    public String toString() {
+        return "LineDedupChannel{" + "delegate=" + delegate + '}';
+    }
+}
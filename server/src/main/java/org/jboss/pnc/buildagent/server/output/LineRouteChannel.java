@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes to the delegate only the lines of a single producer containing one of the route patterns. The matching is a
+ * single pass over the bytes, a line is held only until a pattern is found in it, the rest of a matched line is
+ * passed through. The other lines never reach the sink, so it does not format nor transport them.
+ *
+ * A shared sink gets a new instance for each producer.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class LineRouteChannel implements HoldingChannel, MeteredChannel {
+
+    /**
+     * Max bytes of a line held before a pattern is found in it, the beginning of a longer line is dropped.
+     */
+    public static final int MAX_LINE_BYTES = 64 * 1024;
+
+    private static final byte LF = '\n';
+
+    private final ReadOnlyChannel delegate;
+    private final MultiPatternMatcher matcher;
+
+    private int state = MultiPatternMatcher.ROOT;
+    private boolean matched;
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    private long routedLines;
+    private long skippedLines;
+
+    public LineRouteChannel(ReadOnlyChannel delegate, MultiPatternMatcher matcher) {
+        this.delegate = delegate;
+        this.matcher = matcher;
+    }
+
+    @Override
+    public synchronized void writeOutput(byte[] buffer) {
+        ByteArrayOutputStream out = null;
+        int start = 0;
+        for (int i = 0; i < buffer.length; i++) {
+            byte b = buffer[i];
+            if (b == LF) {
+                if (matched) {
+                    out = routed(out, buffer, start, i + 1);
+                    routedLines++;
+                } else {
+                    skippedLines++;
+                }
+                lineLength = 0;
+                matched = false;
+                state = MultiPatternMatcher.ROOT;
+                start = i + 1;
+            } else if (!matched) {
+                state = matcher.next(state, b);
+                if (matcher.isMatch(state)) {
+                    matched = true;
+                    out = routed(out, line, 0, lineLength);
+                    lineLength = 0;
+                }
+            }
+        }
+        if (start < buffer.length) {
+            if (matched) {
+                out = routed(out, buffer, start, buffer.length);
+            } else {
+                hold(buffer, start, buffer.length);
+            }
+        }
+        if (out != null) {
+            delegate.writeOutput(out.toByteArray());
+        }
+    }
+
+    private ByteArrayOutputStream routed(ByteArrayOutputStream out, byte[] bytes, int from, int to) {
+        if (out == null) {
+            out = new ByteArrayOutputStream(to - from);
+        }
+        out.write(bytes, from, to - from);
+        return out;
+    }
+
+    private void hold(byte[] buffer, int from, int to) {
+        int length = to - from;
+        if (lineLength + length > MAX_LINE_BYTES) {
+            //the state is kept, a pattern can still be found in the rest of the line
+            lineLength = 0;
+            if (length > MAX_LINE_BYTES) {
+                from = to - MAX_LINE_BYTES;
+                length = MAX_LINE_BYTES;
+            }
+        }
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(buffer, from, line, lineLength, length);
+        lineLength += length;
+    }
+
+    /**
+     * A matched line was already routed, an unmatched one stays held as a pattern can still be found in its rest.
+     */
+    @Override
+    public void writeHeldOutput() {
+        if (delegate instanceof HoldingChannel) {
+            ((HoldingChannel) delegate).writeHeldOutput();
+        }
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return delegate.isPrimary();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeHeldOutput();
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeHeldOutput();
+        delegate.close();
+    }
+
+    @Override
+    public ReadOnlyChannel getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new HashMap<>();
+        if (delegate instanceof MeteredChannel) {
+            counters.putAll(((MeteredChannel) delegate).getCounters());
+        }
+        synchronized (this) {
+            counters.put("routedLines", routedLines);
+            counters.put("skippedLines", skippedLines);
+        }
+        return counters;
+    }
+
+    @Override
+    public String toString() {
+        return "LineRouteChannel{" + "delegate=" + delegate + '}';
+    }
+}
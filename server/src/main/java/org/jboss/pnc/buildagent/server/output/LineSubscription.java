@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Lines a read-only viewer subscribed to, requested with the handshake query parameters:
+ * <ul>
+ *     <li>match - literal substring of the lines to send, can be repeated</li>
+ *     <li>regex - regular expression found in the lines to send, its evaluation per line is bounded, see
+ *     {@link LineSubscriptionChannel#MAX_REGEX_STEPS_PER_CHAR}</li>
+ *     <li>context - number of lines sent before and after a matching line, default 0</li>
+ *     <li>plain - true to strip the ANSI escape sequences and collapse the lines redrawn with CR before matching</li>
+ * </ul>
+ * A line is sent when it contains one of the literals or the regex is found in it. Without match and regex the viewer
+ * gets the raw output.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class LineSubscription {
+
+    public static final int MAX_CONTEXT_LINES = 100;
+
+    private final MultiPatternMatcher literals;
+    private final Pattern regex;
+    private final int contextLines;
+    private final boolean plain;
+
+    private LineSubscription(MultiPatternMatcher literals, Pattern regex, int contextLines, boolean plain) {
+        this.literals = literals;
+        this.regex = regex;
+        this.contextLines = contextLines;
+        this.plain = plain;
+    }
+
+    /**
+     * @return the subscription or null when the parameters do not select the lines
+     * @throws IllegalArgumentException when the parameters are not valid
+     */
+    public static LineSubscription fromParameters(Map<String, List<String>> parameters) {
+        List<String> matches = parameters.getOrDefault("match", Collections.emptyList());
+        String regexParameter = first(parameters, "regex");
+        if (matches.isEmpty() && regexParameter == null) {
+            return null;
+        }
+        MultiPatternMatcher literals = matches.isEmpty() ? null : MultiPatternMatcher.compile(matches);
+        Pattern regex = null;
+        if (regexParameter != null) {
+            try {
+                regex = Pattern.compile(regexParameter);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid regex: " + e.getDescription() + ".", e);
+            }
+        }
+        int contextLines = 0;
+        String contextParameter = first(parameters, "context");
+        if (contextParameter != null) {
+            try {
+                contextLines = Integer.parseInt(contextParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid context: " + contextParameter + ".", e);
+            }
+            if (contextLines < 0 || contextLines > MAX_CONTEXT_LINES) {
+                throw new IllegalArgumentException("Context must be between 0 and " + MAX_CONTEXT_LINES + ".");
+            }
+        }
+        boolean plain = Boolean.parseBoolean(first(parameters, "plain"));
+        return new LineSubscription(literals, regex, contextLines, plain);
+    }
+
+    private static String first(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+
+    /**
+     * @return the channel sending the subscribed lines to the viewer, it keeps the state of a single producer
+     */
+    public ReadOnlyChannel subscribe(ReadOnlyChannel viewer) {
+        ReadOnlyChannel channel = new LineSubscriptionChannel(viewer, this);
+        if (plain) {
+            channel = new FilteringReadOnlyChannel(channel);
+        }
+        return channel;
+    }
+
+    MultiPatternMatcher getLiterals() {
+        return literals;
+    }
+
+    Pattern getRegex() {
+        return regex;
+    }
+
+    int getContextLines() {
+        return contextLines;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Sends to a viewer only the lines of a {@link LineSubscription} with their context lines, like grep -C. Non
+ * adjacent groups of lines are separated by a "--" line.
+ *
+ * The regex comes from the viewer, its evaluation is bounded by {@link #MAX_REGEX_STEPS_PER_CHAR} character reads per
+ * line character, so a pattern with catastrophic backtracking cannot stall the output. A line the regex did not
+ * complete in time is not matched.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class LineSubscriptionChannel implements HoldingChannel, MeteredChannel {
+
+    /**
+     * The rest of a longer line is not sent nor matched.
+     */
+    public static final int MAX_LINE_BYTES = 64 * 1024;
+
+    /**
+     * Character reads the regex may do per character of the line, a linear pattern does a few.
+     */
+    public static final int MAX_REGEX_STEPS_PER_CHAR = 100;
+
+    private static final byte LF = '\n';
+    private static final byte[] SEPARATOR = "--\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ReadOnlyChannel delegate;
+    private final MultiPatternMatcher literals;
+    private final Pattern regex;
+    private final int contextLines;
+
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private int state = MultiPatternMatcher.ROOT;
+    private boolean literalMatched;
+
+    /** Lines before the next match, they are sent as its context. */
+    private final ArrayDeque<byte[]> before = new ArrayDeque<>();
+    private int afterRemaining;
+    private long lineNumber;
+    private long lastSentLine = -1;
+
+    private long sentLines;
+    private long skippedBytes;
+    private long regexAbortedLines;
+
+    LineSubscriptionChannel(ReadOnlyChannel delegate, LineSubscription subscription) {
+        this.delegate = delegate;
+        this.literals = subscription.getLiterals();
+        this.regex = subscription.getRegex();
+        this.contextLines = subscription.getContextLines();
+    }
+
+    @Override
+    public synchronized void writeOutput(byte[] buffer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int start = 0;
+        for (int i = 0; i < buffer.length; i++) {
+            byte b = buffer[i];
+            if (literals != null && !literalMatched) {
+                state = literals.next(state, b);
+                literalMatched = literals.isMatch(state);
+            }
+            if (b == LF) {
+                hold(buffer, start, i + 1);
+                onLine(out);
+                start = i + 1;
+            }
+        }
+        if (start < buffer.length) {
+            hold(buffer, start, buffer.length);
+        }
+        if (out.size() > 0) {
+            delegate.writeOutput(out.toByteArray());
+        }
+    }
+
+    private void hold(byte[] buffer, int from, int to) {
+        int length = Math.min(to - from, MAX_LINE_BYTES - lineLength);
+        if (length <= 0) {
+            return;
+        }
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(buffer, from, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void onLine(ByteArrayOutputStream out) {
+        byte[] completed = Arrays.copyOf(line, lineLength);
+        if (isMatch(completed)) {
+            if (lastSentLine >= 0 && lineNumber - before.size() > lastSentLine + 1) {
+                out.write(SEPARATOR, 0, SEPARATOR.length);
+            }
+            for (byte[] context : before) {
+                out.write(context, 0, context.length);
+                sentLines++;
+            }
+            before.clear();
+            send(completed, out);
+            afterRemaining = contextLines;
+        } else if (afterRemaining > 0) {
+            send(completed, out);
+            afterRemaining--;
+        } else if (contextLines > 0) {
+            if (before.size() == contextLines) {
+                skippedBytes += before.removeFirst().length;
+            }
+            before.addLast(completed);
+        } else {
+            skippedBytes += completed.length;
+        }
+        lineNumber++;
+        lineLength = 0;
+        state = MultiPatternMatcher.ROOT;
+        literalMatched = false;
+    }
+
+    private boolean isMatch(byte[] completed) {
+        if (literalMatched) {
+            return true;
+        }
+        if (regex == null) {
+            return false;
+        }
+        String text = new String(completed, StandardCharsets.UTF_8);
+        try {
+            return regex.matcher(new BoundedCharSequence(text, MAX_REGEX_STEPS_PER_CHAR * (text.length() + 10L))).find();
+        } catch (StepsExceededException e) {
+            regexAbortedLines++;
+            return false;
+        }
+    }
+
+    private void send(byte[] completed, ByteArrayOutputStream out) {
+        out.write(completed, 0, completed.length);
+        lastSentLine = lineNumber;
+        sentLines++;
+    }
+
+    /**
+     * Matches the line not completed yet, eg. a prompt.
+     */
+    @Override
+    public synchronized void writeHeldOutput() {
+        if (lineLength > 0) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(lineLength);
+            onLine(out);
+            if (out.size() > 0) {
+                delegate.writeOutput(out.toByteArray());
+            }
+        }
+        if (delegate instanceof HoldingChannel) {
+            ((HoldingChannel) delegate).writeHeldOutput();
+        }
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return delegate.isPrimary();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeHeldOutput();
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public ReadOnlyChannel getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new HashMap<>();
+        if (delegate instanceof MeteredChannel) {
+            counters.putAll(((MeteredChannel) delegate).getCounters());
+        }
+        synchronized (this) {
+            counters.put("subscriptionSentLines", sentLines);
+            counters.put("subscriptionSkippedBytes", skippedBytes);
+            counters.put("subscriptionRegexAbortedLines", regexAbortedLines);
+        }
+        return counters;
+    }
+
+    @Override
+    public String toString() {
+        return "LineSubscriptionChannel{" + "delegate=" + delegate + '}';
+    }
+
+    /**
+     * Counts the character reads of the regex engine, it reads the input only through charAt.
+     */
+    private static class BoundedCharSequence implements CharSequence {
+        private final String text;
+        private long remainingSteps;
+
+        BoundedCharSequence(String text, long maxSteps) {
+            this.text = text;
+            this.remainingSteps = maxSteps;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (--remainingSteps < 0) {
+                throw StepsExceededException.INSTANCE;
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static class StepsExceededException extends RuntimeException {
+        private static final StepsExceededException INSTANCE = new StepsExceededException();
+
+        private StepsExceededException() {
+            super("Regex steps exceeded.", null, false, false);
+        }
+    }
+}
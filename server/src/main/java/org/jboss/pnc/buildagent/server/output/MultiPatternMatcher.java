@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton matching a set of literal byte patterns in a single pass, one table lookup per input byte
+ * regardless of the number of patterns. The failure links are resolved into a dense transition table over the byte
+ * classes used by the patterns, all the other bytes share one class.
+ *
+ * The automaton is immutable and shared, the matching state (an int) is kept by the caller, so the input can be
+ * split across the chunks.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public final class MultiPatternMatcher {
+
+    public static final int ROOT = 0;
+
+    private final int[] byteClasses = new int[256];
+    private final int alphabetSize;
+    private final int[] transitions;
+    /** Length of the longest pattern ending in the state, 0 when none. */
+    private final int[] matchLengths;
+    /** Length of the pattern prefix the state represents. */
+    private final int[] depths;
+    private final int patterns;
+
+    private MultiPatternMatcher(List<byte[]> patterns) {
+        this.patterns = patterns.size();
+        int classes = 1;
+        int maxStates = 1;
+        for (byte[] pattern : patterns) {
+            for (byte b : pattern) {
+                if (byteClasses[b & 0xFF] == 0) {
+                    byteClasses[b & 0xFF] = classes++;
+                }
+            }
+            maxStates += pattern.length;
+        }
+        alphabetSize = classes;
+
+        //trie
+        int[] table = new int[maxStates * alphabetSize];
+        Arrays.fill(table, -1);
+        int[] lengths = new int[maxStates];
+        int[] prefixLengths = new int[maxStates];
+        int states = 1;
+        for (byte[] pattern : patterns) {
+            int state = ROOT;
+            for (byte b : pattern) {
+                int index = state * alphabetSize + byteClasses[b & 0xFF];
+                if (table[index] < 0) {
+                    prefixLengths[states] = prefixLengths[state] + 1;
+                    table[index] = states++;
+                }
+                state = table[index];
+            }
+            lengths[state] = Math.max(lengths[state], pattern.length);
+        }
+
+        //failure links resolved breadth first into the table
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < alphabetSize; c++) {
+            int next = table[c];
+            if (next < 0) {
+                table[c] = ROOT;
+            } else {
+                failure[next] = ROOT;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            lengths[state] = Math.max(lengths[state], lengths[failure[state]]);
+            for (int c = 0; c < alphabetSize; c++) {
+                int index = state * alphabetSize + c;
+                int next = table[index];
+                int fallback = table[failure[state] * alphabetSize + c];
+                if (next < 0) {
+                    table[index] = fallback;
+                } else {
+                    failure[next] = fallback;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        transitions = Arrays.copyOf(table, states * alphabetSize);
+        matchLengths = Arrays.copyOf(lengths, states);
+        depths = Arrays.copyOf(prefixLengths, states);
+    }
+
+    /**
+     * @throws IllegalArgumentException when a pattern is empty
+     */
+    public static MultiPatternMatcher compile(Collection<String> patterns) {
+        List<byte[]> bytes = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("Empty pattern.");
+            }
+            bytes.add(pattern.getBytes(StandardCharsets.UTF_8));
+        }
+        return new MultiPatternMatcher(bytes);
+    }
+
+    public int next(int state, byte b) {
+        return transitions[state * alphabetSize + byteClasses[b & 0xFF]];
+    }
+
+    /**
+     * @return the state after the given bytes
+     */
+    public int next(int state, byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            state = transitions[state * alphabetSize + byteClasses[bytes[i] & 0xFF]];
+        }
+        return state;
+    }
+
+    /**
+     * @return length of the longest pattern ending with the last byte leading to the state, 0 when no pattern ends
+     */
+    public int matchLength(int state) {
+        return matchLengths[state];
+    }
+
+    /**
+     * @return number of the last bytes that might be the beginning of a pattern, a match can not start before them
+     */
+    public int depth(int state) {
+        return depths[state];
+    }
+
+    public boolean isMatch(int state) {
+        return matchLengths[state] > 0;
+    }
+
+    public int getPatterns() {
+        return patterns;
+    }
+
+    public int getStates() {
+        return matchLengths.length;
+    }
+}
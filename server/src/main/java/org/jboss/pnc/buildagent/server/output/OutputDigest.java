@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.common.security.MultiDigest;
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Digests of the output of a single Term or session. The output is hashed by the dispatcher, so hashing does not
+ * slow down the producer.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class OutputDigest {
+
+    private final DigestChannel digestChannel;
+    private final ReadOnlyChannel input;
+
+    OutputDigest(MultiDigest multiDigest, OutputDispatcher outputDispatcher, String context) {
+        this.digestChannel = new DigestChannel(multiDigest);
+        this.input = outputDispatcher.dispatch(digestChannel, context);
+    }
+
+    public void add(byte[] bytes) {
+        input.writeOutput(bytes);
+    }
+
+    /**
+     * Waits for the queued output to be hashed, completes the digests and resets them for the next output.
+     *
+     * @return hex encoded digests by algorithm name
+     */
+    public Map<String, String> digest() throws IOException {
+        input.flush();
+        return digestChannel.digest();
+    }
+
+    ReadOnlyChannel getInput() {
+        return input;
+    }
+
+    private static class DigestChannel implements ReadOnlyChannel {
+        private final MultiDigest multiDigest;
+
+        DigestChannel(MultiDigest multiDigest) {
+            this.multiDigest = multiDigest;
+        }
+
+        @Override
+        public synchronized void writeOutput(byte[] buffer) {
+            multiDigest.add(buffer);
+        }
+
+        synchronized Map<String, String> digest() {
+            return multiDigest.digest();
+        }
+
+        @Override
+        public boolean isPrimary() {
+            return false;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.common.security.MultiDigest;
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.common.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Wraps the sinks of each output producer (Term, CommandSession) into {@link AsyncReadOnlyChannel}s so a slow sink
+ * does not stall the process output. Each producer gets its own queue per sink, which keeps the order per sink.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class OutputDispatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(OutputDispatcher.class);
+
+    public static final String LEGACY_CHECKSUM_ALGORITHM = "MD5";
+
+    public static final List<String> DEFAULT_DIGEST_ALGORITHMS = Collections.unmodifiableList(Arrays.asList("MD5", "SHA-256"));
+
+    private final int queueSize;
+    private final ExecutorService executor;
+    private final Set<AsyncReadOnlyChannel> channels = ConcurrentHashMap.newKeySet();
+    private final ScrollbackPool scrollbackPool;
+    private final List<Function<String, ReadOnlyChannel>> sessionSinkFactories = new CopyOnWriteArrayList<>();
+    private final Set<Function<String, ReadOnlyChannel>> rawSessionSinkFactories = ConcurrentHashMap.newKeySet();
+    /**
+     * Sinks created for a single producer, they are closed on release.
+     */
+    private final Set<ReadOnlyChannel> sessionSinks = ConcurrentHashMap.newKeySet();
+
+    private final List<String> digestAlgorithms;
+
+    private final ChannelFlusher channelFlusher;
+
+    private volatile boolean terminalNoiseFilter;
+
+    private volatile Set<ReadOnlyChannel> dedupSinks = Collections.emptySet();
+    private volatile long dedupMaxDelayMillis;
+    private volatile ScheduledExecutorService dedupScheduler;
+
+    private volatile Map<ReadOnlyChannel, MultiPatternMatcher> lineRoutes = Collections.emptyMap();
+
+    private volatile List<String> secrets = Collections.emptyList();
+    private volatile MultiPatternMatcher secretMatcher;
+
+    public OutputDispatcher(int queueSize) {
+        this(queueSize, new ScrollbackPool(0, 0), DEFAULT_DIGEST_ALGORITHMS);
+    }
+
+    public OutputDispatcher(int queueSize, ScrollbackPool scrollbackPool, List<String> digestAlgorithms) {
+        this(queueSize, scrollbackPool, digestAlgorithms, 0);
+    }
+
+    /**
+     * @param queueSize number of output chunks buffered per sink, 0 to write synchronously in the producer thread
+     * @param digestAlgorithms algorithms of the output digests, MD5 is always added, it is reported also as the legacy
+     *            output checksum
+     * @param flushTimeoutMillis deadline of flushing the primary sinks of a completed command, 0 for none
+     * @throws IllegalArgumentException when a digest algorithm is not available
+     */
+    public OutputDispatcher(
+            int queueSize,
+            ScrollbackPool scrollbackPool,
+            List<String> digestAlgorithms,
+            long flushTimeoutMillis) {
+        this.queueSize = queueSize;
+        this.scrollbackPool = scrollbackPool;
+        this.digestAlgorithms = withLegacyChecksum(digestAlgorithms);
+        try {
+            //fail on start instead of the first command
+            new MultiDigest(this.digestAlgorithms);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Invalid output digest algorithm: " + e.getMessage(), e);
+        }
+        if (queueSize > 0) {
+            executor = Executors.newCachedThreadPool(new NamedThreadFactory("output-dispatcher"));
+        } else {
+            log.info("Output dispatching is disabled, sinks are written synchronously.");
+            executor = null;
+        }
+        channelFlusher = new ChannelFlusher(flushTimeoutMillis);
+    }
+
+    public ReadOnlyChannel dispatch(ReadOnlyChannel channel, String context) {
+        if (executor == null) {
+            return channel;
+        }
+        AsyncReadOnlyChannel asyncChannel = new AsyncReadOnlyChannel(channel, context, queueSize, executor);
+        channels.add(asyncChannel);
+        return asyncChannel;
+    }
+
+    /**
+     * Wraps the shared sinks and adds the sinks created by the session sink factories for the context. When the
+     * terminal noise filter is enabled each sink gets its own filter for the producer.
+     */
+    public Set<ReadOnlyChannel> dispatch(Set<ReadOnlyChannel> channels, String context) {
+        Set<ReadOnlyChannel> dispatched = channels.stream()
+                .map(channel -> dispatch(filtered(sinkChain(channel)), context))
+                .collect(Collectors.toSet());
+        for (Function<String, ReadOnlyChannel> factory : sessionSinkFactories) {
+            ReadOnlyChannel sessionSink = factory.apply(context);
+            if (sessionSink != null) {
+                if (!rawSessionSinkFactories.contains(factory)) {
+                    sessionSink = filtered(sessionSink);
+                }
+                ReadOnlyChannel channel = dispatch(sessionSink, context);
+                sessionSinks.add(channel);
+                dispatched.add(channel);
+            }
+        }
+        return dispatched;
+    }
+
+    /**
+     * Registers a factory of the sinks created for each Term and session, eg. a sink writing to a per session file.
+     * The factory may return null when it cannot create the sink.
+     */
+    public void addSessionSinkFactory(Function<String, ReadOnlyChannel> factory) {
+        sessionSinkFactories.add(factory);
+    }
+
+    /**
+     * Registers a factory of the session sinks that always get the raw output, eg. the journal replayed to viewers.
+     */
+    public void addRawSessionSinkFactory(Function<String, ReadOnlyChannel> factory) {
+        rawSessionSinkFactories.add(factory);
+        sessionSinkFactories.add(factory);
+    }
+
+    /**
+     * Strips the ANSI escape sequences and collapses the lines redrawn with CR in the output of the sinks dispatched
+     * with {@link #dispatch(Set, String)}. The viewers and the digests keep the raw output.
+     */
+    public void setTerminalNoiseFilter(boolean terminalNoiseFilter) {
+        this.terminalNoiseFilter = terminalNoiseFilter;
+    }
+
+    private ReadOnlyChannel filtered(ReadOnlyChannel channel) {
+        return terminalNoiseFilter ? new FilteringReadOnlyChannel(channel) : channel;
+    }
+
+    /**
+     * Collapses the runs of identical consecutive lines written to the given shared sinks, see
+     * {@link LineDedupChannel}. The runs are deduplicated after the terminal noise is filtered.
+     *
+     * The summaries of the runs held for the max delay are written by a thread of the dispatcher, a summary written to
+     * a slow sink does not delay the other scheduled tasks of the server (eg. the log file commits).
+     *
+     * @param maxDelayMillis max time a run is held before its summary is written
+     */
+    public synchronized void setLineDedup(Set<ReadOnlyChannel> sinks, long maxDelayMillis) {
+        if (!sinks.isEmpty() && maxDelayMillis > 0 && dedupScheduler == null) {
+            dedupScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("line-dedup"));
+        }
+        this.dedupMaxDelayMillis = maxDelayMillis;
+        this.dedupSinks = sinks;
+    }
+
+    /**
+     * Writes to the given shared sinks only the lines containing one of the sink's patterns, see
+     * {@link LineRouteChannel}. The lines are routed after the terminal noise is filtered and before they are
+     * deduplicated.
+     */
+    public void setLineRoutes(Map<ReadOnlyChannel, MultiPatternMatcher> lineRoutes) {
+        this.lineRoutes = lineRoutes;
+    }
+
+    /**
+     * Routes and deduplicates the lines of the shared sink, the settings are looked up by the sink itself.
+     */
+    private ReadOnlyChannel sinkChain(ReadOnlyChannel sink) {
+        MultiPatternMatcher routes = lineRoutes.get(sink);
+        boolean dedup = dedupSinks.contains(sink);
+        ReadOnlyChannel channel = sink;
+        if (dedup) {
+            channel = new LineDedupChannel(channel, dedupMaxDelayMillis, dedupScheduler);
+        }
+        if (routes != null) {
+            channel = new LineRouteChannel(channel, routes);
+        }
+        return channel;
+    }
+
+    /**
+     * Stops reporting metrics of the channel, the remaining queued output is still delivered. The sinks created for
+     * the session are closed.
+     */
+    public void release(ReadOnlyChannel channel) {
+        channels.remove(channel);
+        if (sessionSinks.remove(channel)) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Cannot close session sink " + channel + ".", e);
+            }
+        }
+    }
+
+    /**
+     * The clients compare the legacy output checksum, it must not be missing. It is keyed by
+     * {@link #LEGACY_CHECKSUM_ALGORITHM} whatever the case of the configured name.
+     */
+    private static List<String> withLegacyChecksum(List<String> digestAlgorithms) {
+        List<String> algorithms = new ArrayList<>(digestAlgorithms.size() + 1);
+        for (String algorithm : digestAlgorithms) {
+            if (!LEGACY_CHECKSUM_ALGORITHM.equalsIgnoreCase(algorithm)) {
+                algorithms.add(algorithm);
+            }
+        }
+        if (algorithms.size() == digestAlgorithms.size()) {
+            log.info("Adding {} output digest, it is the legacy output checksum.", LEGACY_CHECKSUM_ALGORITHM);
+        }
+        algorithms.add(0, LEGACY_CHECKSUM_ALGORITHM);
+        return Collections.unmodifiableList(algorithms);
+    }
+
+    /**
+     * Sets the secrets masked in the output of all the Terms and sessions, eg. the credentials in the environment.
+     */
+    public void setSecrets(Collection<String> secrets) {
+        List<String> valid = validSecrets(secrets);
+        secretMatcher = valid.isEmpty() ? null : MultiPatternMatcher.compile(valid);
+        this.secrets = valid;
+        log.info("Masking {} secrets in the output.", valid.size());
+    }
+
+    /**
+     * @param producerSecrets secrets masked in addition to the ones of all the producers
+     * @return masker of the producer output or null when there is nothing to mask
+     */
+    public SecretMasker openSecretMasker(Collection<String> producerSecrets) {
+        List<String> valid = validSecrets(producerSecrets);
+        if (valid.isEmpty()) {
+            MultiPatternMatcher matcher = secretMatcher;
+            return matcher == null ? null : new SecretMasker(matcher);
+        }
+        List<String> all = new ArrayList<>(secrets);
+        all.addAll(valid);
+        return new SecretMasker(MultiPatternMatcher.compile(all));
+    }
+
+    /**
+     * The short secrets are not masked, they would mask the common words.
+     */
+    private List<String> validSecrets(Collection<String> secrets) {
+        List<String> valid = new ArrayList<>(secrets.size());
+        for (String secret : secrets) {
+            if (secret == null || secret.length() < SecretMasker.MIN_SECRET_LENGTH) {
+                log.warn("Secret shorter than {} characters is not masked.", SecretMasker.MIN_SECRET_LENGTH);
+            } else {
+                valid.add(secret);
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Flushes the primary channels of a Term or session in parallel and waits for all of them.
+     *
+     * @throws IOException when a channel cannot be flushed or the flush deadline has passed
+     */
+    public void flushPrimary(Collection<ReadOnlyChannel> channels) throws IOException {
+        for (ReadOnlyChannel channel : channels) {
+            if (!channel.isPrimary()) {
+                writeHeldOutput(channel);
+            }
+        }
+        channelFlusher.flushPrimaryAndWait(channels);
+    }
+
+    /**
+     * The primary holding channels write the held output on flush, the others get it once their queue is drained.
+     */
+    private void writeHeldOutput(ReadOnlyChannel channel) {
+        if (channel instanceof HoldingChannel) {
+            ((HoldingChannel) channel).writeHeldOutput();
+        } else if (channel instanceof AsyncReadOnlyChannel
+                && ((AsyncReadOnlyChannel) channel).getDelegate() instanceof HoldingChannel) {
+            AsyncReadOnlyChannel asyncChannel = (AsyncReadOnlyChannel) channel;
+            executor.execute(() -> {
+                try {
+                    asyncChannel.awaitDrained();
+                    ((HoldingChannel) asyncChannel.getDelegate()).writeHeldOutput();
+                } catch (IOException | RuntimeException e) {
+                    log.error("Cannot write held output to channel " + asyncChannel + ".", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates the digests of a Term or session output, computed in the dispatcher thread.
+     */
+    public OutputDigest openDigest(String context) {
+        try {
+            return new OutputDigest(new MultiDigest(digestAlgorithms), this, context);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Digest algorithms were validated on start.", e);
+        }
+    }
+
+    public void releaseDigest(OutputDigest outputDigest) {
+        release(outputDigest.getInput());
+    }
+
+    /**
+     * @return scrollback of the producer or null when there is none available
+     */
+    public ScrollbackBuffer acquireScrollback(String context) {
+        return scrollbackPool.acquire(context);
+    }
+
+    public void releaseScrollback(ScrollbackBuffer scrollbackBuffer) {
+        scrollbackPool.release(scrollbackBuffer);
+    }
+
+    public Map<String, Long> getScrollbackCounters() {
+        return scrollbackPool.getCounters();
+    }
+
+    public List<SinkMetrics> getMetrics() {
+        return channels.stream()
+                .map(AsyncReadOnlyChannel::getMetrics)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        channelFlusher.close();
+        if (dedupScheduler != null) {
+            dedupScheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the most recent output in a fixed size (off-heap) ring, so a viewer connecting later can be sent the recent
+ * output first.
+ *
+ * To replay without a gap or a duplicate, the producer must append to the buffer and write to the live channels
+ * under the same lock it holds while replaying to a new channel and adding it to the live channels.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class ScrollbackBuffer {
+
+    static final int REPLAY_CHUNK_SIZE = 64 * 1024;
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    /**
+     * Total number of bytes appended, the write position in the ring is written % capacity.
+     */
+    private long written;
+
+    ScrollbackBuffer(ByteBuffer ring) {
+        this.ring = ring;
+        this.capacity = ring.capacity();
+    }
+
+    public synchronized void append(byte[] bytes) {
+        int offset = 0;
+        int length = bytes.length;
+        if (length > capacity) {
+            //only the tail fits
+            offset = length - capacity;
+            written += offset;
+            length = capacity;
+        }
+        int position = (int) (written % capacity);
+        int first = Math.min(length, capacity - position);
+        ((Buffer)ring).position(position);
+        ring.put(bytes, offset, first);
+        if (first < length) {
+            ((Buffer)ring).position(0);
+            ring.put(bytes, offset + first, length - first);
+        }
+        written += length;
+    }
+
+    /**
+     * Writes the retained output to the channel in chunks. When the oldest output was already overwritten the replay
+     * starts at the next UTF-8 character boundary.
+     */
+    public void replayTo(ReadOnlyChannel channel) {
+        replayTo(channel, capacity);
+    }
+
+    /**
+     * Writes at most the last maxBytes of the retained output, eg. to fit the buffer of a viewer.
+     */
+    public synchronized void replayTo(ReadOnlyChannel channel, long maxBytes) {
+        long start = Math.max(0, written - Math.min(capacity, maxBytes));
+        boolean truncated = start > 0;
+        while (start < written) {
+            int position = (int) (start % capacity);
+            int length = (int) Math.min(REPLAY_CHUNK_SIZE, Math.min(written - start, capacity - position));
+            byte[] chunk = new byte[length];
+            ((Buffer)ring).position(position);
+            ring.get(chunk, 0, length);
+            start += length;
+            int skip = 0;
+            if (truncated) {
+                while (skip < length && (chunk[skip] & 0xC0) == 0x80) {
+                    skip++;
+                }
+                truncated = false;
+            }
+            if (skip > 0) {
+                byte[] trimmed = new byte[length - skip];
+                System.arraycopy(chunk, skip, trimmed, 0, trimmed.length);
+                chunk = trimmed;
+            }
+            if (chunk.length > 0) {
+                channel.writeOutput(chunk);
+            }
+        }
+    }
+
+    public synchronized long getRetainedBytes() {
+        return Math.min(written, capacity);
+    }
+
+    synchronized void reset() {
+        written = 0;
+        ((Buffer)ring).clear();
+    }
+
+    ByteBuffer getRing() {
+        return ring;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
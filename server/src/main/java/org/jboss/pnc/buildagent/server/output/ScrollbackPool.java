@@ -0,0 +1,96 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hands out the {@link ScrollbackBuffer}s and caps the off-heap memory they use across all the terms and sessions.
+ * Released buffers are kept for reuse as direct memory is only freed by the GC. When the cap is reached new terms
+ * and sessions run without a scrollback.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class ScrollbackPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ScrollbackPool.class);
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private int allocated;
+    private int inUse;
+    private long rejected;
+
+    /**
+     * @param bufferSize bytes retained per term or session, 0 disables the scrollback
+     * @param maxTotalBytes max off-heap memory used by all the buffers
+     */
+    public ScrollbackPool(int bufferSize, long maxTotalBytes) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = bufferSize > 0 ? (int) Math.min(Integer.MAX_VALUE, maxTotalBytes / bufferSize) : 0;
+    }
+
+    /**
+     * @return a new buffer or null when the scrollback is disabled or the memory cap is reached
+     */
+    public synchronized ScrollbackBuffer acquire(String context) {
+        if (maxBuffers == 0) {
+            return null;
+        }
+        ByteBuffer ring = free.poll();
+        if (ring == null) {
+            if (allocated >= maxBuffers) {
+                rejected++;
+                log.warn("Scrollback memory limit reached, context [{}] runs without the scrollback.", context);
+                return null;
+            }
+            ring = ByteBuffer.allocateDirect(bufferSize);
+            allocated++;
+        }
+        inUse++;
+        return new ScrollbackBuffer(ring);
+    }
+
+    public synchronized void release(ScrollbackBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        buffer.reset();
+        free.push(buffer.getRing());
+        inUse--;
+    }
+
+    public synchronized Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("bufferSize", (long) bufferSize);
+        counters.put("maxBuffers", (long) maxBuffers);
+        counters.put("allocatedBuffers", (long) allocated);
+        counters.put("buffersInUse", (long) inUse);
+        counters.put("offHeapBytes", (long) allocated * bufferSize);
+        counters.put("rejected", rejected);
+        return counters;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Replaces the secrets in the output stream of a producer with {@link #MASK}, before the output reaches the digest,
+ * the scrollback and the channels. Overlapping and adjacent secrets are replaced with a single mask.
+ *
+ * All the secrets are matched in a single pass with a {@link MultiPatternMatcher}. A secret can be split across the
+ * chunks, only the last bytes of a chunk that might be the beginning of a secret are held until the next chunk or
+ * until {@link #drain()}.
+ *
+ * Not thread safe.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class SecretMasker {
+
+    public static final byte[] MASK = "*****".getBytes(StandardCharsets.UTF_8);
+
+    public static final int MIN_SECRET_LENGTH = 4;
+
+    private final MultiPatternMatcher matcher;
+
+    private int state = MultiPatternMatcher.ROOT;
+    private byte[] pending = new byte[64];
+    private boolean[] pendingMasked = new boolean[64];
+    private int pendingLength;
+    /** The last written byte was masked, a mask continuing in the next chunk is not written again. */
+    private boolean lastWrittenMasked;
+
+    private long maskedSecrets;
+
+    public SecretMasker(MultiPatternMatcher matcher) {
+        this.matcher = matcher;
+    }
+
+    /**
+     * @return the masked output safe to write, it is the same array when there is nothing to mask or hold
+     */
+    public byte[] mask(byte[] chunk) {
+        int held = pendingLength;
+        int total = held + chunk.length;
+        boolean copied = false;
+        //the position up to which the bytes are marked, so each byte is marked once
+        int maskedUpTo = -1;
+        for (int i = 0; i < chunk.length; i++) {
+            state = matcher.next(state, chunk[i]);
+            int matchLength = matcher.matchLength(state);
+            if (matchLength > 0) {
+                if (!copied) {
+                    append(chunk, held, total);
+                    copied = true;
+                }
+                int end = held + i;
+                int start = Math.max(end - matchLength + 1, maskedUpTo + 1);
+                Arrays.fill(pendingMasked, start, end + 1, true);
+                maskedUpTo = end;
+                maskedSecrets++;
+            }
+        }
+        int cut = total - matcher.depth(state);
+        if (!copied && held == 0 && cut == total) {
+            if (chunk.length > 0) {
+                lastWrittenMasked = false;
+            }
+            return chunk;
+        }
+        if (!copied) {
+            append(chunk, held, total);
+        }
+        byte[] out = write(cut);
+        System.arraycopy(pending, cut, pending, 0, total - cut);
+        System.arraycopy(pendingMasked, cut, pendingMasked, 0, total - cut);
+        pendingLength = total - cut;
+        return out;
+    }
+
+    private void append(byte[] chunk, int held, int total) {
+        if (pending.length < total) {
+            int size = Math.max(pending.length * 2, total);
+            pending = Arrays.copyOf(pending, size);
+            pendingMasked = Arrays.copyOf(pendingMasked, size);
+        }
+        System.arraycopy(chunk, 0, pending, held, chunk.length);
+        Arrays.fill(pendingMasked, held, total, false);
+    }
+
+    /**
+     * @return the held output, the producer is not going to write more
+     */
+    public byte[] drain() {
+        byte[] out = write(pendingLength);
+        pendingLength = 0;
+        state = MultiPatternMatcher.ROOT;
+        return out;
+    }
+
+    private byte[] write(int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        for (int i = 0; i < length; i++) {
+            if (pendingMasked[i]) {
+                if (!lastWrittenMasked) {
+                    out.write(MASK, 0, MASK.length);
+                }
+                lastWrittenMasked = true;
+            } else {
+                out.write(pending[i]);
+                lastWrittenMasked = false;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public long getMaskedSecrets() {
+        return maskedSecrets;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import java.util.Map;
+
+/**
+ * Point in time snapshot of a dispatched sink queue.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class SinkMetrics {
+
+    private final String context;
+    private final String sink;
+    private final boolean primary;
+    private final int queueDepth;
+    private final int queueCapacity;
+    private final long queuedBytes;
+    private final long lagMillis;
+    private final long maxLagMillis;
+    private final long deliveredChunks;
+    private final long deliveredBytes;
+    private final long producerWaitMillis;
+    private final Map<String, Long> sinkCounters;
+
+    public SinkMetrics(
+            String context,
+            String sink,
+            boolean primary,
+            int queueDepth,
+            int queueCapacity,
+            long queuedBytes,
+            long lagMillis,
+            long maxLagMillis,
+            long deliveredChunks,
+            long deliveredBytes,
+            long producerWaitMillis,
+            Map<String, Long> sinkCounters) {
+        this.context = context;
+        this.sink = sink;
+        this.primary = primary;
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+        this.queuedBytes = queuedBytes;
+        this.lagMillis = lagMillis;
+        this.maxLagMillis = maxLagMillis;
+        this.deliveredChunks = deliveredChunks;
+        this.deliveredBytes = deliveredBytes;
+        this.producerWaitMillis = producerWaitMillis;
+        this.sinkCounters = sinkCounters;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    public String getSink() {
+        return sink;
+    }
+
+    public boolean isPrimary() {
+        return primary;
+    }
+
+    /**
+     * @return number of chunks waiting to be written to the sink
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * @return age of the oldest chunk waiting in the queue
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+
+    public long getDeliveredChunks() {
+        return deliveredChunks;
+    }
+
+    public long getDeliveredBytes() {
+        return deliveredBytes;
+    }
+
+    /**
+     * @return total time the producer was blocked because the queue was full
+     */
+    public long getProducerWaitMillis() {
+        return producerWaitMillis;
+    }
+
+    /**
+     * @return counters of a {@link MeteredChannel} sink, empty for other sinks
+     */
+    public Map<String, Long> getSinkCounters() {
+        return sinkCounters;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.output;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Removes the terminal noise from the output stream: ANSI escape sequences (CSI, OSC and the other ESC sequences) and
+ * BEL are dropped, the content of a line redrawn after a carriage return overwrites the previous content like on a
+ * terminal, so a progress line is kept only in its final state. The erase in line sequences (ESC [ K with the
+ * parameter 0, 1 or 2) clear the line content, the cleared cells before the cursor are kept as spaces. A CR followed
+ * by LF is kept as the line end.
+ *
+ * The filter is streaming, a sequence or a line can be split across the chunks. A line is held until it is completed
+ * by LF, until it grows over the max line size or until {@link #drain()} is called.
+ *
+ * Not thread safe.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class TerminalNoiseFilter {
+
+    public static final int DEFAULT_MAX_LINE_BYTES = 64 * 1024;
+
+    private static final byte ESC = 0x1B;
+    private static final byte BEL = 0x07;
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private enum State {
+        TEXT,
+        /** Received ESC. */
+        ESCAPE,
+        /** ESC followed by intermediate bytes, ends with a final byte. */
+        ESCAPE_INTERMEDIATE,
+        /** ESC [, ends with a final byte in 0x40-0x7E. */
+        CSI,
+        /** ESC ], ESC P, ESC X, ESC ^ or ESC _, a string ended by BEL or ESC \. */
+        STRING,
+        /** ESC inside a string. */
+        STRING_ESCAPE
+    }
+
+    private final int maxLineBytes;
+
+    private State state = State.TEXT;
+    private byte[] line = new byte[256];
+    private int lineLength;
+    /** Position in the line the next byte is written to, it is less than the length after a CR. */
+    private int cursor;
+    /** A CR was received, it is a line end when LF follows, otherwise the line is redrawn. */
+    private boolean pendingCr;
+    /** Numeric parameter of the CSI sequence, 0 by default. */
+    private int csiParameter;
+    /** The CSI sequence has more than one numeric parameter or other parameter bytes. */
+    private boolean csiOtherParameters;
+
+    private long inputBytes;
+    private long outputBytes;
+
+    public TerminalNoiseFilter() {
+        this(DEFAULT_MAX_LINE_BYTES);
+    }
+
+    public TerminalNoiseFilter(int maxLineBytes) {
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    /**
+     * @return the filtered bytes of the lines completed by the chunk, an empty array when there are none
+     */
+    public byte[] filter(byte[] chunk) {
+        inputBytes += chunk.length;
+        ByteArrayOutputStream out = null;
+        for (byte b : chunk) {
+            switch (state) {
+                case TEXT:
+                    if (b == ESC) {
+                        state = State.ESCAPE;
+                    } else if (b == LF) {
+                        out = completeLine(out, pendingCr);
+                    } else if (b == CR) {
+                        if (pendingCr) {
+                            carriageReturn();
+                        }
+                        pendingCr = true;
+                    } else if (b != BEL) {
+                        if (pendingCr) {
+                            carriageReturn();
+                        }
+                        put(b);
+                        if (lineLength >= maxLineBytes) {
+                            out = completeLine(out, false);
+                        }
+                    }
+                    break;
+                case ESCAPE:
+                    if (b == '[') {
+                        state = State.CSI;
+                        csiParameter = 0;
+                        csiOtherParameters = false;
+                    } else if (b == ']' || b == 'P' || b == 'X' || b == '^' || b == '_') {
+                        state = State.STRING;
+                    } else if (b >= 0x20 && b <= 0x2F) {
+                        state = State.ESCAPE_INTERMEDIATE;
+                    } else {
+                        state = State.TEXT;
+                    }
+                    break;
+                case ESCAPE_INTERMEDIATE:
+                    if (b < 0x20 || b > 0x2F) {
+                        state = State.TEXT;
+                    }
+                    break;
+                case CSI:
+                    if (b >= 0x40 && b <= 0x7E) {
+                        state = State.TEXT;
+                        if (b == 'K' && !csiOtherParameters) {
+                            eraseInLine(csiParameter);
+                        }
+                    } else if (b >= '0' && b <= '9') {
+                        csiParameter = Math.min(csiParameter * 10 + b - '0', 1000);
+                    } else {
+                        csiOtherParameters = true;
+                    }
+                    break;
+                case STRING:
+                    if (b == BEL) {
+                        state = State.TEXT;
+                    } else if (b == ESC) {
+                        state = State.STRING_ESCAPE;
+                    }
+                    break;
+                case STRING_ESCAPE:
+                    //ESC \ is the string terminator, any other ESC also ends the string
+                    state = b == ESC ? State.STRING_ESCAPE : State.TEXT;
+                    break;
+            }
+        }
+        if (out == null) {
+            return new byte[0];
+        }
+        byte[] filtered = out.toByteArray();
+        outputBytes += filtered.length;
+        return filtered;
+    }
+
+    /**
+     * Returns the held line, eg. when the output is completed without a final line end.
+     */
+    public byte[] drain() {
+        ByteArrayOutputStream out = null;
+        if (lineLength > 0 || pendingCr) {
+            out = new ByteArrayOutputStream(lineLength + 1);
+            out.write(line, 0, lineLength);
+            if (pendingCr) {
+                out.write(CR);
+            }
+        }
+        lineLength = 0;
+        cursor = 0;
+        pendingCr = false;
+        if (out == null) {
+            return new byte[0];
+        }
+        byte[] filtered = out.toByteArray();
+        outputBytes += filtered.length;
+        return filtered;
+    }
+
+    private void carriageReturn() {
+        pendingCr = false;
+        cursor = 0;
+    }
+
+    /**
+     * ESC [ K, a redrawn progress line usually clears the previous content with it. The cursor does not move.
+     *
+     * @param mode 0 from the cursor to the end, 1 from the start to the cursor included, 2 the whole line
+     */
+    private void eraseInLine(int mode) {
+        if (pendingCr) {
+            carriageReturn();
+        }
+        switch (mode) {
+            case 0:
+                lineLength = cursor;
+                break;
+            case 1:
+                int end = Math.min(cursor + 1, lineLength);
+                //blank the whole character under the cursor
+                while (end < lineLength && (line[end] & 0xC0) == 0x80) {
+                    end++;
+                }
+                Arrays.fill(line, 0, end, (byte) ' ');
+                break;
+            case 2:
+                Arrays.fill(line, 0, Math.min(cursor, lineLength), (byte) ' ');
+                lineLength = cursor;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void put(byte b) {
+        if (cursor == lineLength) {
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = b;
+            cursor++;
+        } else {
+            line[cursor++] = b;
+            //do not leave the remaining part of an overwritten multi-byte character
+            if ((b & 0xC0) != 0x80) {
+                int end = cursor;
+                while (end < lineLength && (line[end] & 0xC0) == 0x80) {
+                    end++;
+                }
+                if (end > cursor) {
+                    System.arraycopy(line, end, line, cursor, lineLength - end);
+                    lineLength -= end - cursor;
+                }
+            }
+        }
+    }
+
+    private ByteArrayOutputStream completeLine(ByteArrayOutputStream out, boolean crLf) {
+        if (out == null) {
+            out = new ByteArrayOutputStream(lineLength + 2);
+        }
+        out.write(line, 0, lineLength);
+        if (crLf) {
+            out.write(CR);
+            out.write(LF);
+        } else if (lineLength < maxLineBytes) {
+            out.write(LF);
+        }
+        lineLength = 0;
+        cursor = 0;
+        pendingCr = false;
+        if (line.length > maxLineBytes) {
+            line = new byte[256];
+        }
+        return out;
+    }
+
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.jboss.pnc.buildagent.server.servlet;
 
+import org.jboss.pnc.buildagent.common.blocklog.BlockLogReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,16 +28,27 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
+ * Sends the requested file, a single byte range can be requested with the Range header. A block log (a file with
+ * the {@link BlockLogReader#FILE_SUFFIX} extension) is sent uncompressed and only the blocks covering the range are
+ * decompressed.
+ *
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
  */
 public class Download extends HttpServlet {
 
     private static Logger log = LoggerFactory.getLogger(Download.class);
 
+    private static final long[] UNSATISFIABLE = new long[0];
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         log.debug("Download servlet requested.");
@@ -46,19 +58,99 @@ public class Download extends HttpServlet {
         if (file.isDirectory() || !file.exists()) {
             response.sendError(500);
             log.warn("Invalid file path {}", file);
+            return;
         }
 
-        response.setContentLength((int)file.length());
+        Path path = file.toPath();
+        //decided by the name, a plain file starting with the block log header is sent as it is
+        if (BlockLogReader.hasBlockLogSuffix(path)) {
+            try (BlockLogReader reader = BlockLogReader.open(path)) {
+                send(request, response, reader.getUncompressedSize(), reader::transferTo);
+            }
+        } else {
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                send(request, response, fileChannel.size(), (position, length, outputStream) -> {
+                    WritableByteChannel target = Channels.newChannel(outputStream);
+                    long transferred = 0;
+                    while (transferred < length) {
+                        long n = fileChannel.transferTo(position + transferred, length - transferred, target);
+                        if (n <= 0) {
+                            break;
+                        }
+                        transferred += n;
+                    }
+                    return transferred;
+                });
+            }
+        }
+    }
+
+    private void send(HttpServletRequest request, HttpServletResponse response, long size, Transfer transfer)
+            throws IOException {
+        response.setHeader("Accept-Ranges", "bytes");
+        long[] range = parseRange(request.getHeader("Range"), size);
+        if (range == UNSATISFIABLE) {
+            response.setHeader("Content-Range", "bytes */" + size);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        long position = 0;
+        long length = size;
+        if (range != null) {
+            position = range[0];
+            length = range[1] - range[0] + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+        }
+        response.setContentLengthLong(length);
 
         try (ServletOutputStream outputStream = response.getOutputStream()) {
-            try (FileInputStream fileInputStream = new FileInputStream(file)) {
-                byte[] bytes = new byte[1024];
-                int read;
-                while ((read = fileInputStream.read(bytes)) != -1) {
-                    outputStream.write(bytes, 0, read);
+            transfer.transfer(position, length, outputStream);
+        }
+    }
+
+    /**
+     * Parses a single range "bytes=first-last", "bytes=first-" or "bytes=-suffixLength".
+     *
+     * @return inclusive first and last byte, null to send the whole file when there is no range or it is not
+     *         supported (multiple ranges or an invalid header are ignored as allowed by RFC 7233) and
+     *         {@link #UNSATISFIABLE} when the range is out of the file
+     */
+    static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') > -1) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0 || size == 0) {
+                    return UNSATISFIABLE;
                 }
+                return new long[] {Math.max(0, size - suffixLength), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
             }
+            if (start >= size) {
+                return UNSATISFIABLE;
+            }
+            return new long[] {start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
+    @FunctionalInterface
+    private interface Transfer {
+        long transfer(long position, long length, OutputStream outputStream) throws IOException;
+    }
 }
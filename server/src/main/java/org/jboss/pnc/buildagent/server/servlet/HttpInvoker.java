@@ -14,10 +14,10 @@ import org.jboss.pnc.buildagent.api.httpinvoke.RetryConfig;
 import org.jboss.pnc.buildagent.common.Arrays;
 import org.jboss.pnc.buildagent.common.http.HeartbeatSender;
 import org.jboss.pnc.buildagent.common.http.HttpClient;
-import org.jboss.pnc.buildagent.common.security.Md5;
 import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
 import org.jboss.pnc.buildagent.server.httpinvoker.CommandSession;
 import org.jboss.pnc.buildagent.server.httpinvoker.SessionRegistry;
+import org.jboss.pnc.buildagent.server.output.OutputDispatcher;
 import org.jboss.pnc.buildagent.server.termserver.StatusConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +28,7 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.NoSuchAlgorithmException;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Future;
@@ -47,6 +47,8 @@ public class HttpInvoker extends HttpServlet {
 
     private final Set<ReadOnlyChannel> readOnlyChannels;
 
+    private final OutputDispatcher outputDispatcher;
+
     private final SessionRegistry sessionRegistry;
 
     private final HttpClient httpClient;
@@ -54,22 +56,19 @@ public class HttpInvoker extends HttpServlet {
     private final RetryConfig retryConfig;
     private final HeartbeatSender heartbeat;
 
-    private final Md5 stdoutChecksum;
-
-
     public HttpInvoker(
             Set<ReadOnlyChannel> readOnlyChannels,
+            OutputDispatcher outputDispatcher,
             SessionRegistry sessionRegistry,
             HttpClient httpClient,
             RetryConfig retryConfig,
-            HeartbeatSender heartbeat)
-            throws NoSuchAlgorithmException {
+            HeartbeatSender heartbeat) {
         this.readOnlyChannels = readOnlyChannels;
+        this.outputDispatcher = outputDispatcher;
         this.sessionRegistry = sessionRegistry;
         this.httpClient = httpClient;
         this.retryConfig = retryConfig;
         this.heartbeat = heartbeat;
-        this.stdoutChecksum = new Md5();
     }
 
     @Override
@@ -89,12 +88,20 @@ public class HttpInvoker extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
         String requestString = request.getReader().lines().collect(Collectors.joining());
-        logger.info("Received request body: {}.", requestString);
         InvokeRequest invokeRequest = objectMapper.readValue(requestString, InvokeRequest.class);
+        if (invokeRequest.getSecrets().isEmpty()) {
+            logger.info("Received request body: {}.", requestString);
+        } else {
+            //the body and the command might contain the secrets
+            logger.info("Received request with {} secrets to mask.", invokeRequest.getSecrets().size());
+        }
 
         String command = invokeRequest.getCommand();
 
-        CommandSession commandSession = new CommandSession(readOnlyChannels);
+        CommandSession commandSession = new CommandSession(
+                readOnlyChannels,
+                outputDispatcher,
+                invokeRequest.getSecrets());
         String sessionId = commandSession.getSessionId();
 
         HeartbeatConfig heartbeatConfig = invokeRequest.getHeartbeatConfig();
@@ -124,7 +131,6 @@ public class HttpInvoker extends HttpServlet {
 
     private void handleOutput(CommandSession commandSession, int[] stdOut) {
         byte[] buffer = Arrays.charIntstoBytes(stdOut, StandardCharsets.UTF_8);
-        stdoutChecksum.add(buffer);
         commandSession.handleOutput(buffer);
     }
 
@@ -132,12 +138,13 @@ public class HttpInvoker extends HttpServlet {
         TaskStatusUpdateEvent.Builder updateEventBuilder = TaskStatusUpdateEvent.newBuilder();
         updateEventBuilder.context(callback.getAttachment());
         try {
-            String digest = stdoutChecksum.digest();
+            Map<String, String> digests = commandSession.digest();
             commandSession.close();
             updateEventBuilder
                     .taskId(commandSession.getSessionId())
                     .newStatus(StatusConverter.fromTermdStatus(newStatus))
-                    .outputChecksum(digest);
+                    .outputChecksum(digests.get(OutputDispatcher.LEGACY_CHECKSUM_ALGORITHM))
+                    .outputChecksums(digests);
         } catch (IOException e) {
             updateEventBuilder
                     .taskId(commandSession.getSessionId())
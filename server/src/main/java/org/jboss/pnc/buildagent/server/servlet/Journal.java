@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.servlet;
+
+import org.jboss.pnc.buildagent.server.journal.JournalReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Returns the journaled output of a Term or session: GET {journal-path}/{context}?offset={byte offset} or
+ * ?since={epoch millis | ISO-8601 date time | HH:mm:ss of today}. The offset of the first returned byte is in the
+ * {@value #OFFSET_HEADER} header, the next request can continue from offset + returned length. When the requested
+ * output was already deleted by the retention the response starts at the oldest retained byte.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class Journal extends HttpServlet {
+
+    private static Logger log = LoggerFactory.getLogger(Journal.class);
+
+    public static final String JOURNAL_FOLDER_PARAM = "journalFolder";
+    public static final String OFFSET_HEADER = "Journal-Offset";
+
+    private Path journalFolder;
+
+    @Override
+    public void init() throws ServletException {
+        journalFolder = Paths.get(getInitParameter(JOURNAL_FOLDER_PARAM));
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String context = request.getPathInfo();
+        if (context == null) {
+            context = "";
+        }
+        log.debug("Journal of context [{}] requested.", context);
+        JournalReader reader = JournalReader.forContext(journalFolder, context);
+        if (!reader.exists()) {
+            response.sendError(404, "No journal for context " + context + ".");
+            return;
+        }
+
+        long offset;
+        try {
+            String since = request.getParameter("since");
+            if (since != null) {
+                offset = reader.offsetAt(parseTime(since));
+            } else {
+                String offsetParam = request.getParameter("offset");
+                offset = offsetParam == null ? 0 : Long.parseLong(offsetParam);
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            response.sendError(400, "Invalid offset or time: " + e.getMessage());
+            return;
+        }
+        if (offset < 0) {
+            response.sendError(400, "Invalid offset: " + offset + ", it must not be negative.");
+            return;
+        }
+        offset = Math.max(offset, reader.getStartOffset());
+
+        response.setContentType("application/octet-stream");
+        response.setHeader(OFFSET_HEADER, Long.toString(offset));
+        try (ServletOutputStream outputStream = response.getOutputStream()) {
+            reader.transferFrom(offset, Channels.newChannel(outputStream));
+        }
+    }
+
+    private long parseTime(String time) {
+        if (time.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(time);
+        }
+        if (time.contains("T")) {
+            return OffsetDateTime.parse(time).toInstant().toEpochMilli();
+        }
+        return LocalTime.parse(time)
+                .atDate(LocalDate.now())
+                .atZone(ZoneId.systemDefault())
+                .toInstant()
+                .toEpochMilli();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.servlet;
+
+import io.undertow.servlet.websockets.WebSocketServlet;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import org.jboss.pnc.buildagent.api.Constants;
+import org.jboss.pnc.buildagent.api.ResponseMode;
+import org.jboss.pnc.buildagent.server.Options;
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.httpinvoker.CommandSession;
+import org.jboss.pnc.buildagent.server.httpinvoker.SessionRegistry;
+import org.jboss.pnc.buildagent.server.termserver.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Read-only websocket viewer of a http invoker session: {session-path}/{sessionId}[/text]. Deployed as a servlet, so
+ * the endpoint is behind the same authentication filter as the other servlets.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class SessionViewer extends WebSocketServlet {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionViewer.class);
+
+    private final SessionRegistry sessionRegistry;
+
+    public SessionViewer(
+            String sessionPath,
+            SessionRegistry sessionRegistry,
+            Options options,
+            ScheduledExecutorService executor) {
+        super(new ViewerConnectionCallback(sessionPath, sessionRegistry, options, executor));
+        this.sessionRegistry = sessionRegistry;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String pathInfo = request.getPathInfo();
+        String sessionId = sessionId(pathInfo == null ? "" : pathInfo);
+        if (!sessionRegistry.get(sessionId).isPresent()) {
+            log.info("Session [{}] not found.", sessionId);
+            response.sendError(404, "Session " + sessionId + " not found.");
+            return;
+        }
+        super.doGet(request, response);
+    }
+
+    /**
+     * @param path part of the request path after the session path
+     */
+    private static String sessionId(String path) {
+        if (path.endsWith(Constants.TERM_PATH_TEXT)) {
+            path = path.substring(0, path.length() - Constants.TERM_PATH_TEXT.length());
+        }
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return path;
+    }
+
+    private static class ViewerConnectionCallback implements WebSocketConnectionCallback {
+
+        private final String sessionPath;
+        private final SessionRegistry sessionRegistry;
+        private final Options options;
+        private final ScheduledExecutorService executor;
+
+        ViewerConnectionCallback(
+                String sessionPath,
+                SessionRegistry sessionRegistry,
+                Options options,
+                ScheduledExecutorService executor) {
+            this.sessionPath = sessionPath;
+            this.sessionRegistry = sessionRegistry;
+            this.options = options;
+            this.executor = executor;
+        }
+
+        @Override
+        public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel webSocketChannel) {
+            String path = exchange.getRequestURI();
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                path = path.substring(0, query);
+            }
+            path = path.substring(path.indexOf(sessionPath) + sessionPath.length());
+            ResponseMode mode = path.endsWith(Constants.TERM_PATH_TEXT) ? ResponseMode.TEXT : ResponseMode.BINARY;
+            Optional<CommandSession> commandSession = sessionRegistry.get(sessionId(path));
+            if (!commandSession.isPresent()) {
+                //completed during the handshake
+                closeQuietly(webSocketChannel);
+                return;
+            }
+            log.info("Adding new readonly {} viewer from remote address {} to session [{}].", mode, webSocketChannel.getSourceAddress(), commandSession.get().getSessionId());
+            ReadOnlyChannel viewerChannel = Term.newViewerChannel(exchange, webSocketChannel, mode, options, executor);
+            if (viewerChannel == null) {
+                return;
+            }
+            ReadOnlyChannel viewer = commandSession.get().attach(viewerChannel, Term.maxReplayBytes(options));
+            webSocketChannel.addCloseTask((task) -> commandSession.get().detach(viewer));
+        }
+
+        private void closeQuietly(WebSocketChannel webSocketChannel) {
+            try {
+                webSocketChannel.sendClose();
+            } catch (IOException e) {
+                log.warn("Cannot close viewer of a completed session.", e);
+            }
+        }
+    }
+}
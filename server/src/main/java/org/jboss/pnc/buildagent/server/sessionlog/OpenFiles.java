@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.sessionlog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps at most maxOpen session log files open, the least recently used idle file is closed when another one is
+ * opened. A file is pinned while it is written, a pinned file is not closed, so the limit can be exceeded while all
+ * the files are being written at the same time.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+final class OpenFiles {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenFiles.class);
+
+    static final class Handle {
+        private final FileChannel channel;
+        private int pins;
+        /**
+         * Removed from the open files while pinned, it is closed by the last unpin.
+         */
+        private boolean retired;
+
+        private Handle(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        FileChannel getChannel() {
+            return channel;
+        }
+    }
+
+    private final int maxOpen;
+    private final LinkedHashMap<Path, Handle> open = new LinkedHashMap<>(16, 0.75f, true);
+    private long opened;
+    private long evicted;
+
+    OpenFiles(int maxOpen) {
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * Opens the file for appending, unless it is already open. The handle must be unpinned when the write completes.
+     */
+    synchronized Handle pin(Path path) throws IOException {
+        Handle handle = open.get(path);
+        if (handle == null) {
+            FileChannel channel = FileChannel.open(
+                    path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            handle = new Handle(channel);
+            open.put(path, handle);
+            opened++;
+        }
+        handle.pins++;
+        evictIdle();
+        return handle;
+    }
+
+    synchronized void unpin(Handle handle) {
+        handle.pins--;
+        if (handle.retired) {
+            if (handle.pins == 0) {
+                closeQuietly(handle);
+            }
+        } else {
+            evictIdle();
+        }
+    }
+
+    /**
+     * Closes the file, the next pin opens it again. Used before the file is renamed.
+     */
+    synchronized void close(Path path) {
+        Handle handle = open.remove(path);
+        if (handle != null) {
+            if (handle.pins == 0) {
+                closeQuietly(handle);
+            } else {
+                handle.retired = true;
+            }
+        }
+    }
+
+    synchronized void closeAll() {
+        for (Path path : open.keySet().toArray(new Path[0])) {
+            close(path);
+        }
+    }
+
+    synchronized Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("openFiles", (long) open.size());
+        counters.put("maxOpenFiles", (long) maxOpen);
+        counters.put("opened", opened);
+        counters.put("evicted", evicted);
+        return counters;
+    }
+
+    private void evictIdle() {
+        Iterator<Handle> iterator = open.values().iterator();
+        while (open.size() > maxOpen && iterator.hasNext()) {
+            Handle handle = iterator.next();
+            if (handle.pins == 0) {
+                iterator.remove();
+                closeQuietly(handle);
+                evicted++;
+            }
+        }
+    }
+
+    private static void closeQuietly(Handle handle) {
+        try {
+            handle.channel.close();
+        } catch (IOException e) {
+            log.error("Cannot close session log file.", e);
+        }
+    }
+}
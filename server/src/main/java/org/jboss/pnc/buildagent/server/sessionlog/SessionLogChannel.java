@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.sessionlog;
+
+import org.jboss.pnc.buildagent.server.Options;
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.output.DirectBufferPool;
+import org.jboss.pnc.buildagent.server.output.GroupCommitFileWriter;
+import org.jboss.pnc.buildagent.server.output.MeteredChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Writes the output of a single Term or session to its log, see {@link SessionLogs}. The log is rotated when it
+ * reaches the rotation size and completed on close.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+class SessionLogChannel implements ReadOnlyChannel, MeteredChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionLogChannel.class);
+
+    private final SessionLogs sessionLogs;
+    private final String name;
+    private final Path path;
+    private final GroupCommitFileWriter writer;
+
+    /**
+     * Size of the active log, accessed by the writer under its lock.
+     */
+    private long size;
+
+    SessionLogChannel(
+            SessionLogs sessionLogs,
+            String name,
+            Path path,
+            long size,
+            DirectBufferPool bufferPool,
+            Options options,
+            ScheduledExecutorService scheduler) {
+        //the periodic fsync is shared by all the logs, see SessionLogs
+        this.sessionLogs = sessionLogs;
+        this.name = name;
+        this.path = path;
+        this.size = size;
+        this.writer = new GroupCommitFileWriter(
+                new LogTarget(),
+                bufferPool,
+                options.getFileMaxDelayMillis(),
+                options.getFileDurability(),
+                scheduler);
+    }
+
+    @Override
+    public void writeOutput(byte[] buffer) {
+        try {
+            writer.write(buffer);
+        } catch (IOException e) {
+            log.error("Cannot write to session log " + path + ".", e);
+        }
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return false;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sessionLogs.closed(this);
+        writer.close();
+    }
+
+    void fsync() {
+        writer.fsync();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return writer.getCounters();
+    }
+
+    @Override
+    public String toString() {
+        return "SessionLogChannel{" + "path=" + path + '}';
+    }
+
+    private class LogTarget implements GroupCommitFileWriter.Target {
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            OpenFiles openFiles = sessionLogs.getOpenFiles();
+            OpenFiles.Handle handle = openFiles.pin(path);
+            try {
+                while (buffer.hasRemaining()) {
+                    size += handle.getChannel().write(buffer);
+                }
+            } finally {
+                openFiles.unpin(handle);
+            }
+            if (size >= sessionLogs.getRotateBytes()) {
+                sessionLogs.rotate(name);
+                size = 0;
+            }
+        }
+
+        @Override
+        public void force() throws IOException {
+            if (!Files.exists(path)) {
+                //rotated, the part is completed by the compression
+                return;
+            }
+            OpenFiles openFiles = sessionLogs.getOpenFiles();
+            OpenFiles.Handle handle = openFiles.pin(path);
+            try {
+                handle.getChannel().force(false);
+            } finally {
+                openFiles.unpin(handle);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            sessionLogs.rotate(name);
+        }
+    }
+}
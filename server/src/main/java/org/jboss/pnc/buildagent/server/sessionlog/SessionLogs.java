@@ -0,0 +1,343 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.sessionlog;
+
+import org.jboss.pnc.buildagent.common.StringUtils;
+import org.jboss.pnc.buildagent.server.Options;
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.output.DirectBufferPool;
+import org.jboss.pnc.buildagent.server.output.FileDurability;
+import org.jboss.pnc.common.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the output of each Term and session to its own file in the session log folder:
+ * {@code <context>.log} while the session runs. When the file reaches the rotation size or the session completes the
+ * file is renamed to {@code <context>.log.<n>} and compressed in the background to {@code <context>.log.<n>.gz}. The
+ * part number n grows across all the logs, the parts of a log are in the order of their numbers. When the folder grows
+ * over the disk budget the oldest compressed files are deleted.
+ *
+ * Only a limited number of files is kept open and a write buffer is held only while there is buffered output, so the
+ * footprint of an idle session is a few objects.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class SessionLogs implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionLogs.class);
+
+    static final String ACTIVE_SUFFIX = ".log";
+    static final String COMPRESSED_SUFFIX = ".gz";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Pattern PART = Pattern.compile("(.*)\\.log\\.(\\d+)(\\.gz)?");
+
+    private static final int BUFFERS_POOLED = 16;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Path folder;
+    private final Options options;
+    private final ScheduledExecutorService scheduler;
+    private final DirectBufferPool bufferPool;
+    private final OpenFiles openFiles;
+    private final ExecutorService compressor;
+    private final Set<SessionLogChannel> channels = ConcurrentHashMap.newKeySet();
+    /**
+     * One fsync task for all the logs with {@link FileDurability#PERIODIC}, null otherwise.
+     */
+    private final ScheduledFuture<?> periodicFsync;
+
+    /**
+     * Last used part number, the folder is not listed to find the next one as a listing may miss the files being
+     * renamed by the compression.
+     */
+    private final AtomicLong lastPart = new AtomicLong();
+
+    private final AtomicLong rotations = new AtomicLong();
+    private final AtomicLong compressedFiles = new AtomicLong();
+    private final AtomicLong compressedInputBytes = new AtomicLong();
+    private final AtomicLong compressedOutputBytes = new AtomicLong();
+    private final AtomicLong compressionFailures = new AtomicLong();
+    private final AtomicLong deletedFiles = new AtomicLong();
+    private final AtomicLong deletedBytes = new AtomicLong();
+
+    public SessionLogs(Path folder, Options options, ScheduledExecutorService scheduler) throws IOException {
+        this.folder = folder;
+        this.options = options;
+        this.scheduler = scheduler;
+        this.bufferPool = new DirectBufferPool(options.getSessionLogBufferBytes(), BUFFERS_POOLED);
+        this.openFiles = new OpenFiles(options.getSessionLogMaxOpenFiles());
+        this.compressor = Executors.newSingleThreadExecutor(new NamedThreadFactory("session-log-compressor"));
+        Files.createDirectories(folder);
+        recover();
+        if (options.getFileDurability() == FileDurability.PERIODIC) {
+            periodicFsync = scheduler.scheduleWithFixedDelay(
+                    this::fsync,
+                    options.getFileFsyncIntervalMillis(),
+                    options.getFileFsyncIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            periodicFsync = null;
+        }
+    }
+
+    /**
+     * Session sink factory, see {@link org.jboss.pnc.buildagent.server.output.OutputDispatcher#addSessionSinkFactory}.
+     *
+     * @return the sink writing to the log of the context or null when the log cannot be opened
+     */
+    public ReadOnlyChannel open(String context) {
+        String name = StringUtils.toFileName(context);
+        Path path = active(name);
+        try {
+            long size = Files.exists(path) ? Files.size(path) : 0;
+            SessionLogChannel channel = new SessionLogChannel(this, name, path, size, bufferPool, options, scheduler);
+            channels.add(channel);
+            return channel;
+        } catch (IOException e) {
+            log.error("Cannot open session log " + path + ".", e);
+            return null;
+        }
+    }
+
+    OpenFiles getOpenFiles() {
+        return openFiles;
+    }
+
+    void closed(SessionLogChannel channel) {
+        channels.remove(channel);
+    }
+
+    private void fsync() {
+        for (SessionLogChannel channel : channels) {
+            channel.fsync();
+        }
+    }
+
+    long getRotateBytes() {
+        return options.getSessionLogRotateBytes();
+    }
+
+    /**
+     * Renames the active log of the session to the next part and schedules its compression.
+     */
+    void rotate(String name) throws IOException {
+        Path part;
+        synchronized (this) {
+            Path path = active(name);
+            openFiles.close(path);
+            if (!Files.exists(path)) {
+                return;
+            }
+            if (Files.size(path) == 0) {
+                Files.delete(path);
+                return;
+            }
+            part = folder.resolve(name + ACTIVE_SUFFIX + "." + lastPart.incrementAndGet());
+            Files.move(path, part);
+            rotations.incrementAndGet();
+        }
+        compressor.execute(() -> compress(part));
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>(openFiles.getCounters());
+        counters.put("rotations", rotations.get());
+        counters.put("compressedFiles", compressedFiles.get());
+        counters.put("compressedInputBytes", compressedInputBytes.get());
+        counters.put("compressedOutputBytes", compressedOutputBytes.get());
+        counters.put("compressionFailures", compressionFailures.get());
+        counters.put("deletedFiles", deletedFiles.get());
+        counters.put("deletedBytes", deletedBytes.get());
+        counters.putAll(bufferPool.getCounters());
+        return counters;
+    }
+
+    /**
+     * Waits for the running compressions, the logs not compressed yet are compressed on the next start.
+     */
+    @Override
+    public void close() {
+        if (periodicFsync != null) {
+            periodicFsync.cancel(false);
+        }
+        compressor.shutdown();
+        try {
+            if (!compressor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Session log compression did not complete, it continues on the next start.");
+                compressor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        openFiles.closeAll();
+    }
+
+    private Path active(String name) {
+        return folder.resolve(name + ACTIVE_SUFFIX);
+    }
+
+    /**
+     * Logs left by the previous run are completed: the active ones are rotated and the parts are compressed.
+     */
+    private void recover() throws IOException {
+        List<String> active = new ArrayList<>();
+        List<Path> parts = new ArrayList<>();
+        for (Path file : list()) {
+            String fileName = file.getFileName().toString();
+            Matcher matcher = PART.matcher(fileName);
+            if (fileName.endsWith(TMP_SUFFIX)) {
+                Files.delete(file);
+            } else if (fileName.endsWith(ACTIVE_SUFFIX)) {
+                active.add(fileName.substring(0, fileName.length() - ACTIVE_SUFFIX.length()));
+            } else if (matcher.matches()) {
+                lastPart.set(Math.max(lastPart.get(), Long.parseLong(matcher.group(2))));
+                if (matcher.group(3) == null) {
+                    parts.add(file);
+                }
+            }
+        }
+        parts.forEach(part -> compressor.execute(() -> compress(part)));
+        for (String name : active) {
+            rotate(name);
+        }
+        compressor.execute(this::enforceDiskBudget);
+    }
+
+    private void compress(Path part) {
+        Path compressed = part.resolveSibling(part.getFileName() + COMPRESSED_SUFFIX);
+        Path tmp = part.resolveSibling(compressed.getFileName() + TMP_SUFFIX);
+        try {
+            try (InputStream in = Files.newInputStream(part);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), COPY_BUFFER_SIZE)) {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            Files.move(tmp, compressed, StandardCopyOption.ATOMIC_MOVE);
+            compressedInputBytes.addAndGet(Files.size(part));
+            compressedOutputBytes.addAndGet(Files.size(compressed));
+            Files.delete(part);
+            compressedFiles.incrementAndGet();
+        } catch (IOException e) {
+            compressionFailures.incrementAndGet();
+            log.error("Cannot compress session log " + part + ".", e);
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException deleteException) {
+                log.error("Cannot delete " + tmp + ".", deleteException);
+            }
+            return;
+        }
+        enforceDiskBudget();
+    }
+
+    /**
+     * Deletes the oldest compressed logs while the folder is over the budget, the logs being written are kept.
+     */
+    private void enforceDiskBudget() {
+        try {
+            List<Path> files = list();
+            long total = 0;
+            for (Path file : files) {
+                total += sizeOf(file);
+            }
+            long budget = options.getSessionLogDiskBudgetBytes();
+            if (total <= budget) {
+                return;
+            }
+            List<Path> compressed = files.stream()
+                    .filter(file -> file.getFileName().toString().endsWith(COMPRESSED_SUFFIX))
+                    .sorted(Comparator.comparing(SessionLogs::lastModified))
+                    .collect(Collectors.toList());
+            for (Path file : compressed) {
+                if (total <= budget) {
+                    break;
+                }
+                long size = sizeOf(file);
+                if (!Files.deleteIfExists(file)) {
+                    continue;
+                }
+                total -= size;
+                deletedFiles.incrementAndGet();
+                deletedBytes.addAndGet(size);
+                log.info("Deleted session log {} to stay within the disk budget.", file);
+            }
+            if (total > budget) {
+                log.warn("Session logs use {} bytes, the budget is {} bytes. The logs being written are not deleted.", total, budget);
+            }
+        } catch (IOException e) {
+            log.error("Cannot apply the session log disk budget.", e);
+        }
+    }
+
+    /**
+     * @return size of the file or 0 when it was renamed or deleted after it was listed
+     */
+    private static long sizeOf(Path file) throws IOException {
+        try {
+            return Files.size(file);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.termserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Merges the small output chunks into websocket frames. A frame is emitted when it reaches maxFrameBytes, when its
+ * first chunk is older than maxDelayMillis, when a chunk matches the flush trigger (eg. the prompt) or on
+ * {@link #flush()}. Chunks are never split, so a frame may exceed maxFrameBytes by the size of the last chunk.
+ *
+ * With maxDelayMillis 0 the chunks are passed through.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class FrameCoalescer {
+
+    private final int maxFrameBytes;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Predicate<byte[]> flushTrigger;
+    private final Consumer<byte[]> frameConsumer;
+
+    private byte[] frame;
+    private int frameLength;
+    private long frameStartedNanos;
+    /**
+     * Identifies the frame a scheduled flush belongs to, so it does not cut a later frame short.
+     */
+    private long frameSequence;
+
+    private long chunks;
+    private long frames;
+    private long bytes;
+    private long sizeFlushes;
+    private long timerFlushes;
+    private long triggerFlushes;
+    private long totalDelayNanos;
+    private long maxDelayNanos;
+
+    public FrameCoalescer(
+            int maxFrameBytes,
+            long maxDelayMillis,
+            ScheduledExecutorService scheduler,
+            Predicate<byte[]> flushTrigger,
+            Consumer<byte[]> frameConsumer) {
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = scheduler;
+        this.flushTrigger = flushTrigger;
+        this.frameConsumer = frameConsumer;
+        this.frame = new byte[maxDelayMillis > 0 ? maxFrameBytes : 0];
+    }
+
+    public synchronized void write(byte[] chunk) {
+        chunks++;
+        if (maxDelayMillis <= 0) {
+            frames++;
+            bytes += chunk.length;
+            frameConsumer.accept(chunk);
+            return;
+        }
+        boolean trigger = flushTrigger.test(chunk);
+        if (frameLength == 0 && (trigger || chunk.length >= maxFrameBytes)) {
+            //nothing to merge with, no need to copy
+            frameStartedNanos = System.nanoTime();
+            emit(chunk, chunk.length);
+            countFlush(trigger);
+            return;
+        }
+        if (frameLength == 0) {
+            frameStartedNanos = System.nanoTime();
+            long sequence = frameSequence;
+            try {
+                scheduler.schedule(() -> flushScheduled(sequence), maxDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                trigger = true;
+            }
+        }
+        append(chunk);
+        if (trigger || frameLength >= maxFrameBytes) {
+            emitFrame();
+            countFlush(trigger);
+        }
+    }
+
+    /**
+     * Emits the pending output immediately.
+     */
+    public synchronized void flush() {
+        if (frameLength > 0) {
+            emitFrame();
+            triggerFlushes++;
+        }
+    }
+
+    private synchronized void flushScheduled(long sequence) {
+        if (sequence == frameSequence && frameLength > 0) {
+            emitFrame();
+            timerFlushes++;
+        }
+    }
+
+    private void append(byte[] chunk) {
+        if (frameLength + chunk.length > frame.length) {
+            byte[] grown = new byte[Math.max(frame.length * 2, frameLength + chunk.length)];
+            System.arraycopy(frame, 0, grown, 0, frameLength);
+            frame = grown;
+        }
+        System.arraycopy(chunk, 0, frame, frameLength, chunk.length);
+        frameLength += chunk.length;
+    }
+
+    private void emitFrame() {
+        //the consumer may keep the reference (async websocket send), a copy is handed over
+        byte[] out = new byte[frameLength];
+        System.arraycopy(frame, 0, out, 0, frameLength);
+        frameLength = 0;
+        if (frame.length > maxFrameBytes) {
+            frame = new byte[maxFrameBytes];
+        }
+        emit(out, out.length);
+    }
+
+    private void emit(byte[] out, int length) {
+        frameSequence++;
+        frames++;
+        bytes += length;
+        long delay = System.nanoTime() - frameStartedNanos;
+        totalDelayNanos += delay;
+        maxDelayNanos = Math.max(maxDelayNanos, delay);
+        frameConsumer.accept(out);
+    }
+
+    private void countFlush(boolean trigger) {
+        if (trigger) {
+            triggerFlushes++;
+        } else {
+            sizeFlushes++;
+        }
+    }
+
+    public synchronized Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("chunks", chunks);
+        counters.put("frames", frames);
+        counters.put("frameBytes", bytes);
+        counters.put("sizeFlushes", sizeFlushes);
+        counters.put("timerFlushes", timerFlushes);
+        counters.put("triggerFlushes", triggerFlushes);
+        counters.put("avgFrameDelayMicros", frames == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalDelayNanos / frames));
+        counters.put("maxFrameDelayMicros", TimeUnit.NANOSECONDS.toMicros(maxDelayNanos));
+        return counters;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.termserver;
+
+/**
+ * What to do when a read-only viewer does not consume the output fast enough and its buffered output reaches the
+ * limit.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the oldest frames not yet handed to the websocket.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Replace all the frames not yet handed to the websocket with a single "skipped N bytes" marker.
+     */
+    COALESCE,
+
+    /**
+     * Close the viewer connection.
+     */
+    DISCONNECT;
+}
@@ -18,27 +18,84 @@
 
 package org.jboss.pnc.buildagent.server.termserver;
 
+import io.undertow.websockets.core.CloseMessage;
+import io.undertow.websockets.core.WebSocketCallback;
 import io.undertow.websockets.core.WebSocketChannel;
 import io.undertow.websockets.core.WebSockets;
 import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.output.MeteredChannel;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
  */
-public class ReadOnlyWebSocketChannel implements ReadOnlyChannel {
+public class ReadOnlyWebSocketChannel implements ReadOnlyChannel, MeteredChannel {
+
+    private static final byte[] COMMAND_FINISHED = Term.COMMAND_FINISHED.getBytes(StandardCharsets.UTF_8);
 
     private WebSocketChannel webSocketChannel;
+    private final ViewerSendBuffer sendBuffer;
+    private final FrameCoalescer frameCoalescer;
 
-    public ReadOnlyWebSocketChannel(WebSocketChannel webSocketChannel) {
+    public ReadOnlyWebSocketChannel(
+            WebSocketChannel webSocketChannel,
+            OverflowPolicy overflowPolicy,
+            long maxBufferedBytes,
+            ScheduledExecutorService scheduler,
+            int frameMaxBytes,
+            long frameMaxDelayMillis) {
         this.webSocketChannel = webSocketChannel;
+        this.sendBuffer = new ViewerSendBuffer(
+                new ViewerSendBuffer.Transport() {
+                    @Override
+                    public void send(ByteBuffer frame, WebSocketCallback<Void> callback) {
+                        WebSockets.sendBinary(frame, webSocketChannel, callback);
+                    }
+
+                    @Override
+                    public void close(String reason) {
+                        WebSockets.sendClose(CloseMessage.GOING_AWAY, reason, webSocketChannel, null);
+                    }
+                },
+                overflowPolicy,
+                maxBufferedBytes,
+                "\r\n[Skipped %d bytes of output.]\r\n");
+        this.frameCoalescer = new FrameCoalescer(
+                frameMaxBytes,
+                frameMaxDelayMillis,
+                scheduler,
+                ReadOnlyWebSocketChannel::isCommandFinished,
+                sendBuffer::send);
+    }
+
+    private static boolean isCommandFinished(byte[] chunk) {
+        if (chunk.length < COMMAND_FINISHED.length) {
+            return false;
+        }
+        for (int i = 0; i < COMMAND_FINISHED.length; i++) {
+            if (chunk[i] != COMMAND_FINISHED[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public void writeOutput(byte[] buffer) {
-        WebSockets.sendBinary(ByteBuffer.wrap(buffer), webSocketChannel, null);
+        frameCoalescer.write(buffer);
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>(sendBuffer.getCounters());
+        counters.putAll(frameCoalescer.getCounters());
+        return counters;
     }
 
     @Override
@@ -48,11 +105,13 @@ public class ReadOnlyWebSocketChannel implements ReadOnlyChannel {
 
     @Override
     public void flush() throws IOException {
+        frameCoalescer.flush();
         webSocketChannel.flush();
     }
 
     @Override
     public void close() throws IOException {
+        frameCoalescer.flush();
         webSocketChannel.sendClose();
     }
 }
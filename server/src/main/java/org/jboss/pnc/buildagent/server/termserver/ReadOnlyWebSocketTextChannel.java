@@ -18,43 +18,103 @@
 
 package org.jboss.pnc.buildagent.server.termserver;
 
+import io.undertow.websockets.core.CloseMessage;
 import io.undertow.websockets.core.WebSocketCallback;
 import io.undertow.websockets.core.WebSocketChannel;
 import io.undertow.websockets.core.WebSockets;
-import org.jboss.pnc.buildagent.common.StringLiner;
+import org.jboss.pnc.buildagent.common.Utf8Liner;
 import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.output.MeteredChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.Flushable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
  */
-public class ReadOnlyWebSocketTextChannel implements ReadOnlyChannel {
+public class ReadOnlyWebSocketTextChannel implements ReadOnlyChannel, MeteredChannel {
 
     private static final Logger log = LoggerFactory.getLogger(ReadOnlyWebSocketTextChannel.class);
 
-    private WebSocketChannel webSocketChannel;
-    private final StringLiner stringLiner = new StringLiner();
+    /**
+     * Longer lines are sent in multiple messages.
+     */
+    static final int MAX_LINE_BYTES = 64 * 1024;
 
-    public ReadOnlyWebSocketTextChannel(WebSocketChannel webSocketChannel) {
-        this.webSocketChannel = webSocketChannel;
+    /**
+     * Guarded by itself, the output is written by the producer while the flush and close come from other threads.
+     */
+    private final Utf8Liner liner = new Utf8Liner(MAX_LINE_BYTES, this::sendLine);
+    private final ViewerSendBuffer sendBuffer;
+    private final Flushable webSocketFlusher;
+    private final Closeable webSocketCloser;
+
+    public ReadOnlyWebSocketTextChannel(
+            WebSocketChannel webSocketChannel,
+            OverflowPolicy overflowPolicy,
+            long maxBufferedBytes) {
+        this(new ViewerSendBuffer(
+                new ViewerSendBuffer.Transport() {
+                    @Override
+                    public void send(ByteBuffer frame, WebSocketCallback<Void> callback) {
+                        WebSockets.sendText(frame, webSocketChannel, callback);
+                    }
+
+                    @Override
+                    public void close(String reason) {
+                        WebSockets.sendClose(CloseMessage.GOING_AWAY, reason, webSocketChannel, null);
+                    }
+                },
+                overflowPolicy,
+                maxBufferedBytes,
+                "[Skipped %d bytes of output.]"),
+                webSocketChannel::flush,
+                webSocketChannel::sendClose);
+    }
+
+    ReadOnlyWebSocketTextChannel(ViewerSendBuffer sendBuffer, Flushable webSocketFlusher, Closeable webSocketCloser) {
+        this.sendBuffer = sendBuffer;
+        this.webSocketFlusher = webSocketFlusher;
+        this.webSocketCloser = webSocketCloser;
     }
 
     @Override
     public void writeOutput(byte[] buffer) {
-        String string = new String(buffer, StandardCharsets.UTF_8);
-        log.trace("Appending to message [{}], raw [{}]", string, buffer);
-        stringLiner.append(string);
-        String line;
-        while ((line = stringLiner.nextLine()) != null) {
-            log.trace("Sending message [{}]", line);
-            WebSockets.sendText(line, webSocketChannel, new WebSocketCallbackHandler());
+        log.trace("Appending to message, raw [{}]", buffer);
+        synchronized (liner) {
+            liner.append(buffer);
+        }
+    }
+
+    private void sendLine(byte[] bytes, int offset, int length) {
+        if (log.isTraceEnabled()) {
+            log.trace("Sending message [{}]", new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+        //the liner reuses its buffer
+        sendBuffer.send(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    /**
+     * Sends the buffered unterminated line, it would be lost on close otherwise.
+     */
+    private void drainLiner() {
+        synchronized (liner) {
+            liner.flush();
         }
     }
 
+    @Override
+    public Map<String, Long> getCounters() {
+        return sendBuffer.getCounters();
+    }
+
     @Override
     public boolean isPrimary() {
         return false;
@@ -62,22 +122,13 @@ public class ReadOnlyWebSocketTextChannel implements ReadOnlyChannel {
 
     @Override
     public void flush() throws IOException {
-        webSocketChannel.flush();
+        drainLiner();
+        webSocketFlusher.flush();
     }
 
     @Override
     public void close() throws IOException {
-        webSocketChannel.sendClose();
-    }
-
-    private static class WebSocketCallbackHandler implements WebSocketCallback  {
-        @Override
-        public void complete(WebSocketChannel webSocketChannel, Object o) {
-        }
-
-        @Override
-        public void onError(WebSocketChannel webSocketChannel, Object o, Throwable throwable) {
-            log.error("Error sending to WebSocket channel.", throwable);
-        }
+        drainLiner();
+        webSocketCloser.close();
     }
 }
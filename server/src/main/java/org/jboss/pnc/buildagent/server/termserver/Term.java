@@ -29,18 +29,23 @@ import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
 import io.undertow.websockets.core.CloseMessage;
 import io.undertow.websockets.core.WebSocketChannel;
 import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
 import org.jboss.pnc.buildagent.api.ResponseMode;
 import org.jboss.pnc.buildagent.api.TaskStatusUpdateEvent;
 import org.jboss.pnc.buildagent.common.Arrays;
-import org.jboss.pnc.buildagent.common.function.ThrowingConsumer;
-import org.jboss.pnc.buildagent.common.security.Md5;
+import org.jboss.pnc.buildagent.server.Options;
 import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.output.LineSubscription;
+import org.jboss.pnc.buildagent.server.output.OutputDigest;
+import org.jboss.pnc.buildagent.server.output.OutputDispatcher;
+import org.jboss.pnc.buildagent.server.output.ScrollbackBuffer;
+import org.jboss.pnc.buildagent.server.output.SecretMasker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -56,6 +61,8 @@ public class Term {
 
     private Logger log = LoggerFactory.getLogger(Term.class);
 
+    static final String COMMAND_FINISHED = "% # Command finished with status: ";
+
     final String context;
     private Runnable onDestroy;
     final Set<TaskStatusUpdateListener> statusUpdateListeners = new CopyOnWriteArraySet<>();
@@ -63,25 +70,48 @@ public class Term {
     private boolean activeCommand;
 
     CompleteHandler completeHandle = new CompleteHandler();
-    private Md5 stdoutChecksum;
+    private final OutputDigest outputDigest;
 
 
     private final Set<ReadOnlyChannel> readOnlyChannels = new CopyOnWriteArraySet<>();
-
-    public Term(String context, Runnable onDestroy, ScheduledExecutorService executor, Set<ReadOnlyChannel> readOnlyChannels) {
+    private final OutputDispatcher outputDispatcher;
+    private final Options options;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Guards the scrollback and the live channels, so a new viewer gets the recent output without a gap or a
+     * duplicate.
+     */
+    private final Object outputLock = new Object();
+    private ScrollbackBuffer scrollback;
+    /** Null when there are no secrets to mask, used holding the output lock. */
+    private final SecretMasker secretMasker;
+
+    public Term(
+            String context,
+            Runnable onDestroy,
+            ScheduledExecutorService executor,
+            Set<ReadOnlyChannel> readOnlyChannels,
+            OutputDispatcher outputDispatcher,
+            Options options) {
         this.context = context;
         this.onDestroy = onDestroy;
-        this.readOnlyChannels.addAll(readOnlyChannels);
+        this.outputDispatcher = outputDispatcher;
+        this.options = options;
+        this.executor = executor;
+        this.readOnlyChannels.addAll(outputDispatcher.dispatch(readOnlyChannels, context));
+        this.scrollback = outputDispatcher.acquireScrollback(context);
 
         Runnable onStdOutCompleted = () -> {
             completeHandle.setStdoutCompletedAndRun();
         };
-        webSocketTtyConnection = new WebSocketTtyConnection(executor, onStdOutCompleted);
-        try {
-            stdoutChecksum = new Md5();
-        } catch (NoSuchAlgorithmException e) {
-            log.error("Cannot instantiate new Term.", e);
-        }
+        webSocketTtyConnection = new WebSocketTtyConnection(
+                executor,
+                onStdOutCompleted,
+                options.getFrameMaxBytes(),
+                options.getFrameMaxDelayMillis());
+        outputDigest = outputDispatcher.openDigest(context);
+        secretMasker = outputDispatcher.openSecretMasker(Collections.emptyList());
         log.debug("Created new Term: {}.", this);
     }
 
@@ -115,34 +145,43 @@ public class Term {
     public Consumer<PtyMaster> onTaskCreated() {
         return (ptyMaster) -> {
             ptyMaster.setChangeHandler((oldStatus, newStatus) -> {
-                String logDigest;
+                Map<String, String> logDigests;
                 if (newStatus.isFinal()) {
                     writeCompletedToReadonlyChannel(newStatus);
-                    logDigest = stdoutChecksum.digest();
+                    logDigests = completeOutputDigest();
                 } else {
-                    logDigest = "";
+                    logDigests = Collections.emptyMap();
                 }
                 notifyStatusUpdated(
-                        new TaskStatusUpdateEvent(
-                                "" + ptyMaster.getId(),
-                                StatusConverter.fromTermdStatus(oldStatus),
-                                StatusConverter.fromTermdStatus(newStatus),
-                                context,
-                                logDigest)
+                        TaskStatusUpdateEvent.newBuilder()
+                                .taskId("" + ptyMaster.getId())
+                                .oldStatus(StatusConverter.fromTermdStatus(oldStatus))
+                                .newStatus(StatusConverter.fromTermdStatus(newStatus))
+                                .context(context)
+                                .outputChecksum(logDigests.get(OutputDispatcher.LEGACY_CHECKSUM_ALGORITHM))
+                                .outputChecksums(logDigests)
+                                .build()
                 );
             });
         };
     }
 
+    private Map<String, String> completeOutputDigest() {
+        try {
+            return outputDigest.digest();
+        } catch (IOException e) {
+            log.error("Cannot complete output digest.", e);
+            return Collections.emptyMap();
+        }
+    }
+
     void notifyStatusUpdated(TaskStatusUpdateEvent event) {
         if (event.getNewStatus().isFinal()) {
             activeCommand = false;
             log.debug("Command [context:{} taskId:{}] execution completed with status {}.", event.getContext(), event.getTaskId(), event.getNewStatus());
 
             try {
-                readOnlyChannels.stream()
-                        .filter(ch -> ch.isPrimary())
-                        .forEach(ThrowingConsumer.wrap(ch -> ch.flush()));
+                outputDispatcher.flushPrimary(readOnlyChannels);
             } catch (Exception e) {
                 log.error("Cannot flush primary RO channel.", e);
                 event = TaskStatusUpdateEvent.newBuilder()
@@ -174,13 +213,22 @@ public class Term {
     }
 
     private void writeCompletedToReadonlyChannel(Status newStatus) {
-        String completed = "% # Command finished with status: " + newStatus + "\n";
-        writeToChannels(completed.getBytes(StandardCharsets.UTF_8));
+        String completed = COMMAND_FINISHED + newStatus + "\n";
+        synchronized (outputLock) {
+            //the output held as a possible beginning of a secret goes before the marker, the marker is not masked
+            if (secretMasker != null) {
+                write(secretMasker.drain());
+            }
+            write(completed.getBytes(StandardCharsets.UTF_8));
+        }
     }
 
     private void destroyIfInactiveAndDisconnected() {
         if (!activeCommand && !webSocketTtyConnection.isOpen()) {
             log.info("Destroying Term as there is no running command and no active connection.");
+            readOnlyChannels.forEach(outputDispatcher::release);
+            outputDispatcher.releaseDigest(outputDigest);
+            releaseScrollback();
             onDestroy.run();
         }
     }
@@ -201,18 +249,17 @@ public class Term {
                 });
                 initializeTtyBridge();
             } else {
-                ReadOnlyChannel readOnlyChannel;
-                if (responseMode.equals(ResponseMode.TEXT)) {
-                    log.info("Adding new readonly text consumer connection from remote address {} to context [{}].", webSocketChannel.getSourceAddress().toString(), context);
-                    readOnlyChannel = new ReadOnlyWebSocketTextChannel(webSocketChannel);
-                } else {
-                    log.info("Adding new readonly binary consumer connection from remote address {} to context [{}].", webSocketChannel.getSourceAddress().toString(), context);
-                    readOnlyChannel = new ReadOnlyWebSocketChannel(webSocketChannel);
+                log.info("Adding new readonly {} consumer connection from remote address {} to context [{}].", responseMode, webSocketChannel.getSourceAddress().toString(), context);
+                ReadOnlyChannel viewer = newViewerChannel(exchange, webSocketChannel, responseMode, options, executor);
+                if (viewer == null) {
+                    return;
                 }
-                readOnlyChannels.add(readOnlyChannel);
+                ReadOnlyChannel readOnlyChannel = outputDispatcher.dispatch(viewer, context);
+                attach(readOnlyChannel);
                 webSocketChannel.addCloseTask((task) -> {
                     log.debug("Removing RO channel: {}.", readOnlyChannel);
                     readOnlyChannels.remove(readOnlyChannel);
+                    outputDispatcher.release(readOnlyChannel);
                     destroyIfInactiveAndDisconnected();
                 });
             }
@@ -220,6 +267,91 @@ public class Term {
         return new WebSocketProtocolHandshakeHandler(onWebSocketConnected);
     }
 
+    /**
+     * Creates the channel sending the output to a read-only websocket viewer, only the lines of the
+     * {@link LineSubscription} are sent when the handshake requested it. The connection is closed when the
+     * subscription is not valid.
+     *
+     * @return the viewer channel or null when the connection was rejected
+     */
+    public static ReadOnlyChannel newViewerChannel(
+            WebSocketHttpExchange exchange,
+            WebSocketChannel webSocketChannel,
+            ResponseMode responseMode,
+            Options options,
+            ScheduledExecutorService executor) {
+        LineSubscription subscription;
+        try {
+            subscription = LineSubscription.fromParameters(exchange.getRequestParameters());
+        } catch (IllegalArgumentException e) {
+            webSocketChannel.setCloseReason(e.getMessage());
+            try {
+                webSocketChannel.sendClose();
+            } catch (IOException closeException) {
+                LoggerFactory.getLogger(Term.class).warn("Cannot reject connection.", closeException);
+            }
+            return null;
+        }
+        ReadOnlyChannel viewer = newViewerChannel(webSocketChannel, responseMode, options, executor);
+        if (subscription != null) {
+            return subscription.subscribe(viewer);
+        }
+        return viewer;
+    }
+
+    /**
+     * The replay to a new viewer takes at most half of its buffer, the other half takes the live output written while
+     * the replay is being sent. A longer replay would overflow the buffer of every late joiner.
+     */
+    public static long maxReplayBytes(Options options) {
+        return options.getViewerMaxBufferedBytes() / 2;
+    }
+
+    /**
+     * Creates the channel sending the output to a read-only websocket viewer.
+     */
+    public static ReadOnlyChannel newViewerChannel(
+            WebSocketChannel webSocketChannel,
+            ResponseMode responseMode,
+            Options options,
+            ScheduledExecutorService executor) {
+        if (responseMode.equals(ResponseMode.TEXT)) {
+            return new ReadOnlyWebSocketTextChannel(
+                    webSocketChannel,
+                    options.getViewerOverflowPolicy(),
+                    options.getViewerMaxBufferedBytes());
+        } else {
+            return new ReadOnlyWebSocketChannel(
+                    webSocketChannel,
+                    options.getViewerOverflowPolicy(),
+                    options.getViewerMaxBufferedBytes(),
+                    executor,
+                    options.getFrameMaxBytes(),
+                    options.getFrameMaxDelayMillis());
+        }
+    }
+
+    /**
+     * Sends the scrollback to the channel and adds it to the live channels.
+     */
+    private void attach(ReadOnlyChannel readOnlyChannel) {
+        synchronized (outputLock) {
+            if (scrollback != null) {
+                long replayBytes = Math.min(scrollback.getRetainedBytes(), maxReplayBytes(options));
+                log.debug("Replaying {} bytes of scrollback to {}.", replayBytes, readOnlyChannel);
+                scrollback.replayTo(readOnlyChannel, replayBytes);
+            }
+            readOnlyChannels.add(readOnlyChannel);
+        }
+    }
+
+    private void releaseScrollback() {
+        synchronized (outputLock) {
+            outputDispatcher.releaseScrollback(scrollback);
+            scrollback = null;
+        }
+    }
+
     public HttpHandler webSocketStatusUpdateHandler() {
         WebSocketConnectionCallback webSocketConnectionCallback = (exchange, webSocketChannel) -> {
             Consumer<TaskStatusUpdateEvent> eventConsumer = event -> {
@@ -266,11 +398,26 @@ public class Term {
         writeToChannels(buffer);
     }
 
-    private void writeToChannels(byte[] bytes) {
-        stdoutChecksum.add(bytes);
+    private void writeToChannels(byte[] output) {
+        synchronized (outputLock) {
+            write(secretMasker == null ? output : secretMasker.mask(output));
+        }
+    }
+
+    /**
+     * Called holding the output lock.
+     */
+    private void write(byte[] bytes) {
+        if (bytes.length == 0) {
+            return;
+        }
         if (log.isTraceEnabled()) {
             log.trace("Writing data: {}", new String(bytes, StandardCharsets.UTF_8));
         }
+        outputDigest.add(bytes);
+        if (scrollback != null) {
+            scrollback.append(bytes);
+        }
         for (ReadOnlyChannel readOnlyChannel : readOnlyChannels) {
             if (log.isTraceEnabled()) {
                 log.trace("   to chanel {}", readOnlyChannel);
@@ -279,9 +426,19 @@ public class Term {
         }
     }
 
+    /**
+     * @return frame coalescing counters of the master connection
+     */
+    public Map<String, Long> getFrameCounters() {
+        return webSocketTtyConnection.getFrameCounters();
+    }
+
     public void close() {
         log.info("Closing Term {}.", context);
         webSocketTtyConnection.close();
+        readOnlyChannels.forEach(outputDispatcher::release);
+        outputDispatcher.releaseDigest(outputDigest);
+        releaseScrollback();
     }
 
     private class CompleteHandler {
@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2021 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.pnc.buildagent.server.termserver;
+
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounds the memory held for a single read-only viewer. Frames are handed to the websocket only while less than
+ * {@link #SEND_WINDOW} bytes are being written, the rest wait in a local queue. When the bytes waiting and being
+ * written exceed the limit the {@link OverflowPolicy} is applied to the waiting frames.
+ *
+ * The transport is called without holding the monitor, its callbacks might need a lock the sending thread holds.
+ *
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+class ViewerSendBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(ViewerSendBuffer.class);
+
+    static final int SEND_WINDOW = 64 * 1024;
+
+    private final Transport transport;
+    private final OverflowPolicy policy;
+    private final long maxBufferedBytes;
+    private final String skippedMarkerFormat;
+
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    private long pendingBytes;
+    private long inFlightBytes;
+    private long skippedBytes;
+    private boolean sending;
+    private boolean closed;
+
+    private long sentFrames;
+    private long sentBytes;
+    private long droppedFrames;
+    private long droppedBytes;
+    private long skippedMarkers;
+    private long disconnects;
+
+    /**
+     * @param skippedMarkerFormat format of the frame sent in place of the coalesced ones, the only argument is the
+     *            number of skipped bytes
+     */
+    ViewerSendBuffer(Transport transport, OverflowPolicy policy, long maxBufferedBytes, String skippedMarkerFormat) {
+        this.transport = transport;
+        this.policy = policy;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.skippedMarkerFormat = skippedMarkerFormat;
+    }
+
+    void send(byte[] frame) {
+        boolean disconnect;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            pending.add(frame);
+            pendingBytes += frame.length;
+            if (pendingBytes + inFlightBytes > maxBufferedBytes) {
+                onOverflow();
+            }
+            disconnect = closed;
+        }
+        if (disconnect) {
+            transport.close("Output buffer limit exceeded.");
+            return;
+        }
+        sendPending();
+    }
+
+    /**
+     * Called holding the monitor.
+     */
+    private void onOverflow() {
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!pending.isEmpty() && pendingBytes + inFlightBytes > maxBufferedBytes) {
+                    drop(pending.poll());
+                }
+                break;
+            case COALESCE:
+                while (!pending.isEmpty()) {
+                    byte[] frame = pending.poll();
+                    drop(frame);
+                    skippedBytes += frame.length;
+                }
+                break;
+            case DISCONNECT:
+                while (!pending.isEmpty()) {
+                    drop(pending.poll());
+                }
+                closed = true;
+                disconnects++;
+                log.warn("Disconnecting read-only viewer, more than {} bytes of output is buffered.", maxBufferedBytes);
+                break;
+        }
+    }
+
+    private void drop(byte[] frame) {
+        pendingBytes -= frame.length;
+        droppedFrames++;
+        droppedBytes += frame.length;
+    }
+
+    /**
+     * A single thread hands the frames to the transport at a time, so they are sent in order. The transport may
+     * complete the callback in the calling thread or in another one while the frames are being sent, the flag
+     * prevents the recursion, the loop picks up the released window instead.
+     */
+    private void sendPending() {
+        synchronized (this) {
+            if (sending) {
+                return;
+            }
+            sending = true;
+        }
+        boolean completed = false;
+        try {
+            List<byte[]> frames;
+            while (!(frames = takeSendable()).isEmpty()) {
+                for (byte[] frame : frames) {
+                    transport.send(ByteBuffer.wrap(frame), new Callback(frame.length));
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                synchronized (this) {
+                    sending = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the frames fitting the send window, when there are none the sending flag is cleared
+     */
+    private synchronized List<byte[]> takeSendable() {
+        List<byte[]> frames = new ArrayList<>();
+        while (!closed && inFlightBytes < SEND_WINDOW) {
+            byte[] frame;
+            if (skippedBytes > 0) {
+                frame = String.format(skippedMarkerFormat, skippedBytes).getBytes(StandardCharsets.UTF_8);
+                skippedBytes = 0;
+                skippedMarkers++;
+            } else {
+                frame = pending.poll();
+                if (frame == null) {
+                    break;
+                }
+                pendingBytes -= frame.length;
+            }
+            inFlightBytes += frame.length;
+            sentFrames++;
+            sentBytes += frame.length;
+            frames.add(frame);
+        }
+        if (frames.isEmpty()) {
+            sending = false;
+        }
+        return frames;
+    }
+
+    private void onSent(int length) {
+        synchronized (this) {
+            inFlightBytes -= length;
+        }
+        sendPending();
+    }
+
+    synchronized Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("pendingBytes", pendingBytes);
+        counters.put("inFlightBytes", inFlightBytes);
+        counters.put("maxBufferedBytes", maxBufferedBytes);
+        counters.put("sentFrames", sentFrames);
+        counters.put("sentBytes", sentBytes);
+        counters.put("droppedFrames", droppedFrames);
+        counters.put("droppedBytes", droppedBytes);
+        counters.put("skippedMarkers", skippedMarkers);
+        counters.put("disconnects", disconnects);
+        return counters;
+    }
+
+    interface Transport {
+        void send(ByteBuffer frame, WebSocketCallback<Void> callback);
+
+        void close(String reason);
+    }
+
+    private class Callback implements WebSocketCallback<Void> {
+        private final int length;
+
+        Callback(int length) {
+            this.length = length;
+        }
+
+        @Override
+        public void complete(WebSocketChannel channel, Void context) {
+            onSent(length);
+        }
+
+        @Override
+        public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+            log.warn("Error sending to read-only viewer.", throwable);
+            onSent(length);
+        }
+    }
+}
@@ -35,6 +35,8 @@ import org.xnio.Pooled;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -46,6 +48,8 @@ public class WebSocketTtyConnection extends HttpTtyConnection implements TtyConn
 
     private static Logger log = LoggerFactory.getLogger(WebSocketTtyConnection.class);
 
+    private static final byte[] PROMPT = "% ".getBytes(StandardCharsets.UTF_8);
+
     private WebSocketChannel webSocketChannel;
     private ResponseMode responseMode;
     private final ScheduledExecutorService executor;
@@ -54,13 +58,37 @@ public class WebSocketTtyConnection extends HttpTtyConnection implements TtyConn
 
     private boolean logged;
 
-    public WebSocketTtyConnection(ScheduledExecutorService executor, Runnable onStdOutCompleted) {
+    private final FrameCoalescer frameCoalescer;
+
+    /**
+     * @param frameMaxBytes max size of a merged output frame
+     * @param frameMaxDelayMillis max time the output waits to be merged, 0 sends each output chunk immediately
+     */
+    public WebSocketTtyConnection(
+            ScheduledExecutorService executor,
+            Runnable onStdOutCompleted,
+            int frameMaxBytes,
+            long frameMaxDelayMillis) {
         super(StandardCharsets.UTF_8, new Vector(Integer.MAX_VALUE, Integer.MAX_VALUE));
         this.executor = executor;
         this.onStdOutCompleted = onStdOutCompleted;
+        this.frameCoalescer = new FrameCoalescer(
+                frameMaxBytes,
+                frameMaxDelayMillis,
+                executor,
+                chunk -> Arrays.equals(chunk, PROMPT),
+                this::send);
     }
 
     protected void write(byte[] buffer) {
+        frameCoalescer.write(buffer);
+        if (Arrays.equals(buffer, PROMPT)) {
+            log.info("Prompt ready.");
+            onStdOutCompleted.run();
+        }
+    }
+
+    private void send(byte[] buffer) {
         if (isOpen()) {
             if (ResponseMode.TEXT.equals(responseMode)) {
                 WebSockets.sendText(new String(buffer, StandardCharsets.UTF_8), webSocketChannel, null);
@@ -73,10 +101,10 @@ public class WebSocketTtyConnection extends HttpTtyConnection implements TtyConn
                 log.error("Invalid response mode.");
             }
         }
-        if (new String(buffer).equals("% ")) {
-            log.info("Prompt ready.");
-            onStdOutCompleted.run();
-        }
+    }
+
+    public Map<String, Long> getFrameCounters() {
+        return frameCoalescer.getCounters();
     }
 
     private void logOnce(String message) {
@@ -145,6 +173,7 @@ public class WebSocketTtyConnection extends HttpTtyConnection implements TtyConn
     @Override
     public void close() {
         log.info("Closing WebSocketTtyConnection.");
+        frameCoalescer.flush();
         if (webSocketChannel != null && webSocketChannel.isOpen()) {
             try {
                 webSocketChannel.sendClose();
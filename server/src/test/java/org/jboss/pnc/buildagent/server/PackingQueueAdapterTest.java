@@ -0,0 +1,139 @@
+package org.jboss.pnc.buildagent.server;
+
+import org.jboss.pnc.buildagent.server.logging.performance.NoOpQueueAdapter;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class PackingQueueAdapterTest {
+
+    private static final Logger log = LoggerFactory.getLogger(PackingQueueAdapterTest.class);
+
+    @Test
+    public void shouldPackLinesUpToMaxLines() {
+        CollectingQueueAdapter delegate = new CollectingQueueAdapter();
+        PackingQueueAdapter adapter = new PackingQueueAdapter(delegate, 2, 1024);
+
+        adapter.sendBatch(Arrays.asList("a", "b\"\n", "c"), (e) -> {});
+        adapter.send("d", (e) -> {});
+
+        Assert.assertEquals(
+                Arrays.asList(
+                        "{\"lines\":[\"a\",\"b\\\"\\n\"]}",
+                        "{\"lines\":[\"c\"]}",
+                        "{\"lines\":[\"d\"]}"),
+                delegate.records);
+        Assert.assertEquals(2, delegate.batches);
+    }
+
+    @Test
+    public void shouldPackLinesUpToMaxBytes() {
+        CollectingQueueAdapter delegate = new CollectingQueueAdapter();
+        PackingQueueAdapter adapter = new PackingQueueAdapter(delegate, 100, 100);
+        char[] chars = new char[60];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+
+        adapter.sendBatch(Arrays.asList("a", "b", large, large, "ž", large + large), (e) -> {});
+
+        Assert.assertEquals(3, delegate.records.size());
+        for (String record : delegate.records.subList(0, 2)) {
+            Assert.assertTrue(record, record.getBytes(StandardCharsets.UTF_8).length <= 100);
+        }
+        Assert.assertTrue(delegate.records.get(0).contains("\"a\"") && delegate.records.get(0).contains("\"b\""));
+        Assert.assertTrue(delegate.records.get(1).contains("\"ž\""));
+        //a line over the limit is sent alone
+        Assert.assertEquals("{\"lines\":[\"" + large + large + "\"]}", delegate.records.get(2));
+    }
+
+    @Test
+    public void shouldEmbedFormattedJsonLines() {
+        CollectingQueueAdapter delegate = new CollectingQueueAdapter();
+        PackingQueueAdapter adapter = new PackingQueueAdapter(delegate, 10, 1024);
+
+        adapter.sendBatch(Arrays.asList(
+                "{\"message\":\"a \\\"quoted\\\"\",\"sequence\":7}\n",
+                "{\"message\":\"b\",\"sequence\":8}"), (e) -> {});
+
+        Assert.assertEquals(
+                Collections.singletonList("{\"lines\":[{\"message\":\"a \\\"quoted\\\"\",\"sequence\":7},"
+                        + "{\"message\":\"b\",\"sequence\":8}]}"),
+                delegate.records);
+    }
+
+    @Test
+    public void shouldReportBatchFailureOnce() {
+        List<Exception> exceptions = new ArrayList<>();
+        QueueAdapter failing = new NoOpQueueAdapter() {
+            @Override
+            public void send(String message, Consumer<Exception> exceptionHandler) {
+                exceptionHandler.accept(new IllegalStateException("Cannot send " + message + "."));
+            }
+        };
+        failing.sendBatch(Arrays.asList("a", "b", "c"), exceptions::add);
+        Assert.assertEquals(1, exceptions.size());
+        Assert.assertEquals("Cannot send a.", exceptions.get(0).getMessage());
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void packingBenchmark() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            lines.add("{\"timestamp\":\"2021-06-01T10:00:00.000Z\",\"level\":\"INFO\",\"message\":\"[INFO] Running "
+                    + "org.jboss.pnc.SomeTest " + i + "\"}");
+        }
+        int batches = 100_000;
+        for (int maxLines : new int[] {1, 10, 100}) {
+            CountingQueueAdapter delegate = new CountingQueueAdapter();
+            QueueAdapter adapter = maxLines == 1 ? delegate : new PackingQueueAdapter(delegate, maxLines, 262144);
+            for (int round = 0; round < 3; round++) {
+                delegate.records = 0;
+                long started = System.nanoTime();
+                for (int i = 0; i < batches; i++) {
+                    adapter.sendBatch(lines, (e) -> {});
+                }
+                long took = System.nanoTime() - started;
+                log.info("Max lines {}: {} records for {} lines, {} lines/s.",
+                        maxLines, delegate.records, batches * lines.size(),
+                        batches * lines.size() * 1_000_000_000L / took);
+            }
+        }
+    }
+
+    private static class CollectingQueueAdapter extends NoOpQueueAdapter {
+        private final List<String> records = new ArrayList<>();
+        private int batches;
+
+        @Override
+        public void send(String message, Consumer<Exception> exceptionHandler) {
+            sendBatch(Collections.singletonList(message), exceptionHandler);
+        }
+
+        @Override
+        public void sendBatch(List<String> messages, Consumer<Exception> exceptionHandler) {
+            records.addAll(messages);
+            batches++;
+        }
+    }
+
+    private static class CountingQueueAdapter extends NoOpQueueAdapter {
+        private long records;
+
+        @Override
+        public void send(String message, Consumer<Exception> exceptionHandler) {
+            records++;
+        }
+    }
+}
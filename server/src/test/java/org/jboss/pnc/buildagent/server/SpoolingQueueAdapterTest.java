@@ -0,0 +1,253 @@
+package org.jboss.pnc.buildagent.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class SpoolingQueueAdapterTest {
+
+    @Test(timeout = 30000)
+    public void shouldSpoolWhileDelegateIsBlockedAndKeepOrder() throws Exception {
+        Path dir = Files.createTempDirectory("queue-spool");
+        Path queueFile = dir.resolve("queue.log");
+        CountDownLatch available = new CountDownLatch(1);
+        QueueAdapter delegate = new GatedQueueAdapter(new FileQueueAdapter(queueFile), available);
+        SpoolingQueueAdapter adapter = new SpoolingQueueAdapter(
+                delegate, dir.resolve("queue.spool"), 100, 10000, Long.MAX_VALUE, SpoolingQueueAdapter.Overflow.BLOCK);
+
+        int records = 0;
+        for (int batch = 0; batch < 100; batch++) {
+            List<String> messages = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                messages.add("line " + records++);
+            }
+            adapter.sendBatch(messages, (e) -> Assert.fail(e.getMessage()));
+        }
+        //the delegate is blocked, the records over the memory limit are in the spool
+        Assert.assertTrue(adapter.getSpooledRecords() > 0);
+
+        available.countDown();
+        adapter.flush();
+        Assert.assertEquals(0, adapter.getSpooledRecords());
+        assertLines(queueFile, records);
+        Assert.assertEquals(0, Files.size(dir.resolve("queue.spool")));
+        adapter.close();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldDeliverSpoolAfterRestart() throws Exception {
+        Path dir = Files.createTempDirectory("queue-spool");
+        Path spool = dir.resolve("queue.spool");
+        SpoolingQueueAdapter adapter = new SpoolingQueueAdapter(
+                unavailable(), spool, 0, 100, Long.MAX_VALUE, SpoolingQueueAdapter.Overflow.DROP_NEWEST);
+        for (int i = 0; i < 50; i++) {
+            adapter.send("line " + i, (e) -> {});
+        }
+        try {
+            adapter.flush();
+            Assert.fail("Flush must fail while the records are in the spool.");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(50, adapter.getSpooledRecords());
+        adapter.close();
+
+        //a partially written record is dropped on restart
+        Files.write(spool, new byte[] {0, 0, 1}, java.nio.file.StandardOpenOption.APPEND);
+
+        Path queueFile = dir.resolve("queue.log");
+        SpoolingQueueAdapter restarted = new SpoolingQueueAdapter(
+                new FileQueueAdapter(queueFile), spool, 0, 10000, Long.MAX_VALUE, SpoolingQueueAdapter.Overflow.DROP_NEWEST);
+        restarted.flush();
+        assertLines(queueFile, 50);
+        restarted.close();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldKeepRecordsUntilAcknowledged() throws Exception {
+        Path dir = Files.createTempDirectory("queue-spool");
+        Path queueFile = dir.resolve("queue.log");
+        AtomicInteger attempts = new AtomicInteger();
+        QueueAdapter delegate = new GatedQueueAdapter(new FileQueueAdapter(queueFile), new CountDownLatch(0)) {
+            @Override
+            public void sendAcknowledged(List<String> messages, Consumer<Exception> onCompletion) {
+                if (attempts.incrementAndGet() == 1) {
+                    //accepted by the producer, failed in the callback
+                    onCompletion.accept(new IOException("Record expired."));
+                } else {
+                    super.sendAcknowledged(messages, onCompletion);
+                }
+            }
+        };
+        SpoolingQueueAdapter adapter = new SpoolingQueueAdapter(
+                delegate, dir.resolve("queue.spool"), 0, 10000, Long.MAX_VALUE, SpoolingQueueAdapter.Overflow.DROP_NEWEST);
+        for (int i = 0; i < 20; i++) {
+            adapter.send("line " + i, (e) -> Assert.fail(e.getMessage()));
+        }
+        adapter.flush();
+        Assert.assertTrue(attempts.get() > 1);
+        Assert.assertEquals(0, adapter.getSpooledRecords());
+        assertLines(queueFile, 20);
+        adapter.close();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldRetryFailedMemoryBatch() throws Exception {
+        Path dir = Files.createTempDirectory("queue-spool");
+        Path queueFile = dir.resolve("queue.log");
+        QueueAdapter delegate = new FailingFirstBatchQueueAdapter(new FileQueueAdapter(queueFile), new CountDownLatch(0));
+        SpoolingQueueAdapter adapter = new SpoolingQueueAdapter(
+                delegate, dir.resolve("queue.spool"), 100, 10000, Long.MAX_VALUE, SpoolingQueueAdapter.Overflow.DROP_NEWEST);
+        for (int i = 0; i < 20; i++) {
+            adapter.send("line " + i, (e) -> Assert.fail(e.getMessage()));
+        }
+        adapter.flush();
+        assertLines(queueFile, 20);
+        adapter.close();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldRetryFailedMemoryBatchBeforeLaterSpooledRecords() throws Exception {
+        Path dir = Files.createTempDirectory("queue-spool");
+        Path queueFile = dir.resolve("queue.log");
+        CountDownLatch fail = new CountDownLatch(1);
+        FailingFirstBatchQueueAdapter delegate = new FailingFirstBatchQueueAdapter(new FileQueueAdapter(queueFile), fail);
+        SpoolingQueueAdapter adapter = new SpoolingQueueAdapter(
+                delegate, dir.resolve("queue.spool"), 10, 10000, Long.MAX_VALUE, SpoolingQueueAdapter.Overflow.DROP_NEWEST);
+        List<String> first = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            first.add("line " + i);
+        }
+        adapter.sendBatch(first, (e) -> Assert.fail(e.getMessage()));
+        delegate.delivering.await();
+        //spooled while the first batch is delivered
+        for (int i = 5; i < 30; i++) {
+            adapter.send("line " + i, (e) -> Assert.fail(e.getMessage()));
+        }
+        Assert.assertTrue(adapter.getSpooledRecords() > 0);
+        fail.countDown();
+        adapter.flush();
+        assertLines(queueFile, 30);
+        Assert.assertEquals(0, adapter.getDroppedRecords());
+        adapter.close();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldDropRecordsOverTheSpoolLimit() throws Exception {
+        Path dir = Files.createTempDirectory("queue-spool");
+        List<Exception> failures = new ArrayList<>();
+        //a record of 'line nn' takes 11 bytes
+        SpoolingQueueAdapter adapter = new SpoolingQueueAdapter(
+                unavailable(), dir.resolve("queue.spool"), 0, 100, 110, SpoolingQueueAdapter.Overflow.DROP_NEWEST);
+        for (int i = 10; i < 30; i++) {
+            adapter.send("line " + i, failures::add);
+        }
+        Assert.assertEquals(10, adapter.getSpooledRecords());
+        Assert.assertEquals(10, adapter.getDroppedRecords());
+        Assert.assertEquals(10, failures.size());
+        Assert.assertEquals(110, Files.size(dir.resolve("queue.spool")));
+        adapter.close();
+    }
+
+    private static QueueAdapter unavailable() {
+        return new GatedQueueAdapter(null, null) {
+            @Override
+            public void sendBatch(List<String> messages, Consumer<Exception> exceptionHandler) {
+                throw new IllegalStateException("Broker is not available.");
+            }
+        };
+    }
+
+    private static void assertLines(Path queueFile, int records) throws IOException {
+        List<String> lines = Files.readAllLines(queueFile, StandardCharsets.UTF_8);
+        Assert.assertEquals(records, lines.size());
+        for (int i = 0; i < records; i++) {
+            Assert.assertEquals("line " + i, lines.get(i));
+        }
+    }
+
+    /**
+     * Fails the first batch when the gate is opened, like a broker going down after the records were sent.
+     */
+    private static class FailingFirstBatchQueueAdapter extends GatedQueueAdapter {
+        private final CountDownLatch delivering = new CountDownLatch(1);
+        private final CountDownLatch fail;
+
+        FailingFirstBatchQueueAdapter(QueueAdapter delegate, CountDownLatch fail) {
+            super(delegate, new CountDownLatch(0));
+            this.fail = fail;
+        }
+
+        @Override
+        public void sendAcknowledged(List<String> messages, Consumer<Exception> onCompletion) {
+            if (delivering.getCount() > 0) {
+                delivering.countDown();
+                try {
+                    fail.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                onCompletion.accept(new IOException("Broker is not available."));
+            } else {
+                super.sendAcknowledged(messages, onCompletion);
+            }
+        }
+    }
+
+    /**
+     * Blocks the delivery until the gate is opened, like a producer with a full buffer.
+     */
+    private static class GatedQueueAdapter implements QueueAdapter {
+        private final QueueAdapter delegate;
+        private final CountDownLatch available;
+
+        GatedQueueAdapter(QueueAdapter delegate, CountDownLatch available) {
+            this.delegate = delegate;
+            this.available = available;
+        }
+
+        @Override
+        public void send(String message, Consumer<Exception> exceptionHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendBatch(List<String> messages, Consumer<Exception> exceptionHandler) {
+            try {
+                available.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delegate.sendBatch(messages, exceptionHandler);
+        }
+
+        @Override
+        public void flush() {
+            delegate.flush();
+        }
+
+        @Override
+        public void close(Duration duration) {
+            delegate.close(duration);
+        }
+
+        @Override
+        public void close() {
+            if (delegate != null) {
+                delegate.close();
+            }
+        }
+    }
+}
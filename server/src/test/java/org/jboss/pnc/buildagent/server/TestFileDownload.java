@@ -18,9 +18,11 @@
 
 package org.jboss.pnc.buildagent.server;
 
+import org.jboss.pnc.buildagent.api.Constants;
 import org.jboss.pnc.buildagent.client.BuildAgentClient;
 import org.jboss.pnc.buildagent.client.BuildAgentHttpClient;
 import org.jboss.pnc.buildagent.client.HttpClientConfiguration;
+import org.jboss.pnc.buildagent.common.blocklog.BlockLogWriter;
 import org.jboss.pnc.buildagent.common.http.HttpClient;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -29,7 +31,14 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.concurrent.CompletableFuture;
@@ -80,4 +89,96 @@ public class TestFileDownload {
         filePath.toFile().delete();
     }
 
+    @Test
+    public void downloadFileRange() throws Exception {
+        String fileContent = "The quick brown fox jumps over the lazy dog.";
+        Path filePath = Paths.get("").toAbsolutePath().resolve("test-range-file.txt");
+        Files.write(filePath, fileContent.getBytes(StandardCharsets.UTF_8));
+        try {
+            HttpURLConnection connection = download(filePath, "bytes=4-8");
+            Assert.assertEquals(206, connection.getResponseCode());
+            Assert.assertEquals("bytes 4-8/44", connection.getHeaderField("Content-Range"));
+            Assert.assertEquals("quick", read(connection));
+
+            connection = download(filePath, "bytes=-4");
+            Assert.assertEquals(206, connection.getResponseCode());
+            Assert.assertEquals("bytes 40-43/44", connection.getHeaderField("Content-Range"));
+            Assert.assertEquals("dog.", read(connection));
+
+            //the end past the file is clamped
+            connection = download(filePath, "bytes=40-1000");
+            Assert.assertEquals(206, connection.getResponseCode());
+            Assert.assertEquals("bytes 40-43/44", connection.getHeaderField("Content-Range"));
+            Assert.assertEquals("dog.", read(connection));
+
+            connection = download(filePath, "bytes=44-");
+            Assert.assertEquals(416, connection.getResponseCode());
+            Assert.assertEquals("bytes */44", connection.getHeaderField("Content-Range"));
+
+            //multiple ranges are not supported, the whole file is sent
+            connection = download(filePath, "bytes=0-2,4-8");
+            Assert.assertEquals(200, connection.getResponseCode());
+            Assert.assertEquals(fileContent, read(connection));
+        } finally {
+            Files.delete(filePath);
+        }
+    }
+
+    @Test
+    public void downloadBlockLogRange() throws Exception {
+        String fileContent = "The quick brown fox jumps over the lazy dog.";
+        Path filePath = Paths.get("").toAbsolutePath().resolve("test-range-file.log.blz");
+        try (BlockLogWriter writer = new BlockLogWriter(filePath, 16, 1)) {
+            writer.write(fileContent.getBytes(StandardCharsets.UTF_8));
+        }
+        Path plainPath = Paths.get("").toAbsolutePath().resolve("test-range-file.log");
+        Files.copy(filePath, plainPath);
+        try {
+            //the ranges of a block log are in the uncompressed content
+            HttpURLConnection connection = download(filePath, "bytes=10-18");
+            Assert.assertEquals(206, connection.getResponseCode());
+            Assert.assertEquals("bytes 10-18/44", connection.getHeaderField("Content-Range"));
+            Assert.assertEquals("brown fox", read(connection));
+
+            //a file without the block log suffix is sent as it is
+            byte[] stored = Files.readAllBytes(plainPath);
+            connection = download(plainPath, "bytes=0-3");
+            Assert.assertEquals(206, connection.getResponseCode());
+            Assert.assertEquals("bytes 0-3/" + stored.length, connection.getHeaderField("Content-Range"));
+            Assert.assertEquals(new String(stored, 0, 4, StandardCharsets.ISO_8859_1), readLatin1(connection));
+        } finally {
+            Files.delete(filePath);
+            Files.deleteIfExists(filePath.resolveSibling(filePath.getFileName() + ".idx"));
+            Files.delete(plainPath);
+        }
+    }
+
+    private HttpURLConnection download(Path filePath, String range) throws IOException {
+        URL url = new URL("http://" + HOST + ":" + PORT + Constants.FILE_DOWNLOAD_PATH + filePath);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Range", range);
+        return connection;
+    }
+
+    private String read(HttpURLConnection connection) throws IOException {
+        return new String(readBytes(connection), StandardCharsets.UTF_8);
+    }
+
+    private String readLatin1(HttpURLConnection connection) throws IOException {
+        return new String(readBytes(connection), StandardCharsets.ISO_8859_1);
+    }
+
+    private byte[] readBytes(HttpURLConnection connection) throws IOException {
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
 }
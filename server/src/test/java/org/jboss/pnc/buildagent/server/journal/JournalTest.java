@@ -0,0 +1,143 @@
+package org.jboss.pnc.buildagent.server.journal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class JournalTest {
+
+    @Test
+    public void shouldReadFromOffsetAcrossSegments() throws IOException {
+        Path folder = Files.createTempDirectory("journal");
+        JournalChannel journal = new JournalChannel(folder, 1000, 100, 60_000, Long.MAX_VALUE);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            journal.writeOutput(line.getBytes(StandardCharsets.UTF_8));
+        }
+        journal.close();
+        Assert.assertTrue(JournalFiles.segmentOffsets(folder).size() > 5);
+
+        JournalReader reader = new JournalReader(folder);
+        Assert.assertEquals(expected.length(), reader.getEndOffset());
+        Assert.assertEquals(expected.toString(), read(reader, 0));
+        Assert.assertEquals(expected.substring(4321), read(reader, 4321));
+        Assert.assertEquals("", read(reader, expected.length()));
+    }
+
+    @Test
+    public void shouldContinueJournalAfterReopen() throws IOException {
+        Path folder = Files.createTempDirectory("journal");
+        JournalChannel journal = new JournalChannel(folder, 1000, 100, 60_000, Long.MAX_VALUE);
+        journal.writeOutput("first\n".getBytes(StandardCharsets.UTF_8));
+        journal.close();
+
+        journal = new JournalChannel(folder, 1000, 100, 60_000, Long.MAX_VALUE);
+        Assert.assertEquals(6, journal.getOffset());
+        journal.writeOutput("second\n".getBytes(StandardCharsets.UTF_8));
+        journal.close();
+
+        Assert.assertEquals("first\nsecond\n", read(new JournalReader(folder), 0));
+    }
+
+    @Test
+    public void shouldFindOutputSinceTime() throws IOException, InterruptedException {
+        Path folder = Files.createTempDirectory("journal");
+        JournalChannel journal = new JournalChannel(folder, 1000, 1_000_000, 10, Long.MAX_VALUE);
+        for (int i = 0; i < 50; i++) {
+            journal.writeOutput(("old " + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Thread.sleep(50);
+        long since = System.currentTimeMillis();
+        Thread.sleep(50);
+        for (int i = 0; i < 50; i++) {
+            journal.writeOutput(("new " + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        journal.close();
+
+        JournalReader reader = new JournalReader(folder, 10);
+        String output = read(reader, reader.offsetAt(since));
+        Assert.assertTrue(output, output.startsWith("new 0\n"));
+        Assert.assertTrue(output.endsWith("new 49\n"));
+        Assert.assertEquals(0, reader.offsetAt(0));
+    }
+
+    @Test
+    public void shouldDeleteOldestSegmentsAboveMaxBytes() throws IOException {
+        Path folder = Files.createTempDirectory("journal");
+        JournalChannel journal = new JournalChannel(folder, 1000, 100, 60_000, 3000);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            journal.writeOutput(line.getBytes(StandardCharsets.UTF_8));
+        }
+        journal.close();
+
+        JournalReader reader = new JournalReader(folder);
+        long start = reader.getStartOffset();
+        Assert.assertTrue(start > 0);
+        Assert.assertTrue(reader.getEndOffset() - start <= 3000 + 1000);
+        Assert.assertEquals(expected.length(), reader.getEndOffset());
+        Assert.assertEquals(expected.substring((int) start), read(reader, 0));
+        Assert.assertEquals(reader.getStartOffset(), reader.offsetAt(0));
+    }
+
+    @Test
+    public void shouldMapContextToFolderInsideJournals() {
+        Assert.assertEquals("build-1", JournalFiles.folderName("/build-1"));
+        Assert.assertTrue(JournalFiles.folderName("").startsWith("default~"));
+        Assert.assertTrue(JournalFiles.folderName("..").startsWith("default..~"));
+        Assert.assertTrue(JournalFiles.folderName("../etc").startsWith(".._etc~"));
+        Assert.assertEquals("a_b", JournalFiles.folderName("a_b"));
+        Assert.assertNotEquals("a_b", JournalFiles.folderName("a/b"));
+        Assert.assertNotEquals(JournalFiles.folderName("a:b"), JournalFiles.folderName("a/b"));
+    }
+
+    @Test
+    public void shouldDeleteCompletedJournalsOverTotalSize() throws IOException {
+        Path journals = Files.createTempDirectory("journals");
+        JournalBudget budget = new JournalBudget(journals, 1000, 100, Long.MAX_VALUE, 2500);
+        byte[] output = new byte[1000];
+
+        JournalChannel oldest = budget.open("session-1");
+        oldest.writeOutput(output);
+        oldest.close();
+        for (Path file : Files.newDirectoryStream(journals.resolve("session-1"))) {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        }
+        JournalChannel completed = budget.open("session-2");
+        completed.writeOutput(output);
+        completed.close();
+        JournalChannel writing = budget.open("session-3");
+        writing.writeOutput(output);
+        writing.writeOutput(output);
+
+        //opening a journal applies the budget, the journals being written are kept
+        JournalChannel next = budget.open("session-4");
+        Assert.assertFalse(Files.exists(journals.resolve("session-1")));
+        Assert.assertTrue(Files.exists(journals.resolve("session-3")));
+        Assert.assertFalse(Files.exists(journals.resolve("session-2")));
+
+        writing.close();
+        next.close();
+        Assert.assertEquals(2000, new JournalReader(journals.resolve("session-3")).getEndOffset());
+    }
+
+    private String read(JournalReader reader, long offset) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.transferFrom(offset, Channels.newChannel(out));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,250 @@
+package org.jboss.pnc.buildagent.server.logging;
+
+import org.jboss.pnc.buildagent.api.logging.LogFormatter;
+import org.jboss.pnc.buildagent.api.logging.SequencedLogFormatter;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class OrderedFormatStageTest {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderedFormatStageTest.class);
+
+    @Test
+    public void shouldDeliverLinesInSubmitOrder() throws Exception {
+        LogFormatter formatter = (line) -> {
+            if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                LockSupport.parkNanos(100_000);
+            }
+            return MDC.get("ctx") + ":" + line;
+        };
+        List<String> delivered = new ArrayList<>();
+        OrderedFormatStage stage = new OrderedFormatStage(
+                formatter,
+                new StaticMdc(Collections.singletonMap("ctx", "build-1")),
+                delivered::addAll,
+                (e) -> Assert.fail(e.getMessage()),
+                4,
+                7);
+
+        int line = 0;
+        for (int chunk = 0; chunk < 500; chunk++) {
+            List<String> lines = new ArrayList<>();
+            int count = ThreadLocalRandom.current().nextInt(30);
+            for (int i = 0; i < count; i++) {
+                lines.add(Integer.toString(line++));
+            }
+            stage.submit(lines);
+        }
+        Assert.assertTrue(stage.flush(10000));
+        stage.close();
+
+        Assert.assertEquals(line, delivered.size());
+        for (int i = 0; i < line; i++) {
+            Assert.assertEquals("build-1:" + i, delivered.get(i));
+        }
+    }
+
+    @Test
+    public void shouldStampSequencesInSubmitOrder() throws Exception {
+        AtomicLong sequence = new AtomicLong();
+        SequencedLogFormatter formatter = new SequencedLogFormatter() {
+            @Override
+            public long reserveSequence(int lines) {
+                return sequence.getAndAdd(lines);
+            }
+
+            @Override
+            public String format(String message, long timestamp, long sequence) {
+                if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                    LockSupport.parkNanos(100_000);
+                }
+                return timestamp + ":" + sequence;
+            }
+
+            @Override
+            public String format(String message) {
+                throw new IllegalStateException("Lines must be stamped by the stage.");
+            }
+        };
+        assertMonotonic(formatter);
+    }
+
+    @Test
+    public void shouldFormatSelfStampingFormatterInOrder() throws Exception {
+        AtomicLong sequence = new AtomicLong();
+        LogFormatter formatter = (line) -> {
+            if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                LockSupport.parkNanos(100_000);
+            }
+            return System.currentTimeMillis() + ":" + sequence.getAndIncrement();
+        };
+        assertMonotonic(formatter);
+    }
+
+    /**
+     * Formats with 4 threads and checks the timestamps never go back and the sequence numbers are consecutive.
+     */
+    private static void assertMonotonic(LogFormatter formatter) throws Exception {
+        List<String> delivered = new ArrayList<>();
+        OrderedFormatStage stage = new OrderedFormatStage(
+                formatter,
+                null,
+                delivered::addAll,
+                (e) -> Assert.fail(e.getMessage()),
+                4,
+                7);
+        int lines = 0;
+        for (int chunk = 0; chunk < 500; chunk++) {
+            List<String> chunkLines = new ArrayList<>();
+            int count = ThreadLocalRandom.current().nextInt(30);
+            for (int i = 0; i < count; i++) {
+                chunkLines.add(Integer.toString(lines++));
+            }
+            stage.submit(chunkLines);
+        }
+        Assert.assertTrue(stage.flush(10000));
+        stage.close();
+
+        Assert.assertEquals(lines, delivered.size());
+        long lastTimestamp = 0;
+        for (int i = 0; i < lines; i++) {
+            String[] stamps = delivered.get(i).split(":");
+            long timestamp = Long.parseLong(stamps[0]);
+            Assert.assertTrue(timestamp >= lastTimestamp);
+            lastTimestamp = timestamp;
+            Assert.assertEquals(i, Long.parseLong(stamps[1]));
+        }
+    }
+
+    @Test
+    public void shouldReportFormatterFailure() throws Exception {
+        List<Exception> exceptions = new ArrayList<>();
+        List<String> delivered = new ArrayList<>();
+        LogFormatter formatter = (line) -> {
+            if (line.equals("bad")) {
+                throw new IllegalStateException("Cannot format.");
+            }
+            return line;
+        };
+        OrderedFormatStage stage = new OrderedFormatStage(
+                formatter,
+                null,
+                delivered::addAll,
+                exceptions::add,
+                2,
+                1);
+        stage.submit(java.util.Arrays.asList("a", "bad", "b"));
+        Assert.assertTrue(stage.flush(10000));
+        stage.close();
+
+        Assert.assertEquals(java.util.Arrays.asList("a", "b"), delivered);
+        Assert.assertEquals(1, exceptions.size());
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void formatStageScalingBenchmark() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int lines = 1_000_000;
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < lines / 20; i++) {
+            List<String> chunk = new ArrayList<>();
+            for (int j = 0; j < 20; j++) {
+                chunk.add("[INFO] Downloaded from central: https://repo.maven.apache.org/maven2/org/\"jboss\"/pnc/"
+                        + i + "/" + j + ".jar (12 kB at 1.2 MB/s)\n");
+            }
+            chunks.add(chunk);
+        }
+        MDC.setContextMap(Collections.singletonMap("processContext", "build-1"));
+
+        //inline, like IoQueueLogger without format threads
+        AtomicLong chars = new AtomicLong();
+        for (int round = 0; round < 3; round++) {
+            long started = System.nanoTime();
+            for (List<String> chunk : chunks) {
+                for (String line : chunk) {
+                    chars.addAndGet(new JsonLineFormatter().format(line).length());
+                }
+            }
+            log.info("Inline: {} lines/s.", lines * 1_000_000_000L / (System.nanoTime() - started));
+        }
+
+        for (int threads = 1; threads <= Math.max(4, cores); threads *= 2) {
+            for (int round = 0; round < 3; round++) {
+                OrderedFormatStage stage = new OrderedFormatStage(
+                        new JsonLineFormatter(),
+                        new StaticMdc(Collections.singletonMap("processContext", "build-1")),
+                        (formatted) -> formatted.forEach(line -> chars.addAndGet(line.length())),
+                        (e) -> log.error("Cannot format.", e),
+                        threads,
+                        OrderedFormatStage.DEFAULT_BATCH_LINES);
+                long started = System.nanoTime();
+                for (List<String> chunk : chunks) {
+                    stage.submit(chunk);
+                }
+                Assert.assertTrue(stage.flush(60000));
+                long took = System.nanoTime() - started;
+                stage.close();
+                log.info("{} threads ({} cores): {} lines/s.", threads, cores, lines * 1_000_000_000L / took);
+            }
+        }
+        log.info("Formatted {} chars.", chars.get());
+    }
+
+    /**
+     * Does the work of a JSON formatter: a timestamp, the MDC, the escaped message and the sequence.
+     */
+    private static class JsonLineFormatter implements SequencedLogFormatter {
+        private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ISO_OFFSET_DATE_TIME
+                .withZone(ZoneOffset.UTC);
+
+        private final AtomicLong sequence = new AtomicLong();
+
+        @Override
+        public String format(String message) {
+            return format(message, System.currentTimeMillis(), sequence.getAndIncrement());
+        }
+
+        @Override
+        public long reserveSequence(int lines) {
+            return sequence.getAndAdd(lines);
+        }
+
+        @Override
+        public String format(String message, long timestamp, long sequence) {
+            StringBuilder json = new StringBuilder(message.length() + 128);
+            json.append("{\"timestamp\":\"").append(TIMESTAMP.format(Instant.ofEpochMilli(timestamp))).append('"');
+            json.append(",\"level\":\"INFO\",\"loggerName\":\"org.jboss.pnc._userlog_.build-log\"");
+            json.append(",\"mdc\":{");
+            MDC.getCopyOfContextMap().forEach((k, v) -> json.append('"').append(k).append("\":\"").append(v).append('"'));
+            json.append("},\"message\":\"");
+            for (int i = 0; i < message.length(); i++) {
+                char c = message.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            return json.append("\",\"sequence\":").append(sequence).append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.jboss.pnc.buildagent.server.logging;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class StaticMdcTest {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticMdcTest.class);
+
+    @Test
+    public void shouldInstallWhenContextChanged() {
+        Map<String, String> context = new HashMap<>();
+        context.put("processContext", "build-1");
+        context.put("tmp", "false");
+        StaticMdc staticMdc = new StaticMdc(context);
+
+        MDC.put("other", "value");
+        staticMdc.install();
+        Assert.assertEquals("build-1", MDC.get("processContext"));
+        //the first install replaces the MDC of the thread
+        Assert.assertNull(MDC.get("other"));
+
+        MDC.put("processContext", "build-2");
+        Assert.assertFalse(staticMdc.isInstalled());
+        staticMdc.install();
+        Assert.assertEquals("build-1", MDC.get("processContext"));
+
+        MDC.clear();
+        staticMdc.install();
+        Assert.assertEquals("false", MDC.get("tmp"));
+    }
+
+    @Test
+    public void shouldClearMdcWithEmptyContext() {
+        MDC.put("other", "value");
+        new StaticMdc(new HashMap<>()).install();
+        Assert.assertNull(MDC.get("other"));
+    }
+
+    @Test
+    public void shouldSwitchContextsInstalledInTurns() {
+        Map<String, String> context = new HashMap<>();
+        context.put("processContext", "build-1");
+        StaticMdc full = new StaticMdc(context);
+        StaticMdc empty = new StaticMdc(new HashMap<>());
+        Map<String, String> otherContext = new HashMap<>();
+        otherContext.put("requestContext", "request-1");
+        StaticMdc other = new StaticMdc(otherContext);
+
+        for (int i = 0; i < 3; i++) {
+            full.install();
+            Assert.assertEquals("build-1", MDC.get("processContext"));
+            empty.install();
+            Assert.assertNull(MDC.get("processContext"));
+            other.install();
+            Assert.assertEquals("request-1", MDC.get("requestContext"));
+            full.install();
+            Assert.assertNull(MDC.get("requestContext"));
+            Assert.assertEquals("build-1", MDC.get("processContext"));
+            other.install();
+            Assert.assertNull(MDC.get("processContext"));
+        }
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void perChunkMdcBenchmark() {
+        Map<String, String> context = new HashMap<>();
+        context.put("processContext", "build-1234");
+        context.put("processContextVariant", "variant");
+        context.put("requestContext", "request-1");
+        context.put("tmp", "false");
+        context.put("exp", "2021-06-01T10:00:00Z");
+        context.put("userId", "42");
+        StaticMdc staticMdc = new StaticMdc(context);
+        int chunks = 10_000_000;
+
+        for (int round = 0; round < 3; round++) {
+            long allocated = allocatedBytes();
+            long started = System.nanoTime();
+            for (int i = 0; i < chunks; i++) {
+                MDC.setContextMap(context);
+            }
+            long took = System.nanoTime() - started;
+            log.info("MDC.setContextMap: {} ns/chunk, {} bytes/chunk.",
+                    (double) took / chunks, (allocatedBytes() - allocated) / chunks);
+
+            allocated = allocatedBytes();
+            started = System.nanoTime();
+            for (int i = 0; i < chunks; i++) {
+                staticMdc.install();
+            }
+            took = System.nanoTime() - started;
+            log.info("StaticMdc.install: {} ns/chunk, {} bytes/chunk.",
+                    (double) took / chunks, (allocatedBytes() - allocated) / chunks);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
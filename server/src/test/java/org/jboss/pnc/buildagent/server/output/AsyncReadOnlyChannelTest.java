@@ -0,0 +1,148 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class AsyncReadOnlyChannelTest {
+
+    @Test
+    public void shouldDeliverInOrderAndFlushWhenDrained() throws IOException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        CollectingChannel sink = new CollectingChannel(true, 0);
+        AsyncReadOnlyChannel channel = new AsyncReadOnlyChannel(sink, "ctx", 8, executor);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String line = i + "\n";
+            expected.append(line);
+            channel.writeOutput(line.getBytes(StandardCharsets.UTF_8));
+        }
+        channel.flush();
+
+        Assert.assertEquals(expected.toString(), sink.content());
+        Assert.assertTrue(sink.flushed);
+        SinkMetrics metrics = channel.getMetrics();
+        Assert.assertEquals(0, metrics.getQueueDepth());
+        Assert.assertEquals(0, metrics.getQueuedBytes());
+        Assert.assertEquals(1000, metrics.getDeliveredChunks());
+        executor.shutdown();
+    }
+
+    @Test
+    public void slowSinkShouldNotBlockOtherSinks() throws IOException, InterruptedException {
+        OutputDispatcher dispatcher = new OutputDispatcher(16);
+        CollectingChannel slow = new CollectingChannel(false, 50);
+        CollectingChannel fast = new CollectingChannel(true, 0);
+        ReadOnlyChannel slowChannel = dispatcher.dispatch(slow, "ctx");
+        ReadOnlyChannel fastChannel = dispatcher.dispatch(fast, "ctx");
+
+        long started = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            byte[] bytes = ("line " + i + "\n").getBytes(StandardCharsets.UTF_8);
+            slowChannel.writeOutput(bytes);
+            fastChannel.writeOutput(bytes);
+        }
+        fastChannel.flush();
+        Assert.assertTrue("Producer was blocked by the slow sink.", System.currentTimeMillis() - started < 250);
+        Assert.assertEquals(2, dispatcher.getMetrics().size());
+
+        slowChannel.flush();
+        Assert.assertEquals(fast.content(), slow.content());
+
+        dispatcher.release(slowChannel);
+        Assert.assertEquals(1, dispatcher.getMetrics().size());
+        dispatcher.close();
+    }
+
+    @Test
+    public void fullQueueShouldBlockProducerWithoutLosingOutput() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingChannel sink = new CollectingChannel(true, 0) {
+            @Override
+            public void writeOutput(byte[] buffer) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.writeOutput(buffer);
+            }
+        };
+        AsyncReadOnlyChannel channel = new AsyncReadOnlyChannel(sink, "ctx", 2, executor);
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                channel.writeOutput(new byte[] {(byte) ('0' + i)});
+            }
+        });
+        producer.start();
+        producer.join(200);
+        Assert.assertTrue("Producer should wait for the queue space.", producer.isAlive());
+
+        release.countDown();
+        producer.join(5000);
+        channel.flush();
+        Assert.assertEquals("0123456789", sink.content());
+        Assert.assertTrue(channel.getMetrics().getProducerWaitMillis() > 0);
+        executor.shutdown();
+    }
+
+    private static class CollectingChannel implements ReadOnlyChannel {
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final boolean primary;
+        private final long delayMillis;
+        private volatile boolean flushed;
+
+        CollectingChannel(boolean primary, long delayMillis) {
+            this.primary = primary;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void writeOutput(byte[] buffer) {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (received) {
+                received.write(buffer, 0, buffer.length);
+            }
+        }
+
+        String content() {
+            synchronized (received) {
+                return new String(received.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+
+        @Override
+        public boolean isPrimary() {
+            return primary;
+        }
+
+        @Override
+        public void flush() {
+            flushed = true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class ChannelFlusherTest {
+
+    @Test
+    public void shouldFlushPrimaryChannelsInParallel() throws IOException {
+        ChannelFlusher flusher = new ChannelFlusher(10000);
+        SlowChannel first = new SlowChannel("first", true, 300);
+        SlowChannel second = new SlowChannel("second", true, 300);
+        SlowChannel third = new SlowChannel("third", true, 300);
+        SlowChannel notPrimary = new SlowChannel("notPrimary", false, 0);
+
+        long started = System.currentTimeMillis();
+        flusher.flushPrimaryAndWait(Arrays.asList(first, second, third, notPrimary));
+        long took = System.currentTimeMillis() - started;
+
+        Assert.assertTrue("Flushes were not parallel, took " + took + "ms.", took < 800);
+        Assert.assertEquals(1, first.flushes.get());
+        Assert.assertEquals(1, second.flushes.get());
+        Assert.assertEquals(1, third.flushes.get());
+        Assert.assertEquals(0, notPrimary.flushes.get());
+        flusher.close();
+    }
+
+    @Test
+    public void shouldFailOnDeadlineNamingPendingChannel() throws Exception {
+        ChannelFlusher flusher = new ChannelFlusher(200);
+        CountDownLatch release = new CountDownLatch(1);
+        SlowChannel fast = new SlowChannel("fast", true, 0);
+        ReadOnlyChannel hanging = new SlowChannel("hanging", true, 0) {
+            @Override
+            public void flush() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        long started = System.currentTimeMillis();
+        try {
+            flusher.flushPrimaryAndWait(Arrays.asList(fast, hanging));
+            Assert.fail("Flush should time out.");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("hanging"));
+            Assert.assertFalse(e.getMessage(), e.getMessage().contains("fast"));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - started < 2000);
+        release.countDown();
+        flusher.close();
+    }
+
+    @Test
+    public void shouldReportFailedFlush() {
+        ChannelFlusher flusher = new ChannelFlusher(0);
+        ReadOnlyChannel failing = new SlowChannel("failing", true, 0) {
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("Cannot flush.");
+            }
+        };
+        try {
+            flusher.flushPrimaryAndWait(Arrays.asList(new SlowChannel("ok", true, 0), failing));
+            Assert.fail("Flush should fail.");
+        } catch (IOException e) {
+            Assert.assertEquals("Cannot flush.", e.getMessage());
+        }
+        flusher.close();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldFailWithoutWaitingForOtherChannels() {
+        ChannelFlusher flusher = new ChannelFlusher(0);
+        CountDownLatch release = new CountDownLatch(1);
+        ReadOnlyChannel hanging = new SlowChannel("hanging", true, 0) {
+            @Override
+            public void flush() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        ReadOnlyChannel failing = new SlowChannel("failing", true, 0) {
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("Cannot flush.");
+            }
+        };
+        try {
+            flusher.flushPrimaryAndWait(Arrays.asList(hanging, failing));
+            Assert.fail("Flush should fail.");
+        } catch (IOException e) {
+            Assert.assertEquals("Cannot flush.", e.getMessage());
+        }
+        release.countDown();
+        flusher.close();
+    }
+
+    private static class SlowChannel implements ReadOnlyChannel {
+        private final String name;
+        private final boolean primary;
+        private final long flushMillis;
+        private final AtomicInteger flushes = new AtomicInteger();
+
+        SlowChannel(String name, boolean primary, long flushMillis) {
+            this.name = name;
+            this.primary = primary;
+            this.flushMillis = flushMillis;
+        }
+
+        @Override
+        public void writeOutput(byte[] buffer) {
+        }
+
+        @Override
+        public boolean isPrimary() {
+            return primary;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                Thread.sleep(flushMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushes.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class GroupCommitFileWriterTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitFileWriterTest.class);
+
+    @Test
+    public void shouldGroupWritesAndKeepOrder() throws IOException {
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+        Path file = Files.createTempFile("console", ".log");
+        GroupCommitFileWriter writer = new GroupCommitFileWriter(open(file), new DirectBufferPool(1024, 1), 10_000, FileDurability.NONE, 0, scheduler);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            writer.write(line.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] big = new byte[4096];
+        java.util.Arrays.fill(big, (byte) 'x');
+        expected.append(new String(big, StandardCharsets.US_ASCII));
+        writer.write(big);
+        writer.flush();
+
+        Assert.assertEquals(expected.toString(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        Map<String, Long> counters = writer.getCounters();
+        Assert.assertEquals(10_001L, (long) counters.get("writes"));
+        Assert.assertTrue(counters.toString(), counters.get("fileWrites") < 200);
+        Assert.assertEquals(0L, (long) counters.get("fsyncs"));
+        writer.close();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldWriteBufferedOutputAfterMaxDelay() throws IOException, InterruptedException {
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+        Path file = Files.createTempFile("console", ".log");
+        DirectBufferPool bufferPool = new DirectBufferPool(1024, 1);
+        GroupCommitFileWriter writer = new GroupCommitFileWriter(open(file), bufferPool, 20, FileDurability.NONE, 0, scheduler);
+
+        writer.write("first\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(0, Files.size(file));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Files.size(file) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("first\n", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        Assert.assertEquals(1L, (long) writer.getCounters().get("timerCommits"));
+        Assert.assertEquals(1L, (long) bufferPool.getCounters().get("pooledBuffers"));
+        writer.close();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldFsyncOnCompletion() throws IOException {
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+        Path file = Files.createTempFile("console", ".log");
+        GroupCommitFileWriter writer = new GroupCommitFileWriter(open(file), new DirectBufferPool(1024, 1), 10_000, FileDurability.ON_COMPLETION, 0, scheduler);
+
+        writer.flush();
+        Assert.assertEquals(0L, (long) writer.getCounters().get("fsyncs"));
+        writer.write("done\n".getBytes(StandardCharsets.UTF_8));
+        writer.flush();
+        Assert.assertEquals(1L, (long) writer.getCounters().get("fsyncs"));
+        Assert.assertEquals(5, Files.size(file));
+        writer.close();
+        scheduler.shutdown();
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void fileWriterBenchmark() throws IOException {
+        byte[][] chunks = new byte[1024][];
+        for (int i = 0; i < chunks.length; i++) {
+            //typical pty reads of build output
+            chunks[i] = ("[INFO] Downloaded from central: https://repo/org/example/artifact-" + i + ".jar (" + i + " kB)\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+        DirectBufferPool bufferPool = new DirectBufferPool(64 * 1024, 4);
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            Path file = Files.createTempFile("console", ".log");
+            try (FileOutputStream stream = new FileOutputStream(file.toFile(), true)) {
+                long started = System.nanoTime();
+                long bytes = produce(chunks, stream::write);
+                stream.flush();
+                report("FileOutputStream", bytes, started, "");
+            }
+            Files.delete(file);
+            for (FileDurability durability : FileDurability.values()) {
+                file = Files.createTempFile("console", ".log");
+                GroupCommitFileWriter writer = new GroupCommitFileWriter(open(file), bufferPool, 100, durability, 1000, scheduler);
+                long started = System.nanoTime();
+                long bytes = produce(chunks, writer::write);
+                writer.flush();
+                report("GroupCommitFileWriter " + durability, bytes, started, writer.getCounters().toString());
+                writer.close();
+                Files.delete(file);
+            }
+        }
+        scheduler.shutdown();
+    }
+
+    private interface ChunkWriter {
+        void write(byte[] chunk) throws IOException;
+    }
+
+    private long produce(byte[][] chunks, ChunkWriter writer) throws IOException {
+        long bytes = 0;
+        for (int round = 0; round < 500; round++) {
+            for (byte[] chunk : chunks) {
+                writer.write(chunk);
+                bytes += chunk.length;
+            }
+        }
+        return bytes;
+    }
+
+    private void report(String name, long bytes, long startedNanos, String counters) {
+        long tookNanos = System.nanoTime() - startedNanos;
+        double megabytes = (double) bytes / (1024 * 1024);
+        logger.info("{}: {} MB/s. {}", name, String.format("%.1f", megabytes / (tookNanos / 1_000_000_000d)), counters);
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
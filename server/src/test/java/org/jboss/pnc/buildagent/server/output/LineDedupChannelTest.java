@@ -0,0 +1,107 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class LineDedupChannelTest {
+
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void shouldCollapseRunSplitAcrossChunks() {
+        CollectingChannel sink = new CollectingChannel();
+        LineDedupChannel channel = new LineDedupChannel(sink, 0, scheduler);
+        StringBuilder input = new StringBuilder("start\n");
+        for (int i = 0; i < 1000; i++) {
+            input.append("WARNING: deprecated API\n");
+        }
+        input.append("end\nend");
+        write(channel, input.toString(), 5);
+
+        Assert.assertEquals("start\nWARNING: deprecated API\n[last line repeated 999 times]\nend\n", sink.toString());
+        channel.writeHeldOutput();
+        //the held line is written on completion, it is not compared to the previous one
+        Assert.assertEquals("start\nWARNING: deprecated API\n[last line repeated 999 times]\nend\nend", sink.toString());
+        Assert.assertEquals(Long.valueOf(999), channel.getCounters().get("dedupSuppressedLines"));
+    }
+
+    @Test
+    public void shouldWriteSummaryOnCompletion() {
+        CollectingChannel sink = new CollectingChannel();
+        LineDedupChannel channel = new LineDedupChannel(sink, 0, scheduler);
+        write(channel, "a\na\na\n", 100);
+        Assert.assertEquals("a\n", sink.toString());
+        channel.writeHeldOutput();
+        Assert.assertEquals("a\n[last line repeated 2 times]\n", sink.toString());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldWriteSummaryAfterMaxDelay() throws Exception {
+        CollectingChannel sink = new CollectingChannel();
+        LineDedupChannel channel = new LineDedupChannel(sink, 100, scheduler);
+        write(channel, "a\na\na\n", 100);
+        while (!sink.toString().equals("a\n[last line repeated 2 times]\n")) {
+            Thread.sleep(10);
+        }
+        //the run continues with a new summary
+        write(channel, "a\nb\n", 100);
+        Assert.assertEquals("a\n[last line repeated 2 times]\n[last line repeated 1 time]\nb\n", sink.toString());
+    }
+
+    private static void write(ReadOnlyChannel channel, String input, int chunkSize) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            byte[] chunk = new byte[Math.min(chunkSize, bytes.length - offset)];
+            System.arraycopy(bytes, offset, chunk, 0, chunk.length);
+            channel.writeOutput(chunk);
+        }
+    }
+
+    private static class CollectingChannel implements ReadOnlyChannel {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void writeOutput(byte[] buffer) {
+            out.write(buffer, 0, buffer.length);
+        }
+
+        @Override
+        public boolean isPrimary() {
+            return false;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public synchronized String toString() {
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
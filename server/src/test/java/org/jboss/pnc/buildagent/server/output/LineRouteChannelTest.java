@@ -0,0 +1,148 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class LineRouteChannelTest {
+
+    private static final Logger log = LoggerFactory.getLogger(LineRouteChannelTest.class);
+
+    private static final MultiPatternMatcher ROUTE = MultiPatternMatcher.compile(
+            Arrays.asList("[ERROR]", "[WARNING]", "Tests run:"));
+
+    @Test
+    public void shouldRouteMatchingLinesSplitAcrossChunks() {
+        String input = "[INFO] Compiling 10 source files\n"
+                + "[WARNING] deprecated API\n"
+                + "[INFO] Tests run: 5, Failures: 0\n"
+                + "[ERR\n"
+                + "[ERROR] Failed to execute goal\n"
+                + "[INFO] BUILD FAILURE\n";
+        String expected = "[WARNING] deprecated API\n"
+                + "[INFO] Tests run: 5, Failures: 0\n"
+                + "[ERROR] Failed to execute goal\n";
+        for (int chunkSize : new int[] {1, 3, 16, 1024}) {
+            ByteArrayOutputStream routed = new ByteArrayOutputStream();
+            LineRouteChannel channel = new LineRouteChannel(new CollectingChannel(routed), ROUTE);
+            write(channel, input, chunkSize);
+            Assert.assertEquals("Chunk size " + chunkSize, expected, new String(routed.toByteArray(), StandardCharsets.UTF_8));
+            Assert.assertEquals(Long.valueOf(3), channel.getCounters().get("routedLines"));
+            Assert.assertEquals(Long.valueOf(3), channel.getCounters().get("skippedLines"));
+        }
+    }
+
+    @Test
+    public void shouldPassRestOfMatchedLine() {
+        ByteArrayOutputStream routed = new ByteArrayOutputStream();
+        LineRouteChannel channel = new LineRouteChannel(new CollectingChannel(routed), ROUTE);
+        channel.writeOutput("[ERROR] partial".getBytes(StandardCharsets.UTF_8));
+        //a matched line is not held
+        Assert.assertEquals("[ERROR] partial", new String(routed.toByteArray(), StandardCharsets.UTF_8));
+        channel.writeOutput(" line\nskipped\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("[ERROR] partial line\n", new String(routed.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldRouteDeduplicatedSink() throws Exception {
+        ByteArrayOutputStream routed = new ByteArrayOutputStream();
+        ReadOnlyChannel sink = new CollectingChannel(routed);
+        try (OutputDispatcher outputDispatcher = new OutputDispatcher(0)) {
+            outputDispatcher.setLineDedup(Collections.singleton(sink), 0);
+            outputDispatcher.setLineRoutes(Collections.singletonMap(sink, ROUTE));
+            Set<ReadOnlyChannel> channels = outputDispatcher.dispatch(Collections.singleton(sink), "context");
+            for (ReadOnlyChannel channel : channels) {
+                write(channel, "[INFO] a\n[ERROR] b\n[ERROR] b\n[INFO] c\n[WARNING] d\n", 5);
+            }
+        }
+        Assert.assertEquals(
+                "[ERROR] b\n[last line repeated 1 time]\n[WARNING] d\n",
+                new String(routed.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void routeBenchmark() {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            if (i % 100 == 0) {
+                output.append("[WARNING] Using platform encoding to copy filtered resources ").append(i).append('\n');
+            } else {
+                output.append("[INFO] Downloaded from central: https://repo.maven.apache.org/maven2/org/example/artifact/")
+                        .append(i).append("/artifact-").append(i).append(".jar\n");
+            }
+        }
+        byte[] input = output.toString().getBytes(StandardCharsets.UTF_8);
+        int chunkSize = 4096;
+        for (int round = 0; round < 5; round++) {
+            AtomicLong delivered = new AtomicLong();
+            ReadOnlyChannel sink = new CollectingChannel(null) {
+                @Override
+                public void writeOutput(byte[] buffer) {
+                    delivered.addAndGet(buffer.length);
+                }
+            };
+            LineRouteChannel channel = new LineRouteChannel(sink, ROUTE);
+            long started = System.nanoTime();
+            for (int offset = 0; offset < input.length; offset += chunkSize) {
+                byte[] chunk = new byte[Math.min(chunkSize, input.length - offset)];
+                System.arraycopy(input, offset, chunk, 0, chunk.length);
+                channel.writeOutput(chunk);
+            }
+            long took = System.nanoTime() - started;
+            log.info("Routed {} of {} bytes ({} lines) in {} ms, {} MB/s.",
+                    delivered.get(),
+                    input.length,
+                    channel.getCounters().get("routedLines"),
+                    took / 1_000_000,
+                    input.length * 1000L / Math.max(1, took));
+        }
+    }
+
+    private static void write(ReadOnlyChannel channel, String input, int chunkSize) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            byte[] chunk = new byte[Math.min(chunkSize, bytes.length - offset)];
+            System.arraycopy(bytes, offset, chunk, 0, chunk.length);
+            channel.writeOutput(chunk);
+        }
+    }
+
+    private static class CollectingChannel implements ReadOnlyChannel {
+        private final ByteArrayOutputStream out;
+
+        CollectingChannel(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void writeOutput(byte[] buffer) {
+            out.write(buffer, 0, buffer.length);
+        }
+
+        @Override
+        public boolean isPrimary() {
+            return false;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
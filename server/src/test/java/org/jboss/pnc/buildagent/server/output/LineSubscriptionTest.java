@@ -0,0 +1,122 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class LineSubscriptionTest {
+
+    private static final String OUTPUT = "line 1\n"
+            + "line 2\n"
+            + "[ERROR] first\n"
+            + "line 4\n"
+            + "line 5\n"
+            + "line 6\n"
+            + "line 7\n"
+            + "BUILD FAILURE\n"
+            + "line 9\n";
+
+    @Test
+    public void shouldSendMatchingLinesWithContext() {
+        Map<String, List<String>> parameters = new HashMap<>();
+        parameters.put("match", Arrays.asList("[ERROR]"));
+        parameters.put("regex", Collections.singletonList("BUILD (SUCCESS|FAILURE)"));
+        parameters.put("context", Collections.singletonList("1"));
+
+        for (int chunkSize : new int[] {1, 5, 1024}) {
+            Assert.assertEquals(
+                    "line 2\n[ERROR] first\nline 4\n--\nline 7\nBUILD FAILURE\nline 9\n",
+                    subscribe(parameters, OUTPUT, chunkSize));
+        }
+    }
+
+    @Test
+    public void shouldSendAdjacentGroupsWithoutSeparator() {
+        Map<String, List<String>> parameters = new HashMap<>();
+        parameters.put("match", Arrays.asList("line 4", "line 6"));
+        parameters.put("context", Collections.singletonList("1"));
+        Assert.assertEquals("[ERROR] first\nline 4\nline 5\nline 6\nline 7\n", subscribe(parameters, OUTPUT, 3));
+    }
+
+    @Test
+    public void shouldMatchPlainText() {
+        Map<String, List<String>> parameters = new HashMap<>();
+        parameters.put("match", Collections.singletonList("[ERROR]"));
+        parameters.put("plain", Collections.singletonList("true"));
+        String colored = "[\u001B[1;31mERROR\u001B[m] compilation failed\n[\u001B[34mINFO\u001B[m] done\n";
+        Assert.assertEquals("[ERROR] compilation failed\n", subscribe(parameters, colored, 4));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldAbortBacktrackingRegex() {
+        Map<String, List<String>> parameters = new HashMap<>();
+        parameters.put("regex", Collections.singletonList("^(a+)+$"));
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            output.append("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!\n");
+        }
+        output.append("aaaa\n");
+        Assert.assertEquals("aaaa\n", subscribe(parameters, output.toString(), 1024));
+    }
+
+    @Test
+    public void shouldRejectInvalidParameters() {
+        Assert.assertNull(LineSubscription.fromParameters(Collections.emptyMap()));
+        Map<String, List<String>> parameters = new HashMap<>();
+        parameters.put("regex", Collections.singletonList("(unclosed"));
+        try {
+            LineSubscription.fromParameters(parameters);
+            Assert.fail("Invalid regex should be rejected.");
+        } catch (IllegalArgumentException expected) {
+        }
+        parameters.put("regex", Collections.singletonList("ok"));
+        parameters.put("context", Collections.singletonList("1000"));
+        try {
+            LineSubscription.fromParameters(parameters);
+            Assert.fail("Too many context lines should be rejected.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static String subscribe(Map<String, List<String>> parameters, String output, int chunkSize) {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        ReadOnlyChannel viewer = new ReadOnlyChannel() {
+            @Override
+            public void writeOutput(byte[] buffer) {
+                sent.write(buffer, 0, buffer.length);
+            }
+
+            @Override
+            public boolean isPrimary() {
+                return false;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ReadOnlyChannel channel = LineSubscription.fromParameters(parameters).subscribe(viewer);
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            byte[] chunk = new byte[Math.min(chunkSize, bytes.length - offset)];
+            System.arraycopy(bytes, offset, chunk, 0, chunk.length);
+            channel.writeOutput(chunk);
+        }
+        return new String(sent.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,61 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class MultiPatternMatcherTest {
+
+    @Test
+    public void shouldReportLongestPatternEndingAtEachPosition() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(Arrays.asList("he", "she", "his", "hers"));
+        byte[] input = "ushers".getBytes(StandardCharsets.UTF_8);
+        int[] expected = {0, 0, 0, 3, 0, 4};
+        int state = MultiPatternMatcher.ROOT;
+        for (int i = 0; i < input.length; i++) {
+            state = matcher.next(state, input[i]);
+            Assert.assertEquals("At " + i, expected[i], matcher.matchLength(state));
+        }
+    }
+
+    @Test
+    public void shouldMatchLikeContains() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<String> patterns = new ArrayList<>();
+            for (int i = 0; i < 1 + random.nextInt(10); i++) {
+                patterns.add(randomString(random, 1 + random.nextInt(4)));
+            }
+            MultiPatternMatcher matcher = MultiPatternMatcher.compile(patterns);
+            String input = randomString(random, 30);
+            byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+            int state = MultiPatternMatcher.ROOT;
+            for (int end = 1; end <= bytes.length; end++) {
+                state = matcher.next(state, bytes[end - 1]);
+                int longest = 0;
+                for (String pattern : patterns) {
+                    if (input.substring(0, end).endsWith(pattern)) {
+                        longest = Math.max(longest, pattern.length());
+                    }
+                }
+                Assert.assertEquals(patterns + " in " + input + " at " + end, longest, matcher.matchLength(state));
+            }
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(3)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class OutputDigestTest {
+
+    @Test
+    public void concurrentSessionsShouldHaveIndependentDigests() throws Exception {
+        OutputDispatcher dispatcher = new OutputDispatcher(16);
+        ExecutorService producers = Executors.newFixedThreadPool(4);
+        List<Future<Map<String, String>>> results = new ArrayList<>();
+        for (int session = 0; session < 4; session++) {
+            String prefix = "session " + session + " line ";
+            results.add(producers.submit(() -> {
+                OutputDigest outputDigest = dispatcher.openDigest(prefix);
+                for (int i = 0; i < 1000; i++) {
+                    outputDigest.add((prefix + i + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                Map<String, String> digests = outputDigest.digest();
+                dispatcher.releaseDigest(outputDigest);
+                return digests;
+            }));
+        }
+        for (int session = 0; session < 4; session++) {
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                expected.append("session ").append(session).append(" line ").append(i).append("\n");
+            }
+            Map<String, String> digests = results.get(session).get();
+            Assert.assertEquals(Arrays.asList("MD5", "SHA-256"), new ArrayList<>(digests.keySet()));
+            Assert.assertEquals(digest("MD5", expected.toString()), digests.get("MD5"));
+            Assert.assertEquals(digest("SHA-256", expected.toString()), digests.get("SHA-256"));
+        }
+        producers.shutdown();
+    }
+
+    @Test
+    public void shouldResetAfterDigest() throws IOException, NoSuchAlgorithmException {
+        OutputDispatcher dispatcher = new OutputDispatcher(16, new ScrollbackPool(0, 0), Arrays.asList("SHA-1"));
+        OutputDigest outputDigest = dispatcher.openDigest("ctx");
+        outputDigest.add("first".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(digest("SHA-1", "first"), outputDigest.digest().get("SHA-1"));
+        outputDigest.add("second".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(digest("SHA-1", "second"), outputDigest.digest().get("SHA-1"));
+    }
+
+    @Test
+    public void shouldAlwaysComputeLegacyChecksum() throws IOException, NoSuchAlgorithmException {
+        for (String algorithms : new String[] {"SHA-256", "md5,SHA-256"}) {
+            OutputDispatcher dispatcher = new OutputDispatcher(16, new ScrollbackPool(0, 0), Arrays.asList(algorithms.split(",")));
+            OutputDigest outputDigest = dispatcher.openDigest("ctx");
+            outputDigest.add("output".getBytes(StandardCharsets.UTF_8));
+            Map<String, String> digests = outputDigest.digest();
+            Assert.assertEquals(digest("MD5", "output"), digests.get(OutputDispatcher.LEGACY_CHECKSUM_ALGORITHM));
+            Assert.assertEquals(digest("SHA-256", "output"), digests.get("SHA-256"));
+            Assert.assertEquals(2, digests.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownAlgorithm() {
+        new OutputDispatcher(16, new ScrollbackPool(0, 0), Arrays.asList("NO-SUCH-DIGEST"));
+    }
+
+    private String digest(String algorithm, String content) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance(algorithm).digest(content.getBytes(StandardCharsets.UTF_8));
+        String hex = new BigInteger(1, digest).toString(16);
+        while (hex.length() < digest.length * 2) {
+            hex = "0" + hex;
+        }
+        return hex;
+    }
+}
@@ -0,0 +1,136 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.httpinvoker.CommandSession;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class ScrollbackBufferTest {
+
+    @Test
+    public void shouldReplayMostRecentOutput() {
+        ScrollbackPool pool = new ScrollbackPool(16, 1024);
+        ScrollbackBuffer buffer = pool.acquire("ctx");
+
+        buffer.append("0123456789".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("0123456789", replay(buffer));
+
+        buffer.append("abcdefghij".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("456789abcdefghij", replay(buffer));
+
+        buffer.append("ABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("KLMNOPQRSTUVWXYZ", replay(buffer));
+    }
+
+    @Test
+    public void shouldStartReplayAtCharacterBoundary() {
+        ScrollbackPool pool = new ScrollbackPool(8, 1024);
+        ScrollbackBuffer buffer = pool.acquire("ctx");
+
+        //each character is 3 bytes, the oldest retained byte is in the middle of a character
+        buffer.append("€€€€".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("€€", replay(buffer));
+    }
+
+    @Test
+    public void shouldReplayOnlyTheLastBytesFittingViewer() {
+        ScrollbackPool pool = new ScrollbackPool(16, 1024);
+        ScrollbackBuffer buffer = pool.acquire("ctx");
+
+        buffer.append("0123456789".getBytes(StandardCharsets.UTF_8));
+        CollectingChannel channel = new CollectingChannel();
+        buffer.replayTo(channel, 4);
+        Assert.assertEquals("6789", channel.content());
+
+        buffer.append("€€€".getBytes(StandardCharsets.UTF_8));
+        channel = new CollectingChannel();
+        buffer.replayTo(channel, 7);
+        Assert.assertEquals("€€", channel.content());
+    }
+
+    @Test
+    public void shouldCapTotalMemoryAndReuseBuffers() {
+        ScrollbackPool pool = new ScrollbackPool(1024, 2048);
+        ScrollbackBuffer first = pool.acquire("1");
+        ScrollbackBuffer second = pool.acquire("2");
+        Assert.assertNotNull(second);
+        Assert.assertNull(pool.acquire("3"));
+
+        first.append("old".getBytes(StandardCharsets.UTF_8));
+        pool.release(first);
+        ScrollbackBuffer reused = pool.acquire("4");
+        Assert.assertNotNull(reused);
+        Assert.assertEquals("", replay(reused));
+        Assert.assertEquals(2L, (long) pool.getCounters().get("allocatedBuffers"));
+        Assert.assertEquals(1L, (long) pool.getCounters().get("rejected"));
+    }
+
+    @Test
+    public void viewerShouldGetOutputWithoutGapOrDuplicate() throws Exception {
+        OutputDispatcher dispatcher = new OutputDispatcher(64, new ScrollbackPool(64 * 1024, 64 * 1024), OutputDispatcher.DEFAULT_DIGEST_ALGORITHMS);
+        CommandSession session = new CommandSession(Collections.emptySet(), dispatcher);
+
+        int lines = 20_000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < lines; i++) {
+                session.handleOutput((i + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        producer.start();
+        Thread.sleep(5);
+        CollectingChannel viewer = new CollectingChannel();
+        ReadOnlyChannel attached = session.attach(viewer);
+        producer.join();
+        attached.flush();
+
+        String[] received = viewer.content().split("\n");
+        //the first line may be cut by the ring
+        int first = Integer.parseInt(received[1]) - 1;
+        for (int i = 1; i < received.length; i++) {
+            Assert.assertEquals(String.valueOf(first + i), received[i]);
+        }
+        Assert.assertEquals(String.valueOf(lines - 1), received[received.length - 1]);
+        session.close();
+        dispatcher.close();
+    }
+
+    private String replay(ScrollbackBuffer buffer) {
+        CollectingChannel channel = new CollectingChannel();
+        buffer.replayTo(channel);
+        return channel.content();
+    }
+
+    private static class CollectingChannel implements ReadOnlyChannel {
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void writeOutput(byte[] buffer) {
+            received.write(buffer, 0, buffer.length);
+        }
+
+        synchronized String content() {
+            return new String(received.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public boolean isPrimary() {
+            return false;
+        }
+
+        @Override
+        public void flush() throws IOException {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
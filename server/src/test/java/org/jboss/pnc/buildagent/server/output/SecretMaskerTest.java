@@ -0,0 +1,125 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class SecretMaskerTest {
+
+    private static final Logger log = LoggerFactory.getLogger(SecretMaskerTest.class);
+
+    @Test
+    public void shouldMaskSecretsSplitAcrossChunks() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(Arrays.asList("s3cr3t", "t0k3n-value"));
+        String output = "login with s3cr3t\nexport TOKEN=t0k3n-value; echo s3cr\n";
+        for (int chunkSize : new int[] {1, 2, 5, 7, 1024}) {
+            Assert.assertEquals(
+                    "login with *****\nexport TOKEN=*****; echo s3cr\n",
+                    mask(matcher, output, chunkSize));
+        }
+    }
+
+    @Test
+    public void shouldMaskOverlappingAndAdjacentSecretsOnce() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(Arrays.asList("abcd", "cdef", "wxyz"));
+        for (int chunkSize : new int[] {1, 3, 1024}) {
+            Assert.assertEquals("1 *****, 2 *****.", mask(matcher, "1 abcdef, 2 abcdwxyz.", chunkSize));
+        }
+    }
+
+    @Test
+    public void shouldPassThroughOutputWithoutSecrets() {
+        SecretMasker masker = new SecretMasker(MultiPatternMatcher.compile(Collections.singletonList("secret")));
+        byte[] chunk = "nothing to hide\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertSame(chunk, masker.mask(chunk));
+
+        //the possible beginning of a secret is held until the next chunk or the drain
+        Assert.assertEquals("a ", new String(masker.mask("a sec".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+        Assert.assertEquals("sec", new String(masker.drain(), StandardCharsets.UTF_8));
+        Assert.assertEquals(0, masker.getMaskedSecrets());
+    }
+
+    @Test
+    public void shouldIgnoreShortSecrets() throws Exception {
+        try (OutputDispatcher outputDispatcher = new OutputDispatcher(16)) {
+            Assert.assertNull(outputDispatcher.openSecretMasker(Arrays.asList("abc", "")));
+            outputDispatcher.setSecrets(Collections.singletonList("password"));
+            SecretMasker masker = outputDispatcher.openSecretMasker(Collections.singletonList("token"));
+            byte[] masked = masker.mask("password token abc\n".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals("***** ***** abc\n", new String(masked, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void maskingBenchmark() {
+        Random random = new Random(7);
+        byte[] output = randomLines(random, 32 * 1024 * 1024);
+        for (int patterns : new int[] {1, 10, 100, 1000}) {
+            List<String> secrets = new ArrayList<>(patterns);
+            for (int i = 0; i < patterns; i++) {
+                secrets.add(randomWord(random, 12 + random.nextInt(20)));
+            }
+            MultiPatternMatcher matcher = MultiPatternMatcher.compile(secrets);
+            for (int run = 0; run < 3; run++) {
+                SecretMasker masker = new SecretMasker(matcher);
+                long started = System.nanoTime();
+                long written = 0;
+                for (int offset = 0; offset < output.length; offset += 4096) {
+                    written += masker.mask(Arrays.copyOfRange(output, offset, Math.min(offset + 4096, output.length))).length;
+                }
+                written += masker.drain().length;
+                long took = System.nanoTime() - started;
+                log.info("Patterns: {}, states: {}, masked {} MB in {} ms, {} MB/s, written {} bytes.",
+                        patterns,
+                        matcher.getStates(),
+                        output.length / (1024 * 1024),
+                        took / 1_000_000,
+                        output.length * 1000L / Math.max(1, took),
+                        written);
+            }
+        }
+    }
+
+    private static byte[] randomLines(Random random, int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        while (out.size() < size) {
+            byte[] line = ("[INFO] " + randomWord(random, 20 + random.nextInt(100)) + "\n").getBytes(StandardCharsets.UTF_8);
+            out.write(line, 0, line.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('0' + random.nextInt(75)));
+        }
+        return word.toString();
+    }
+
+    private static String mask(MultiPatternMatcher matcher, String output, int chunkSize) {
+        SecretMasker masker = new SecretMasker(matcher);
+        ByteArrayOutputStream masked = new ByteArrayOutputStream();
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            byte[] chunk = masker.mask(Arrays.copyOfRange(bytes, offset, Math.min(offset + chunkSize, bytes.length)));
+            masked.write(chunk, 0, chunk.length);
+        }
+        byte[] held = masker.drain();
+        masked.write(held, 0, held.length);
+        return new String(masked.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package org.jboss.pnc.buildagent.server.output;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class TerminalNoiseFilterTest {
+
+    private static final Logger log = LoggerFactory.getLogger(TerminalNoiseFilterTest.class);
+
+    @Test
+    public void shouldStripEscapeSequencesSplitAcrossChunks() {
+        String input = "\u001B[1;32mBUILD\u001B[0m SUCCESS\u0007\n"
+                + "\u001B]0;mvn install\u0007[INFO] done\u001B(B\n"
+                + "\u001BP1$r0m\u001B\\end\n";
+        Assert.assertEquals("BUILD SUCCESS\n[INFO] done\nend\n", filterInChunks(input, 1));
+        Assert.assertEquals("BUILD SUCCESS\n[INFO] done\nend\n", filterInChunks(input, 3));
+    }
+
+    @Test
+    public void shouldCollapseRedrawnLines() {
+        String input = "Downloading  10%\rDownloading  50%\rDownloading 100%\n"
+                + "\r\u001B[KProgress 1/3\r\u001B[KProgress 3/3\n"
+                + "long line\rshort\n";
+        String expected = "Downloading 100%\n"
+                + "Progress 3/3\n"
+                + "shortline\n";
+        Assert.assertEquals(expected, filterInChunks(input, 1));
+        Assert.assertEquals(expected, filterInChunks(input, 7));
+    }
+
+    @Test
+    public void shouldEraseWholeLine() {
+        String input = "downloading 100/200\r\u001B[2Kdone\n"
+                + "abc\u001B[2Kdef\n";
+        String expected = "done\n"
+                + "   def\n";
+        Assert.assertEquals(expected, filterInChunks(input, 1));
+        Assert.assertEquals(expected, filterInChunks(input, 5));
+    }
+
+    @Test
+    public void shouldEraseLineStartUpToCursor() {
+        String input = "downloading\r\u001B[1K\n"
+                + "progress 1/3\rx\u001B[1K\n";
+        String expected = " ownloading\n"
+                + "  ogress 1/3\n";
+        Assert.assertEquals(expected, filterInChunks(input, 1));
+        Assert.assertEquals(expected, filterInChunks(input, 6));
+    }
+
+    @Test
+    public void shouldKeepCrLfAndMultiByteCharacters() {
+        String input = "first\r\nsecond\r\nžluťoučký\rabc\n";
+        Assert.assertEquals("first\r\nsecond\r\nabcťoučký\n", filterInChunks(input, 1));
+    }
+
+    @Test
+    public void shouldHoldIncompleteLineUntilDrained() {
+        TerminalNoiseFilter filter = new TerminalNoiseFilter();
+        Assert.assertEquals(0, filter.filter("$ prompt".getBytes(StandardCharsets.UTF_8)).length);
+        Assert.assertEquals("$ prompt", new String(filter.drain(), StandardCharsets.UTF_8));
+        Assert.assertEquals(0, filter.drain().length);
+    }
+
+    @Test
+    public void shouldSplitTooLongLine() {
+        TerminalNoiseFilter filter = new TerminalNoiseFilter(4);
+        byte[] filtered = filter.filter("abcdefghij\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("abcdefghij\n", new String(filtered, StandardCharsets.UTF_8));
+    }
+
+    @Test @Ignore //benchmark, inspect the log
+    public void filterBenchmark() {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            if (i % 10 == 0) {
+                for (int percent = 0; percent <= 100; percent += 5) {
+                    output.append("\r\u001B[K\u001B[1mProgress (1): ").append(percent).append("% of 2.3 MB\u001B[0m");
+                }
+                output.append('\n');
+            } else {
+                output.append("[\u001B[34mINFO\u001B[m] Compiling ").append(i).append(" source files to target/classes\n");
+            }
+        }
+        byte[] input = output.toString().getBytes(StandardCharsets.UTF_8);
+        int chunkSize = 4096;
+        for (int round = 0; round < 5; round++) {
+            TerminalNoiseFilter filter = new TerminalNoiseFilter();
+            long started = System.nanoTime();
+            for (int offset = 0; offset < input.length; offset += chunkSize) {
+                byte[] chunk = new byte[Math.min(chunkSize, input.length - offset)];
+                System.arraycopy(input, offset, chunk, 0, chunk.length);
+                filter.filter(chunk);
+            }
+            filter.drain();
+            long took = System.nanoTime() - started;
+            log.info("Filtered {} bytes to {} bytes ({}% saved) in {} ms, {} MB/s.",
+                    filter.getInputBytes(),
+                    filter.getOutputBytes(),
+                    100 - filter.getOutputBytes() * 100 / filter.getInputBytes(),
+                    took / 1_000_000,
+                    input.length * 1000L / Math.max(1, took));
+        }
+    }
+
+    private static String filterInChunks(String input, int chunkSize) {
+        TerminalNoiseFilter filter = new TerminalNoiseFilter();
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            byte[] chunk = new byte[Math.min(chunkSize, bytes.length - offset)];
+            System.arraycopy(bytes, offset, chunk, 0, chunk.length);
+            byte[] filtered = filter.filter(chunk);
+            out.write(filtered, 0, filtered.length);
+        }
+        byte[] held = filter.drain();
+        out.write(held, 0, held.length);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+package org.jboss.pnc.buildagent.server.servlet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class DownloadTest {
+
+    @Test
+    public void shouldParseSingleRange() {
+        assertRange(0, 99, Download.parseRange("bytes=0-99", 1000));
+        assertRange(500, 999, Download.parseRange("bytes=500-", 1000));
+        //the end past the file is clamped
+        assertRange(900, 999, Download.parseRange("bytes=900-5000", 1000));
+    }
+
+    @Test
+    public void shouldParseSuffixRange() {
+        assertRange(800, 999, Download.parseRange("bytes=-200", 1000));
+        //a suffix longer than the file is the whole file
+        assertRange(0, 999, Download.parseRange("bytes=-5000", 1000));
+        Assert.assertEquals(0, Download.parseRange("bytes=-0", 1000).length);
+        Assert.assertEquals(0, Download.parseRange("bytes=-10", 0).length);
+    }
+
+    @Test
+    public void shouldRejectRangeOutOfFile() {
+        Assert.assertEquals(0, Download.parseRange("bytes=1000-", 1000).length);
+        Assert.assertEquals(0, Download.parseRange("bytes=2000-3000", 1000).length);
+    }
+
+    @Test
+    public void shouldIgnoreUnsupportedRanges() {
+        Assert.assertNull(Download.parseRange(null, 1000));
+        Assert.assertNull(Download.parseRange("bytes=0-9,20-29", 1000));
+        Assert.assertNull(Download.parseRange("items=0-9", 1000));
+        Assert.assertNull(Download.parseRange("bytes=abc", 1000));
+        Assert.assertNull(Download.parseRange("bytes=9-0", 1000));
+        Assert.assertNull(Download.parseRange("bytes=x-9", 1000));
+    }
+
+    private static void assertRange(long start, long end, long[] range) {
+        Assert.assertNotNull(range);
+        Assert.assertEquals(2, range.length);
+        Assert.assertEquals(start, range[0]);
+        Assert.assertEquals(end, range[1]);
+    }
+}
@@ -0,0 +1,208 @@
+package org.jboss.pnc.buildagent.server.sessionlog;
+
+import org.jboss.pnc.buildagent.common.StringUtils;
+import org.jboss.pnc.buildagent.server.Options;
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.output.FileDurability;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class SessionLogsTest {
+
+    @Test
+    public void shouldWriteEachSessionToItsOwnCompressedLog() throws IOException {
+        Path folder = Files.createTempDirectory("sessions");
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+        SessionLogs sessionLogs = new SessionLogs(folder, options(), scheduler);
+
+        ReadOnlyChannel first = sessionLogs.open("session-1");
+        ReadOnlyChannel second = sessionLogs.open("/session/2");
+        StringBuilder expectedFirst = new StringBuilder();
+        StringBuilder expectedSecond = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            expectedFirst.append("first ").append(i).append("\n");
+            first.writeOutput(("first " + i + "\n").getBytes(StandardCharsets.UTF_8));
+            expectedSecond.append("second ").append(i).append("\n");
+            second.writeOutput(("second " + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        first.close();
+        second.close();
+        sessionLogs.close();
+
+        Assert.assertEquals(expectedFirst.toString(), gunzip(folder.resolve("session-1.log.1.gz")));
+        Assert.assertEquals(expectedSecond.toString(), gunzip(folder.resolve(StringUtils.toFileName("/session/2") + ".log.2.gz")));
+        Assert.assertFalse(Files.exists(folder.resolve("session-1.log")));
+        Assert.assertFalse(Files.exists(folder.resolve("session-1.log.1")));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldRotateBySizeAndRecoverAfterRestart() throws IOException {
+        Path folder = Files.createTempDirectory("sessions");
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+        Options options = options();
+        options.setSessionLogRotateBytes(1000);
+        SessionLogs sessionLogs = new SessionLogs(folder, options, scheduler);
+
+        ReadOnlyChannel channel = sessionLogs.open("build");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            channel.writeOutput(line.getBytes(StandardCharsets.UTF_8));
+        }
+        channel.flush();
+        //not closed, as if the agent was killed
+        sessionLogs.close();
+
+        sessionLogs = new SessionLogs(folder, options, scheduler);
+        sessionLogs.close();
+        StringBuilder content = new StringBuilder();
+        List<Path> parts = new ArrayList<>();
+        for (int part = 1; part < 1000; part++) {
+            Path path = folder.resolve("build.log." + part + ".gz");
+            if (Files.exists(path)) {
+                parts.add(path);
+            }
+        }
+        Assert.assertTrue(parts.size() > 5);
+        Assert.assertEquals(parts.size(), Files.list(folder).count());
+        for (Path part : parts) {
+            content.append(gunzip(part));
+        }
+        Assert.assertEquals(expected.toString(), content.toString());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldDeleteOldestCompressedLogsOverBudget() throws IOException, InterruptedException {
+        Path folder = Files.createTempDirectory("sessions");
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+        Options options = options();
+        options.setSessionLogDiskBudgetBytes(2000);
+        SessionLogs sessionLogs = new SessionLogs(folder, options, scheduler);
+
+        java.util.Random random = new java.util.Random(1);
+        for (int session = 0; session < 10; session++) {
+            ReadOnlyChannel channel = sessionLogs.open("session-" + session);
+            byte[] incompressible = new byte[1000];
+            random.nextBytes(incompressible);
+            channel.writeOutput(incompressible);
+            channel.close();
+            Thread.sleep(20); //distinct modification times
+        }
+        sessionLogs.close();
+
+        long total = 0;
+        for (Path file : Files.list(folder).toArray(Path[]::new)) {
+            total += Files.size(file);
+        }
+        Assert.assertTrue("Total " + total, total <= 2000);
+        Assert.assertTrue(Files.exists(folder.resolve("session-9.log.10.gz")));
+        Assert.assertFalse(Files.exists(folder.resolve("session-0.log.1.gz")));
+    }
+
+    @Test
+    public void shouldBoundOpenFilesWithManySessions() throws IOException {
+        Path folder = Files.createTempDirectory("sessions");
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+        Options options = options();
+        options.setSessionLogMaxOpenFiles(8);
+        SessionLogs sessionLogs = new SessionLogs(folder, options, scheduler);
+
+        List<ReadOnlyChannel> channels = new ArrayList<>();
+        for (int session = 0; session < 300; session++) {
+            channels.add(sessionLogs.open("session-" + session));
+        }
+        for (int round = 0; round < 3; round++) {
+            for (ReadOnlyChannel channel : channels) {
+                channel.writeOutput(("round " + round + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Assert.assertTrue(sessionLogs.getCounters().toString(), sessionLogs.getCounters().get("openFiles") <= 8);
+        for (ReadOnlyChannel channel : channels) {
+            channel.close();
+        }
+        sessionLogs.close();
+        Assert.assertEquals("round 0\nround 1\nround 2\n", gunzip(folder.resolve("session-123.log.124.gz")));
+        Assert.assertEquals(0L, (long) sessionLogs.getCounters().get("openFiles"));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldKeepContextsDifferingInReplacedCharactersApart() throws IOException {
+        Path folder = Files.createTempDirectory("sessions");
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+        SessionLogs sessionLogs = new SessionLogs(folder, options(), scheduler);
+
+        ReadOnlyChannel slash = sessionLogs.open("a/b");
+        ReadOnlyChannel underscore = sessionLogs.open("a_b");
+        slash.writeOutput("slash\n".getBytes(StandardCharsets.UTF_8));
+        underscore.writeOutput("underscore\n".getBytes(StandardCharsets.UTF_8));
+        slash.close();
+        underscore.close();
+        sessionLogs.close();
+
+        Assert.assertEquals("slash\n", gunzip(folder.resolve(StringUtils.toFileName("a/b") + ".log.1.gz")));
+        Assert.assertEquals("underscore\n", gunzip(folder.resolve("a_b.log.2.gz")));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldShareOnePeriodicFsyncTask() throws IOException {
+        Path folder = Files.createTempDirectory("sessions");
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        Options options = options();
+        options.setFileDurability(FileDurability.PERIODIC);
+        options.setFileFsyncIntervalMillis(60000);
+        SessionLogs sessionLogs = new SessionLogs(folder, options, scheduler);
+
+        List<ReadOnlyChannel> channels = new ArrayList<>();
+        for (int session = 0; session < 100; session++) {
+            ReadOnlyChannel channel = sessionLogs.open("session-" + session);
+            channel.writeOutput("line\n".getBytes(StandardCharsets.UTF_8));
+            channels.add(channel);
+        }
+        Assert.assertEquals(1, scheduler.getQueue().size());
+        for (ReadOnlyChannel channel : channels) {
+            channel.close();
+        }
+        sessionLogs.close();
+        scheduler.purge();
+        Assert.assertEquals(0, scheduler.getQueue().size());
+        scheduler.shutdown();
+    }
+
+    private static Options options() {
+        Options options = new Options("localhost", 1, "", false, true, 0, 0, "");
+        options.setFileMaxDelayMillis(0);
+        return options;
+    }
+
+    private static String gunzip(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
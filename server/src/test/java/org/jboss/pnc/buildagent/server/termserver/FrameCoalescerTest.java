@@ -0,0 +1,92 @@
+package org.jboss.pnc.buildagent.server.termserver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Predicate;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class FrameCoalescerTest {
+
+    private static final Predicate<byte[]> PROMPT = chunk -> "% ".equals(new String(chunk, StandardCharsets.UTF_8));
+
+    @Test
+    public void shouldMergeChunksUpToMaxFrameSize() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        List<byte[]> frames = new CopyOnWriteArrayList<>();
+        FrameCoalescer coalescer = new FrameCoalescer(1024, 60_000, scheduler, PROMPT, frames::add);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String chunk = "line " + i + "\n";
+            expected.append(chunk);
+            coalescer.write(chunk.getBytes(StandardCharsets.UTF_8));
+        }
+        coalescer.flush();
+
+        Assert.assertEquals(expected.toString(), join(frames));
+        Assert.assertTrue("Expected merged frames, got " + frames.size(), frames.size() < 20);
+        for (int i = 0; i < frames.size() - 1; i++) {
+            Assert.assertTrue(frames.get(i).length >= 1024);
+            Assert.assertTrue(frames.get(i).length < 1024 + 10);
+        }
+        Assert.assertEquals(1000L, (long) coalescer.getCounters().get("chunks"));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldFlushAfterMaxDelay() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        List<byte[]> frames = new CopyOnWriteArrayList<>();
+        FrameCoalescer coalescer = new FrameCoalescer(16 * 1024, 20, scheduler, PROMPT, frames::add);
+
+        coalescer.write("a".getBytes(StandardCharsets.UTF_8));
+        coalescer.write("b".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(0, frames.size());
+        long waitUntil = System.currentTimeMillis() + 2000;
+        while (frames.isEmpty() && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals("ab", join(frames));
+        Assert.assertEquals(1L, (long) coalescer.getCounters().get("timerFlushes"));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldFlushImmediatelyOnPrompt() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        List<byte[]> frames = new CopyOnWriteArrayList<>();
+        FrameCoalescer coalescer = new FrameCoalescer(16 * 1024, 60_000, scheduler, PROMPT, frames::add);
+
+        coalescer.write("output\n".getBytes(StandardCharsets.UTF_8));
+        coalescer.write("% ".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals("output\n% ", join(frames));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldPassThroughWhenDisabled() {
+        List<byte[]> frames = new CopyOnWriteArrayList<>();
+        FrameCoalescer coalescer = new FrameCoalescer(16 * 1024, 0, null, PROMPT, frames::add);
+
+        byte[] chunk = "a".getBytes(StandardCharsets.UTF_8);
+        coalescer.write(chunk);
+        Assert.assertSame(chunk, frames.get(0));
+    }
+
+    private String join(List<byte[]> frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frames.forEach(f -> out.write(f, 0, f.length));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
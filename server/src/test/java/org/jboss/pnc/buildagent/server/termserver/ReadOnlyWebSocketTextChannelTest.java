@@ -0,0 +1,67 @@
+package org.jboss.pnc.buildagent.server.termserver;
+
+import io.undertow.websockets.core.WebSocketCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class ReadOnlyWebSocketTextChannelTest {
+
+    @Test
+    public void shouldSendUnterminatedLineOnFlush() throws Exception {
+        List<String> messages = new ArrayList<>();
+        List<String> calls = new ArrayList<>();
+        ReadOnlyWebSocketTextChannel channel = channel(messages, calls);
+
+        channel.writeOutput(bytes("first\nsecond 家"));
+        Assert.assertEquals(Arrays.asList("first"), messages);
+        channel.flush();
+        Assert.assertEquals(Arrays.asList("first", "second 家"), messages);
+        Assert.assertEquals(Arrays.asList("flush"), calls);
+
+        channel.flush();
+        Assert.assertEquals(2, messages.size());
+    }
+
+    @Test
+    public void shouldSendUnterminatedLineBeforeClose() throws Exception {
+        List<String> messages = new ArrayList<>();
+        List<String> calls = new ArrayList<>();
+        ReadOnlyWebSocketTextChannel channel = channel(messages, calls);
+
+        channel.writeOutput(bytes("a\r\nb"));
+        channel.writeOutput(bytes("c"));
+        channel.close();
+        Assert.assertEquals(Arrays.asList("a", "bc"), messages);
+        Assert.assertEquals(Arrays.asList("close"), calls);
+    }
+
+    private static ReadOnlyWebSocketTextChannel channel(List<String> messages, List<String> calls) {
+        ViewerSendBuffer.Transport transport = new ViewerSendBuffer.Transport() {
+            @Override
+            public void send(ByteBuffer frame, WebSocketCallback<Void> callback) {
+                messages.add(StandardCharsets.UTF_8.decode(frame).toString());
+                callback.complete(null, null);
+            }
+
+            @Override
+            public void close(String reason) {
+                calls.add("close " + reason);
+            }
+        };
+        ViewerSendBuffer sendBuffer = new ViewerSendBuffer(transport, OverflowPolicy.DISCONNECT, 1024, "[%d]");
+        return new ReadOnlyWebSocketTextChannel(sendBuffer, () -> calls.add("flush"), () -> calls.add("close"));
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,218 @@
+package org.jboss.pnc.buildagent.server.termserver;
+
+import io.undertow.websockets.core.WebSocketCallback;
+import org.jboss.pnc.buildagent.server.Options;
+import org.jboss.pnc.buildagent.server.ReadOnlyChannel;
+import org.jboss.pnc.buildagent.server.output.ScrollbackBuffer;
+import org.jboss.pnc.buildagent.server.output.ScrollbackPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author <a href="mailto:matejonnet@gmail.com">Matej Lazar</a>
+ */
+public class ViewerSendBufferTest {
+
+    private static final int FRAME_SIZE = 16 * 1024;
+    private static final long MAX_BUFFERED = 8 * FRAME_SIZE;
+
+    @Test
+    public void shouldDropOldestFramesOfStalledViewer() {
+        StalledTransport transport = new StalledTransport();
+        ViewerSendBuffer buffer = new ViewerSendBuffer(transport, OverflowPolicy.DROP_OLDEST, MAX_BUFFERED, "[%d]");
+
+        for (int i = 0; i < 100; i++) {
+            buffer.send(frame(i));
+        }
+        Map<String, Long> counters = buffer.getCounters();
+        Assert.assertTrue(counters.get("pendingBytes") + counters.get("inFlightBytes") <= MAX_BUFFERED);
+        Assert.assertEquals(100 * FRAME_SIZE, counters.get("sentBytes") + counters.get("pendingBytes") + counters.get("droppedBytes"));
+
+        transport.completeAll();
+        //the first window was already handed to the websocket, the newest frames are kept
+        Assert.assertEquals(0, transport.firstByteOf(0));
+        Assert.assertEquals(99, transport.firstByteOf(transport.sent.size() - 1));
+        Assert.assertEquals(0L, (long) buffer.getCounters().get("pendingBytes"));
+        Assert.assertEquals(0L, (long) buffer.getCounters().get("inFlightBytes"));
+    }
+
+    @Test
+    public void shouldCoalesceFramesIntoSkippedMarker() {
+        StalledTransport transport = new StalledTransport();
+        ViewerSendBuffer buffer = new ViewerSendBuffer(transport, OverflowPolicy.COALESCE, MAX_BUFFERED, "[skipped %d]");
+
+        for (int i = 0; i < 9; i++) {
+            buffer.send(frame(i));
+        }
+        buffer.send(frame(9));
+        transport.completeAll();
+
+        long skipped = buffer.getCounters().get("droppedBytes");
+        Assert.assertTrue(skipped > 0);
+        Assert.assertEquals(1L, (long) buffer.getCounters().get("skippedMarkers"));
+        List<String> markers = new ArrayList<>();
+        for (ByteBuffer frame : transport.sent) {
+            if (frame.remaining() != FRAME_SIZE) {
+                markers.add(StandardCharsets.UTF_8.decode(frame.duplicate()).toString());
+            }
+        }
+        Assert.assertEquals("[skipped " + skipped + "]", markers.get(0));
+        Assert.assertEquals(1, markers.size());
+
+        buffer.send(frame(10));
+        transport.completeAll();
+        Assert.assertEquals(10, transport.firstByteOf(transport.sent.size() - 1));
+    }
+
+    @Test
+    public void shouldDisconnectStalledViewer() {
+        StalledTransport transport = new StalledTransport();
+        ViewerSendBuffer buffer = new ViewerSendBuffer(transport, OverflowPolicy.DISCONNECT, MAX_BUFFERED, "[%d]");
+
+        for (int i = 0; i < 100; i++) {
+            buffer.send(frame(i));
+        }
+        Assert.assertTrue(transport.closed);
+        Assert.assertEquals(1L, (long) buffer.getCounters().get("disconnects"));
+        Assert.assertEquals(0L, (long) buffer.getCounters().get("pendingBytes"));
+    }
+
+    @Test
+    public void shouldNotLoseFramesOfViewerKeepingUp() {
+        List<ByteBuffer> sent = new ArrayList<>();
+        ViewerSendBuffer.Transport transport = new ViewerSendBuffer.Transport() {
+            @Override
+            public void send(ByteBuffer frame, WebSocketCallback<Void> callback) {
+                sent.add(frame);
+                callback.complete(null, null);
+            }
+
+            @Override
+            public void close(String reason) {
+                Assert.fail("Should not disconnect.");
+            }
+        };
+        ViewerSendBuffer buffer = new ViewerSendBuffer(transport, OverflowPolicy.DISCONNECT, MAX_BUFFERED, "[%d]");
+        for (int i = 0; i < 1000; i++) {
+            buffer.send(frame(i));
+        }
+        Assert.assertEquals(1000, sent.size());
+        Assert.assertEquals(0L, (long) buffer.getCounters().get("droppedFrames"));
+    }
+
+    @Test
+    public void shouldCompleteCallbackOfOtherThreadWhileSending() throws InterruptedException {
+        List<Thread> callbackThreads = new ArrayList<>();
+        ViewerSendBuffer.Transport transport = new ViewerSendBuffer.Transport() {
+            @Override
+            public void send(ByteBuffer frame, WebSocketCallback<Void> callback) {
+                //the io thread completes the callback while the sending thread waits for it
+                Thread callbackThread = new Thread(() -> callback.complete(null, null));
+                callbackThreads.add(callbackThread);
+                callbackThread.start();
+                try {
+                    callbackThread.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void close(String reason) {
+                Assert.fail("Should not disconnect.");
+            }
+        };
+        ViewerSendBuffer buffer = new ViewerSendBuffer(transport, OverflowPolicy.DISCONNECT, MAX_BUFFERED, "[%d]");
+        for (int i = 0; i < 10; i++) {
+            buffer.send(frame(i));
+        }
+        for (Thread callbackThread : callbackThreads) {
+            Assert.assertFalse("Callback is blocked by the sending thread.", callbackThread.isAlive());
+        }
+        Assert.assertEquals(10, callbackThreads.size());
+        Assert.assertEquals(0L, (long) buffer.getCounters().get("inFlightBytes"));
+    }
+
+    @Test
+    public void shouldReplayScrollbackLargerThanViewerBufferWithoutOverflow() {
+        Options options = new Options("localhost", 1, "", false, true, 0, 0, "");
+        options.setViewerMaxBufferedBytes(MAX_BUFFERED);
+        ScrollbackBuffer scrollback = new ScrollbackPool((int) (4 * MAX_BUFFERED), 4 * MAX_BUFFERED).acquire("ctx");
+        for (int i = 0; i < 16; i++) {
+            scrollback.append(frame(i));
+        }
+
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            StalledTransport transport = new StalledTransport();
+            ViewerSendBuffer buffer = new ViewerSendBuffer(transport, policy, MAX_BUFFERED, "[%d]");
+            ReadOnlyChannel viewer = new ReadOnlyChannel() {
+                @Override
+                public void writeOutput(byte[] bytes) {
+                    buffer.send(bytes);
+                }
+
+                @Override
+                public boolean isPrimary() {
+                    return false;
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            scrollback.replayTo(viewer, Term.maxReplayBytes(options));
+            //the live output fits the rest of the buffer
+            buffer.send(frame(16));
+
+            Map<String, Long> counters = buffer.getCounters();
+            Assert.assertFalse(policy.name(), transport.closed);
+            Assert.assertEquals(policy.name(), 0L, (long) counters.get("droppedBytes"));
+            Assert.assertEquals(policy.name(), MAX_BUFFERED / 2 + FRAME_SIZE, counters.get("pendingBytes") + counters.get("inFlightBytes"));
+            transport.completeAll();
+            Assert.assertEquals(policy.name(), 16, transport.firstByteOf(transport.sent.size() - 1));
+        }
+    }
+
+    private byte[] frame(int id) {
+        byte[] bytes = new byte[FRAME_SIZE];
+        bytes[0] = (byte) id;
+        return bytes;
+    }
+
+    private static class StalledTransport implements ViewerSendBuffer.Transport {
+        private final List<ByteBuffer> sent = new ArrayList<>();
+        private final List<WebSocketCallback<Void>> callbacks = new ArrayList<>();
+        private boolean closed;
+
+        @Override
+        public void send(ByteBuffer frame, WebSocketCallback<Void> callback) {
+            sent.add(frame);
+            callbacks.add(callback);
+        }
+
+        @Override
+        public void close(String reason) {
+            closed = true;
+        }
+
+        void completeAll() {
+            for (int i = 0; i < callbacks.size(); i++) {
+                callbacks.get(i).complete(null, null);
+            }
+        }
+
+        int firstByteOf(int index) {
+            return sent.get(index).get(0);
+        }
+    }
+}